@@ -26,6 +26,8 @@
  * etc. depending of the implementation and configuration.
  * <p>
  * You can create a new cache using the {@link CacheFactory} component.
+ * <p>
+ * The caches created by the provided implementations also implement {@link LoadingCache}.
  * 
  * @param <T> the class of the data stored in the cache.
  * @version $Id$
@@ -83,6 +85,12 @@
      */
     void removeCacheEntryListener(CacheEntryListener<T> listener);
 
+    /**
+     * @return the statistics about the use of this cache
+     * @since 4.0M1
+     */
+    CacheStatistics getStatistics();
+
     /**
      * Release all the resources this cache use.
      */
@@ -0,0 +1,51 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Load the values missing from a {@link LoadingCache}.
+ * 
+ * @param <T> the class of the data stored in the cache.
+ * @version $Id$
+ * @see LoadingCache#get(String, CacheLoader)
+ * @since 4.0M1
+ */
+public interface CacheLoader<T>
+{
+    /**
+     * @param key the key of the value to load
+     * @return the value associated with the provided key, or null if there is no value
+     * @throws Exception when failing to load the value
+     */
+    T load(String key) throws Exception;
+
+    /**
+     * Load several values at once, which is generally more efficient than loading them one by one.
+     * 
+     * @param keys the keys of the values to load
+     * @return the loaded values, indexed by key (the keys without value are not in the map)
+     * @throws Exception when failing to load the values
+     * @see org.xwiki.cache.util.AbstractCacheLoader
+     */
+    Map<String, T> loadAll(Collection<String> keys) throws Exception;
+}
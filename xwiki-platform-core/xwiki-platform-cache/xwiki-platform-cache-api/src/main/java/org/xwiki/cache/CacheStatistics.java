@@ -0,0 +1,71 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache;
+
+/**
+ * Statistics about the use of a {@link Cache}, to help choosing its capacity.
+ * 
+ * @version $Id$
+ * @see Cache#getStatistics()
+ * @since 4.0M1
+ */
+public interface CacheStatistics
+{
+    /**
+     * @return the number of times a value has been found in the cache
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of times a value has been looked for in the cache and not found
+     */
+    long getMissCount();
+
+    /**
+     * @return the proportion of the lookups which found a value, between 0 and 1
+     */
+    double getHitRatio();
+
+    /**
+     * @return the number of values loaded with a {@link CacheLoader}
+     */
+    long getLoadCount();
+
+    /**
+     * @return the number of milliseconds spent loading values with a {@link CacheLoader}
+     */
+    long getTotalLoadTime();
+
+    /**
+     * @return the number of entries removed from the cache to make room for new ones
+     */
+    long getEvictionCount();
+
+    /**
+     * @return the number of entries currently in the cache, -1 if the cache implementation can't tell
+     */
+    long getSize();
+
+    /**
+     * @return the estimated number of bytes used by the entries of the cache, -1 if the cache implementation can't
+     *         estimate it
+     */
+    long getEstimatedMemory();
+}
@@ -0,0 +1,57 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache;
+
+import java.util.Map;
+
+import org.xwiki.component.annotation.ComponentRole;
+
+/**
+ * Keep track of the statistics of the caches in use, so that they can be monitored (through JMX or scripts for
+ * example).
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+@ComponentRole
+public interface CacheStatisticsRegistry
+{
+    /**
+     * Register the statistics of a cache.
+     * 
+     * @param name the name of the cache (generally its configuration identifier), can be null
+     * @param statistics the statistics of the cache
+     * @return the name the statistics have been registered with, made unique if another cache with the same name is
+     *         already registered
+     */
+    String register(String name, CacheStatistics statistics);
+
+    /**
+     * Unregister the statistics of a cache, generally because the cache has been disposed.
+     * 
+     * @param name the name returned by {@link #register(String, CacheStatistics)}
+     */
+    void unregister(String name);
+
+    /**
+     * @return the statistics of the registered caches, indexed by name
+     */
+    Map<String, CacheStatistics> getStatistics();
+}
@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A {@link Cache} able to load its missing values. The caches created by the provided implementations implement it
+ * through {@link org.xwiki.cache.util.AbstractCache}, which provides these methods on top of {@link #get(String)} and
+ * {@link #set(String, Object)}.
+ * 
+ * @param <T> the class of the data stored in the cache.
+ * @version $Id$
+ * @since 4.0M1
+ */
+public interface LoadingCache<T> extends Cache<T>
+{
+    /**
+     * Get the value associated with the provided key, loading and storing it in the cache if it's missing. The
+     * concurrent loads of the same key are done only once: the other threads wait for the result of the load in
+     * progress instead of loading the value again.
+     * 
+     * @param key the key used to access the value in the cache.
+     * @param loader the loader used when the value is missing.
+     * @return the value associated with the provided key, or null if there is no value.
+     * @throws CacheException when failing to load the value.
+     */
+    T get(String key, CacheLoader<T> loader) throws CacheException;
+
+    /**
+     * Get the values associated with the provided keys, loading all the missing ones at once with
+     * {@link CacheLoader#loadAll(Collection)}. Like with {@link #get(String, CacheLoader)} the keys already being
+     * loaded by another thread are not loaded again.
+     * 
+     * @param keys the keys used to access the values in the cache.
+     * @param loader the loader used for the missing values.
+     * @return the values associated with the provided keys (the keys without value are not in the map).
+     * @throws CacheException when failing to load the values.
+     */
+    Map<String, T> getAll(Collection<String> keys, CacheLoader<T> loader) throws CacheException;
+
+    /**
+     * Load again the value associated with the provided key and replace the cached one. The current value keeps being
+     * returned by {@link #get(String)} until the new one is loaded, so a value can be refreshed before it expires
+     * without making the threads using it wait. Does nothing if the value is already being loaded.
+     * 
+     * @param key the key used to access the value in the cache.
+     * @param loader the loader used to load the new value.
+     * @throws CacheException when failing to load the value.
+     */
+    void refresh(String key, CacheLoader<T> loader) throws CacheException;
+}
@@ -0,0 +1,39 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.eviction;
+
+/**
+ * Estimate the weight of the cache entries, generally the number of bytes they use in memory, so that the memory used
+ * by a cache can be bounded with {@link LRUEvictionConfiguration#setMaxWeight(long)}.
+ * 
+ * @param <T> the class of the data stored in the cache.
+ * @version $Id$
+ * @see org.xwiki.cache.util.DefaultEntryWeigher
+ * @since 4.0M1
+ */
+public interface EntryWeigher<T>
+{
+    /**
+     * @param key the key of the entry
+     * @param value the value of the entry
+     * @return the weight of the entry, must be positive
+     */
+    long weigh(String key, T value);
+}
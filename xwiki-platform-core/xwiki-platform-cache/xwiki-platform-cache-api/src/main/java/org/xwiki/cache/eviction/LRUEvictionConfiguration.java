@@ -32,6 +32,20 @@ public class LRUEvictionConfiguration extends EntryEvictionConfiguration
      */
     public static final String MAXENTRIES_ID = "maxentries";
 
+    /**
+     * The key to access the maximum weight of the entries the cache can contain.
+     * 
+     * @since 4.0M1
+     */
+    public static final String MAXWEIGHT_ID = "maxweight";
+
+    /**
+     * The key to access the {@link EntryWeigher} used to estimate the weight of the entries.
+     * 
+     * @since 4.0M1
+     */
+    public static final String WEIGHER_ID = "weigher";
+
     /**
      * Create a new EntryEvictionConfiguration based on LRU algorithm.
      */
@@ -57,4 +71,45 @@ public int getMaxEntries()
 
         return obj == null ? 0 : (Integer) get(MAXENTRIES_ID);
     }
+
+    /**
+     * Bound the total weight of the cache entries (generally their size in bytes) instead of, or in addition to, their
+     * number. The weight of the entries is estimated with the configured {@link EntryWeigher}.
+     * 
+     * @param maxWeight the maximum weight of the entries the cache can contain.
+     * @since 4.0M1
+     */
+    public void setMaxWeight(long maxWeight)
+    {
+        put(MAXWEIGHT_ID, maxWeight);
+    }
+
+    /**
+     * @return the maximum weight of the entries the cache can contain, 0 if it's not limited.
+     * @since 4.0M1
+     */
+    public long getMaxWeight()
+    {
+        Object obj = get(MAXWEIGHT_ID);
+
+        return obj == null ? 0 : ((Number) obj).longValue();
+    }
+
+    /**
+     * @param weigher the component used to estimate the weight of the entries.
+     * @since 4.0M1
+     */
+    public void setWeigher(EntryWeigher< ? > weigher)
+    {
+        put(WEIGHER_ID, weigher);
+    }
+
+    /**
+     * @return the component used to estimate the weight of the entries, null if none has been set.
+     * @since 4.0M1
+     */
+    public EntryWeigher< ? > getWeigher()
+    {
+        return (EntryWeigher< ? >) get(WEIGHER_ID);
+    }
 }
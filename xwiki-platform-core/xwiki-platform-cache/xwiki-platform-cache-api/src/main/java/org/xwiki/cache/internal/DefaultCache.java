@@ -19,8 +19,16 @@
  */
 package org.xwiki.cache.internal;
 
+import java.util.Collection;
+import java.util.Map;
+
 import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheLoader;
+import org.xwiki.cache.CacheStatistics;
+import org.xwiki.cache.LoadingCache;
 import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.cache.util.AbstractCacheStatistics;
 
 /**
  * Default implementation of {@link Cache}. Does not really store anything and always return null when trying to get a
@@ -29,8 +37,20 @@
  * @param <T> the class of the data stored in the cache.
  * @version $Id$
  */
-public class DefaultCache<T> implements Cache<T>
+public class DefaultCache<T> implements LoadingCache<T>
 {
+    /**
+     * The statistics of the cache, which stay empty since nothing is cached.
+     */
+    private final CacheStatistics statistics = new AbstractCacheStatistics()
+    {
+        @Override
+        public long getSize()
+        {
+            return 0;
+        }
+    };
+
     @Override
     public void remove(String key)
     {
@@ -49,6 +69,33 @@ public T get(String key)
         return null;
     }
 
+    @Override
+    public T get(String key, CacheLoader<T> loader) throws CacheException
+    {
+        try {
+            return loader.load(key);
+        } catch (Exception e) {
+            throw new CacheException("Failed to load the value associated with key [" + key + "]", e);
+        }
+    }
+
+    @Override
+    public Map<String, T> getAll(Collection<String> keys, CacheLoader<T> loader) throws CacheException
+    {
+        try {
+            return loader.loadAll(keys);
+        } catch (Exception e) {
+            throw new CacheException("Failed to load the values associated with keys " + keys, e);
+        }
+    }
+
+    @Override
+    public void refresh(String key, CacheLoader<T> loader) throws CacheException
+    {
+        // Nothing is stored but the loader is still called, to report its errors like the other implementations
+        get(key, loader);
+    }
+
     @Override
     public void removeAll()
     {
@@ -67,6 +114,12 @@ public void removeCacheEntryListener(CacheEntryListener<T> listener)
 
     }
 
+    @Override
+    public CacheStatistics getStatistics()
+    {
+        return this.statistics;
+    }
+
     @Override
     public void dispose()
     {
@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.xwiki.cache.CacheStatistics;
+import org.xwiki.cache.CacheStatisticsRegistry;
+import org.xwiki.component.annotation.Component;
+
+/**
+ * Default implementation of {@link CacheStatisticsRegistry}. The statistics are also registered against the JMX server
+ * as {@code org.xwiki:type=Cache,name=<cache name>} MBeans.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+@Component
+@Singleton
+public class DefaultCacheStatisticsRegistry implements CacheStatisticsRegistry
+{
+    /**
+     * The name used for the caches without configuration identifier.
+     */
+    private static final String DEFAULT_NAME = "cache";
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * The registered statistics, indexed by name.
+     */
+    private final ConcurrentMap<String, CacheStatistics> statistics = new ConcurrentHashMap<String, CacheStatistics>();
+
+    @Override
+    public String register(String name, CacheStatistics cacheStatistics)
+    {
+        String baseName = name != null ? name : DEFAULT_NAME;
+
+        String uniqueName = baseName;
+        for (int index = 2; this.statistics.putIfAbsent(uniqueName, cacheStatistics) != null; ++index) {
+            uniqueName = baseName + '-' + index;
+        }
+
+        // Register the statistics against the JMX Server
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            mbs.registerMBean(new StandardMBean(cacheStatistics, CacheStatistics.class), getObjectName(uniqueName));
+        } catch (Exception e) {
+            this.logger.warn("Failed to register the statistics of cache [" + uniqueName
+                + "] against the JMX Server", e);
+        }
+
+        return uniqueName;
+    }
+
+    @Override
+    public void unregister(String name)
+    {
+        if (this.statistics.remove(name) != null) {
+            // Unregister the statistics from the JMX Server
+            try {
+                MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+                mbs.unregisterMBean(getObjectName(name));
+            } catch (Exception e) {
+                this.logger.warn("Failed to unregister the statistics of cache [" + name + "] from the JMX Server",
+                    e);
+            }
+        }
+    }
+
+    @Override
+    public Map<String, CacheStatistics> getStatistics()
+    {
+        return Collections.unmodifiableMap(new TreeMap<String, CacheStatistics>(this.statistics));
+    }
+
+    /**
+     * @param name the name of the cache
+     * @return the name of the JMX MBean exposing the statistics of the cache
+     * @throws MalformedObjectNameException when the name is not valid
+     */
+    private ObjectName getObjectName(String name) throws MalformedObjectNameException
+    {
+        return new ObjectName("org.xwiki:type=Cache,name=" + ObjectName.quote(name));
+    }
+}
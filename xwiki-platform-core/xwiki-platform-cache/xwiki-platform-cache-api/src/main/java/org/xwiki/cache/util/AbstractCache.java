@@ -19,29 +19,62 @@
  */
 package org.xwiki.cache.util;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import javax.swing.event.EventListenerList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheLoader;
+import org.xwiki.cache.CacheStatistics;
+import org.xwiki.cache.CacheStatisticsRegistry;
 import org.xwiki.cache.DisposableCacheValue;
+import org.xwiki.cache.LoadingCache;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.cache.event.CacheEntryEvent;
 import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.EntryWeigher;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 
 /**
- * Base class for {@link Cache} implementations. It provides events {@link DisposableCacheValue} management.
+ * Base class for {@link Cache} implementations. It provides events {@link DisposableCacheValue} management, the
+ * loading of the missing values on top of {@link #get(String)} and {@link #set(String, Object)}, and the statistics of
+ * the cache (implementations have to record the hits, misses and evictions in {@link #statistics}).
+ * <p>
+ * It also evicts the least recently used entries when the cache is bounded by weight (see
+ * {@link LRUEvictionConfiguration#setMaxWeight(long)}), based on the events sent by the implementation (which has to
+ * call {@link #removeEvictedEntries()} at the end of {@link #set(String, Object)}).
  * 
  * @param <T>
  * @version $Id$
  */
-public abstract class AbstractCache<T> implements Cache<T>
+public abstract class AbstractCache<T> implements LoadingCache<T>
 {
     /**
      * The logger to use to log.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractCache.class);
 
+    /**
+     * The maximum time in seconds to wait for a value being loaded by another thread.
+     */
+    private static final long LOAD_TIMEOUT = 60;
+
     /**
      * The configuration used to create the cache.
      */
@@ -52,12 +85,293 @@
      */
     protected final EventListenerList cacheEntryListeners = new EventListenerList();
 
+    /**
+     * The loads in progress, indexed by key.
+     */
+    private final ConcurrentMap<String, Load<T>> loads = new ConcurrentHashMap<String, Load<T>>();
+
+    /**
+     * The statistics of the cache.
+     */
+    protected final AbstractCacheStatistics statistics = new AbstractCacheStatistics()
+    {
+        @Override
+        public long getSize()
+        {
+            return getEntryCount();
+        }
+
+        @Override
+        public long getEstimatedMemory()
+        {
+            return weights != null ? weights.getTotalWeight() : -1;
+        }
+    };
+
+    /**
+     * The weight of the entries when a weigher or a maximum weight is configured, null otherwise.
+     */
+    private EntryWeights<T> weights;
+
+    /**
+     * The keys of the entries chosen for eviction because the cache is too heavy, removed by
+     * {@link #removeEvictedEntries()}.
+     */
+    private final Queue<String> evictedKeys = new ConcurrentLinkedQueue<String>();
+
+    /**
+     * The registry where the statistics of the cache are published, null if they are not published.
+     */
+    private CacheStatisticsRegistry statisticsRegistry;
+
+    /**
+     * The name under which the statistics of the cache are published.
+     */
+    private String statisticsName;
+
+    @Override
+    public T get(String key, CacheLoader<T> loader) throws CacheException
+    {
+        T value = get(key);
+
+        if (value == null) {
+            Load<T> load = new Load<T>();
+            Load<T> currentLoad = this.loads.putIfAbsent(key, load);
+            if (currentLoad == null) {
+                try {
+                    // The value may have been stored by a load which ended since the first check
+                    value = lookup(key);
+                    if (value == null) {
+                        long start = System.nanoTime();
+                        value = loader.load(key);
+                        this.statistics.recordLoad(1, System.nanoTime() - start);
+                        if (value != null) {
+                            set(key, value);
+                        }
+                    }
+                    load.complete(value);
+                } catch (Exception e) {
+                    load.fail(e);
+                } finally {
+                    this.loads.remove(key, load);
+                    load.abort();
+                }
+                currentLoad = load;
+            }
+
+            value = getLoadedValue(key, currentLoad, loader);
+        }
+
+        return value;
+    }
+
+    @Override
+    public Map<String, T> getAll(Collection<String> keys, CacheLoader<T> loader) throws CacheException
+    {
+        Map<String, T> values = new HashMap<String, T>(keys.size());
+        Map<String, Load<T>> ownLoads = new HashMap<String, Load<T>>();
+        Map<String, Load<T>> otherLoads = new HashMap<String, Load<T>>();
+
+        for (String key : keys) {
+            T value = get(key);
+            if (value != null) {
+                values.put(key, value);
+            } else if (!ownLoads.containsKey(key)) {
+                Load<T> load = new Load<T>();
+                Load<T> currentLoad = this.loads.putIfAbsent(key, load);
+                if (currentLoad == null) {
+                    ownLoads.put(key, load);
+                } else {
+                    otherLoads.put(key, currentLoad);
+                }
+            }
+        }
+
+        if (!ownLoads.isEmpty()) {
+            try {
+                long start = System.nanoTime();
+                Map<String, T> loadedValues = loader.loadAll(ownLoads.keySet());
+                this.statistics.recordLoad(ownLoads.size(), System.nanoTime() - start);
+                for (Map.Entry<String, Load<T>> entry : ownLoads.entrySet()) {
+                    T value = loadedValues.get(entry.getKey());
+                    if (value != null) {
+                        set(entry.getKey(), value);
+                    }
+                    entry.getValue().complete(value);
+                }
+            } catch (Exception e) {
+                for (Load<T> load : ownLoads.values()) {
+                    load.fail(e);
+                }
+            } finally {
+                for (Map.Entry<String, Load<T>> entry : ownLoads.entrySet()) {
+                    this.loads.remove(entry.getKey(), entry.getValue());
+                    entry.getValue().abort();
+                }
+            }
+            otherLoads.putAll(ownLoads);
+        }
+
+        for (Map.Entry<String, Load<T>> entry : otherLoads.entrySet()) {
+            T value = getLoadedValue(entry.getKey(), entry.getValue(), loader);
+            if (value != null) {
+                values.put(entry.getKey(), value);
+            }
+        }
+
+        return values;
+    }
+
+    @Override
+    public void refresh(String key, CacheLoader<T> loader) throws CacheException
+    {
+        Load<T> load = new Load<T>();
+        if (this.loads.putIfAbsent(key, load) == null) {
+            try {
+                long start = System.nanoTime();
+                T value = loader.load(key);
+                this.statistics.recordLoad(1, System.nanoTime() - start);
+                if (value != null) {
+                    set(key, value);
+                } else {
+                    remove(key);
+                }
+                load.complete(value);
+            } catch (Exception e) {
+                load.fail(e);
+            } finally {
+                this.loads.remove(key, load);
+                load.abort();
+            }
+
+            load.getValue(key);
+        }
+    }
+
+    /**
+     * Wait for the end of the load of a value.
+     * 
+     * @param key the key of the value
+     * @param load the load in progress
+     * @param loader the loader to use when the load in progress is done by the current thread
+     * @return the loaded value
+     * @throws CacheException when failing to load the value
+     */
+    private T getLoadedValue(String key, Load<T> load, CacheLoader<T> loader) throws CacheException
+    {
+        if (load.isOwnedByCurrentThread()) {
+            // The loader needs the value it is loading: waiting for the end of its own load would never return
+            try {
+                long start = System.nanoTime();
+                T value = loader.load(key);
+                this.statistics.recordLoad(1, System.nanoTime() - start);
+
+                return value;
+            } catch (Exception e) {
+                throw new CacheException("Failed to load the value associated with key [" + key + "]", e);
+            }
+        }
+
+        return load.getValue(key);
+    }
+
+    /**
+     * Set the configuration used to create the cache, and prepare the weighing of the entries if it's bounded by
+     * weight.
+     * 
+     * @param configuration the configuration used to create the cache
+     * @since 4.0M1
+     */
+    protected void setConfiguration(CacheConfiguration configuration)
+    {
+        this.configuration = configuration;
+
+        Object eviction = configuration.get(EntryEvictionConfiguration.CONFIGURATIONID);
+        if (eviction instanceof LRUEvictionConfiguration) {
+            LRUEvictionConfiguration lru = (LRUEvictionConfiguration) eviction;
+            if (lru.getMaxWeight() > 0 || lru.getWeigher() != null) {
+                // The configured weigher is meant for the values of this cache
+                @SuppressWarnings("unchecked")
+                EntryWeigher<T> weigher = (EntryWeigher<T>) lru.getWeigher();
+                this.weights =
+                    new EntryWeights<T>(weigher != null ? weigher : new DefaultEntryWeigher<T>(), lru.getMaxWeight());
+            }
+        }
+    }
+
+    /**
+     * Get the value associated with the provided key without updating the statistics, to check again a value already
+     * counted as missing. Implementations should override it since the default one calls {@link #get(String)}.
+     * 
+     * @param key the key used to access the value in the cache
+     * @return the value associated with the provided key, or null if there is no value
+     * @since 4.0M1
+     */
+    protected T lookup(String key)
+    {
+        return get(key);
+    }
+
+    /**
+     * Helper method to call each time a value is looked for, to update the statistics and the eviction order.
+     * 
+     * @param key the key of the value
+     * @param value the value found in the cache, null if there is none
+     * @since 4.0M1
+     */
+    protected void recordGet(String key, T value)
+    {
+        if (value != null) {
+            this.statistics.recordHit();
+
+            if (this.weights != null) {
+                this.weights.touch(key);
+            }
+        } else {
+            this.statistics.recordMiss();
+        }
+    }
+
+    @Override
+    public CacheStatistics getStatistics()
+    {
+        return this.statistics;
+    }
+
+    /**
+     * @return the number of entries currently in the cache, -1 if it's unknown
+     * @since 4.0M1
+     */
+    protected long getEntryCount()
+    {
+        return -1;
+    }
+
+    /**
+     * Publish the statistics of the cache in the provided registry until the cache is disposed.
+     * 
+     * @param registry the registry where to publish the statistics
+     * @since 4.0M1
+     */
+    public void registerStatistics(CacheStatisticsRegistry registry)
+    {
+        this.statisticsName =
+            registry.register(this.configuration != null ? this.configuration.getConfigurationId() : null,
+                this.statistics);
+        this.statisticsRegistry = registry;
+    }
+
     @Override
     public void dispose()
     {
         for (CacheEntryListener<T> listener : this.cacheEntryListeners.getListeners(CacheEntryListener.class)) {
             this.cacheEntryListeners.remove(CacheEntryListener.class, listener);
         }
+
+        if (this.statisticsRegistry != null) {
+            this.statisticsRegistry.unregister(this.statisticsName);
+            this.statisticsRegistry = null;
+        }
     }
 
     @Override
@@ -83,6 +397,8 @@ protected void sendEntryAddedEvent(CacheEntryEvent<T> event)
             .getListeners(org.xwiki.cache.event.CacheEntryListener.class)) {
             listener.cacheEntryAdded(event);
         }
+
+        weigh(event);
     }
 
     /**
@@ -97,9 +413,56 @@ protected void sendEntryRemovedEvent(CacheEntryEvent<T> event)
             listener.cacheEntryRemoved(event);
         }
 
+        if (this.weights != null) {
+            this.weights.remove(event.getEntry().getKey());
+        }
+
         disposeCacheValue(event.getEntry().getValue());
     }
 
+    /**
+     * Helper method to call when all the entries have been removed without sending an event for each of them.
+     * 
+     * @since 4.0M1
+     */
+    protected void allEntriesRemoved()
+    {
+        if (this.weights != null) {
+            this.weights.clear();
+        }
+    }
+
+    /**
+     * Update the weight of an added or modified entry and evict the least recently used entries if the cache is
+     * heavier than its maximum weight.
+     * 
+     * @param event the event of the added or modified entry
+     */
+    private void weigh(CacheEntryEvent<T> event)
+    {
+        if (this.weights != null) {
+            // The entries can't be removed while the implementation is notifying the modification of the cache
+            this.evictedKeys.addAll(this.weights.put(event.getEntry().getKey(), event.getEntry().getValue()));
+        }
+    }
+
+    /**
+     * Helper method to call at the end of {@link #set(String, Object)}, once the implementation is done notifying the
+     * modification, to remove the least recently used entries when the cache is heavier than its maximum weight.
+     * 
+     * @since 4.0M1
+     */
+    protected void removeEvictedEntries()
+    {
+        for (String key = this.evictedKeys.poll(); key != null; key = this.evictedKeys.poll()) {
+            // The entry may have been set again since it was chosen
+            if (!this.weights.contains(key)) {
+                remove(key);
+                this.statistics.recordEviction(1);
+            }
+        }
+    }
+
     /**
      * Helper method to send event when a cache entry is modified.
      * 
@@ -111,6 +474,8 @@ protected void sendEntryModifiedEvent(CacheEntryEvent<T> event)
             .getListeners(org.xwiki.cache.event.CacheEntryListener.class)) {
             listener.cacheEntryModified(event);
         }
+
+        weigh(event);
     }
 
     /**
@@ -132,4 +497,91 @@ protected void disposeCacheValue(T value)
             }
         }
     }
+
+    /**
+     * The result of the load of a value, shared by all the threads asking for it.
+     * 
+     * @param <T> the class of the data stored in the cache.
+     */
+    private static class Load<T> extends FutureTask<T>
+    {
+        /**
+         * The thread loading the value.
+         */
+        private final Thread owner = Thread.currentThread();
+
+        /**
+         * The load is done by the thread which registered it, the task itself is never run.
+         */
+        Load()
+        {
+            super(new Callable<T>()
+            {
+                @Override
+                public T call()
+                {
+                    return null;
+                }
+            });
+        }
+
+        /**
+         * @param value the loaded value
+         */
+        void complete(T value)
+        {
+            set(value);
+        }
+
+        /**
+         * @param cause the reason why the value could not be loaded
+         */
+        void fail(Throwable cause)
+        {
+            setException(cause);
+        }
+
+        /**
+         * Make sure the threads waiting for the value are released if the load ended without result (because of an
+         * {@link Error} for example). Does nothing if the load is complete.
+         */
+        void abort()
+        {
+            cancel(false);
+        }
+
+        /**
+         * @return true if the value is still being loaded by the current thread
+         */
+        boolean isOwnedByCurrentThread()
+        {
+            return this.owner == Thread.currentThread() && !isDone();
+        }
+
+        /**
+         * Wait for the end of the load, during a limited time.
+         * 
+         * @param key the key of the loaded value
+         * @return the loaded value
+         * @throws CacheException when the load failed or took too long
+         */
+        T getValue(String key) throws CacheException
+        {
+            try {
+                return get(LOAD_TIMEOUT, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                throw new CacheException("Timed out while waiting for the value associated with key [" + key + "]",
+                    e);
+            } catch (ExecutionException e) {
+                throw new CacheException("Failed to load the value associated with key [" + key + "]", e.getCause());
+            } catch (CancellationException e) {
+                throw new CacheException("Failed to load the value associated with key [" + key + "]", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new CacheException("Interrupted while waiting for the value associated with key [" + key
+                    + "]", e);
+            }
+        }
+    }
 }
@@ -0,0 +1,150 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xwiki.cache.CacheStatistics;
+
+/**
+ * Base class for {@link CacheStatistics} implementations. It counts the events reported by the cache, the cache
+ * implementation only has to provide its size.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+public abstract class AbstractCacheStatistics implements CacheStatistics
+{
+    /**
+     * The number of values found in the cache.
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * The number of values not found in the cache.
+     */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * The number of values loaded with a loader.
+     */
+    private final AtomicLong loadCount = new AtomicLong();
+
+    /**
+     * The number of nanoseconds spent loading values.
+     */
+    private final AtomicLong loadTime = new AtomicLong();
+
+    /**
+     * The number of evicted entries.
+     */
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Record that a value has been found in the cache.
+     */
+    public void recordHit()
+    {
+        this.hitCount.incrementAndGet();
+    }
+
+    /**
+     * Record that a value has not been found in the cache.
+     */
+    public void recordMiss()
+    {
+        this.missCount.incrementAndGet();
+    }
+
+    /**
+     * Record that values have been loaded.
+     * 
+     * @param count the number of loaded values
+     * @param time the number of nanoseconds spent loading the values
+     */
+    public void recordLoad(int count, long time)
+    {
+        this.loadCount.addAndGet(count);
+        this.loadTime.addAndGet(time);
+    }
+
+    /**
+     * Record that entries have been evicted from the cache.
+     * 
+     * @param count the number of evicted entries
+     */
+    public void recordEviction(int count)
+    {
+        this.evictionCount.addAndGet(count);
+    }
+
+    @Override
+    public long getHitCount()
+    {
+        return this.hitCount.get();
+    }
+
+    @Override
+    public long getMissCount()
+    {
+        return this.missCount.get();
+    }
+
+    @Override
+    public double getHitRatio()
+    {
+        long hits = getHitCount();
+        long lookups = hits + getMissCount();
+
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+
+    @Override
+    public long getLoadCount()
+    {
+        return this.loadCount.get();
+    }
+
+    @Override
+    public long getTotalLoadTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(this.loadTime.get());
+    }
+
+    @Override
+    public long getEvictionCount()
+    {
+        return this.evictionCount.get();
+    }
+
+    @Override
+    public long getEstimatedMemory()
+    {
+        return -1;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "hits: " + getHitCount() + ", misses: " + getMissCount() + ", loads: " + getLoadCount()
+            + ", load time: " + getTotalLoadTime() + "ms, evictions: " + getEvictionCount() + ", size: " + getSize();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.xwiki.cache.eviction.EntryWeigher;
+
+/**
+ * Estimate the number of bytes used by the cache entries. The size of {@link String}s, byte and char arrays and boxed
+ * primitives is estimated from their content, the weighers of other types can be added with
+ * {@link #setWeigher(Class, EntryWeigher)}. The values of any other type get the default weight.
+ * 
+ * @param <T> the class of the data stored in the cache.
+ * @version $Id$
+ * @since 4.0M1
+ */
+public class DefaultEntryWeigher<T> implements EntryWeigher<T>
+{
+    /**
+     * The weight of the values which can't be estimated, when not provided.
+     */
+    public static final long DEFAULT_WEIGHT = 1024;
+
+    /**
+     * The estimated size of the internal structures of the cache used to store an entry.
+     */
+    private static final long ENTRY_OVERHEAD = 32;
+
+    /**
+     * The estimated size of an object header.
+     */
+    private static final long OBJECT_OVERHEAD = 16;
+
+    /**
+     * The estimated size of a {@link String} without its characters.
+     */
+    private static final long STRING_OVERHEAD = 40;
+
+    /**
+     * The weight of the values which can't be estimated.
+     */
+    private final long defaultWeight;
+
+    /**
+     * The weighers of specific value types.
+     */
+    private final Map<Class< ? >, EntryWeigher<Object>> weighers =
+        new ConcurrentHashMap<Class< ? >, EntryWeigher<Object>>();
+
+    /**
+     * Use {@link #DEFAULT_WEIGHT} as the weight of the values which can't be estimated.
+     */
+    public DefaultEntryWeigher()
+    {
+        this(DEFAULT_WEIGHT);
+    }
+
+    /**
+     * @param defaultWeight the weight of the values which can't be estimated
+     */
+    public DefaultEntryWeigher(long defaultWeight)
+    {
+        this.defaultWeight = defaultWeight;
+    }
+
+    /**
+     * Estimate the weight of a type of value with a specific weigher. The weigher only has to estimate the size of the
+     * value, the size of the key is added to it.
+     * 
+     * @param <V> the type of value
+     * @param type the type of value, the weigher is also used for its sub classes
+     * @param weigher the weigher of the values of the provided type
+     */
+    public <V> void setWeigher(final Class<V> type, final EntryWeigher< ? super V> weigher)
+    {
+        this.weighers.put(type, new EntryWeigher<Object>()
+        {
+            @Override
+            public long weigh(String key, Object value)
+            {
+                return weigher.weigh(key, type.cast(value));
+            }
+        });
+    }
+
+    @Override
+    public long weigh(String key, T value)
+    {
+        return ENTRY_OVERHEAD + weighString(key) + weighValue(key, value);
+    }
+
+    /**
+     * @param key the key of the entry
+     * @param value the value to weigh
+     * @return the estimated number of bytes used by the value
+     */
+    protected long weighValue(String key, Object value)
+    {
+        long weight;
+
+        if (value == null) {
+            weight = 0;
+        } else if (value instanceof String) {
+            weight = weighString((String) value);
+        } else if (value instanceof byte[]) {
+            weight = OBJECT_OVERHEAD + ((byte[]) value).length;
+        } else if (value instanceof char[]) {
+            weight = OBJECT_OVERHEAD + 2L * ((char[]) value).length;
+        } else if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+            weight = OBJECT_OVERHEAD;
+        } else {
+            EntryWeigher<Object> weigher = getWeigher(value.getClass());
+            weight = weigher != null ? weigher.weigh(key, value) : this.defaultWeight;
+        }
+
+        return weight;
+    }
+
+    /**
+     * @param type the type of value
+     * @return the weigher of the provided type, null if there is none
+     */
+    private EntryWeigher<Object> getWeigher(Class< ? > type)
+    {
+        for (Class< ? > currentType = type; currentType != null; currentType = currentType.getSuperclass()) {
+            EntryWeigher<Object> weigher = this.weighers.get(currentType);
+            if (weigher != null) {
+                return weigher;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param value the string to weigh
+     * @return the estimated number of bytes used by the string
+     */
+    private long weighString(String value)
+    {
+        return value != null ? STRING_OVERHEAD + 2L * value.length() : 0;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.xwiki.cache.eviction.EntryWeigher;
+
+/**
+ * The weight of the entries of a cache, kept in least recently used order so that the entries to evict can be chosen
+ * when the cache is bounded by weight.
+ * <p>
+ * Reading an entry must not contend on a global lock so the accesses are only queued and applied to the access order
+ * by the next modification, or by a reader when many of them are pending and nobody else holds the lock.
+ * 
+ * @param <T> the class of the data stored in the cache.
+ * @version $Id$
+ * @since 4.0M1
+ */
+class EntryWeights<T>
+{
+    /**
+     * The number of pending accesses from which a reader tries to apply them to the access order.
+     */
+    private static final int DRAIN_THRESHOLD = 64;
+
+    /**
+     * Used to estimate the weight of the entries.
+     */
+    private final EntryWeigher<T> weigher;
+
+    /**
+     * The maximum total weight, 0 if it's not limited.
+     */
+    private final long maxWeight;
+
+    /**
+     * The weight of each entry, in access order.
+     */
+    private final Map<String, Long> weights = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    /**
+     * Protect {@link #weights}.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * The keys of the accessed entries not yet moved at the end of the access order.
+     */
+    private final Queue<String> accesses = new ConcurrentLinkedQueue<String>();
+
+    /**
+     * The number of elements of {@link #accesses}, which does not provide its size in constant time.
+     */
+    private final AtomicInteger pendingAccesses = new AtomicInteger();
+
+    /**
+     * The sum of the weights of the entries.
+     */
+    private volatile long totalWeight;
+
+    /**
+     * @param weigher used to estimate the weight of the entries
+     * @param maxWeight the maximum total weight, 0 if it's not limited
+     */
+    EntryWeights(EntryWeigher<T> weigher, long maxWeight)
+    {
+        this.weigher = weigher;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Set the weight of an added or modified entry.
+     * 
+     * @param key the key of the entry
+     * @param value the value of the entry
+     * @return the keys of the least recently used entries to evict to stay under the maximum weight; the provided entry
+     *         is never part of it so an entry heavier than the maximum weight stays alone in the cache
+     */
+    List<String> put(String key, T value)
+    {
+        long weight = this.weigher.weigh(key, value);
+
+        this.lock.lock();
+        try {
+            drainAccesses();
+
+            Long previousWeight = this.weights.put(key, weight);
+            long total = this.totalWeight + weight - (previousWeight != null ? previousWeight : 0);
+
+            List<String> evictedKeys;
+            if (this.maxWeight <= 0 || total <= this.maxWeight) {
+                evictedKeys = Collections.emptyList();
+            } else {
+                evictedKeys = new ArrayList<String>();
+                for (Iterator<Map.Entry<String, Long>> it = this.weights.entrySet().iterator(); it.hasNext()
+                    && total > this.maxWeight;) {
+                    Map.Entry<String, Long> entry = it.next();
+                    if (!entry.getKey().equals(key)) {
+                        evictedKeys.add(entry.getKey());
+                        total -= entry.getValue();
+                        it.remove();
+                    }
+                }
+            }
+
+            this.totalWeight = total;
+
+            return evictedKeys;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Move an entry at the end of the eviction order, without blocking.
+     * 
+     * @param key the key of the accessed entry
+     */
+    void touch(String key)
+    {
+        this.accesses.add(key);
+
+        if (this.pendingAccesses.incrementAndGet() >= DRAIN_THRESHOLD && this.lock.tryLock()) {
+            try {
+                drainAccesses();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Apply the pending accesses to the access order. The lock has to be held.
+     */
+    private void drainAccesses()
+    {
+        for (String key = this.accesses.poll(); key != null; key = this.accesses.poll()) {
+            this.pendingAccesses.decrementAndGet();
+            this.weights.get(key);
+        }
+    }
+
+    /**
+     * @param key the key of an entry
+     * @return true if the weight of the entry is known, i.e. if it's in the cache and has not been chosen for eviction
+     */
+    boolean contains(String key)
+    {
+        this.lock.lock();
+        try {
+            return this.weights.containsKey(key);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @param key the key of the removed entry
+     */
+    void remove(String key)
+    {
+        this.lock.lock();
+        try {
+            Long weight = this.weights.remove(key);
+            if (weight != null) {
+                this.totalWeight -= weight;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Forget all the entries.
+     */
+    void clear()
+    {
+        this.lock.lock();
+        try {
+            drainAccesses();
+            this.weights.clear();
+            this.totalWeight = 0;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the sum of the weights of the entries
+     */
+    long getTotalWeight()
+    {
+        return this.totalWeight;
+    }
+}
@@ -68,6 +68,7 @@
     InfinispanCache(EmbeddedCacheManager cacheManager, CacheConfiguration configuration)
     {
         this.cacheManager = cacheManager;
+        setConfiguration(configuration);
         this.cache = cacheManager.<String, T> getCache(configuration.getConfigurationId());
 
         this.cache.addListener(this);
@@ -87,10 +88,22 @@ public void set(String key, T obj)
         } else {
             this.cache.remove(key);
         }
+
+        removeEvictedEntries();
     }
 
     @Override
     public T get(String key)
+    {
+        T value = lookup(key);
+
+        recordGet(key, value);
+
+        return value;
+    }
+
+    @Override
+    protected T lookup(String key)
     {
         return this.cache.get(key);
     }
@@ -99,6 +112,14 @@ public T get(String key)
     public void removeAll()
     {
         this.cache.clear();
+
+        allEntriesRemoved();
+    }
+
+    @Override
+    protected long getEntryCount()
+    {
+        return this.cache.size();
     }
 
     @Override
@@ -119,6 +140,8 @@ public void dispose()
     @CacheEntriesEvicted
     public void nodeEvicted(CacheEntriesEvictedEvent<String, T> event)
     {
+        this.statistics.recordEviction(event.getEntries().size());
+
         for (Map.Entry<String, T> entry : event.getEntries().entrySet()) {
             String key = entry.getKey();
             T value = entry.getValue();
@@ -34,6 +34,7 @@
 import org.slf4j.Logger;
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheFactory;
+import org.xwiki.cache.CacheStatisticsRegistry;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
@@ -70,6 +71,12 @@ public class InfinispanCacheFactory implements CacheFactory, Initializable
     @Inject
     private ComponentManager componentManager;
 
+    /**
+     * Used to publish the statistics of the created caches.
+     */
+    @Inject
+    private CacheStatisticsRegistry statisticsRegistry;
+
     /**
      * Optional Environment used to access configuration files.
      */
@@ -159,6 +166,9 @@ public <T> org.xwiki.cache.Cache<T> newCache(CacheConfiguration configuration) t
 
         // create cache
 
-        return new InfinispanCache<T>(this.cacheManager, loader.getCacheConfiguration());
+        InfinispanCache<T> cache = new InfinispanCache<T>(this.cacheManager, loader.getCacheConfiguration());
+        cache.registerStatistics(this.statisticsRegistry);
+
+        return cache;
     }
 }
@@ -24,6 +24,7 @@
 import org.slf4j.Logger;
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheFactory;
+import org.xwiki.cache.CacheStatisticsRegistry;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.container.Container;
 
@@ -47,6 +48,12 @@ public abstract class AbstractOSCacheCacheFactory implements CacheFactory
     @Inject
     private Logger logger;
 
+    /**
+     * Used to publish the statistics of the created caches.
+     */
+    @Inject
+    private CacheStatisticsRegistry statisticsRegistry;
+
     /**
      * @return the default configuration identifier used to load cache configuration file
      */
@@ -59,6 +66,7 @@ public <T> org.xwiki.cache.Cache<T> newCache(CacheConfiguration configuration) t
 
         OSCacheCache<T> cache = new OSCacheCache<T>();
         cache.initialize(new OSCacheCacheConfiguration(this.container, configuration, getDefaultPropsId()));
+        cache.registerStatistics(this.statisticsRegistry);
 
         this.logger.debug("End OSCache initialisation");
 
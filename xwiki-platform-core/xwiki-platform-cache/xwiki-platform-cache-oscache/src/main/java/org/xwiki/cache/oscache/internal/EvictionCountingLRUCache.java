@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.oscache.internal;
+
+import org.xwiki.cache.util.AbstractCacheStatistics;
+
+import com.opensymphony.oscache.base.algorithm.LRUCache;
+
+/**
+ * OSCache LRU algorithm counting the entries it evicts. OSCache doesn't send any event when it evicts an entry to stay
+ * under the capacity of the cache, so the evictions are counted where the algorithm chooses them.
+ * <p>
+ * OSCache instantiates the algorithm itself, the statistics to update are provided to the instance created by the
+ * current thread with {@link #setCurrentStatistics(AbstractCacheStatistics)}.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+public class EvictionCountingLRUCache extends LRUCache
+{
+    /**
+     * Class version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The statistics of the cache being created by the current thread.
+     */
+    private static final ThreadLocal<AbstractCacheStatistics> CURRENT_STATISTICS =
+        new ThreadLocal<AbstractCacheStatistics>();
+
+    /**
+     * The statistics of the cache using this algorithm, null if the evictions are not counted.
+     */
+    private final transient AbstractCacheStatistics statistics;
+
+    /**
+     * Count the evictions in the statistics provided by the current thread, if any.
+     */
+    public EvictionCountingLRUCache()
+    {
+        this.statistics = CURRENT_STATISTICS.get();
+    }
+
+    /**
+     * @param statistics the statistics of the cache about to be created by the current thread, null once it's created
+     */
+    static void setCurrentStatistics(AbstractCacheStatistics statistics)
+    {
+        if (statistics != null) {
+            CURRENT_STATISTICS.set(statistics);
+        } else {
+            CURRENT_STATISTICS.remove();
+        }
+    }
+
+    @Override
+    protected Object removeItem()
+    {
+        Object key = super.removeItem();
+
+        if (key != null && this.statistics != null) {
+            this.statistics.recordEviction(1);
+        }
+
+        return key;
+    }
+}
@@ -19,12 +19,15 @@
  */
 package org.xwiki.cache.oscache.internal;
 
+import java.util.Properties;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.cache.oscache.internal.event.OSCacheCacheEntryEvent;
 import org.xwiki.cache.util.AbstractCache;
 
 import com.opensymphony.oscache.base.NeedsRefreshException;
+import com.opensymphony.oscache.base.algorithm.LRUCache;
 import com.opensymphony.oscache.base.events.CacheEntryEvent;
 import com.opensymphony.oscache.base.events.CacheEntryEventListener;
 import com.opensymphony.oscache.base.events.CacheGroupEvent;
@@ -45,6 +48,17 @@
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(OSCacheCache.class);
 
+    /**
+     * The name of the OSCache property containing the class of the eviction algorithm.
+     */
+    private static final String ALGORITHM_PROPERTY = "cache.algorithm";
+
+    /**
+     * The name of the OSCache property containing the maximum number of entries, LRU is used when it's set without
+     * algorithm.
+     */
+    private static final String CAPACITY_PROPERTY = "cache.capacity";
+
     /**
      * The OSCache cache configuration.
      */
@@ -64,9 +78,22 @@ public void initialize(OSCacheCacheConfiguration oscacheConfiguration)
     {
         this.oscacheConfiguration = oscacheConfiguration;
 
-        this.configuration = this.oscacheConfiguration.getCacheConfiguration();
+        setConfiguration(this.oscacheConfiguration.getCacheConfiguration());
+
+        Properties properties = this.oscacheConfiguration.getOSCacheProperties();
+        // Count the entries evicted by the LRU algorithm since OSCache doesn't notify them
+        String algorithm = properties.getProperty(ALGORITHM_PROPERTY);
+        if (LRUCache.class.getName().equals(algorithm)
+            || ((algorithm == null || algorithm.length() == 0) && properties.getProperty(CAPACITY_PROPERTY) != null)) {
+            properties.setProperty(ALGORITHM_PROPERTY, EvictionCountingLRUCache.class.getName());
+        }
 
-        this.cacheAdmin = new GeneralCacheAdministrator(this.oscacheConfiguration.getOSCacheProperties());
+        EvictionCountingLRUCache.setCurrentStatistics(this.statistics);
+        try {
+            this.cacheAdmin = new GeneralCacheAdministrator(properties);
+        } finally {
+            EvictionCountingLRUCache.setCurrentStatistics(null);
+        }
 
         this.cacheAdmin.getCache().addCacheEventListener(this);
     }
@@ -111,10 +138,22 @@ public void remove(String key)
     public void set(String key, T obj)
     {
         this.cacheAdmin.putInCache(cacheKey(key), obj);
+
+        removeEvictedEntries();
     }
 
     @Override
     public T get(String key)
+    {
+        T value = lookup(key);
+
+        recordGet(key, value);
+
+        return value;
+    }
+
+    @Override
+    protected T lookup(String key)
     {
         T value = null;
 
@@ -138,6 +177,12 @@ public void removeAll()
         this.cacheAdmin.flushAll();
     }
 
+    @Override
+    protected long getEntryCount()
+    {
+        return this.cacheAdmin.getCache().getSize();
+    }
+
     @Override
     public void dispose()
     {
@@ -187,5 +232,6 @@ public void cachePatternFlushed(CachePatternEvent event)
     @Override
     public void cacheFlushed(CachewideEvent event)
     {
+        allEntriesRemoved();
     }
 }
@@ -0,0 +1,81 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.internal.scripting;
+
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.cache.CacheStatistics;
+import org.xwiki.cache.CacheStatisticsRegistry;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.script.service.ScriptService;
+
+/**
+ * Provides Cache-specific Scripting APIs.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+@Component
+@Named("cache")
+@Singleton
+public class CacheScriptService implements ScriptService
+{
+    /**
+     * Used to access the statistics of the caches.
+     */
+    @Inject
+    private CacheStatisticsRegistry statisticsRegistry;
+
+    /**
+     * Used to check the rights of the current script.
+     */
+    @Inject
+    private DocumentAccessBridge documentAccessBridge;
+
+    /**
+     * @return the statistics of the caches in use, indexed by cache name, null if the current document doesn't have
+     *         programming rights
+     */
+    public Map<String, CacheStatistics> getStatistics()
+    {
+        if (!this.documentAccessBridge.hasProgrammingRights()) {
+            return null;
+        }
+
+        return this.statisticsRegistry.getStatistics();
+    }
+
+    /**
+     * @param name the name of a cache (generally its configuration identifier)
+     * @return the statistics of the cache, null if there is no cache with this name or if the current document doesn't
+     *         have programming rights
+     */
+    public CacheStatistics getStatistics(String name)
+    {
+        Map<String, CacheStatistics> statistics = getStatistics();
+
+        return statistics != null ? statistics.get(name) : null;
+    }
+}
@@ -24,6 +24,7 @@
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheFactory;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.EntryWeigher;
 import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 import org.xwiki.cache.tests.CacheEntryListenerTest.EventType;
 
@@ -96,6 +97,66 @@ public void testCreateAndDestroyCacheLRUMaxEntries() throws Exception
 
         Assert.assertNull(cache.get(KEY));
         Assert.assertEquals(VALUE2, cache.get(KEY2));
+        Assert.assertEquals(1, cache.getStatistics().getEvictionCount());
+
+        // Explicitly removed entries are not evicted
+        cache.remove(KEY2);
+
+        Assert.assertEquals(1, cache.getStatistics().getEvictionCount());
+
+        cache.dispose();
+    }
+
+    /**
+     * Validate the maximum weight constraint.
+     * 
+     * @throws Exception error
+     */
+    @Test
+    public void testCreateAndDestroyCacheLRUMaxWeight() throws Exception
+    {
+        CacheFactory factory = getCacheFactory();
+
+        CacheConfiguration conf = new CacheConfiguration();
+        LRUEvictionConfiguration lec = new LRUEvictionConfiguration();
+        lec.setMaxWeight(10);
+        lec.setWeigher(new EntryWeigher<Object>()
+        {
+            @Override
+            public long weigh(String key, Object value)
+            {
+                return ((byte[]) value).length;
+            }
+        });
+        conf.put(LRUEvictionConfiguration.CONFIGURATIONID, lec);
+
+        Cache<Object> cache = factory.newCache(conf);
+
+        Assert.assertNotNull(cache);
+
+        cache.set("a", new byte[4]);
+        cache.set("b", new byte[4]);
+
+        Assert.assertEquals(8, cache.getStatistics().getEstimatedMemory());
+
+        // Make "b" the least recently used entry
+        Assert.assertNotNull(cache.get("a"));
+
+        cache.set("c", new byte[4]);
+
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertNotNull(cache.get("c"));
+        Assert.assertEquals(8, cache.getStatistics().getEstimatedMemory());
+        Assert.assertEquals(1, cache.getStatistics().getEvictionCount());
+
+        // An entry heavier than the maximum weight replaces all the others
+        cache.set("d", new byte[12]);
+
+        Assert.assertNull(cache.get("a"));
+        Assert.assertNull(cache.get("c"));
+        Assert.assertNotNull(cache.get("d"));
+        Assert.assertEquals(12, cache.getStatistics().getEstimatedMemory());
 
         cache.dispose();
     }
@@ -19,11 +19,25 @@
  */
 package org.xwiki.cache.tests;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Assert;
 import org.junit.Test;
 import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheFactory;
+import org.xwiki.cache.CacheLoader;
+import org.xwiki.cache.CacheStatistics;
+import org.xwiki.cache.CacheStatisticsRegistry;
+import org.xwiki.cache.LoadingCache;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.util.AbstractCacheLoader;
 
 /**
  * Base class for testing cache component implementation.
@@ -40,6 +54,20 @@ protected AbstractGenericTestCache(String roleHint)
         super(roleHint);
     }
 
+    /**
+     * @param configuration the configuration of the cache
+     * @return a new cache, which has to be able to load its values
+     * @throws Exception error
+     */
+    private LoadingCache<Object> newLoadingCache(CacheConfiguration configuration) throws Exception
+    {
+        Cache<Object> cache = getCacheFactory().newCache(configuration);
+
+        Assert.assertTrue("The cache is not a loading cache", cache instanceof LoadingCache);
+
+        return (LoadingCache<Object>) cache;
+    }
+
     // ///////////////////////////////////////////////////////::
     // Tests
 
@@ -123,6 +151,245 @@ public void testRemoveAll() throws Exception
         Assert.assertNull(cache.get(KEY2));
     }
 
+    /**
+     * Validate {@link LoadingCache#get(String, CacheLoader)}.
+     * 
+     * @throws Exception error.
+     */
+    @Test
+    public void testGetWithLoader() throws Exception
+    {
+        final LoadingCache<Object> cache = newLoadingCache(new CacheConfiguration());
+
+        final AtomicInteger loadCount = new AtomicInteger();
+        final CountDownLatch loadStarted = new CountDownLatch(1);
+        final CountDownLatch loadAllowed = new CountDownLatch(1);
+        final CacheLoader<Object> loader = new AbstractCacheLoader<Object>()
+        {
+            @Override
+            public Object load(String key) throws Exception
+            {
+                loadCount.incrementAndGet();
+                loadStarted.countDown();
+                loadAllowed.await();
+
+                return VALUE;
+            }
+        };
+
+        // Concurrent loads of the same key are done once
+        final Object[] values = new Object[2];
+        Thread loadingThread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    values[0] = cache.get(KEY, loader);
+                } catch (CacheException e) {
+                    // Checked by the assertion below
+                }
+            }
+        };
+        loadingThread.start();
+        loadStarted.await();
+
+        Thread waitingThread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    values[1] = cache.get(KEY, loader);
+                } catch (CacheException e) {
+                    // Checked by the assertion below
+                }
+            }
+        };
+        waitingThread.start();
+
+        // Only release the load once the other thread waits for it
+        while (waitingThread.getState() != Thread.State.TIMED_WAITING
+            && waitingThread.getState() != Thread.State.WAITING) {
+            Assert.assertTrue("The thread did not wait for the load in progress", waitingThread.isAlive());
+            Thread.yield();
+        }
+        loadAllowed.countDown();
+
+        loadingThread.join();
+        waitingThread.join();
+        Assert.assertEquals(VALUE, values[0]);
+        Assert.assertEquals(VALUE, values[1]);
+        Assert.assertEquals(1, loadCount.get());
+
+        // Cached values are not loaded again
+        Assert.assertEquals(VALUE, cache.get(KEY));
+        Assert.assertEquals(VALUE, cache.get(KEY, loader));
+        Assert.assertEquals(1, loadCount.get());
+
+        // Refresh always loads the value
+        cache.refresh(KEY, loader);
+        Assert.assertEquals(2, loadCount.get());
+
+        cache.dispose();
+    }
+
+    /**
+     * Validate that a loader asking for the value it is loading does not wait for itself.
+     * 
+     * @throws Exception error.
+     */
+    @Test
+    public void testReentrantGetWithLoader() throws Exception
+    {
+        final LoadingCache<Object> cache = newLoadingCache(new CacheConfiguration());
+
+        final AtomicInteger loadCount = new AtomicInteger();
+        CacheLoader<Object> loader = new AbstractCacheLoader<Object>()
+        {
+            @Override
+            public Object load(String key) throws Exception
+            {
+                if (loadCount.incrementAndGet() == 1) {
+                    Assert.assertEquals(VALUE, cache.get(key, this));
+                }
+
+                return VALUE;
+            }
+        };
+
+        Assert.assertEquals(VALUE, cache.get(KEY, loader));
+        Assert.assertEquals(2, loadCount.get());
+        Assert.assertEquals(VALUE, cache.get(KEY));
+
+        cache.dispose();
+    }
+
+    /**
+     * Validate that a failed load is reported and not cached.
+     * 
+     * @throws Exception error.
+     */
+    @Test
+    public void testGetWithFailingLoader() throws Exception
+    {
+        LoadingCache<Object> cache = newLoadingCache(new CacheConfiguration());
+
+        try {
+            cache.get(KEY, new AbstractCacheLoader<Object>()
+            {
+                @Override
+                public Object load(String key) throws Exception
+                {
+                    throw new Exception("failed");
+                }
+            });
+            Assert.fail("The load should have failed");
+        } catch (CacheException expected) {
+            Assert.assertEquals("failed", expected.getCause().getMessage());
+        }
+
+        Assert.assertNull(cache.get(KEY));
+
+        cache.dispose();
+    }
+
+    /**
+     * Validate {@link LoadingCache#getAll(Collection, CacheLoader)}.
+     * 
+     * @throws Exception error.
+     */
+    @Test
+    public void testGetAllWithLoader() throws Exception
+    {
+        LoadingCache<Object> cache = newLoadingCache(new CacheConfiguration());
+
+        cache.set(KEY, VALUE);
+
+        final Map<String, Object> loadedKeys = new HashMap<String, Object>();
+        Map<String, Object> values = cache.getAll(Arrays.asList(KEY, KEY2, "missing"), new CacheLoader<Object>()
+        {
+            @Override
+            public Object load(String key)
+            {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Map<String, Object> loadAll(Collection<String> keys)
+            {
+                for (String key : keys) {
+                    loadedKeys.put(key, key);
+                }
+
+                return Collections.<String, Object> singletonMap(KEY2, VALUE2);
+            }
+        });
+
+        Assert.assertEquals(2, values.size());
+        Assert.assertEquals(VALUE, values.get(KEY));
+        Assert.assertEquals(VALUE2, values.get(KEY2));
+        Assert.assertEquals(2, loadedKeys.size());
+        Assert.assertFalse(loadedKeys.containsKey(KEY));
+        Assert.assertEquals(VALUE2, cache.get(KEY2));
+
+        cache.dispose();
+    }
+
+    /**
+     * Validate the statistics of a cache.
+     * 
+     * @throws Exception error.
+     */
+    @Test
+    public void testStatistics() throws Exception
+    {
+        CacheConfiguration configuration = new CacheConfiguration();
+        configuration.setConfigurationId("statistics");
+
+        LoadingCache<Object> cache = newLoadingCache(configuration);
+
+        CacheStatistics statistics = cache.getStatistics();
+
+        Assert.assertNull(cache.get(KEY));
+        cache.set(KEY, VALUE);
+        Assert.assertEquals(VALUE, cache.get(KEY));
+        Assert.assertEquals(VALUE2, cache.getAll(Arrays.asList(KEY2), new AbstractCacheLoader<Object>()
+        {
+            @Override
+            public Object load(String key)
+            {
+                return VALUE2;
+            }
+        }).get(KEY2));
+
+        Assert.assertEquals(1, statistics.getHitCount());
+        Assert.assertEquals(2, statistics.getMissCount());
+        Assert.assertEquals(1, statistics.getLoadCount());
+        Assert.assertTrue(statistics.getSize() == -1 || statistics.getSize() == 2);
+
+        // A loaded value is counted as missing only once
+        Assert.assertEquals(VALUE, cache.get("loaded", new AbstractCacheLoader<Object>()
+        {
+            @Override
+            public Object load(String key)
+            {
+                return VALUE;
+            }
+        }));
+
+        Assert.assertEquals(3, statistics.getMissCount());
+        Assert.assertEquals(2, statistics.getLoadCount());
+
+        // The statistics are published until the cache is disposed
+        CacheStatisticsRegistry registry = getComponentManager().lookup(CacheStatisticsRegistry.class);
+        Assert.assertSame(statistics, registry.getStatistics().get("statistics"));
+
+        cache.dispose();
+
+        Assert.assertNull(registry.getStatistics().get("statistics"));
+    }
+
     /**
      * Validate event management.
      * 
@@ -44,6 +44,12 @@ public abstract class AbstractDocumentConfigurationSource extends AbstractConfig
     @Inject
     private DocumentAccessBridge documentAccessBridge;
 
+    /**
+     * Keeps the properties already read in memory.
+     */
+    @Inject
+    private DocumentPropertiesCache propertiesCache;
+
     /** @see #getCurrentWikiReference() */
     @Inject
     private ModelContext modelContext;
@@ -135,7 +141,7 @@ private Object getPropertyObject(String key)
         DocumentReference documentReference = getFailsafeDocumentReference();
         DocumentReference classReference = getFailsafeClassReference();
         if (documentReference != null && classReference != null) {
-            result = getDocumentAccessBridge().getProperty(documentReference, classReference, key);
+            result = this.propertiesCache.getProperty(documentReference, classReference, key);
         } else {
             result = null;
         }
@@ -0,0 +1,193 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.configuration.internal;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Default implementation of {@link DocumentPropertiesCache}. The properties of each document are read lazily, one by
+ * one, and kept in a per-document snapshot which is dropped as a whole when the document is created, updated or
+ * deleted. The snapshot is registered in the cache before reading a property, so a property being read while the
+ * document changes is stored in the dropped snapshot and can't survive the change.
+ * <p>
+ * The snapshots are kept in a LRU cache limited to {@value #CACHE_SIZE} documents. The values are cached as returned by
+ * {@link DocumentAccessBridge#getProperty(DocumentReference, DocumentReference, String)}: the document configuration
+ * sources don't convert them.
+ * </p>
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+@Component
+@Singleton
+public class DefaultDocumentPropertiesCache implements DocumentPropertiesCache, Initializable
+{
+    /**
+     * The maximum number of documents whose properties are kept in memory.
+     */
+    private static final int CACHE_SIZE = 1000;
+
+    /**
+     * The events invalidating the cached properties of a document.
+     */
+    private static final List<Event> EVENTS = Arrays.<Event> asList(new DocumentCreatedEvent(),
+        new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+
+    /**
+     * Cached in place of the properties which don't exist, since {@link ConcurrentMap} doesn't support null values.
+     */
+    private static final Object NULL = new Object();
+
+    /**
+     * Used to read the properties which are not cached yet.
+     */
+    @Inject
+    private DocumentAccessBridge documentAccessBridge;
+
+    /**
+     * Used to be notified when documents are modified.
+     */
+    @Inject
+    private ObservationManager observation;
+
+    /**
+     * Used to create the cache.
+     */
+    @Inject
+    private CacheManager cacheManager;
+
+    /**
+     * Used to generate the cache keys.
+     */
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    /**
+     * The cached properties, by document. Map: (class -&gt; map: (property name -&gt; value)).
+     */
+    private Cache<ConcurrentMap<DocumentReference, ConcurrentMap<String, Object>>> documents;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        CacheConfiguration configuration = new CacheConfiguration();
+        configuration.setConfigurationId("configuration.documentproperties");
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(CACHE_SIZE);
+        configuration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+
+        try {
+            this.documents = this.cacheManager.createNewLocalCache(configuration);
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the document properties cache", e);
+        }
+
+        this.observation.addListener(new EventListener()
+        {
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                documents.remove(getKey(((DocumentModelBridge) source).getDocumentReference()));
+            }
+
+            @Override
+            public String getName()
+            {
+                return DefaultDocumentPropertiesCache.class.getName();
+            }
+
+            @Override
+            public List<Event> getEvents()
+            {
+                return EVENTS;
+            }
+        });
+    }
+
+    @Override
+    public Object getProperty(DocumentReference documentReference, DocumentReference classReference,
+        String propertyName)
+    {
+        ConcurrentMap<String, Object> properties = getProperties(documentReference, classReference);
+
+        Object value = properties.get(propertyName);
+        if (value == null) {
+            value = this.documentAccessBridge.getProperty(documentReference, classReference, propertyName);
+            properties.put(propertyName, value != null ? value : NULL);
+        }
+
+        return value != NULL ? value : null;
+    }
+
+    private ConcurrentMap<String, Object> getProperties(DocumentReference documentReference,
+        DocumentReference classReference)
+    {
+        String key = getKey(documentReference);
+
+        ConcurrentMap<DocumentReference, ConcurrentMap<String, Object>> objects = this.documents.get(key);
+        if (objects == null) {
+            // Two threads may register a snapshot at the same time, in which case the properties read by the loser
+            // are read again the next time
+            objects = new ConcurrentHashMap<DocumentReference, ConcurrentMap<String, Object>>();
+            this.documents.set(key, objects);
+        }
+
+        ConcurrentMap<String, Object> properties = objects.get(classReference);
+        if (properties == null) {
+            properties = new ConcurrentHashMap<String, Object>();
+            ConcurrentMap<String, Object> existing = objects.putIfAbsent(classReference, properties);
+            if (existing != null) {
+                properties = existing;
+            }
+        }
+
+        return properties;
+    }
+
+    private String getKey(DocumentReference documentReference)
+    {
+        return this.serializer.serialize(documentReference);
+    }
+}
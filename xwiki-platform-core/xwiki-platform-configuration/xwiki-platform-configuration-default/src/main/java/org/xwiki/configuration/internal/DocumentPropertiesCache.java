@@ -0,0 +1,43 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.configuration.internal;
+
+import org.xwiki.component.annotation.ComponentRole;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Keeps in memory the object properties read by the document configuration sources, so that reading a configuration
+ * property doesn't need to access the document once it has been read. The cached properties of a document are
+ * discarded when the document is modified.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+@ComponentRole
+public interface DocumentPropertiesCache
+{
+    /**
+     * @param documentReference the reference of the document containing the object
+     * @param classReference the reference of the class of the object
+     * @param propertyName the name of the property
+     * @return the value of the property, or null if the document, the object or the property doesn't exist
+     */
+    Object getProperty(DocumentReference documentReference, DocumentReference classReference, String propertyName);
+}
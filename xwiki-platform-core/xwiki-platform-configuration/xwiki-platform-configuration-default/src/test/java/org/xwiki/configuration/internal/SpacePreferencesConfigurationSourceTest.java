@@ -23,8 +23,12 @@
 import org.junit.Assert;
 import org.junit.Test;
 import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.ObservationManager;
 import org.xwiki.test.AbstractComponentTestCase;
 
 /**
@@ -42,6 +46,15 @@ protected void registerComponents() throws Exception
     {
         super.registerComponents();
         this.bridge = registerMockComponent(DocumentAccessBridge.class);
+
+        // Needed by the cache of the document properties, there's no configuration file in the tests
+        final Environment environment = registerMockComponent(Environment.class);
+        getMockery().checking(new Expectations() {{
+            allowing(environment).getResource(with(any(String.class)));
+                will(returnValue(null));
+            allowing(environment).getResourceAsStream(with(any(String.class)));
+                will(returnValue(null));
+        }});
     }
 
     @Test
@@ -63,4 +76,37 @@ public void testGetPropertyForStringWhenExists() throws Exception
 
         Assert.assertEquals("value", result);
     }
+
+    @Test
+    public void testGetPropertyIsCachedUntilDocumentIsUpdated() throws Exception
+    {
+        ConfigurationSource source = getComponentManager().lookup(ConfigurationSource.class, "space");
+
+        final DocumentReference webPreferencesReference = new DocumentReference("wiki", "space", "WebPreferences");
+        final DocumentReference currentDocument = new DocumentReference("wiki", "space", "page");
+        final DocumentModelBridge webPreferences = getMockery().mock(DocumentModelBridge.class);
+
+        getMockery().checking(new Expectations() {{
+            allowing(bridge).getCurrentDocumentReference();
+                will(returnValue(currentDocument));
+            oneOf(bridge).getProperty(webPreferencesReference, webPreferencesReference, "key");
+                will(returnValue("value"));
+            allowing(webPreferences).getDocumentReference();
+                will(returnValue(webPreferencesReference));
+        }});
+
+        // The second call is answered from the cache.
+        Assert.assertTrue(source.containsKey("key"));
+        Assert.assertEquals("value", source.getProperty("key", String.class));
+
+        getComponentManager().lookup(ObservationManager.class).notify(
+            new DocumentUpdatedEvent(webPreferencesReference), webPreferences, null);
+
+        getMockery().checking(new Expectations() {{
+            oneOf(bridge).getProperty(webPreferencesReference, webPreferencesReference, "key");
+                will(returnValue("newvalue"));
+        }});
+
+        Assert.assertEquals("newvalue", source.getProperty("key", String.class));
+    }
 }
@@ -19,6 +19,7 @@
  */
 package org.xwiki.extension.xar.internal.handler.packager;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -26,7 +27,16 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -37,6 +47,7 @@
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.CloseShieldInputStream;
 import org.slf4j.Logger;
 import org.xml.sax.ContentHandler;
@@ -49,7 +60,7 @@
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
-import org.xwiki.extension.xar.internal.handler.packager.xml.DocumentImporterHandler;
+import org.xwiki.extension.xar.internal.handler.packager.xml.DocumentHandler;
 import org.xwiki.extension.xar.internal.handler.packager.xml.RootHandler;
 import org.xwiki.extension.xar.internal.handler.packager.xml.UnknownRootElement;
 import org.xwiki.extension.xar.internal.handler.packager.xml.XarPageLimitedHandler;
@@ -64,6 +75,7 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.internal.event.XARImportedEvent;
 import com.xpn.xwiki.internal.event.XARImportingEvent;
+import com.xpn.xwiki.store.XWikiHibernateStore;
 
 /**
  * Default implementation of {@link Packager}.
@@ -75,6 +87,26 @@
 @Singleton
 public class DefaultPackager implements Packager, Initializable
 {
+    /**
+     * The number of threads parsing the XAR entries.
+     */
+    private static final int PARSER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The maximum number of documents saved in the same transaction.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * The maximum size (in bytes) of the XAR entries of the documents saved in the same transaction.
+     */
+    private static final long BATCH_MAX_BYTES = 10 * 1024 * 1024;
+
+    /**
+     * The maximum size (in bytes) of the XAR entries read in advance, waiting to be imported.
+     */
+    private static final long READ_AHEAD_MAX_BYTES = 10 * 1024 * 1024;
+
     @Inject
     private ComponentManager componentManager;
 
@@ -96,10 +128,26 @@ public class DefaultPackager implements Packager, Initializable
 
     private SAXParserFactory parserFactory;
 
+    private ThreadFactory parserThreadFactory;
+
     @Override
     public void initialize() throws InitializationException
     {
         this.parserFactory = SAXParserFactory.newInstance();
+
+        this.parserThreadFactory = new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "XAR import parser " + this.count.incrementAndGet());
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        };
     }
 
     @Override
@@ -146,34 +194,51 @@ private XarMergeResult importXARToWiki(XarFile previousXarFile, InputStream xarI
 
         XWikiContext xcontext = getXWikiContext();
 
+        // The entries are parsed in parallel but imported in the order of the XAR, by batches of documents saved in
+        // the same transaction
+        ExecutorService parsers = Executors.newFixedThreadPool(PARSER_THREADS, this.parserThreadFactory);
+
         String currentWiki = xcontext.getDatabase();
         try {
             xcontext.setDatabase(wiki);
 
             this.observation.notify(new XARImportingEvent(), null, xcontext);
 
-            for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
-                if (!entry.isDirectory()) {
-                    try {
-                        DocumentImporterHandler documentHandler =
-                            new DocumentImporterHandler(this, this.componentManager, wiki);
-                        documentHandler.setPreviousXarFile(previousXarFile);
-                        documentHandler.setConfiguration(configuration);
-
-                        parseDocument(zis, documentHandler);
+            XWikiHibernateStore store = xcontext.getWiki().getHibernateStore();
+            XarImportBatch batch =
+                new XarImportBatch(new DocumentImporter(this, this.componentManager, previousXarFile, configuration),
+                    store != null ? new XarImportTransaction(store, this.observation, xcontext) : null, mergeResult);
 
-                        if (documentHandler.getMergeResult() != null) {
-                            mergeResult.addMergeResult(documentHandler.getMergeResult());
+            Queue<ParsedXarEntry> parsedEntries = new LinkedList<ParsedXarEntry>();
+            long parsedBytes = 0;
+            try {
+                for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+                    if (!entry.isDirectory()) {
+                        ParsedXarEntry parsedEntry = new ParsedXarEntry(entry.getName(), IOUtils.toByteArray(zis));
+                        parsedEntry.document =
+                            parsers.submit(new ParseTask(parsedEntry, wiki, createParserContext(xcontext)));
+                        parsedEntries.add(parsedEntry);
+                        parsedBytes += parsedEntry.content.length;
+
+                        // Don't read too many entries in advance since they are kept in memory until imported: a few
+                        // small ones or a single big one
+                        while (parsedEntries.size() > PARSER_THREADS * 2 || parsedBytes > READ_AHEAD_MAX_BYTES) {
+                            ParsedXarEntry importedEntry = parsedEntries.poll();
+                            parsedBytes -= importedEntry.content.length;
+                            batch.add(importedEntry, xcontext);
                         }
-                    } catch (NotADocumentException e) {
-                        // Impossible to know that before parsing
-                        this.logger.debug("Entry [" + entry + "] is not a document", e);
-                    } catch (Exception e) {
-                        this.logger.error("Failed to parse document [" + entry.getName() + "]", e);
                     }
                 }
+
+                while (!parsedEntries.isEmpty()) {
+                    batch.add(parsedEntries.poll(), xcontext);
+                }
+            } finally {
+                batch.end(xcontext);
             }
         } finally {
+            parsers.shutdownNow();
+
             this.observation.notify(new XARImportedEvent(), null, xcontext);
 
             xcontext.setDatabase(currentWiki);
@@ -182,6 +247,36 @@ private XarMergeResult importXARToWiki(XarFile previousXarFile, InputStream xarI
         return mergeResult;
     }
 
+    /**
+     * @param xcontext the XWiki context of the import
+     * @return a copy of the XWiki context which can safely be used by a parser thread
+     */
+    private XWikiContext createParserContext(XWikiContext xcontext)
+    {
+        XWikiContext parserContext = xcontext.clone();
+
+        // The Hibernate session and transaction (of the current batch) belong to the import thread
+        parserContext.remove("hibsession");
+        parserContext.remove("hibtransaction");
+
+        return parserContext;
+    }
+
+    /**
+     * @param entry the XAR entry to parse
+     * @param wiki the wiki where the document is imported
+     * @return the document parsed from the XAR entry
+     */
+    private XWikiDocument parseDocument(ParsedXarEntry entry, String wiki) throws ParserConfigurationException,
+        SAXException, IOException, NotADocumentException
+    {
+        DocumentHandler documentHandler = new DocumentHandler(this.componentManager, wiki);
+
+        parseDocument(new ByteArrayInputStream(entry.content), documentHandler);
+
+        return documentHandler.getDocument();
+    }
+
     @Override
     public void unimportXAR(File xarFile, PackageConfiguration configuration) throws IOException, XWikiException
     {
@@ -299,7 +394,11 @@ public List<XarEntry> getEntries(File xarFile) throws IOException
     public void parseDocument(InputStream in, ContentHandler documentHandler) throws ParserConfigurationException,
         SAXException, IOException, NotADocumentException
     {
-        SAXParser saxParser = this.parserFactory.newSAXParser();
+        SAXParser saxParser;
+        // SAXParserFactory is not thread safe
+        synchronized (this.parserFactory) {
+            saxParser = this.parserFactory.newSAXParser();
+        }
         XMLReader xmlReader = saxParser.getXMLReader();
 
         RootHandler handler = new RootHandler(this.componentManager);
@@ -313,6 +412,219 @@ public void parseDocument(InputStream in, ContentHandler documentHandler) throws
         }
     }
 
+    /**
+     * The content of a XAR entry and the document being parsed from it.
+     */
+    private static class ParsedXarEntry
+    {
+        private final String name;
+
+        private final byte[] content;
+
+        private Future<XWikiDocument> document;
+
+        ParsedXarEntry(String name, byte[] content)
+        {
+            this.name = name;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Parse a XAR entry in a parser thread, with a copy of the XWiki context of the import.
+     */
+    private class ParseTask implements Callable<XWikiDocument>
+    {
+        private final ParsedXarEntry entry;
+
+        private final String wiki;
+
+        private final XWikiContext xcontext;
+
+        ParseTask(ParsedXarEntry entry, String wiki, XWikiContext xcontext)
+        {
+            this.entry = entry;
+            this.wiki = wiki;
+            this.xcontext = xcontext;
+        }
+
+        @Override
+        public XWikiDocument call() throws Exception
+        {
+            ExecutionContext context = new ExecutionContext();
+            context.setProperty("xwikicontext", this.xcontext);
+            execution.setContext(context);
+
+            try {
+                return parseDocument(this.entry, this.wiki);
+            } finally {
+                // Don't keep the context in the pooled thread
+                execution.removeContext();
+            }
+        }
+    }
+
+    /**
+     * Import the parsed documents, in the order of the XAR, by batches saved in the same transaction. When a batch
+     * fails the transaction is rolled back and the documents of the batch are imported again one by one, each in its
+     * own transaction, so that a broken document does not prevent the others from being imported.
+     */
+    private class XarImportBatch
+    {
+        private final DocumentImporter importer;
+
+        private final XarImportTransaction transaction;
+
+        private final XarMergeResult mergeResult;
+
+        private final List<ParsedXarEntry> entries = new ArrayList<ParsedXarEntry>();
+
+        private final List<XarEntryMergeResult> mergeResults = new ArrayList<XarEntryMergeResult>();
+
+        private long size;
+
+        XarImportBatch(DocumentImporter importer, XarImportTransaction transaction, XarMergeResult mergeResult)
+        {
+            this.importer = importer;
+            this.transaction = transaction;
+            this.mergeResult = mergeResult;
+        }
+
+        void add(ParsedXarEntry entry, XWikiContext xcontext)
+        {
+            XWikiDocument document = getDocument(entry);
+
+            if (document == null) {
+                return;
+            }
+
+            // Classes with a custom mapping need their own session factory
+            if (this.transaction == null || document.getXClass().hasCustomMapping()) {
+                end(xcontext);
+                importDocument(entry, document, xcontext);
+
+                return;
+            }
+
+            try {
+                if (!this.transaction.isActive() && !this.transaction.begin()) {
+                    // Already in a transaction, the document simply joins it
+                    importDocument(entry, document, xcontext);
+
+                    return;
+                }
+            } catch (XWikiException e) {
+                logger.error("Failed to start a transaction for document [" + entry.name + "]", e);
+
+                importDocument(entry, document, xcontext);
+
+                return;
+            }
+
+            this.entries.add(entry);
+            this.size += entry.content.length;
+
+            try {
+                this.importer.setTransaction(this.transaction);
+                XarEntryMergeResult entryMergeResult = this.importer.importDocument(document, xcontext);
+                if (entryMergeResult != null) {
+                    this.mergeResults.add(entryMergeResult);
+                }
+            } catch (Exception e) {
+                logger.warn("Failed to import document [" + entry.name + "] in a batch, importing the batch documents"
+                    + " one by one", e);
+
+                retry(xcontext);
+
+                return;
+            } finally {
+                this.importer.setTransaction(null);
+            }
+
+            if (this.entries.size() >= BATCH_SIZE || this.size >= BATCH_MAX_BYTES) {
+                end(xcontext);
+            }
+        }
+
+        void end(XWikiContext xcontext)
+        {
+            if (this.transaction != null && this.transaction.isActive()) {
+                try {
+                    this.transaction.commit();
+                } catch (Exception e) {
+                    logger.warn("Failed to commit the import of [" + this.entries.size() + "] documents, importing"
+                        + " them one by one", e);
+
+                    retry(xcontext);
+
+                    return;
+                }
+
+                for (XarEntryMergeResult entryMergeResult : this.mergeResults) {
+                    this.mergeResult.addMergeResult(entryMergeResult);
+                }
+            }
+
+            clear();
+        }
+
+        private void retry(XWikiContext xcontext)
+        {
+            this.transaction.rollback();
+            this.importer.setTransaction(null);
+
+            List<ParsedXarEntry> failedEntries = new ArrayList<ParsedXarEntry>(this.entries);
+            clear();
+
+            for (ParsedXarEntry entry : failedEntries) {
+                // The documents may have been modified by the failed import, parse them again
+                try {
+                    importDocument(entry, parseDocument(entry, xcontext.getDatabase()), xcontext);
+                } catch (Exception e) {
+                    logger.error("Failed to parse document [" + entry.name + "]", e);
+                }
+            }
+        }
+
+        private void clear()
+        {
+            this.entries.clear();
+            this.mergeResults.clear();
+            this.size = 0;
+        }
+
+        private XWikiDocument getDocument(ParsedXarEntry entry)
+        {
+            try {
+                return entry.document.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error("Interrupted while parsing document [" + entry.name + "]", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof NotADocumentException) {
+                    // Impossible to know that before parsing
+                    logger.debug("Entry [" + entry.name + "] is not a document", e.getCause());
+                } else {
+                    logger.error("Failed to parse document [" + entry.name + "]", e.getCause());
+                }
+            }
+
+            return null;
+        }
+
+        private void importDocument(ParsedXarEntry entry, XWikiDocument document, XWikiContext xcontext)
+        {
+            try {
+                XarEntryMergeResult entryMergeResult = this.importer.importDocument(document, xcontext);
+                if (entryMergeResult != null) {
+                    this.mergeResult.addMergeResult(entryMergeResult);
+                }
+            } catch (Exception e) {
+                logger.error("Failed to import document [" + entry.name + "]", e);
+            }
+        }
+    }
+
     private ExecutionContext getExecutionContext()
     {
         return this.execution.getContext();
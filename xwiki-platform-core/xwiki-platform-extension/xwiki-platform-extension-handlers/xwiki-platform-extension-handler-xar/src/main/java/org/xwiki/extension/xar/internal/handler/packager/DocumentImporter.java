@@ -17,23 +17,19 @@
  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
  */
-package org.xwiki.extension.xar.internal.handler.packager.xml;
+package org.xwiki.extension.xar.internal.handler.packager;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.commons.lang3.StringUtils;
 import org.xml.sax.SAXException;
-import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.extension.xar.internal.handler.ConflictQuestion;
-import org.xwiki.extension.xar.internal.handler.packager.DefaultPackager;
-import org.xwiki.extension.xar.internal.handler.packager.NotADocumentException;
-import org.xwiki.extension.xar.internal.handler.packager.PackageConfiguration;
-import org.xwiki.extension.xar.internal.handler.packager.XarEntry;
-import org.xwiki.extension.xar.internal.handler.packager.XarEntryMergeResult;
-import org.xwiki.extension.xar.internal.handler.packager.XarFile;
+import org.xwiki.extension.xar.internal.handler.packager.xml.DocumentHandler;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
@@ -45,39 +41,59 @@
 import com.xpn.xwiki.doc.merge.MergeResult;
 
 /**
+ * Save a document parsed from a XAR entry, merging it with the current version of the document and the version found
+ * in the previous XAR when there is one.
+ * 
  * @version $Id$
- * @since 4.0M2
+ * @since 4.0M1
  */
-public class DocumentImporterHandler extends DocumentHandler
+public class DocumentImporter
 {
     private XarFile previousXarFile;
 
     private DefaultPackager packager;
 
-    private XarEntryMergeResult mergeResult;
+    private ComponentManager componentManager;
 
     private PackageConfiguration configuration;
 
-    public DocumentImporterHandler(DefaultPackager packager, ComponentManager componentManager, String wiki)
-    {
-        super(componentManager, wiki);
-
-        this.packager = packager;
-    }
+    private XarImportTransaction transaction;
 
-    public void setPreviousXarFile(XarFile previousXarFile)
+    public DocumentImporter(DefaultPackager packager, ComponentManager componentManager, XarFile previousXarFile,
+        PackageConfiguration configuration)
     {
+        this.packager = packager;
+        this.componentManager = componentManager;
         this.previousXarFile = previousXarFile;
+        this.configuration = configuration;
     }
 
-    public void setConfiguration(PackageConfiguration configuration)
+    /**
+     * @param transaction the transaction in which the documents are saved, null if each document is saved in its own
+     *            transaction
+     */
+    public void setTransaction(XarImportTransaction transaction)
     {
-        this.configuration = configuration;
+        this.transaction = transaction;
     }
 
-    public XarEntryMergeResult getMergeResult()
+    /**
+     * @param document the document parsed from the XAR entry
+     * @param context the XWiki context
+     * @return the result of the merge with the current document, null if no merge was needed
+     * @throws Exception when failing to import the document
+     */
+    public XarEntryMergeResult importDocument(XWikiDocument document, XWikiContext context) throws Exception
     {
-        return this.mergeResult;
+        List<XWikiAttachment> attachments = new ArrayList<XWikiAttachment>(document.getAttachmentList());
+
+        // The attachments are saved one by one and their content released right after, so that they are not all sent
+        // to the database with the final save
+        for (XWikiAttachment attachment : attachments) {
+            saveAttachment(document, attachment, "Import: add attachment", context);
+        }
+
+        return saveDocument(document, attachments.isEmpty() ? "Import" : "Import: final save", context);
     }
 
     private DocumentReference getUserReference(XWikiContext context)
@@ -91,9 +107,10 @@ private DocumentReference getUserReference(XWikiContext context)
         return userReference;
     }
 
-    private void saveDocument(XWikiDocument document, String comment, XWikiContext context) throws Exception
+    private void saveDocument(XWikiDocument nextDocument, XWikiDocument document, String comment,
+        XWikiContext context) throws Exception
     {
-        XWikiDocument currentDocument = getDatabaseDocument();
+        XWikiDocument currentDocument = getDatabaseDocument(nextDocument, context);
         DocumentReference userReference = getUserReference(context);
 
         if (!currentDocument.isNew()) {
@@ -112,7 +129,18 @@ private void saveDocument(XWikiDocument document, String comment, XWikiContext c
         currentDocument.setAuthorReference(userReference);
         currentDocument.setContentAuthorReference(userReference);
 
-        context.getWiki().saveDocument(currentDocument, comment, context);
+        save(currentDocument, comment, context);
+    }
+
+    private void save(XWikiDocument document, String comment, XWikiContext context) throws XWikiException
+    {
+        if (this.transaction != null) {
+            // The listeners are notified when the transaction is committed, the batch may still be rolled back
+            this.transaction.saveDocument(document, comment);
+            this.transaction.flush();
+        } else {
+            context.getWiki().saveDocument(document, comment, context);
+        }
     }
 
     private XWikiDocument askDocumentToSave(XWikiDocument currentDocument, XWikiDocument previousDocument,
@@ -153,62 +181,63 @@ private XWikiDocument askDocumentToSave(XWikiDocument currentDocument, XWikiDocu
         return documentToSave;
     }
 
-    private void saveDocument(String comment) throws SAXException
+    private XarEntryMergeResult saveDocument(XWikiDocument nextDocument, String comment, XWikiContext context)
+        throws Exception
     {
-        try {
-            XWikiContext context = getXWikiContext();
+        XarEntryMergeResult mergeResult = null;
 
-            XWikiDocument currentDocument = getDatabaseDocument();
-            XWikiDocument nextDocument = getDocument();
+        XWikiDocument currentDocument = getDatabaseDocument(nextDocument, context);
 
-            // Merge and save
-            if (currentDocument != null && !currentDocument.isNew()) {
-                XWikiDocument previousDocument = getPreviousDocument();
+        // Merge and save
+        if (currentDocument != null && !currentDocument.isNew()) {
+            XWikiDocument previousDocument = getPreviousDocument(nextDocument);
 
-                if (previousDocument != null) {
-                    XWikiDocument mergedDocument = currentDocument.clone();
+            if (previousDocument != null) {
+                XWikiDocument mergedDocument = currentDocument.clone();
 
-                    MergeResult documentMergeResult =
-                        mergedDocument.merge(previousDocument, nextDocument,
-                            this.configuration.getMergeConfiguration(), context);
+                MergeResult documentMergeResult =
+                    mergedDocument.merge(previousDocument, nextDocument, this.configuration.getMergeConfiguration(),
+                        context);
 
-                    if (documentMergeResult.isModified()) {
-                        if (this.configuration.isInteractive() && !documentMergeResult.getErrors().isEmpty()) {
-                            XWikiDocument documentToSave =
-                                askDocumentToSave(currentDocument, previousDocument, nextDocument, mergedDocument);
+                if (documentMergeResult.isModified()) {
+                    if (this.configuration.isInteractive() && !documentMergeResult.getErrors().isEmpty()) {
+                        XWikiDocument documentToSave =
+                            askDocumentToSave(currentDocument, previousDocument, nextDocument, mergedDocument);
 
-                            if (documentToSave != currentDocument) {
-                                saveDocument(documentToSave, comment, context);
-                            }
-                        } else {
-                            saveDocument(mergedDocument, comment, context);
+                        if (documentToSave != currentDocument) {
+                            saveDocument(nextDocument, documentToSave, comment, context);
                         }
+                    } else {
+                        saveDocument(nextDocument, mergedDocument, comment, context);
                     }
-
-                    this.mergeResult =
-                        new XarEntryMergeResult(new XarEntry(mergedDocument.getDocumentReference(),
-                            mergedDocument.getLanguage()), documentMergeResult);
-                } else {
-                    saveDocument(nextDocument, comment, context);
                 }
+
+                mergeResult =
+                    new XarEntryMergeResult(new XarEntry(mergedDocument.getDocumentReference(),
+                        mergedDocument.getLanguage()), documentMergeResult);
             } else {
-                saveDocument(nextDocument, comment, context);
+                saveDocument(nextDocument, nextDocument, comment, context);
             }
-        } catch (Exception e) {
-            throw new SAXException("Failed to save document", e);
+        } else {
+            saveDocument(nextDocument, nextDocument, comment, context);
         }
+
+        return mergeResult;
     }
 
-    private XWikiDocument getDatabaseDocument() throws ComponentLookupException, XWikiException
+    private XWikiDocument getDatabaseDocument(XWikiDocument document, XWikiContext context) throws XWikiException
     {
-        XWikiContext context = getXWikiContext();
-        XWikiDocument document = getDocument();
-
-        XWikiDocument existingDocument = context.getWiki().getDocument(document.getDocumentReference(), context);
+        XWikiDocument existingDocument;
+        if (this.transaction != null) {
+            // Don't cache the documents of a batch which can still be rolled back
+            existingDocument = this.transaction.loadDocument(document.getDocumentReference(), null);
+        } else {
+            existingDocument = context.getWiki().getDocument(document.getDocumentReference(), context);
+        }
 
         if (StringUtils.isNotEmpty(document.getLanguage())) {
             String defaultLanguage = existingDocument.getDefaultLanguage();
-            XWikiDocument translatedDocument = existingDocument.getTranslatedDocument(document.getLanguage(), context);
+            XWikiDocument translatedDocument = getTranslatedDocument(existingDocument, document.getLanguage(), context);
 
             if (translatedDocument == existingDocument) {
                 translatedDocument = new XWikiDocument(document.getDocumentReference());
@@ -223,15 +252,32 @@ private XWikiDocument getDatabaseDocument() throws ComponentLookupException, XWi
         return existingDocument;
     }
 
-    private XWikiDocument getPreviousDocument() throws NotADocumentException, ParserConfigurationException,
-        SAXException, IOException
+    private XWikiDocument getTranslatedDocument(XWikiDocument document, String language, XWikiContext context)
+        throws XWikiException
+    {
+        XWikiDocument translatedDocument = document;
+
+        if (this.transaction != null) {
+            if (!language.equals(document.getDefaultLanguage())) {
+                XWikiDocument loadedDocument = this.transaction.loadDocument(document.getDocumentReference(), language);
+                if (!loadedDocument.isNew()) {
+                    translatedDocument = loadedDocument;
+                }
+            }
+        } else {
+            translatedDocument = document.getTranslatedDocument(language, context);
+        }
+
+        return translatedDocument;
+    }
+
+    private XWikiDocument getPreviousDocument(XWikiDocument document) throws NotADocumentException,
+        ParserConfigurationException, SAXException, IOException
     {
         XWikiDocument previousDocument = null;
 
         if (this.previousXarFile != null) {
-            XWikiDocument document = getDocument();
-
-            DocumentHandler documentHandler = new DocumentHandler(getComponentManager(), document.getWikiName());
+            DocumentHandler documentHandler = new DocumentHandler(this.componentManager, document.getWikiName());
 
             XarEntry realEntry =
                 this.previousXarFile.getEntry(new EntityReference(document.getName(), EntityType.DOCUMENT,
@@ -246,18 +292,16 @@ private XWikiDocument getPreviousDocument() throws NotADocumentException, Parser
         return previousDocument;
     }
 
-    private void saveAttachment(XWikiAttachment attachment, String comment) throws SAXException
+    private void saveAttachment(XWikiDocument document, XWikiAttachment attachment, String comment,
+        XWikiContext context) throws XWikiException
     {
         try {
-            XWikiContext context = getXWikiContext();
-
             // Set proper author
             // TODO: add a setAuthorReference in XWikiAttachment
-            XWikiDocument document = getDocument();
             document.setAuthorReference(context.getUserReference());
             attachment.setAuthor(document.getAuthor());
 
-            XWikiDocument dbDocument = getDatabaseDocument();
+            XWikiDocument dbDocument = getDatabaseDocument(document, context);
 
             XWikiAttachment dbAttachment = dbDocument.getAttachment(attachment.getFilename());
 
@@ -269,27 +313,14 @@ private void saveAttachment(XWikiAttachment attachment, String comment) throws S
                 dbAttachment.setAuthor(attachment.getAuthor());
             }
 
-            context.getWiki().saveDocument(dbDocument, comment, context);
+            save(dbDocument, comment, context);
 
             // reset content to since it could consume lots of memory and it's not used in diff for now
             attachment.setAttachment_content(null);
-            getDocument().getAttachmentList().add(attachment);
-        } catch (Exception e) {
-            throw new SAXException("Failed to save attachment [" + attachment + "]", e);
+        } catch (IOException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SAVING_ATTACHMENT, "Failed to save attachment ["
+                    + attachment + "]", e);
         }
     }
-
-    @Override
-    protected void endAttachment(String uri, String localName, String qName) throws SAXException
-    {
-        AttachmentHandler handler = (AttachmentHandler) getCurrentHandler();
-
-        saveAttachment(handler.getAttachment(), "Import: add attachment");
-    }
-
-    @Override
-    protected void endHandlerElement(String uri, String localName, String qName) throws SAXException
-    {
-        saveDocument(getDocument().getAttachmentList().isEmpty() ? "Import" : "Import: final save");
-    }
 }
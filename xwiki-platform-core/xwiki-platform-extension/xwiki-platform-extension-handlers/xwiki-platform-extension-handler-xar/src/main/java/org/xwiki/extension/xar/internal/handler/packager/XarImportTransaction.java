@@ -0,0 +1,288 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.extension.xar.internal.handler.packager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentCreatingEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.DocumentUpdatingEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.store.XWikiCacheStore;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+
+/**
+ * Save several imported documents in the same database transaction. The documents saved while the transaction is
+ * active join it, and the document cache entries of the batch are invalidated again once the transaction is ended, so
+ * that no other thread keeps a version of the documents loaded before the commit (or from the rolled back
+ * transaction). The documents are loaded in the transaction without going through the document cache since they can
+ * contain changes which are not committed yet.
+ * <p>
+ * The listeners are notified that the documents have been created or updated only once the transaction is committed:
+ * the documents of a rolled back transaction are imported again, and notified, one by one.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+public class XarImportTransaction
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(XarImportTransaction.class);
+
+    private final XWikiHibernateStore store;
+
+    private final ObservationManager observation;
+
+    private final XWikiContext context;
+
+    private final Set<String> documentKeys = new LinkedHashSet<String>();
+
+    private final List<SavedDocument> savedDocuments = new ArrayList<SavedDocument>();
+
+    private boolean active;
+
+    /**
+     * @param store the store used to save the documents
+     * @param observation the observation manager used to notify the listeners of the saved documents
+     * @param context the XWiki context
+     */
+    public XarImportTransaction(XWikiHibernateStore store, ObservationManager observation, XWikiContext context)
+    {
+        this.store = store;
+        this.observation = observation;
+        this.context = context;
+    }
+
+    /**
+     * @return true if the transaction has been started and not ended yet
+     */
+    public boolean isActive()
+    {
+        return this.active;
+    }
+
+    /**
+     * @return the number of documents saved in the transaction
+     */
+    public int size()
+    {
+        return this.savedDocuments.size();
+    }
+
+    /**
+     * Start the transaction.
+     * 
+     * @return true if a new transaction has been started, false if the current thread was already in a transaction
+     *         (in which case the imported documents are simply saved in it)
+     * @throws XWikiException when failing to start the transaction
+     */
+    public boolean begin() throws XWikiException
+    {
+        this.active = this.store.beginTransaction(this.context);
+
+        return this.active;
+    }
+
+    /**
+     * Send to the database the changes made in the current transaction so that the following queries of the
+     * transaction (like the existence checks done when saving a document) take them into account.
+     */
+    public void flush()
+    {
+        if (this.active) {
+            Session session = this.store.getSession(this.context);
+            if (session != null) {
+                session.flush();
+            }
+        }
+    }
+
+    /**
+     * Load a document from the database in the transaction. The document is not put in the document cache: it would
+     * be seen by the other threads while the transaction can still be rolled back.
+     * 
+     * @param documentReference the reference of the document to load
+     * @param language the language of the translation to load, empty for the default translation
+     * @return the loaded document, a new document when it does not exist
+     * @throws XWikiException when failing to load the document
+     */
+    public XWikiDocument loadDocument(DocumentReference documentReference, String language) throws XWikiException
+    {
+        XWikiDocument document = new XWikiDocument(documentReference);
+        document.setContentDirty(true);
+        if (StringUtils.isNotEmpty(language)) {
+            document.setLanguage(language);
+        }
+
+        String database = this.context.getDatabase();
+        try {
+            this.context.setDatabase(documentReference.getWikiReference().getName());
+
+            return this.store.loadXWikiDoc(document, this.context);
+        } finally {
+            this.context.setDatabase(database);
+        }
+    }
+
+    /**
+     * Save a document in the transaction like {@link com.xpn.xwiki.XWiki#saveDocument(XWikiDocument, String,
+     * XWikiContext)} does, except that the listeners are notified that the document has been saved only once the
+     * transaction is committed.
+     * 
+     * @param document the document to save
+     * @param comment the comment of the new version of the document
+     * @throws XWikiException when failing to save the document
+     */
+    public void saveDocument(XWikiDocument document, String comment) throws XWikiException
+    {
+        document.setComment(StringUtils.defaultString(comment));
+        document.setMinorEdit(false);
+
+        // saveXWikiDoc() resets the original document, which is needed for the notification
+        XWikiDocument originalDocument = document.getOriginalDocument();
+        if (originalDocument == null) {
+            originalDocument = new XWikiDocument(document.getDocumentReference());
+        }
+
+        if (originalDocument.isNew()) {
+            this.observation.notify(new DocumentCreatingEvent(document.getDocumentReference()), document, this.context);
+        } else {
+            this.observation.notify(new DocumentUpdatingEvent(document.getDocumentReference()), document, this.context);
+        }
+
+        // Registered before the save so that the cache entries are invalidated even when the save fails half way
+        this.documentKeys.add(document.getKey());
+        if (StringUtils.isNotEmpty(document.getLanguage())) {
+            // The default translation can be loaded (and cached) by the listeners of a translation
+            this.documentKeys.add(new XWikiDocument(document.getDocumentReference()).getKey());
+        }
+
+        this.context.getWiki().getStore().saveXWikiDoc(document, this.context);
+
+        this.savedDocuments.add(new SavedDocument(document, originalDocument));
+    }
+
+    /**
+     * Commit the transaction.
+     */
+    public void commit()
+    {
+        List<SavedDocument> committedDocuments = new ArrayList<SavedDocument>(this.savedDocuments);
+
+        end(true);
+
+        notifySaved(committedDocuments);
+    }
+
+    /**
+     * Rollback the transaction.
+     */
+    public void rollback()
+    {
+        end(false);
+    }
+
+    private void end(boolean commit)
+    {
+        try {
+            if (this.active) {
+                this.active = false;
+                this.store.endTransaction(this.context, commit);
+            }
+        } finally {
+            invalidateCache();
+            this.documentKeys.clear();
+            this.savedDocuments.clear();
+        }
+    }
+
+    private void notifySaved(List<SavedDocument> documents)
+    {
+        for (SavedDocument savedDocument : documents) {
+            XWikiDocument document = savedDocument.document;
+
+            Event event;
+            if (savedDocument.originalDocument.isNew()) {
+                event = new DocumentCreatedEvent(document.getDocumentReference());
+            } else {
+                event = new DocumentUpdatedEvent(document.getDocumentReference());
+            }
+
+            // The listeners access the version of the document before the save through its original document
+            XWikiDocument newOriginal = document.getOriginalDocument();
+            try {
+                document.setOriginalDocument(savedDocument.originalDocument);
+
+                this.observation.notify(event, document, this.context);
+            } catch (Exception e) {
+                LOGGER.error("Failed to send document save notification for document ["
+                    + document.getDocumentReference() + "]", e);
+            } finally {
+                document.setOriginalDocument(newOriginal);
+            }
+        }
+    }
+
+    private void invalidateCache()
+    {
+        XWikiStoreInterface cacheStore = this.context.getWiki().getStore();
+        if (cacheStore instanceof XWikiCacheStore) {
+            XWikiCacheStore xwikiCacheStore = (XWikiCacheStore) cacheStore;
+            for (String key : this.documentKeys) {
+                if (xwikiCacheStore.getCache() != null) {
+                    xwikiCacheStore.getCache().remove(key);
+                }
+                if (xwikiCacheStore.getPageExistCache() != null) {
+                    xwikiCacheStore.getPageExistCache().remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * A document saved in the transaction, with the version it replaced.
+     */
+    private static class SavedDocument
+    {
+        private final XWikiDocument document;
+
+        private final XWikiDocument originalDocument;
+
+        SavedDocument(XWikiDocument document, XWikiDocument originalDocument)
+        {
+            this.document = document;
+            this.originalDocument = originalDocument;
+        }
+    }
+}
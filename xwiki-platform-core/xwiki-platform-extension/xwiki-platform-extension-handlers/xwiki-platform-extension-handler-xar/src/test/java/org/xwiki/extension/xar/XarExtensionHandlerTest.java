@@ -218,6 +218,10 @@ public Object invoke(org.jmock.api.Invocation invocation) throws Throwable
 
                 allowing(mockXWiki).getStore();
                 will(returnValue(mockStore));
+
+                // No batch transaction
+                allowing(mockXWiki).getHibernateStore();
+                will(returnValue(null));
             }
         });
 
@@ -0,0 +1,287 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.extension.xar.internal.handler.packager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.IOUtils;
+import org.hibernate.Session;
+import org.jmock.Expectations;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+
+/**
+ * Validate the import of the documents of a XAR in batches saved in the same transaction.
+ * 
+ * @version $Id$
+ */
+public class DefaultPackagerTest extends AbstractBridgedComponentTestCase
+{
+    private Packager packager;
+
+    private File xarFile;
+
+    private DefaultPackageConfiguration configuration;
+
+    /**
+     * What happened during the import, in order.
+     */
+    private List<String> actions = new ArrayList<String>();
+
+    /**
+     * The documents loaded through the document cache.
+     */
+    private List<String> cachedDocuments = new ArrayList<String>();
+
+    /**
+     * The name of the document which can't be saved in a batch.
+     */
+    private String failingDocument;
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        final XWiki mockXWiki = getMockery().mock(XWiki.class);
+        final XWikiStoreInterface mockStore = getMockery().mock(XWikiStoreInterface.class);
+        final XWikiHibernateStore mockHibernateStore = getMockery().mock(XWikiHibernateStore.class);
+        final Session mockSession = getMockery().mock(Session.class);
+        final ObservationManager mockObservation = registerMockComponent(ObservationManager.class);
+
+        getContext().setWiki(mockXWiki);
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(mockXWiki).getDocument(with(any(DocumentReference.class)), with(any(XWikiContext.class)));
+                will(new CustomAction("getDocument")
+                {
+                    @Override
+                    public Object invoke(org.jmock.api.Invocation invocation) throws Throwable
+                    {
+                        DocumentReference documentReference = (DocumentReference) invocation.getParameter(0);
+                        cachedDocuments.add(documentReference.getName());
+
+                        return new XWikiDocument(documentReference);
+                    }
+                });
+
+                allowing(mockStore).loadXWikiDoc(with(any(XWikiDocument.class)), with(any(XWikiContext.class)));
+                will(new CustomAction("loadXWikiDoc")
+                {
+                    @Override
+                    public Object invoke(org.jmock.api.Invocation invocation) throws Throwable
+                    {
+                        return new XWikiDocument(((XWikiDocument) invocation.getParameter(0)).getDocumentReference());
+                    }
+                });
+
+                allowing(mockHibernateStore).loadXWikiDoc(with(any(XWikiDocument.class)),
+                    with(any(XWikiContext.class)));
+                will(new CustomAction("loadXWikiDoc")
+                {
+                    @Override
+                    public Object invoke(org.jmock.api.Invocation invocation) throws Throwable
+                    {
+                        return invocation.getParameter(0);
+                    }
+                });
+
+                allowing(mockXWiki).saveDocument(with(any(XWikiDocument.class)), with(any(String.class)),
+                    with(any(XWikiContext.class)));
+                will(new CustomAction("saveDocument")
+                {
+                    @Override
+                    public Object invoke(org.jmock.api.Invocation invocation) throws Throwable
+                    {
+                        XWikiDocument document = (XWikiDocument) invocation.getParameter(0);
+                        document.setNew(false);
+                        actions.add("save alone " + document.getName());
+
+                        return null;
+                    }
+                });
+
+                allowing(mockXWiki).isVirtualMode();
+                will(returnValue(true));
+
+                allowing(mockXWiki).getStore();
+                will(returnValue(mockStore));
+
+                allowing(mockXWiki).getHibernateStore();
+                will(returnValue(mockHibernateStore));
+
+                allowing(mockStore).saveXWikiDoc(with(any(XWikiDocument.class)), with(any(XWikiContext.class)));
+                will(new CustomAction("saveXWikiDoc")
+                {
+                    @Override
+                    public Object invoke(org.jmock.api.Invocation invocation) throws Throwable
+                    {
+                        XWikiDocument document = (XWikiDocument) invocation.getParameter(0);
+                        if (document.getName().equals(failingDocument)) {
+                            throw new XWikiException();
+                        }
+                        actions.add("save " + document.getName());
+
+                        return null;
+                    }
+                });
+
+                allowing(mockHibernateStore).beginTransaction(with(any(XWikiContext.class)));
+                will(new CustomAction("beginTransaction")
+                {
+                    @Override
+                    public Object invoke(org.jmock.api.Invocation invocation) throws Throwable
+                    {
+                        actions.add("begin");
+
+                        return true;
+                    }
+                });
+
+                allowing(mockHibernateStore).getSession(with(any(XWikiContext.class)));
+                will(returnValue(mockSession));
+
+                allowing(mockSession).flush();
+                will(new CustomAction("flush")
+                {
+                    @Override
+                    public Object invoke(org.jmock.api.Invocation invocation) throws Throwable
+                    {
+                        actions.add("flush");
+
+                        return null;
+                    }
+                });
+
+                allowing(mockHibernateStore).endTransaction(with(any(XWikiContext.class)), with(any(Boolean.class)));
+                will(new CustomAction("endTransaction")
+                {
+                    @Override
+                    public Object invoke(org.jmock.api.Invocation invocation) throws Throwable
+                    {
+                        actions.add((Boolean) invocation.getParameter(1) ? "commit" : "rollback");
+
+                        return null;
+                    }
+                });
+
+                allowing(mockObservation).notify(with(any(Event.class)), with(anything()), with(anything()));
+                will(new CustomAction("notify")
+                {
+                    @Override
+                    public Object invoke(org.jmock.api.Invocation invocation) throws Throwable
+                    {
+                        if (invocation.getParameter(0) instanceof DocumentCreatedEvent) {
+                            actions.add("created " + ((XWikiDocument) invocation.getParameter(1)).getName());
+                        }
+
+                        return null;
+                    }
+                });
+            }
+        });
+
+        getContext().setUserReference(new DocumentReference("xwiki", "XWiki", "ExtensionUser"));
+
+        this.packager = getComponentManager().lookupComponent(Packager.class);
+
+        this.configuration = new DefaultPackageConfiguration();
+        this.configuration.setWiki("wiki");
+
+        this.xarFile = createXAR("space1/page1.xml", "/packagefile/xarextension1/space1/page1.xml",
+            "space2/page2.xml", "/packagefile/xarextension2/space2/page2.xml");
+    }
+
+    private File createXAR(String... entries) throws Exception
+    {
+        File file = File.createTempFile("import", ".xar");
+        file.deleteOnExit();
+
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (int i = 0; i < entries.length; i += 2) {
+                zos.putNextEntry(new ZipEntry(entries[i]));
+                InputStream stream = getClass().getResourceAsStream(entries[i + 1]);
+                try {
+                    IOUtils.copy(stream, zos);
+                } finally {
+                    stream.close();
+                }
+                zos.closeEntry();
+            }
+        } finally {
+            zos.close();
+        }
+
+        return file;
+    }
+
+    @Test
+    public void testImportInBatch() throws Exception
+    {
+        this.packager.importXAR(null, this.xarFile, this.configuration);
+
+        // The session is flushed after each save and the listeners are notified once the transaction is committed
+        Assert.assertEquals(Arrays.asList("begin", "save page1", "flush", "save page2", "flush", "commit",
+            "created page1", "created page2"), this.actions);
+        // The documents of the batch are not loaded through the document cache
+        Assert.assertTrue(this.cachedDocuments.isEmpty());
+    }
+
+    @Test
+    public void testFailedBatchIsImportedAgainDocumentByDocument() throws Exception
+    {
+        this.failingDocument = "page2";
+
+        this.packager.importXAR(null, this.xarFile, this.configuration);
+
+        // The rolled back documents are saved again, each in its own transaction, and nothing is notified for the batch
+        Assert.assertEquals(Arrays.asList("begin", "save page1", "flush", "rollback", "save alone page1",
+            "save alone page2"), this.actions);
+        // Only the documents imported one by one are loaded through the document cache
+        Assert.assertFalse(this.cachedDocuments.isEmpty());
+        Assert.assertTrue(this.cachedDocuments.containsAll(Arrays.asList("page1", "page2")));
+    }
+}
@@ -23,10 +23,14 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.StringUtils;
 import org.xwiki.bridge.DocumentAccessBridge;
@@ -46,6 +50,11 @@
 /**
  * Base class for {@link Bundle}s using wiki documents as resources. Provides methods for loading properties from
  * documents, watching loaded documents and invalidating cached translations.
+ * <p>
+ * The translations are cached as immutable snapshots, published in concurrent maps. A snapshot is never modified once
+ * published: when a document changes, new snapshots are loaded by the thread handling the event and replace the old
+ * ones atomically, so looking up a translation never blocks.
+ * </p>
  * 
  * @version $Id$
  */
@@ -68,45 +77,132 @@ public abstract class AbstractWikiBundle extends AbstractBundle implements Bundl
     /**
      * Caching the default language for each wiki.
      */
-    protected Map<String, String> defaultWikiLanguage = new HashMap<String, String>();
+    protected ConcurrentMap<String, String> defaultWikiLanguage = new ConcurrentHashMap<String, String>();
 
     /**
      * <p>
-     * Cached properties corresponding to resources loaded from wiki documents.
+     * Cached snapshots of the translations loaded from wiki documents.
      * </p>
      * <p>
-     * Map: (document name -&gt; map: (language -&gt; properties)). The document name is always prefixed with the wiki
+     * Map: (document name -&gt; map: (language -&gt; translations)). The document name is always prefixed with the wiki
      * name.
      * </p>
      */
-    protected Map<String, Map<String, Properties>> documentBundles = new HashMap<String, Map<String, Properties>>();
+    protected ConcurrentMap<String, ConcurrentMap<String, Map<String, String>>> documentBundles =
+        new ConcurrentHashMap<String, ConcurrentMap<String, Map<String, String>>>();
 
     /**
-     * Retrieves the properties loaded from the document. If these properties are already cached, then use them.
+     * Incremented each time cached snapshots are replaced, to detect the snapshots loaded concurrently with a document
+     * change, which might be stale.
+     */
+    protected final AtomicLong snapshotUpdates = new AtomicLong();
+
+    /**
+     * Retrieves the translations loaded from the document. If these translations are already cached, then use them.
      * Otherwise, first load from the wiki and update the cache.
      * 
      * @param documentName The full name of the source document, including the wiki prefix.
      * @param language The translation to retrieve.
-     * @return A {@link Properties} object corresponding to the document translation, including as a base the default
-     *         language values for the keys that are not defined in the requested translation.
+     * @return An immutable map corresponding to the document translation, including as a base the default language
+     *         values for the keys that are not defined in the requested translation.
      * @throws Exception if the document cannot be accessed.
      * @see #loadDocumentBundle(String, String)
      */
-    protected Properties getDocumentBundle(String documentName, String language) throws Exception
+    protected Map<String, String> getDocumentBundle(String documentName, String language) throws Exception
+    {
+        ConcurrentMap<String, Map<String, String>> bundles = getSnapshots(this.documentBundles, documentName);
+
+        Map<String, String> result = bundles.get(language);
+        if (result == null) {
+            // Concurrent misses may load the same translation more than once, which is cheaper than locking lookups.
+            long updates = this.snapshotUpdates.get();
+            Map<String, String> snapshot = toSnapshot(loadDocumentBundle(documentName, language));
+            result = publishSnapshot(bundles, language, snapshot, updates);
+        }
+
+        return result;
+    }
+
+    /**
+     * @param snapshots the cached snapshots, by wiki or document name
+     * @param name the name of the wiki or document
+     * @return the snapshots of the wiki or document, by language
+     */
+    protected ConcurrentMap<String, Map<String, String>> getSnapshots(
+        ConcurrentMap<String, ConcurrentMap<String, Map<String, String>>> snapshots, String name)
     {
-        synchronized (this.documentBundles) {
-            if (this.documentBundles.containsKey(documentName)) {
-                if (this.documentBundles.get(documentName).containsKey(language)) {
-                    return this.documentBundles.get(documentName).get(language);
-                }
-            } else {
-                this.documentBundles.put(documentName, new HashMap<String, Properties>());
+        ConcurrentMap<String, Map<String, String>> result = snapshots.get(name);
+        if (result == null) {
+            result = new ConcurrentHashMap<String, Map<String, String>>();
+            ConcurrentMap<String, Map<String, String>> existing = snapshots.putIfAbsent(name, result);
+            if (existing != null) {
+                result = existing;
             }
+        }
 
-            Properties result = loadDocumentBundle(documentName, language);
-            this.documentBundles.get(documentName).put(language, result);
-            watchDocument(documentName);
-            return result;
+        return result;
+    }
+
+    /**
+     * Publishes a snapshot loaded after a cache miss, unless another thread already published one. If cached snapshots
+     * have been replaced while it was loading, the snapshot might be stale: it is still returned to the caller but
+     * removed from the cache, so that the next lookup loads it again.
+     * 
+     * @param snapshots the cached snapshots, by language
+     * @param language the language of the snapshot
+     * @param snapshot the loaded snapshot
+     * @param updates the value of {@link #snapshotUpdates} before the snapshot started loading
+     * @return the published snapshot
+     */
+    protected Map<String, String> publishSnapshot(ConcurrentMap<String, Map<String, String>> snapshots,
+        String language, Map<String, String> snapshot, long updates)
+    {
+        Map<String, String> existing = snapshots.putIfAbsent(language, snapshot);
+        if (existing != null) {
+            return existing;
+        }
+
+        if (this.snapshotUpdates.get() != updates) {
+            snapshots.remove(language, snapshot);
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * @param translations the translations to copy
+     * @return an immutable copy of the passed translations, safe to share between threads
+     */
+    protected Map<String, String> toSnapshot(Map<?, ?> translations)
+    {
+        Map<String, String> snapshot = new HashMap<String, String>(translations.size() * 4 / 3 + 1);
+        for (Map.Entry<?, ?> translation : translations.entrySet()) {
+            snapshot.put((String) translation.getKey(), (String) translation.getValue());
+        }
+
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Loads again the cached translations of a document and replaces the previous snapshots. The languages which can't
+     * be loaded anymore are removed from the cache.
+     * 
+     * @param documentName The full name of the document, including the wiki prefix.
+     * @param bundles The cached snapshots of the document, by language.
+     * @param languages The languages to reload.
+     */
+    protected void reloadDocumentBundles(String documentName, ConcurrentMap<String, Map<String, String>> bundles,
+        Iterable<String> languages)
+    {
+        this.snapshotUpdates.incrementAndGet();
+
+        for (String language : languages) {
+            try {
+                bundles.put(language, toSnapshot(loadDocumentBundle(documentName, language)));
+            } catch (Exception ex) {
+                getLogger().warn("Cannot load document bundle: [{0}]", documentName);
+                bundles.remove(language);
+            }
         }
     }
 
@@ -222,15 +318,15 @@ protected Properties loadPropertiesFromString(Properties props, String content,
      */
     protected String getDefaultWikiLanguage(String wiki)
     {
-        synchronized (this.defaultWikiLanguage) {
-            if (this.defaultWikiLanguage.containsKey(wiki)) {
-                return this.defaultWikiLanguage.get(wiki);
+        String result = this.defaultWikiLanguage.get(wiki);
+        if (result == null) {
+            result = this.wikiInfo.getDefaultWikiLanguage(wiki);
+            if (result != null) {
+                this.defaultWikiLanguage.putIfAbsent(wiki, result);
             }
-            String result = this.wikiInfo.getDefaultWikiLanguage(wiki);
-            this.defaultWikiLanguage.put(wiki, result);
-
-            return result;
         }
+
+        return result;
     }
 
     /**
@@ -243,9 +339,14 @@ protected String getDefaultWikiLanguage(String wiki)
      */
     protected boolean setDefaultWikiLanguage(String wiki, String language)
     {
-        synchronized (this.defaultWikiLanguage) {
-            return !StringUtils.equals(this.defaultWikiLanguage.put(wiki, language), language);
+        String previousLanguage;
+        if (language != null) {
+            previousLanguage = this.defaultWikiLanguage.put(wiki, language);
+        } else {
+            previousLanguage = this.defaultWikiLanguage.remove(wiki);
         }
+
+        return !StringUtils.equals(previousLanguage, language);
     }
 
     /**
@@ -265,7 +366,7 @@ protected void watchDocument(String documentName)
     /**
      * {@inheritDoc}
      * <p>
-     * Invalidates cached properties depending on the changed documents.
+     * Replaces the cached snapshots depending on the changed documents.
      * </p>
      * 
      * @see EventListener#onEvent(Event, Object, Object)
@@ -274,9 +375,9 @@ public void onEvent(Event event, Object source, Object data)
     {
         // - if doc is a cached bundle
         // -- if is default language
-        // --- invalidate all the document's bundles
+        // --- reload all the document's bundles
         // -- else if translation is cached
-        // --- invalidate the translated bundle
+        // --- reload the translated bundle
         DocumentModelBridge doc = (DocumentModelBridge) source;
         DocumentModelBridge oldDoc = doc.getOriginalDocument();
         if (oldDoc == null || doc.getContent().equals(oldDoc.getContent())) {
@@ -285,16 +386,28 @@ public void onEvent(Event event, Object source, Object data)
             return;
         }
         String docName = doc.getWikiName() + ":" + doc.getFullName();
-        synchronized (this.documentBundles) {
-            if (this.documentBundles.containsKey(docName)) {
-                if (doc.getRealLanguage().equals(getDefaultWikiLanguage(doc.getWikiName()))) {
-                    // Default language, invalidate all document bundles
-                    this.documentBundles.remove(docName);
-                } else if (this.documentBundles.get(docName).containsKey(doc.getRealLanguage())) {
-                    // Invalidate just the translation
-                    this.documentBundles.get(docName).remove(doc.getRealLanguage());
-                }
+        ConcurrentMap<String, Map<String, String>> bundles = this.documentBundles.get(docName);
+        if (bundles != null) {
+            if (doc.getRealLanguage().equals(getDefaultWikiLanguage(doc.getWikiName()))) {
+                // Default language, reload all document bundles
+                reloadDocumentBundles(docName, bundles, bundles.keySet());
+                documentBundleChanged(docName);
+            } else if (bundles.containsKey(doc.getRealLanguage())) {
+                // Reload just the translation
+                reloadDocumentBundles(docName, bundles, Collections.singleton(doc.getRealLanguage()));
+                documentBundleChanged(docName);
             }
         }
     }
+
+    /**
+     * Called after the cached snapshots of a document have been reloaded, to allow bundles aggregating the translations
+     * of several documents to update their own snapshots.
+     * 
+     * @param documentName The full name of the changed document, including the wiki prefix.
+     */
+    protected void documentBundleChanged(String documentName)
+    {
+        // Nothing to do by default.
+    }
 }
@@ -19,10 +19,10 @@
  */
 package org.xwiki.localization.internal;
 
-import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.xwiki.bridge.DocumentModelBridge;
 import org.xwiki.component.annotation.Component;
@@ -82,20 +82,17 @@ public String getTranslation(String key, String language)
         // The list of pulled documents is taken from the execution context.
         List<String> documentNames = (List<String>) this.execution.getContext().getProperty(PULLED_CONTEXT_KEY);
         if (documentNames != null) {
-            Properties props;
-            synchronized (documentNames) {
-                for (String documentName : documentNames) {
-                    try {
-                        // The document names should contain the wiki prefix already.
-                        props = getDocumentBundle(documentName, language);
-                        if (props.containsKey(key)) {
-                            translation = props.getProperty(key);
-                            // The first translation found is returned.
-                            break;
-                        }
-                    } catch (Exception ex) {
-                        getLogger().warn("Cannot load document bundle: [{0}]", documentName);
+            for (String documentName : documentNames) {
+                try {
+                    // The document names should contain the wiki prefix already.
+                    String value = getDocumentBundle(documentName, language).get(key);
+                    if (value != null) {
+                        translation = value;
+                        // The first translation found is returned.
+                        break;
                     }
+                } catch (Exception ex) {
+                    getLogger().warn("Cannot load document bundle: [{0}]", documentName);
                 }
             }
         }
@@ -117,23 +114,20 @@ public void use(String bundleLocation)
             // If the document didn't contain a wiki prefix, then use the current wiki of the execution.
             documentName = this.wikiInfo.getCurrentWikiName() + WikiInformation.WIKI_PREFIX_SEPARATOR + documentName;
         }
-        // In theory, the execution context should not be shared by more than one thread. But just in case...
-        synchronized (this.execution.getContext()) {
-            List<String> documentNames = (List<String>) this.execution.getContext().getProperty(PULLED_CONTEXT_KEY);
-            if (documentNames == null) {
-                documentNames = new ArrayList<String>();
-                this.execution.getContext().setProperty(PULLED_CONTEXT_KEY, documentNames);
-            }
-            synchronized (documentNames) {
-                documentNames.add(documentName);
-            }
+        // The execution context is not shared by several threads. The list is copied on write so that it can still be
+        // iterated safely by a thread it would be shared with, without locking.
+        List<String> documentNames = (List<String>) this.execution.getContext().getProperty(PULLED_CONTEXT_KEY);
+        if (documentNames == null) {
+            documentNames = new CopyOnWriteArrayList<String>();
+            this.execution.getContext().setProperty(PULLED_CONTEXT_KEY, documentNames);
         }
+        documentNames.add(documentName);
     }
 
     /**
      * {@inheritDoc}
      * <p>
-     * Invalidates cached bundles when the default language of a wiki changes.
+     * Reloads cached bundles when the default language of a wiki changes.
      * </p>
      * 
      * @see EventListener#onEvent(Event, Object, Object)
@@ -144,12 +138,10 @@ public void onEvent(Event event, Object source, Object data)
         DocumentModelBridge doc = (DocumentModelBridge) source;
         if (WikiInformation.PREFERENCES_DOCUMENT_NAME.equals(doc.getFullName())) {
             String wiki = doc.getWikiName();
-            synchronized (this.defaultWikiLanguage) {
-                if (this.defaultWikiLanguage.containsKey(wiki)) {
-                    // setDefaultWikiLanguage returns true if the old value was different.
-                    if (setDefaultWikiLanguage(wiki, this.wikiInfo.getDefaultWikiLanguage(wiki))) {
-                        invalidateWikiBundles(wiki + WikiInformation.WIKI_PREFIX_SEPARATOR);
-                    }
+            if (this.defaultWikiLanguage.containsKey(wiki)) {
+                // setDefaultWikiLanguage returns true if the old value was different.
+                if (setDefaultWikiLanguage(wiki, this.wikiInfo.getDefaultWikiLanguage(wiki))) {
+                    reloadWikiBundles(wiki + WikiInformation.WIKI_PREFIX_SEPARATOR);
                 }
             }
         }
@@ -159,19 +151,16 @@ public void onEvent(Event event, Object source, Object data)
     }
 
     /**
-     * Invalidate all cached document bundles from the given wiki. This is needed when the default language of a wiki
+     * Reload all cached document bundles from the given wiki. This is needed when the default language of a wiki
      * changes, since translated properties now have a different default to fall back to.
      * 
-     * @param wiki The target wiki to invalidate.
+     * @param wiki The target wiki to reload, including the wiki prefix separator.
      */
-    protected void invalidateWikiBundles(String wiki)
+    protected void reloadWikiBundles(String wiki)
     {
-        synchronized (this.documentBundles) {
-            Iterator<String> it = this.documentBundles.keySet().iterator();
-            while (it.hasNext()) {
-                if (it.next().startsWith(wiki)) {
-                    it.remove();
-                }
+        for (Map.Entry<String, ConcurrentMap<String, Map<String, String>>> bundles : this.documentBundles.entrySet()) {
+            if (bundles.getKey().startsWith(wiki)) {
+                reloadDocumentBundles(bundles.getKey(), bundles.getValue(), bundles.getValue().keySet());
             }
         }
     }
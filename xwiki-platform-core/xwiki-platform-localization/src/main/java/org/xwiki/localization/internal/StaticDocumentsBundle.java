@@ -19,9 +19,11 @@
  */
 package org.xwiki.localization.internal;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -35,10 +37,10 @@
 import org.xwiki.observation.event.Event;
 
 /**
- * Bundle corresponding to global (at the wiki level) localization documents. A Properties object is constructed for
+ * Bundle corresponding to global (at the wiki level) localization documents. A snapshot is constructed for
  * each wiki and for each language, containing all the translations from the different documents configured in that
  * wiki. Although it takes more time to rebuild the properties when the list of documents changes, it saves the extra
- * calls that would be needed if each document would be stored in its own Properties object.
+ * calls that would be needed if each document would be stored in its own snapshot.
  * 
  * @version $Id$
  */
@@ -54,15 +56,16 @@ public class StaticDocumentsBundle extends AbstractWikiBundle implements Bundle,
     /**
      * <p>
      * Cached bundles corresponding to all the documents globally registered in the wiki preferences. For each wiki, for
-     * each language, only one {@link Properties} object is created, since this needs less memory than keeping one
-     * object per document, and this list is not supposed to change very often. This trades an increased initial
-     * overhead for a better performance afterwards.
+     * each language, only one immutable snapshot is created, since this needs less memory than keeping one object per
+     * document, and this list is not supposed to change very often. This trades an increased initial overhead for a
+     * better performance afterwards.
      * </p>
      * <p>
      * Map: (wiki name -&gt; map: (language -&gt; bundle)).
      * </p>
      */
-    private Map<String, Map<String, Properties>> staticBundles = new HashMap<String, Map<String, Properties>>();
+    private ConcurrentMap<String, ConcurrentMap<String, Map<String, String>>> staticBundles =
+        new ConcurrentHashMap<String, ConcurrentMap<String, Map<String, String>>>();
 
     /**
      * <p>
@@ -72,7 +75,7 @@ public class StaticDocumentsBundle extends AbstractWikiBundle implements Bundle,
      * Map: (wiki name -&gt; array of document names).
      * </p>
      */
-    private Map<String, String[]> staticBundleNames = new HashMap<String, String[]>();
+    private ConcurrentMap<String, String[]> staticBundleNames = new ConcurrentHashMap<String, String[]>();
 
     @Override
     public void initialize() throws InitializationException
@@ -86,9 +89,9 @@ public String getTranslation(String key, String language)
     {
         String translation = key;
         try {
-            Properties props = getStaticBundle(this.wikiInfo.getCurrentWikiName(), language);
-            if (props.containsKey(key)) {
-                translation = props.getProperty(key);
+            String value = getStaticBundle(this.wikiInfo.getCurrentWikiName(), language).get(key);
+            if (value != null) {
+                translation = value;
             }
         } catch (Exception e) {
             getLogger().info("Unhandled exception while translating: {0}", e.getMessage());
@@ -99,7 +102,7 @@ public String getTranslation(String key, String language)
     /**
      * {@inheritDoc}
      * <p>
-     * If the configured list of global bundles was changed, invalidate the whole wiki bundle.
+     * If the configured list of global bundles was changed, reload the whole wiki bundle.
      * </p>
      * 
      * @see EventListener#onEvent(Event, Object, Object)
@@ -110,84 +113,120 @@ public void onEvent(Event event, Object source, Object data)
     {
         DocumentModelBridge doc = (DocumentModelBridge) source;
         if (WikiInformation.PREFERENCES_DOCUMENT_NAME.equals(doc.getFullName())) {
-            synchronized (this.staticBundleNames) {
-                String wiki = doc.getWikiName();
-                if (this.staticBundleNames.containsKey(wiki)) {
-                    // If we call remove here, the new value will be re-inserted by the following call.
-                    String oldBundleNames = StringUtils.join(this.staticBundleNames.remove(wiki), JOIN_SEPARATOR);
-                    String newBundleNames = StringUtils.join(this.getStaticDocumentBundles(wiki), JOIN_SEPARATOR);
-                    if (!StringUtils.equals(oldBundleNames, newBundleNames)) {
-                        synchronized (this.staticBundles) {
-                            this.staticBundles.remove(wiki);
-                        }
-                    }
+            String wiki = doc.getWikiName();
+            String[] oldBundles = this.staticBundleNames.get(wiki);
+            if (oldBundles != null) {
+                String[] newBundles = loadStaticDocumentBundles(wiki);
+                this.staticBundleNames.put(wiki, newBundles);
+                if (!StringUtils.equals(StringUtils.join(oldBundles, JOIN_SEPARATOR),
+                    StringUtils.join(newBundles, JOIN_SEPARATOR))) {
+                    reloadStaticBundles(wiki);
                 }
             }
         }
 
-        // Invalidate individual translations if needed.
+        // Reload individual translations if needed.
         super.onEvent(event, source, data);
     }
 
     /**
-     * Retrieves the translations for a given wiki/language. If these properties are already cached, then use them.
-     * Otherwise, first load from the wiki and update the cache. The returned Properties object contain the translations
-     * for all documents registered as localization bundles for a wiki.
+     * {@inheritDoc}
+     * <p>
+     * Reload the bundles of the wikis using the changed document.
+     * </p>
      * 
-     * @param wiki The target wiki.
-     * @param language The 2-character code of the requested language.
-     * @return A {@link Properties} object with the static translations of the wiki, in the requested language.
+     * @see AbstractWikiBundle#documentBundleChanged(String)
      */
-    protected Properties getStaticBundle(String wiki, String language)
+    @Override
+    protected void documentBundleChanged(String documentName)
     {
-        synchronized (this.staticBundles) {
-            Map<String, Properties> wikiBundles;
-            if (!this.staticBundles.containsKey(wiki)) {
-                wikiBundles = new HashMap<String, Properties>();
-                this.staticBundles.put(wiki, wikiBundles);
-            } else {
-                wikiBundles = this.staticBundles.get(wiki);
+        for (String wiki : this.staticBundles.keySet()) {
+            for (String bundleName : getStaticDocumentBundles(wiki)) {
+                if (documentName.equals(getFullDocumentName(wiki, bundleName))) {
+                    reloadStaticBundles(wiki);
+                    break;
+                }
             }
+        }
+    }
 
-            if (wikiBundles.containsKey(language)) {
-                return wikiBundles.get(language);
+    /**
+     * Loads again the cached translations of a wiki and replaces the previous snapshots.
+     * 
+     * @param wiki The target wiki.
+     */
+    protected void reloadStaticBundles(String wiki)
+    {
+        ConcurrentMap<String, Map<String, String>> wikiBundles = this.staticBundles.get(wiki);
+        if (wikiBundles != null) {
+            this.snapshotUpdates.incrementAndGet();
+            for (String language : wikiBundles.keySet()) {
+                wikiBundles.put(language, loadStaticBundle(wiki, language));
             }
+        }
+    }
+
+    /**
+     * Retrieves the translations for a given wiki/language. If these translations are already cached, then use them.
+     * Otherwise, first load from the wiki and update the cache. The returned map contains the translations
+     * for all documents registered as localization bundles for a wiki.
+     * 
+     * @param wiki The target wiki.
+     * @param language The 2-character code of the requested language.
+     * @return An immutable map with the static translations of the wiki, in the requested language.
+     */
+    protected Map<String, String> getStaticBundle(String wiki, String language)
+    {
+        ConcurrentMap<String, Map<String, String>> wikiBundles = getSnapshots(this.staticBundles, wiki);
 
-            Properties result;
-            result = this.loadStaticBundle(wiki, language);
-            wikiBundles.put(language, result);
-            return result;
+        Map<String, String> result = wikiBundles.get(language);
+        if (result == null) {
+            long updates = this.snapshotUpdates.get();
+            result = publishSnapshot(wikiBundles, language, loadStaticBundle(wiki, language), updates);
         }
+
+        return result;
     }
 
     /**
-     * Constructs the {@link Properties} object corresponding to a wiki in a given language, from all the individual
-     * documents registered as wiki-wide localization bundles.
+     * Constructs the snapshot corresponding to a wiki in a given language, from all the individual documents registered
+     * as wiki-wide localization bundles.
      * 
      * @param wiki The target wiki.
      * @param language The 2-character code of the requested language.
-     * @return A {@link Properties} object with the static translations of the wiki, in the requested language.
+     * @return An immutable map with the static translations of the wiki, in the requested language.
      */
-    protected Properties loadStaticBundle(String wiki, String language)
+    protected Map<String, String> loadStaticBundle(String wiki, String language)
     {
-        Properties properties = new Properties();
-        String[] bundles = getStaticDocumentBundles(wiki);
-        // Reverse the order of the bundles, so that the first entry in the list has the most priority.
+        Map<String, String> translations = new HashMap<String, String>();
+        // Copy the cached list before reversing it, so that the first entry in the list has the most priority.
+        String[] bundles = getStaticDocumentBundles(wiki).clone();
         ArrayUtils.reverse(bundles);
         for (String documentName : bundles) {
-            String fullDocumentName = documentName;
+            String fullDocumentName = getFullDocumentName(wiki, documentName);
             try {
-                if (documentName.indexOf(WikiInformation.WIKI_PREFIX_SEPARATOR) < 0) {
-                    fullDocumentName = wiki + WikiInformation.WIKI_PREFIX_SEPARATOR + documentName;
-                }
-                properties.putAll(getDocumentBundle(fullDocumentName, language));
+                translations.putAll(getDocumentBundle(fullDocumentName, language));
             } catch (Exception ex) {
                 getLogger().warn("Exception loading document bundle [{0}]", fullDocumentName);
             }
         }
         // Also watch the preferences for this wiki, in case the list of documents is changed.
         watchDocument(wiki + WikiInformation.WIKI_PREFIX_SEPARATOR + WikiInformation.PREFERENCES_DOCUMENT_NAME);
-        return properties;
+        return Collections.unmodifiableMap(translations);
+    }
+
+    /**
+     * @param wiki The wiki whose preferences list the document.
+     * @param documentName The name of the document, as listed in the wiki preferences.
+     * @return The name of the document, prefixed with the wiki name.
+     */
+    private String getFullDocumentName(String wiki, String documentName)
+    {
+        if (documentName.indexOf(WikiInformation.WIKI_PREFIX_SEPARATOR) < 0) {
+            return wiki + WikiInformation.WIKI_PREFIX_SEPARATOR + documentName;
+        }
+
+        return documentName;
     }
 
     /**
@@ -201,24 +240,40 @@ protected Properties loadStaticBundle(String wiki, String language)
      */
     protected String[] getStaticDocumentBundles(String wiki)
     {
-        synchronized (this.staticBundleNames) {
-            if (this.staticBundleNames.containsKey(wiki)) {
-                return this.staticBundleNames.get(wiki);
+        String[] result = this.staticBundleNames.get(wiki);
+        if (result == null) {
+            result = loadStaticDocumentBundles(wiki);
+            String[] existing = this.staticBundleNames.putIfAbsent(wiki, result);
+            if (existing != null) {
+                result = existing;
             }
-            String[] result = new String[0];
-            try {
-                String bundles =
-                    this.documentAccessBridge.getProperty(wiki + WikiInformation.WIKI_PREFIX_SEPARATOR
-                        + WikiInformation.PREFERENCES_DOCUMENT_NAME, WikiInformation.PREFERENCES_CLASS_NAME,
-                        DOCUMENT_BUNDLE_PROPERTY);
-                if (!StringUtils.isBlank(bundles)) {
-                    result = bundles.split("[,|]\\s*");
-                }
-            } catch (Exception ex) {
-                getLogger().warn("Cannot access a wiki setting", ex);
+        }
+
+        return result;
+    }
+
+    /**
+     * Read the list of document names configured for a wiki as global localization bundles from the wiki preferences.
+     * 
+     * @param wiki The target wiki.
+     * @return An array of <code>String</code>, each value representing the name of a document that should be used as a
+     *         global localization resource.
+     */
+    private String[] loadStaticDocumentBundles(String wiki)
+    {
+        String[] result = new String[0];
+        try {
+            String bundles =
+                this.documentAccessBridge.getProperty(wiki + WikiInformation.WIKI_PREFIX_SEPARATOR
+                    + WikiInformation.PREFERENCES_DOCUMENT_NAME, WikiInformation.PREFERENCES_CLASS_NAME,
+                    DOCUMENT_BUNDLE_PROPERTY);
+            if (!StringUtils.isBlank(bundles)) {
+                result = bundles.split("[,|]\\s*");
             }
-            this.staticBundleNames.put(wiki, result);
-            return result;
+        } catch (Exception ex) {
+            getLogger().warn("Cannot access a wiki setting", ex);
         }
+
+        return result;
     }
 }
@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.localization.internal;
+
+import org.hamcrest.Description;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.localization.WikiInformation;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.DocumentUpdateEvent;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Unit tests for {@link StaticDocumentsBundle}.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+@RunWith(JMock.class)
+public class StaticDocumentsBundleTest
+{
+    private static final String WIKI = "wiki";
+
+    private static final String DOCUMENT = "Main.Translations";
+
+    private static final String FULL_DOCUMENT = WIKI + WikiInformation.WIKI_PREFIX_SEPARATOR + DOCUMENT;
+
+    private Mockery mockery = new JUnit4Mockery();
+
+    private StaticDocumentsBundle bundle;
+
+    private DocumentAccessBridge mockDocumentAccessBridge;
+
+    /**
+     * The content of the translations document, as stored in the wiki.
+     */
+    private String content = "key=old";
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.bundle = new StaticDocumentsBundle();
+        this.bundle.initialize();
+
+        final WikiInformation mockWikiInfo = this.mockery.mock(WikiInformation.class);
+        final ObservationManager mockObservation = this.mockery.mock(ObservationManager.class);
+        this.mockDocumentAccessBridge = this.mockery.mock(DocumentAccessBridge.class);
+        ReflectionUtils.setFieldValue(this.bundle, "wikiInfo", mockWikiInfo);
+        ReflectionUtils.setFieldValue(this.bundle, "observation", mockObservation);
+        ReflectionUtils.setFieldValue(this.bundle, "documentAccessBridge", this.mockDocumentAccessBridge);
+
+        this.mockery.checking(new Expectations() {{
+            allowing(mockWikiInfo).getCurrentWikiName(); will(returnValue(WIKI));
+            allowing(mockWikiInfo).getDefaultWikiLanguage(); will(returnValue("en"));
+            allowing(mockWikiInfo).getDefaultWikiLanguage(WIKI); will(returnValue("en"));
+            allowing(mockObservation).addListener(with(any(Event.class)), with(any(EventListener.class)));
+            allowing(mockDocumentAccessBridge).getProperty(
+                WIKI + WikiInformation.WIKI_PREFIX_SEPARATOR + WikiInformation.PREFERENCES_DOCUMENT_NAME,
+                WikiInformation.PREFERENCES_CLASS_NAME, "documentBundles");
+                will(returnValue(DOCUMENT));
+        }});
+    }
+
+    @Test
+    public void testGetTranslation() throws Exception
+    {
+        this.mockery.checking(new Expectations() {{
+            oneOf(mockDocumentAccessBridge).getDocumentContent(FULL_DOCUMENT, "en"); will(returnValue(content));
+        }});
+
+        Assert.assertEquals("old", this.bundle.getTranslation("key", "en"));
+        // The snapshot is cached, the document is not loaded again
+        Assert.assertEquals("old", this.bundle.getTranslation("key", "en"));
+        Assert.assertEquals("missing", this.bundle.getTranslation("missing", "en"));
+    }
+
+    @Test
+    public void testSnapshotLoadedDuringDocumentUpdateIsNotCached() throws Exception
+    {
+        final DocumentModelBridge mockOriginalDocument = this.mockery.mock(DocumentModelBridge.class, "original");
+        final DocumentModelBridge mockDocument = this.mockery.mock(DocumentModelBridge.class, "updated");
+        this.mockery.checking(new Expectations() {{
+            allowing(mockOriginalDocument).getContent(); will(returnValue("key=old"));
+            allowing(mockDocument).getOriginalDocument(); will(returnValue(mockOriginalDocument));
+            allowing(mockDocument).getContent(); will(returnValue("key=new"));
+            allowing(mockDocument).getWikiName(); will(returnValue(WIKI));
+            allowing(mockDocument).getFullName(); will(returnValue(DOCUMENT));
+            allowing(mockDocument).getRealLanguage(); will(returnValue("en"));
+
+            // The document is updated after its old content has been read, before the translations are published
+            oneOf(mockDocumentAccessBridge).getDocumentContent(FULL_DOCUMENT, "en"); will(new Action()
+            {
+                public void describeTo(Description description)
+                {
+                    description.appendText("updates the document");
+                }
+
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    String oldContent = content;
+                    content = "key=new";
+                    bundle.onEvent(new DocumentUpdateEvent(FULL_DOCUMENT), mockDocument, null);
+
+                    return oldContent;
+                }
+            });
+            oneOf(mockDocumentAccessBridge).getDocumentContent(FULL_DOCUMENT, "en"); will(returnValue("key=new"));
+        }});
+
+        // The lookup running during the update gets the translations it loaded...
+        Assert.assertEquals("old", this.bundle.getTranslation("key", "en"));
+        // ...but they are not cached, so the next lookup loads the updated document
+        Assert.assertEquals("new", this.bundle.getTranslation("key", "en"));
+        Assert.assertEquals("new", this.bundle.getTranslation("key", "en"));
+    }
+}
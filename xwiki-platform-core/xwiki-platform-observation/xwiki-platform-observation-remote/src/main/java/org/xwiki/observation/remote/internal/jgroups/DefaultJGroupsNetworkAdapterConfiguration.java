@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal.jgroups;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+
+/**
+ * Provide the configuration of the JGroups network adapter, read from xwiki.properties.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+@Component
+@Singleton
+public class DefaultJGroupsNetworkAdapterConfiguration implements JGroupsNetworkAdapterConfiguration
+{
+    /**
+     * The default maximum number of events sent in a single network message.
+     */
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * Used to access configuration storage.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configurationSource;
+
+    @Override
+    public int getBatchDelay()
+    {
+        return this.configurationSource.getProperty("observation.remote.batch.delay", 0);
+    }
+
+    @Override
+    public int getBatchSize()
+    {
+        return this.configurationSource.getProperty("observation.remote.batch.size", DEFAULT_BATCH_SIZE);
+    }
+}
@@ -19,6 +19,8 @@
  */
 package org.xwiki.observation.remote.internal.jgroups;
 
+import java.util.List;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -34,7 +36,8 @@
 
 /**
  * Default implementation of JGroupsReceiver. Receive remote events and send them as is to
- * {@link RemoteObservationManager} to be converted and injected as local events.
+ * {@link RemoteObservationManager} to be converted and injected as local events. The messages containing several
+ * events, sent by the nodes sending events in batches, are decoded with {@link RemoteEventDataCodec}.
  * 
  * @version $Id$
  * @since 2.0M3
@@ -48,6 +51,11 @@ public class DefaultJGroupsReceiver extends ReceiverAdapter implements JGroupsRe
      */
     private RemoteObservationManager remoteObservationManager;
 
+    /**
+     * Used to decode the batches of events.
+     */
+    private final RemoteEventDataCodec codec = new RemoteEventDataCodec();
+
     /**
      * Used to lookup {@link RemoteObservationManager}. To avoid cross-dependency issues.
      */
@@ -79,10 +87,27 @@ public RemoteObservationManager getRemoteObservationManager()
     @Override
     public void receive(Message msg)
     {
-        RemoteEventData remoteEvent = (RemoteEventData) msg.getObject();
+        if (this.codec.isBatch(msg.getRawBuffer(), msg.getOffset(), msg.getLength())) {
+            List<RemoteEventData> remoteEvents;
+            try {
+                remoteEvents = this.codec.decodeBatch(msg.getRawBuffer(), msg.getOffset(), msg.getLength());
+            } catch (Exception e) {
+                this.logger.error("Failed to decode a batch of JGroups remote events", e);
 
-        this.logger.debug("Received JGroups remote event [" + remoteEvent + "]");
+                return;
+            }
 
-        getRemoteObservationManager().notify(remoteEvent);
+            this.logger.debug("Received a batch of [{}] JGroups remote events", remoteEvents.size());
+
+            for (RemoteEventData remoteEvent : remoteEvents) {
+                getRemoteObservationManager().notify(remoteEvent);
+            }
+        } else {
+            RemoteEventData remoteEvent = (RemoteEventData) msg.getObject();
+
+            this.logger.debug("Received JGroups remote event [" + remoteEvent + "]");
+
+            getRemoteObservationManager().notify(remoteEvent);
+        }
     }
 }
@@ -23,8 +23,13 @@
 import java.io.InputStream;
 import java.lang.management.ManagementFactory;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -50,6 +55,10 @@
 
 /**
  * JGroups based implementation of {@link NetworkAdapter}.
+ * <p>
+ * When a batch delay is configured, the events are not sent right away but queued and sent by a background thread,
+ * several events per message, using the compact format of {@link RemoteEventDataCodec}.
+ * </p>
  * 
  * @version $Id$
  * @since 2.0RC1
@@ -76,30 +85,170 @@ public class JGroupsNetworkAdapter implements NetworkAdapter
     @Inject
     private Logger logger;
 
+    /**
+     * Used to know if and how the events should be sent in batches.
+     */
+    @Inject
+    private JGroupsNetworkAdapterConfiguration configuration;
+
     /**
      * The network channels.
      */
     private Map<String, JChannel> channels = new ConcurrentHashMap<String, JChannel>();
 
+    /**
+     * Used to encode the batches of events.
+     */
+    private final RemoteEventDataCodec codec = new RemoteEventDataCodec();
+
+    /**
+     * The events waiting to be sent in a batch.
+     */
+    private final BlockingQueue<RemoteEventData> pendingEvents = new LinkedBlockingQueue<RemoteEventData>();
+
+    /**
+     * The thread sending the batches of events, null if not started. Started with the first channel when a batch delay
+     * is configured.
+     */
+    private volatile Thread batchSender;
+
     @Override
     public void send(RemoteEventData remoteEvent)
     {
         this.logger.debug("Send JGroups remote event [" + remoteEvent + "]");
 
-        // Send the message to the whole group
-        Message message = new Message(null, null, remoteEvent);
+        boolean queued = false;
+        if (this.batchSender != null) {
+            this.pendingEvents.add(remoteEvent);
 
+            // Make sure the event is not left in the queue if the sender has been stopped in the meantime
+            queued = this.batchSender != null || !this.pendingEvents.remove(remoteEvent);
+        }
+
+        if (!queued) {
+            // Send the message to the whole group
+            send(new Message(null, null, remoteEvent), remoteEvent);
+        }
+    }
+
+    /**
+     * Send a message to all the channels.
+     * 
+     * @param message the message to send
+     * @param content the content of the message, for logging
+     */
+    private void send(Message message, Object content)
+    {
         // Send message to jgroups channels
         for (Map.Entry<String, JChannel> entry : this.channels.entrySet()) {
             try {
                 entry.getValue().send(message);
             } catch (Exception e) {
-                this.logger.error("Failed to send message [" + remoteEvent + "] to the channel [" + entry.getKey()
+                this.logger.error("Failed to send message [" + content + "] to the channel [" + entry.getKey()
                     + "]", e);
             }
         }
     }
 
+    /**
+     * Start the thread sending the batches of events if a batch delay is configured and it's not started yet.
+     */
+    private synchronized void startBatchSender()
+    {
+        if (this.batchSender == null && this.configuration.getBatchDelay() > 0) {
+            this.batchSender = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    sendBatches();
+                }
+            }, "XWiki remote events sender");
+            this.batchSender.setDaemon(true);
+            this.batchSender.start();
+        }
+    }
+
+    /**
+     * Stop the thread sending the batches of events, after it sent the pending events.
+     */
+    private void stopBatchSender()
+    {
+        Thread sender;
+        synchronized (this) {
+            sender = this.batchSender;
+            this.batchSender = null;
+        }
+
+        if (sender != null) {
+            sender.interrupt();
+            try {
+                sender.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Wait for events and send them in batches until the thread is interrupted.
+     */
+    private void sendBatches()
+    {
+        List<RemoteEventData> batch = new ArrayList<RemoteEventData>();
+
+        try {
+            while (true) {
+                batch.add(this.pendingEvents.take());
+
+                // Wait a bit for the following events
+                int batchSize = this.configuration.getBatchSize();
+                long deadline = System.currentTimeMillis() + this.configuration.getBatchDelay();
+                while (batch.size() < batchSize) {
+                    long delay = deadline - System.currentTimeMillis();
+                    RemoteEventData remoteEvent =
+                        delay > 0 ? this.pendingEvents.poll(delay, TimeUnit.MILLISECONDS) : this.pendingEvents.poll();
+                    if (remoteEvent == null) {
+                        break;
+                    }
+                    batch.add(remoteEvent);
+                }
+
+                sendBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // Stopped: send what's left
+            this.pendingEvents.drainTo(batch);
+            if (!batch.isEmpty()) {
+                sendBatch(batch);
+            }
+        }
+    }
+
+    /**
+     * Send several events in a single message.
+     * 
+     * @param batch the events to send
+     */
+    private void sendBatch(List<RemoteEventData> batch)
+    {
+        List<byte[]> encodedEvents = new ArrayList<byte[]>(batch.size());
+        for (RemoteEventData remoteEvent : batch) {
+            try {
+                encodedEvents.add(this.codec.encode(remoteEvent));
+            } catch (Exception e) {
+                this.logger.error("Failed to encode remote event [" + remoteEvent + "]", e);
+            }
+        }
+
+        if (!encodedEvents.isEmpty()) {
+            this.logger.debug("Send a batch of [{}] JGroups remote events", encodedEvents.size());
+
+            send(new Message(null, null, this.codec.encodeBatch(encodedEvents)), batch);
+        }
+    }
+
     @Override
     public void startChannel(String channelId) throws RemoteEventException
     {
@@ -117,6 +266,8 @@ public void startChannel(String channelId) throws RemoteEventException
             throw new RemoteEventException("Failed to create channel [" + channelId + "]", e);
         }
 
+        startBatchSender();
+
         // Register the channel against the JMX Server
         try {
             MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
@@ -137,6 +288,11 @@ public void stopChannel(String channelId) throws RemoteEventException
             throw new RemoteEventException(MessageFormat.format("Channel [{0}] is not started", channelId));
         }
 
+        if (this.channels.size() == 1) {
+            // Send the pending events before closing the last channel
+            stopBatchSender();
+        }
+
         channel.close();
 
         this.channels.remove(channelId);
@@ -225,6 +381,9 @@ private ProtocolStackConfigurator loadChannelConfiguration(String channelId) thr
     @Override
     public void stopAllChannels() throws RemoteEventException
     {
+        // Send the pending events before closing the channels
+        stopBatchSender();
+
         for (Map.Entry<String, JChannel> channelEntry : this.channels.entrySet()) {
             channelEntry.getValue().close();
         }
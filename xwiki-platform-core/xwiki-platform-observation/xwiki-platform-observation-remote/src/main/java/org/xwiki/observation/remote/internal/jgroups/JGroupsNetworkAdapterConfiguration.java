@@ -0,0 +1,44 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal.jgroups;
+
+import org.xwiki.component.annotation.ComponentRole;
+
+/**
+ * Provide the configuration of the JGroups network adapter.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+@ComponentRole
+public interface JGroupsNetworkAdapterConfiguration
+{
+    /**
+     * @return the maximum number of milliseconds an outgoing event can wait to be sent in the same network message as
+     *         the following events, 0 to send each event in its own message
+     */
+    int getBatchDelay();
+
+    /**
+     * @return the maximum number of events sent in a single network message when events are sent in batches
+     * @see #getBatchDelay()
+     */
+    int getBatchSize();
+}
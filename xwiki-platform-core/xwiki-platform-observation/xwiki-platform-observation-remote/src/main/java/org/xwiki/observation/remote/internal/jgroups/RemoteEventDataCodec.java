@@ -0,0 +1,595 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal.jgroups;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.xwiki.bridge.event.AbstractActionExecutionEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.observation.event.AbstractFilterableEvent;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.event.filter.AlwaysMatchingEventFilter;
+import org.xwiki.observation.event.filter.EventFilter;
+import org.xwiki.observation.event.filter.FixedNameEventFilter;
+import org.xwiki.observation.event.filter.RegexEventFilter;
+import org.xwiki.observation.remote.RemoteEventData;
+
+/**
+ * Encodes batches of {@link RemoteEventData} in a compact binary format. The known event types (the filterable events,
+ * which include the document and wiki events, and the action events) and the values usually found in the event source
+ * and data (strings, numbers, document references, maps and lists of them) are written field by field; anything else
+ * falls back on Java serialization.
+ * <p>
+ * A batch starts with {@link #MAGIC} followed by the format version, so that it can be distinguished from the
+ * serialized {@link RemoteEventData} sent by the nodes not sending events in batches.
+ * </p>
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+class RemoteEventDataCodec
+{
+    /**
+     * The first bytes of an encoded batch.
+     */
+    static final byte[] MAGIC = {'X', 'R', 'E'};
+
+    /**
+     * The version of the format written by this codec.
+     */
+    static final byte VERSION = 1;
+
+    /**
+     * The encoding of the strings.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    private static final byte TYPE_NULL = 0;
+
+    private static final byte TYPE_STRING = 1;
+
+    private static final byte TYPE_BOOLEAN = 2;
+
+    private static final byte TYPE_INTEGER = 3;
+
+    private static final byte TYPE_LONG = 4;
+
+    private static final byte TYPE_DOCUMENT_REFERENCE = 5;
+
+    private static final byte TYPE_MAP = 6;
+
+    private static final byte TYPE_LIST = 7;
+
+    private static final byte TYPE_FILTERABLE_EVENT = 8;
+
+    private static final byte TYPE_ACTION_EVENT = 9;
+
+    private static final byte TYPE_SERIALIZED = 10;
+
+    private static final byte FILTER_ALWAYS_MATCHING = 0;
+
+    private static final byte FILTER_FIXED_NAME = 1;
+
+    private static final byte FILTER_REGEX = 2;
+
+    /**
+     * The constructors used to create the events encoded field by field, by event class. An event class can only be
+     * encoded that way if it doesn't add any state to the one of its base class.
+     */
+    private final ConcurrentMap<Class< ? >, Constructor< ? >> eventConstructors =
+        new ConcurrentHashMap<Class< ? >, Constructor< ? >>();
+
+    /**
+     * The event classes which can't be encoded field by field.
+     */
+    private final ConcurrentMap<Class< ? >, Boolean> serializedEvents = new ConcurrentHashMap<Class< ? >, Boolean>();
+
+    /**
+     * @param buffer the buffer of a received message
+     * @param offset the offset of the message in the buffer
+     * @param length the length of the message
+     * @return true if the message is a batch encoded by this codec
+     */
+    boolean isBatch(byte[] buffer, int offset, int length)
+    {
+        if (buffer == null || length <= MAGIC.length) {
+            return false;
+        }
+
+        for (int i = 0; i < MAGIC.length; ++i) {
+            if (buffer[offset + i] != MAGIC[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param remoteEvent the event to encode
+     * @return the encoded event, to be passed to {@link #encodeBatch(Collection)}
+     * @throws IOException if the event can't be encoded
+     */
+    byte[] encode(RemoteEventData remoteEvent) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        writeValue(out, remoteEvent.getEvent());
+        writeValue(out, remoteEvent.getSource());
+        writeValue(out, remoteEvent.getData());
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param encodedEvents the events encoded with {@link #encode(RemoteEventData)}
+     * @return the batch
+     */
+    byte[] encodeBatch(Collection<byte[]> encodedEvents)
+    {
+        int length = MAGIC.length + 1 + 4;
+        for (byte[] encodedEvent : encodedEvents) {
+            length += encodedEvent.length;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(encodedEvents.size());
+            for (byte[] encodedEvent : encodedEvents) {
+                out.write(encodedEvent);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Can't happen when writing in memory
+            throw new IllegalStateException("Failed to write in memory", e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param buffer the buffer of a received message
+     * @param offset the offset of the message in the buffer
+     * @param length the length of the message
+     * @return the events of the batch
+     * @throws IOException if the batch can't be decoded
+     */
+    List<RemoteEventData> decodeBatch(byte[] buffer, int offset, int length) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer, offset, length));
+
+        in.skipBytes(MAGIC.length);
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported remote events format version [" + version + "]");
+        }
+
+        int size = readLength(in);
+        List<RemoteEventData> remoteEvents = new ArrayList<RemoteEventData>(size);
+        for (int i = 0; i < size; ++i) {
+            RemoteEventData remoteEvent = new RemoteEventData();
+            remoteEvent.setEvent(readValue(in));
+            remoteEvent.setSource(readValue(in));
+            remoteEvent.setData(readValue(in));
+            remoteEvents.add(remoteEvent);
+        }
+
+        return remoteEvents;
+    }
+
+    private void writeValue(DataOutputStream out, Object value) throws IOException
+    {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value.getClass() == DocumentReference.class) {
+            out.writeByte(TYPE_DOCUMENT_REFERENCE);
+            writeDocumentReference(out, (DocumentReference) value);
+        } else if (value.getClass() == HashMap.class) {
+            out.writeByte(TYPE_MAP);
+            writeMap(out, (Map< ? , ? >) value);
+        } else if (value.getClass() == ArrayList.class) {
+            out.writeByte(TYPE_LIST);
+            writeList(out, (List< ? >) value);
+        } else if (value instanceof AbstractFilterableEvent && getEventConstructor(value.getClass()) != null) {
+            EventFilter filter = ((AbstractFilterableEvent) value).getEventFilter();
+            if (filter.getClass() == AlwaysMatchingEventFilter.class || filter.getClass() == FixedNameEventFilter.class
+                || filter.getClass() == RegexEventFilter.class) {
+                out.writeByte(TYPE_FILTERABLE_EVENT);
+                writeString(out, value.getClass().getName());
+                writeFilter(out, filter);
+            } else {
+                writeSerialized(out, value);
+            }
+        } else if (value instanceof AbstractActionExecutionEvent && getEventConstructor(value.getClass()) != null) {
+            out.writeByte(TYPE_ACTION_EVENT);
+            writeString(out, value.getClass().getName());
+            writeValue(out, ((AbstractActionExecutionEvent) value).getActionName());
+        } else {
+            writeSerialized(out, value);
+        }
+    }
+
+    private Serializable readValue(DataInputStream in) throws IOException
+    {
+        Serializable value;
+
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                value = null;
+                break;
+            case TYPE_STRING:
+                value = readString(in);
+                break;
+            case TYPE_BOOLEAN:
+                value = in.readBoolean();
+                break;
+            case TYPE_INTEGER:
+                value = in.readInt();
+                break;
+            case TYPE_LONG:
+                value = in.readLong();
+                break;
+            case TYPE_DOCUMENT_REFERENCE:
+                value = readDocumentReference(in);
+                break;
+            case TYPE_MAP:
+                value = readMap(in);
+                break;
+            case TYPE_LIST:
+                value = readList(in);
+                break;
+            case TYPE_FILTERABLE_EVENT:
+                value = newEvent(readString(in), EventFilter.class, readFilter(in));
+                break;
+            case TYPE_ACTION_EVENT:
+                value = newEvent(readString(in), String.class, readValue(in));
+                break;
+            case TYPE_SERIALIZED:
+                value = readSerialized(in);
+                break;
+            default:
+                throw new IOException("Unknown remote event value type [" + type + "]");
+        }
+
+        return value;
+    }
+
+    private void writeString(DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(ENCODING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private String readString(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+
+        return new String(bytes, ENCODING);
+    }
+
+    /**
+     * Read the length of a byte array or the number of elements of a collection, each element being encoded with at
+     * least one byte.
+     * 
+     * @param in the stream to read from
+     * @return the length
+     * @throws IOException if the length is negative or greater than what's left to read, which means the message is
+     *             corrupted
+     */
+    private int readLength(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid length [" + length + "] in remote events message");
+        }
+
+        return length;
+    }
+
+    private void writeDocumentReference(DataOutputStream out, DocumentReference reference) throws IOException
+    {
+        writeString(out, reference.getWikiReference().getName());
+        List<SpaceReference> spaces = reference.getSpaceReferences();
+        out.writeInt(spaces.size());
+        for (SpaceReference space : spaces) {
+            writeString(out, space.getName());
+        }
+        writeString(out, reference.getName());
+        Locale locale = reference.getLocale();
+        out.writeBoolean(locale != null);
+        if (locale != null) {
+            writeString(out, locale.getLanguage());
+            writeString(out, locale.getCountry());
+            writeString(out, locale.getVariant());
+        }
+    }
+
+    private DocumentReference readDocumentReference(DataInputStream in) throws IOException
+    {
+        String wiki = readString(in);
+        int size = readLength(in);
+        List<String> spaces = new ArrayList<String>(size);
+        for (int i = 0; i < size; ++i) {
+            spaces.add(readString(in));
+        }
+        String name = readString(in);
+        Locale locale = null;
+        if (in.readBoolean()) {
+            locale = new Locale(readString(in), readString(in), readString(in));
+        }
+
+        return new DocumentReference(wiki, spaces, name, locale);
+    }
+
+    private void writeMap(DataOutputStream out, Map< ? , ? > map) throws IOException
+    {
+        out.writeInt(map.size());
+        for (Map.Entry< ? , ? > entry : map.entrySet()) {
+            writeValue(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private HashMap<Serializable, Serializable> readMap(DataInputStream in) throws IOException
+    {
+        int size = readLength(in);
+        HashMap<Serializable, Serializable> map = new HashMap<Serializable, Serializable>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; ++i) {
+            map.put(readValue(in), readValue(in));
+        }
+
+        return map;
+    }
+
+    private void writeList(DataOutputStream out, List< ? > list) throws IOException
+    {
+        out.writeInt(list.size());
+        for (Object element : list) {
+            writeValue(out, element);
+        }
+    }
+
+    private ArrayList<Serializable> readList(DataInputStream in) throws IOException
+    {
+        int size = readLength(in);
+        ArrayList<Serializable> list = new ArrayList<Serializable>(size);
+        for (int i = 0; i < size; ++i) {
+            list.add(readValue(in));
+        }
+
+        return list;
+    }
+
+    private void writeFilter(DataOutputStream out, EventFilter filter) throws IOException
+    {
+        if (filter instanceof FixedNameEventFilter) {
+            out.writeByte(FILTER_FIXED_NAME);
+            writeString(out, filter.getFilter());
+        } else if (filter instanceof RegexEventFilter) {
+            out.writeByte(FILTER_REGEX);
+            writeString(out, filter.getFilter());
+        } else {
+            out.writeByte(FILTER_ALWAYS_MATCHING);
+        }
+    }
+
+    private EventFilter readFilter(DataInputStream in) throws IOException
+    {
+        EventFilter filter;
+
+        byte type = in.readByte();
+        switch (type) {
+            case FILTER_FIXED_NAME:
+                filter = new FixedNameEventFilter(readString(in));
+                break;
+            case FILTER_REGEX:
+                filter = new RegexEventFilter(readString(in));
+                break;
+            case FILTER_ALWAYS_MATCHING:
+                filter = new AlwaysMatchingEventFilter();
+                break;
+            default:
+                throw new IOException("Unknown event filter type [" + type + "]");
+        }
+
+        return filter;
+    }
+
+    private void writeSerialized(DataOutputStream out, Object value) throws IOException
+    {
+        if (!(value instanceof Serializable)) {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+        objectOut.writeObject(value);
+        objectOut.close();
+
+        out.writeByte(TYPE_SERIALIZED);
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    private Serializable readSerialized(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+
+        ObjectInputStream objectIn = new ContextObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return (Serializable) objectIn.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Failed to unserialize remote event value", e);
+        } finally {
+            objectIn.close();
+        }
+    }
+
+    /**
+     * @param eventClass the class of an event
+     * @return the constructor taking the event filter or the action name, null if the event has to be serialized
+     */
+    private Constructor< ? > getEventConstructor(Class< ? > eventClass)
+    {
+        Constructor< ? > constructor = this.eventConstructors.get(eventClass);
+
+        if (constructor == null && !this.serializedEvents.containsKey(eventClass)) {
+            Class< ? > baseClass;
+            Class< ? > parameterType;
+            if (AbstractFilterableEvent.class.isAssignableFrom(eventClass)) {
+                baseClass = AbstractFilterableEvent.class;
+                parameterType = EventFilter.class;
+            } else {
+                baseClass = AbstractActionExecutionEvent.class;
+                parameterType = String.class;
+            }
+
+            constructor = findEventConstructor(eventClass, baseClass, parameterType);
+            if (constructor != null) {
+                this.eventConstructors.put(eventClass, constructor);
+            } else {
+                this.serializedEvents.put(eventClass, Boolean.TRUE);
+            }
+        }
+
+        return constructor;
+    }
+
+    private Constructor< ? > findEventConstructor(Class< ? > eventClass, Class< ? > baseClass, Class< ? > parameterType)
+    {
+        // The event must not hold any state which would be lost by creating it again with its filter or action name
+        for (Class< ? > currentClass = eventClass; currentClass != baseClass; currentClass =
+            currentClass.getSuperclass()) {
+            for (Field field : currentClass.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    return null;
+                }
+            }
+        }
+
+        try {
+            return eventClass.getConstructor(parameterType);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param className the name of the event class
+     * @param parameterType the type of the parameter of the event constructor
+     * @param parameter the parameter of the event constructor
+     * @return the new event
+     * @throws IOException when the class is not a serializable event or it could not be instantiated
+     */
+    private Serializable newEvent(String className, Class< ? > parameterType, Object parameter) throws IOException
+    {
+        try {
+            Class< ? > eventClass = Class.forName(className, false, getClassLoader());
+            if (!Event.class.isAssignableFrom(eventClass) || !Serializable.class.isAssignableFrom(eventClass)) {
+                throw new IOException("Class [" + className + "] is not a serializable event");
+            }
+
+            return (Serializable) eventClass.getConstructor(parameterType).newInstance(parameter);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to create remote event [" + className + "]", e);
+        }
+    }
+
+    /**
+     * @return the class loader used to load the classes of the received events
+     */
+    private static ClassLoader getClassLoader()
+    {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+
+        return classLoader != null ? classLoader : RemoteEventDataCodec.class.getClassLoader();
+    }
+
+    /**
+     * Resolve the serialized classes with the context class loader, which can see the classes of the installed
+     * extensions.
+     */
+    private static class ContextObjectInputStream extends ObjectInputStream
+    {
+        /**
+         * @param in the stream to read
+         * @throws IOException if the stream header can't be read
+         */
+        ContextObjectInputStream(InputStream in) throws IOException
+        {
+            super(in);
+        }
+
+        @Override
+        protected Class< ? > resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+        {
+            try {
+                return Class.forName(desc.getName(), false, getClassLoader());
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
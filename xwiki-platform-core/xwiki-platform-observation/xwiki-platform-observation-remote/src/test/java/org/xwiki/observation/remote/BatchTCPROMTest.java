@@ -0,0 +1,152 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jgroups.Message;
+import org.jgroups.ReceiverAdapter;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.descriptor.DefaultComponentDescriptor;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.remote.jgroups.JGroupsReceiver;
+import org.xwiki.observation.remote.test.AbstractROMTestCase;
+import org.xwiki.observation.remote.test.TestEvent;
+
+/**
+ * Validate sending events in batches between two instances of {@link RemoteObservationManager}.
+ * 
+ * @version $Id$
+ */
+public class BatchTCPROMTest extends AbstractROMTestCase
+{
+    private Mockery context = new Mockery();
+
+    /**
+     * The number of network messages received by the second instance.
+     */
+    private final AtomicInteger receivedMessages = new AtomicInteger();
+
+    /**
+     * Count the received messages before handing them to the default receiver.
+     */
+    private class CountingReceiver extends ReceiverAdapter implements JGroupsReceiver
+    {
+        private final JGroupsReceiver receiver;
+
+        CountingReceiver(JGroupsReceiver receiver)
+        {
+            this.receiver = receiver;
+        }
+
+        @Override
+        public void receive(Message msg)
+        {
+            receivedMessages.incrementAndGet();
+
+            this.receiver.receive(msg);
+        }
+    }
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        System.setProperty("jgroups.bind_addr", "localhost");
+
+        getConfigurationSource1().setProperty("observation.remote.channels", Arrays.asList("tcp"));
+        getConfigurationSource1().setProperty("observation.remote.batch.delay", 100);
+        getConfigurationSource1().setProperty("observation.remote.batch.size", 10);
+
+        DefaultComponentDescriptor<JGroupsReceiver> receiverDescriptor =
+            new DefaultComponentDescriptor<JGroupsReceiver>();
+        receiverDescriptor.setRole(JGroupsReceiver.class);
+        receiverDescriptor.setRoleHint("tcp");
+        getComponentManager2().registerComponent(receiverDescriptor,
+            new CountingReceiver(getComponentManager2().lookup(JGroupsReceiver.class)));
+
+        getComponentManager2().lookup(RemoteObservationManager.class).startChannel("tcp");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        this.context.assertIsSatisfied();
+    }
+
+    @Test
+    public void testBatchedEvents() throws InterruptedException
+    {
+        final EventListener localListener = this.context.mock(EventListener.class, "local");
+        final EventListener remoteListener = this.context.mock(EventListener.class, "remote");
+
+        final TestEvent event = new TestEvent();
+        final DocumentUpdatedEvent documentEvent =
+            new DocumentUpdatedEvent(new DocumentReference("wiki", "Space", "Page"));
+
+        final HashMap<String, Object> data = new HashMap<String, Object>();
+        data.put("document", new DocumentReference("wiki", "Space", "Page"));
+        data.put("version", "1.1");
+
+        this.context.checking(new Expectations() {{
+                allowing(localListener).getName(); will(returnValue("mylistener"));
+                allowing(remoteListener).getName(); will(returnValue("mylistener"));
+                allowing(localListener).getEvents();
+                    will(returnValue(Arrays.asList(event, new DocumentUpdatedEvent())));
+                allowing(remoteListener).getEvents();
+                    will(returnValue(Arrays.asList(event, new DocumentUpdatedEvent())));
+                exactly(25).of(localListener).onEvent(with(same(event)), with(equal("some source")),
+                    with(equal("some data")));
+                oneOf(localListener).onEvent(with(same(documentEvent)), with(equal("some source")),
+                    with(equal(data)));
+                exactly(25).of(remoteListener).onEvent(with(equal(event)), with(equal("some source")),
+                    with(equal("some data")));
+                oneOf(remoteListener).onEvent(with(any(DocumentUpdatedEvent.class)), with(equal("some source")),
+                    with(equal(data)));
+            }});
+
+        getObservationManager1().addListener(localListener);
+        getObservationManager2().addListener(remoteListener);
+
+        // More events than the batch size, sent faster than the batch delay
+        for (int i = 0; i < 25; ++i) {
+            getObservationManager1().notify(event, "some source", "some data");
+        }
+        getObservationManager1().notify(documentEvent, "some source", data);
+
+        // Make sure the batches have been sent and JGroups has enough time to send the messages
+        Thread.sleep(1000);
+
+        // The 26 events are sent in batches of at most 10 events
+        int messages = this.receivedMessages.get();
+        Assert.assertTrue("Received [" + messages + "] messages", messages >= 3 && messages < 26);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal.jgroups;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import org.jgroups.util.Util;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.bridge.event.ActionExecutedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.event.filter.RegexEventFilter;
+import org.xwiki.observation.remote.RemoteEventData;
+import org.xwiki.observation.remote.test.TestEvent;
+
+/**
+ * Unit tests for {@link RemoteEventDataCodec}.
+ * 
+ * @version $Id$
+ */
+public class RemoteEventDataCodecTest
+{
+    private RemoteEventDataCodec codec = new RemoteEventDataCodec();
+
+    private RemoteEventData createRemoteEvent(Serializable event, Serializable source, Serializable data)
+    {
+        RemoteEventData remoteEvent = new RemoteEventData();
+        remoteEvent.setEvent(event);
+        remoteEvent.setSource(source);
+        remoteEvent.setData(data);
+
+        return remoteEvent;
+    }
+
+    private List<RemoteEventData> roundTrip(RemoteEventData... remoteEvents) throws IOException
+    {
+        List<byte[]> encodedEvents = new ArrayList<byte[]>();
+        for (RemoteEventData remoteEvent : remoteEvents) {
+            encodedEvents.add(this.codec.encode(remoteEvent));
+        }
+
+        byte[] batch = this.codec.encodeBatch(encodedEvents);
+
+        Assert.assertTrue(this.codec.isBatch(batch, 0, batch.length));
+
+        return this.codec.decodeBatch(batch, 0, batch.length);
+    }
+
+    @Test
+    public void testDocumentEvent() throws Exception
+    {
+        DocumentReference reference = new DocumentReference("wiki", Arrays.asList("Space1", "Space2"), "Page",
+            Locale.FRENCH);
+
+        HashMap<String, Object> source = new HashMap<String, Object>();
+        source.put("name", reference);
+        source.put("version", "2.1");
+        source.put("language", null);
+
+        HashMap<String, Object> data = new HashMap<String, Object>();
+        data.put("wiki", "wiki");
+        data.put("user", "XWiki.Admin");
+
+        List<RemoteEventData> remoteEvents = roundTrip(createRemoteEvent(new DocumentUpdatedEvent(reference), source,
+            data));
+
+        Assert.assertEquals(1, remoteEvents.size());
+        RemoteEventData remoteEvent = remoteEvents.get(0);
+        Assert.assertEquals(DocumentUpdatedEvent.class, remoteEvent.getEvent().getClass());
+        Assert.assertEquals(new DocumentUpdatedEvent(reference).getEventFilter().getFilter(),
+            ((DocumentUpdatedEvent) remoteEvent.getEvent()).getEventFilter().getFilter());
+        Assert.assertEquals(source, remoteEvent.getSource());
+        Assert.assertEquals(data, remoteEvent.getData());
+    }
+
+    @Test
+    public void testSeveralEvents() throws Exception
+    {
+        ArrayList<Object> values = new ArrayList<Object>(Arrays.<Object> asList(1, 2L, true));
+
+        List<RemoteEventData> remoteEvents =
+            roundTrip(createRemoteEvent(new ActionExecutedEvent("upload"), values, null),
+                createRemoteEvent(new DocumentUpdatedEvent(new RegexEventFilter("wiki:.*")), null, null),
+                createRemoteEvent(new TestEvent(), "source", "data"));
+
+        Assert.assertEquals(3, remoteEvents.size());
+
+        Assert.assertEquals("upload", ((ActionExecutedEvent) remoteEvents.get(0).getEvent()).getActionName());
+        Assert.assertEquals(values, remoteEvents.get(0).getSource());
+        Assert.assertNull(remoteEvents.get(0).getData());
+
+        DocumentUpdatedEvent documentEvent = (DocumentUpdatedEvent) remoteEvents.get(1).getEvent();
+        Assert.assertEquals(RegexEventFilter.class, documentEvent.getEventFilter().getClass());
+        Assert.assertEquals("wiki:.*", documentEvent.getEventFilter().getFilter());
+
+        // Unknown events are serialized
+        Assert.assertEquals(new TestEvent(), remoteEvents.get(2).getEvent());
+        Assert.assertEquals("source", remoteEvents.get(2).getSource());
+        Assert.assertEquals("data", remoteEvents.get(2).getData());
+    }
+
+    @Test
+    public void testSerializedMessageIsNotABatch() throws Exception
+    {
+        byte[] buffer = Util.objectToByteBuffer(createRemoteEvent(new TestEvent(), "source", "data"));
+
+        Assert.assertFalse(this.codec.isBatch(buffer, 0, buffer.length));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidLength() throws Exception
+    {
+        byte[] batch = this.codec.encodeBatch(Arrays.asList(this.codec.encode(createRemoteEvent("event", null, null))));
+
+        // Corrupt the number of events of the batch
+        int sizeOffset = RemoteEventDataCodec.MAGIC.length + 1;
+        batch[sizeOffset] = (byte) 0x7F;
+
+        this.codec.decodeBatch(batch, 0, batch.length);
+    }
+}
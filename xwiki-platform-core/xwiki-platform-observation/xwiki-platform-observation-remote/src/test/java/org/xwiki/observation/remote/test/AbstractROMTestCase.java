@@ -19,9 +19,11 @@
  */
 package org.xwiki.observation.remote.test;
 
+import org.junit.After;
 import org.junit.Before;
 import org.xwiki.component.embed.EmbeddableComponentManager;
 import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.remote.NetworkAdapter;
 import org.xwiki.test.MockConfigurationSource;
 import org.xwiki.test.XWikiComponentInitializer;
 
@@ -56,6 +58,16 @@ public void setUp() throws Exception
         this.observationManager2 = getComponentManager2().lookup(ObservationManager.class);
     }
 
+    /**
+     * Stop the channels so that they don't receive the messages of the following tests.
+     */
+    @After
+    public void tearDownChannels() throws Exception
+    {
+        getComponentManager1().lookup(NetworkAdapter.class, "jgroups").stopAllChannels();
+        getComponentManager2().lookup(NetworkAdapter.class, "jgroups").stopAllChannels();
+    }
+
     public EmbeddableComponentManager getComponentManager1() throws Exception
     {
         return this.initializer1.getComponentManager();
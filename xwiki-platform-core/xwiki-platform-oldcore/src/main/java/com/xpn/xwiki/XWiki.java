@@ -39,11 +39,13 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
@@ -131,6 +133,7 @@
 import com.xpn.xwiki.doc.XWikiDeletedDocument;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.doc.XWikiDocumentArchive;
+import com.xpn.xwiki.internal.cache.rendering.RenderingCache;
 import com.xpn.xwiki.internal.event.XObjectAddedEvent;
 import com.xpn.xwiki.internal.event.XObjectDeletedEvent;
 import com.xpn.xwiki.internal.event.XObjectEvent;
@@ -139,6 +142,10 @@
 import com.xpn.xwiki.internal.event.XObjectPropertyEvent;
 import com.xpn.xwiki.internal.event.XObjectPropertyUpdatedEvent;
 import com.xpn.xwiki.internal.event.XObjectUpdatedEvent;
+import com.xpn.xwiki.internal.template.SkinFileCache;
+import com.xpn.xwiki.internal.template.SkinFileLocation;
+import com.xpn.xwiki.internal.template.TemplateCache;
+import com.xpn.xwiki.internal.template.VelocityTemplate;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.PropertyInterface;
 import com.xpn.xwiki.objects.classes.BaseClass;
@@ -163,6 +170,7 @@
 import com.xpn.xwiki.stats.impl.XWikiStatsServiceImpl;
 import com.xpn.xwiki.store.AttachmentRecycleBinStore;
 import com.xpn.xwiki.store.AttachmentVersioningStore;
+import com.xpn.xwiki.store.StoreUtils;
 import com.xpn.xwiki.store.XWikiAttachmentStoreInterface;
 import com.xpn.xwiki.store.XWikiCacheStore;
 import com.xpn.xwiki.store.XWikiCacheStoreInterface;
@@ -1422,6 +1430,8 @@ public void saveDocument(XWikiDocument doc, String comment, boolean isMinorEdit,
 
     public XWikiDocument getDocument(XWikiDocument doc, XWikiContext context) throws XWikiException
     {
+        addRenderingDependency(doc.getDocumentReference(), context);
+
         String database = context.getDatabase();
         try {
             if (doc.getDocumentReference().getWikiReference().getName() != null) {
@@ -1474,6 +1484,75 @@ public XWikiDocument getDocument(DocumentReference reference, XWikiContext conte
         return getDocument(doc, context);
     }
 
+    /**
+     * Load several documents at once. This is much faster than calling
+     * {@link #getDocument(DocumentReference, XWikiContext)} for each document since the cache is checked for all the
+     * documents in one pass and the missing documents are loaded in grouped queries.
+     * 
+     * @param references the references of the documents to load
+     * @param context the XWiki context
+     * @return the documents, in the same order as the passed references; the documents which don't exist are returned
+     *         as new documents
+     * @throws XWikiException when failing to load the documents
+     * @since 4.0M1
+     */
+    public List<XWikiDocument> getDocuments(Collection<DocumentReference> references, XWikiContext context)
+        throws XWikiException
+    {
+        List<XWikiDocument> result = new ArrayList<XWikiDocument>(references.size());
+
+        // Group the documents by wiki since the store can only load documents from the current wiki
+        Map<String, List<XWikiDocument>> documentsByWiki = new LinkedHashMap<String, List<XWikiDocument>>();
+        Map<String, List<Integer>> positionsByWiki = new HashMap<String, List<Integer>>();
+        for (DocumentReference reference : references) {
+            String wiki = reference.getWikiReference().getName();
+            List<XWikiDocument> wikiDocuments = documentsByWiki.get(wiki);
+            if (wikiDocuments == null) {
+                wikiDocuments = new ArrayList<XWikiDocument>();
+                documentsByWiki.put(wiki, wikiDocuments);
+                positionsByWiki.put(wiki, new ArrayList<Integer>());
+            }
+            addRenderingDependency(reference, context);
+            XWikiDocument doc = new XWikiDocument(reference);
+            doc.setContentDirty(true);
+            wikiDocuments.add(doc);
+            positionsByWiki.get(wiki).add(result.size());
+            result.add(doc);
+        }
+
+        String database = context.getDatabase();
+        try {
+            for (Map.Entry<String, List<XWikiDocument>> entry : documentsByWiki.entrySet()) {
+                context.setDatabase(entry.getKey());
+
+                List<XWikiDocument> wikiDocuments = StoreUtils.loadXWikiDocs(getStore(), entry.getValue(), context);
+                List<Integer> positions = positionsByWiki.get(entry.getKey());
+                for (int i = 0; i < positions.size(); ++i) {
+                    result.set(positions.get(i), wikiDocuments.get(i));
+                }
+            }
+        } finally {
+            context.setDatabase(database);
+        }
+
+        return result;
+    }
+
+    /**
+     * Record that the fragments currently being rendered, if any, depend on the provided document so that their cached
+     * result is invalidated when the document is modified.
+     * 
+     * @param reference the reference of the document being loaded
+     * @param context the XWiki context
+     */
+    private void addRenderingDependency(DocumentReference reference, XWikiContext context)
+    {
+        if (context.get(RenderingCache.FRAGMENTS_CONTEXT_KEY) != null) {
+            RenderingCache renderingCache = Utils.getComponent((Type) RenderingCache.class);
+            renderingCache.addDependency(reference, context);
+        }
+    }
+
     /**
      * @deprecated since 2.2M1 use {@link #getDocument(DocumentReference, XWikiContext)} instead
      */
@@ -1788,43 +1867,28 @@ public String evaluateTemplate(String template, XWikiContext context) throws IOE
             return "";
         }
 
-        String content = getResourceContent(template);
-        return XWikiVelocityRenderer.evaluate(content, template, (VelocityContext) context.get("vcontext"), context);
+        TemplateCache templateCache = Utils.getComponent((Type) TemplateCache.class);
+        VelocityTemplate velocityTemplate = templateCache.getResourceTemplate(template, context);
+        if (velocityTemplate == null) {
+            throw new FileNotFoundException("Failed to find template [" + template + "]");
+        }
+
+        return velocityTemplate.evaluate(template, (VelocityContext) context.get("vcontext"), context);
     }
 
     public String parseTemplate(String template, String skin, XWikiContext context)
     {
+        // The templates are cached, invalidated when the skin document or the template file is modified
+        TemplateCache templateCache = Utils.getComponent((Type) TemplateCache.class);
+
         try {
-            XWikiDocument doc = getDocument(skin, context);
-            if (!doc.isNew()) {
-                // Try parsing the object property
-                BaseObject object =
-                    doc.getXObject(new DocumentReference(doc.getDocumentReference().getWikiReference().getName(),
-                        SYSTEM_SPACE, "XWikiSkins"));
-                if (object != null) {
-                    String content = object.getStringValue(template);
-                    if (StringUtils.isNotBlank(content)) {
-                        // Let's use this template
-                        // Use "" as namespace to register macros in global namespace. That way it
-                        // can be used in a renderer content not parsed at the same level.
-                        return XWikiVelocityRenderer.evaluate(content, "", (VelocityContext) context.get("vcontext"),
-                            context);
-                    }
-                }
-                // Try parsing a document attachment
-                XWikiAttachment attachment = doc.getAttachment(template);
-                if (attachment != null) {
-                    // It's impossible to know the real attachemtn encoding, but let's assume that they respect the
-                    // standard and use UTF-8 (which is required for the files located on the filesystem)
-                    String content = IOUtils.toString(attachment.getContentInputStream(context), DEFAULT_ENCODING);
-                    if (StringUtils.isNotBlank(content)) {
-                        // Let's use this template
-                        // Use "" as namespace to register macros in global namespace. That way it
-                        // can be used in a renderer content not parsed at the same level.
-                        return XWikiVelocityRenderer.evaluate(content, "", (VelocityContext) context.get("vcontext"),
-                            context);
-                    }
-                }
+            // Try parsing the object property or a document attachment
+            VelocityTemplate velocityTemplate = templateCache.getDocumentTemplate(skin, template, context);
+            if (velocityTemplate != null) {
+                // Let's use this template
+                // Use "" as namespace to register macros in global namespace. That way it
+                // can be used in a renderer content not parsed at the same level.
+                return velocityTemplate.evaluate("", (VelocityContext) context.get("vcontext"), context);
             }
         } catch (Exception e) {
         }
@@ -1838,10 +1902,12 @@ public String parseTemplate(String template, String skin, XWikiContext context)
             // This is a safe assumption, as templates found under /templates/ are treated
             // separately, and there is no need to have templates in another place.
             if (path.startsWith("/skins/")) {
-                String content = getResourceContent(path);
-                // Use "" as namespace to register macros in global namespace. That way it can be
-                // used in a renderer content not parsed at the same level.
-                return XWikiVelocityRenderer.evaluate(content, "", (VelocityContext) context.get("vcontext"), context);
+                VelocityTemplate velocityTemplate = templateCache.getResourceTemplate(path, context);
+                if (velocityTemplate != null) {
+                    // Use "" as namespace to register macros in global namespace. That way it can be
+                    // used in a renderer content not parsed at the same level.
+                    return velocityTemplate.evaluate("", (VelocityContext) context.get("vcontext"), context);
+                }
             } else {
                 LOGGER.warn("Illegal access, tried to use file [" + path + "] as a template."
                     + " Possible break-in attempt!");
@@ -1957,50 +2023,38 @@ public String getSkinFile(String filename, String skin, boolean forceSkinAction,
     {
         XWikiURLFactory urlf = context.getURLFactory();
         try {
-            XWikiDocument doc = getDocument(skin, context);
-            if (!doc.isNew()) {
-                // Look for an object property
-                BaseObject object =
-                    doc.getXObject(new DocumentReference(doc.getDocumentReference().getWikiReference().getName(),
-                        SYSTEM_SPACE, "XWikiSkins"));
-                if (object != null) {
-                    String content = object.getStringValue(filename);
-                    if (StringUtils.isNotBlank(content)) {
-                        URL url =
-                            urlf.createSkinURL(filename, doc.getSpace(), doc.getName(), doc.getDatabase(), context);
-                        return urlf.getURL(url, context);
+            // The location of the skin files is cached so that the skin document is not loaded each time
+            SkinFileCache skinFileCache = Utils.getComponent((Type) SkinFileCache.class);
+            SkinFileLocation location = skinFileCache.getLocation(skin, filename, context);
+
+            URL url;
+            switch (location) {
+                case OBJECT:
+                case ATTACHMENT:
+                    DocumentReference skinReference = this.currentMixedDocumentReferenceResolver.resolve(skin);
+                    String space = skinReference.getLastSpaceReference().getName();
+                    String wiki = skinReference.getWikiReference().getName();
+                    if (location == SkinFileLocation.OBJECT) {
+                        url = urlf.createSkinURL(filename, space, skinReference.getName(), wiki, context);
+                    } else {
+                        url =
+                            urlf.createAttachmentURL(StringUtils.replaceChars(filename, '/', '.'), space,
+                                skinReference.getName(), "skin", null, wiki, context);
                     }
-                }
-
-                // Look for an attachment
-                String shortName = StringUtils.replaceChars(filename, '/', '.');
-                XWikiAttachment attachment = doc.getAttachment(shortName);
-                if (attachment != null) {
-                    return doc.getAttachmentURL(shortName, "skin", context);
-                }
-            }
-
-            // Look for a skin file
-            String path = "/skins/" + skin + "/" + filename;
-            if (resourceExists(path)) {
-                URL url;
-
-                if (forceSkinAction) {
-                    url = urlf.createSkinURL(filename, "skins", skin, context);
-                } else {
-                    url = urlf.createSkinURL(filename, skin, context);
-                }
-                return urlf.getURL(url, context);
-            }
-
-            // Look for a resource file
-            path = "/resources/" + filename;
-            if (resourceExists(path)) {
-                URL url;
-                url = urlf.createResourceURL(filename, forceSkinAction, context);
-                return urlf.getURL(url, context);
+                    return urlf.getURL(url, context);
+                case SKIN:
+                    if (forceSkinAction) {
+                        url = urlf.createSkinURL(filename, "skins", skin, context);
+                    } else {
+                        url = urlf.createSkinURL(filename, skin, context);
+                    }
+                    return urlf.getURL(url, context);
+                case RESOURCE:
+                    url = urlf.createResourceURL(filename, forceSkinAction, context);
+                    return urlf.getURL(url, context);
+                default:
+                    break;
             }
-
         } catch (Exception e) {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Exception while getting skin file [" + filename + "] from skin [" + skin + "]", e);
@@ -820,7 +820,8 @@ public Class getxWikiClass()
 
     public Class[] getxWikiClasses()
     {
-        List<BaseClass> list = this.getDoc().getXClasses(getXWikiContext());
+        // The classes are loaded from their own documents so there's no need to clone this document
+        List<BaseClass> list = this.doc.getXClasses(getXWikiContext());
         if (list == null) {
             return null;
         }
@@ -1719,7 +1720,10 @@ public String getTags()
 
     public List<String> getTagList()
     {
-        return this.getDoc().getTagsList(getXWikiContext());
+        // Copy the tags instead of cloning the whole document to protect them
+        List<String> tags = this.doc.getTagsList(getXWikiContext());
+
+        return tags != null ? new ArrayList<String>(tags) : null;
     }
 
     public List<String> getTagsPossibleValues()
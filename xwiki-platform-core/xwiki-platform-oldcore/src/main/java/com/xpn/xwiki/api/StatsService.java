@@ -20,6 +20,7 @@
 package com.xpn.xwiki.api;
 
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -30,6 +31,8 @@
 import com.xpn.xwiki.criteria.impl.Scope;
 import com.xpn.xwiki.stats.api.XWikiStatsService;
 import com.xpn.xwiki.stats.impl.StatsUtil;
+import com.xpn.xwiki.stats.impl.XWikiStatsServiceImpl;
+import com.xpn.xwiki.stats.impl.xwiki.XWikiStatsStoreService;
 
 /**
  * Statistics api. The Statistics module needs to be activated (xwiki.stats=1 in xwiki.cfg).
@@ -226,4 +229,40 @@ public boolean isEnabled()
 
         return stats;
     }
+
+    /**
+     * Returns metrics about the storage of the statistics: the number of statistics waiting in the queue
+     * ({@code queueSize}), the number of statistics merged with another one instead of being stored separately
+     * ({@code mergedItems}), the number of statistics stored ({@code storedItems}), the number of flushes of the
+     * accumulated statistics ({@code flushCount}) and the number of milliseconds spent in the last flush
+     * ({@code lastFlushTime}) and on average ({@code averageFlushTime}).
+     * <p>
+     * Requires programming rights.
+     * </p>
+     * 
+     * @return the statistics storage metrics, empty if statistics are disabled or the current document doesn't have
+     *         programming rights
+     * @since 4.0M1
+     */
+    public Map<String, Long> getStoreMetrics()
+    {
+        Map<String, Long> metrics = new LinkedHashMap<String, Long>();
+
+        if (hasProgrammingRights()) {
+            XWikiStatsService statsService = getXWikiContext().getWiki().getStatsService(getXWikiContext());
+            if (statsService instanceof XWikiStatsServiceImpl) {
+                XWikiStatsStoreService storeService = ((XWikiStatsServiceImpl) statsService).getStoreService();
+                if (storeService != null) {
+                    metrics.put("queueSize", (long) storeService.getQueueSize());
+                    metrics.put("mergedItems", storeService.getMergedItems());
+                    metrics.put("storedItems", storeService.getStoredItems());
+                    metrics.put("flushCount", storeService.getFlushCount());
+                    metrics.put("lastFlushTime", storeService.getLastFlushTime());
+                    metrics.put("averageFlushTime", storeService.getAverageFlushTime());
+                }
+            }
+        }
+
+        return metrics;
+    }
 }
@@ -323,6 +323,12 @@ public class XWikiDocument implements DocumentModelBridge
 
     private List<XWikiAttachment> attachmentList;
 
+    /**
+     * The objects and attachments shared with the documents cloned from this one or from which this one is cloned,
+     * {@code null} if {@link #xObjects} and {@link #attachmentList} belong to this document only.
+     */
+    private volatile SharedCollections sharedCollections;
+
     // Caching
     private boolean fromCache = false;
 
@@ -1932,6 +1938,8 @@ public void setxWikiClass(BaseClass xwikiClass)
      */
     public Map<DocumentReference, List<BaseObject>> getXObjects()
     {
+        ownCollections();
+
         return this.xObjects;
     }
 
@@ -1959,6 +1967,8 @@ public Map<String, Vector<BaseObject>> getxWikiObjects()
      */
     public void setXObjects(Map<DocumentReference, List<BaseObject>> objects)
     {
+        ownCollections();
+
         this.xObjects = objects;
     }
 
@@ -2048,10 +2058,10 @@ public int createXObject(EntityReference classReference, XWikiContext context) t
         BaseObject object = BaseClass.newCustomClassInstance(absoluteClassReference, context);
         object.setDocumentReference(getDocumentReference());
         object.setXClassReference(classReference);
-        List<BaseObject> objects = this.xObjects.get(absoluteClassReference);
+        List<BaseObject> objects = getXObjects().get(absoluteClassReference);
         if (objects == null) {
             objects = new ArrayList<BaseObject>();
-            this.xObjects.put(absoluteClassReference, objects);
+            getXObjects().put(absoluteClassReference, objects);
         }
         objects.add(object);
         int nb = objects.size() - 1;
@@ -2123,7 +2133,7 @@ public List<BaseObject> getXObjects(EntityReference reference)
     @Deprecated
     public Vector<BaseObject> getObjects(String className)
     {
-        List<BaseObject> result = this.xObjects.get(resolveClassReference(className));
+        List<BaseObject> result = getXObjects().get(resolveClassReference(className));
         return result == null ? null : new Vector<BaseObject>(result);
     }
 
@@ -2133,7 +2143,7 @@ public Vector<BaseObject> getObjects(String className)
     public void setXObjects(DocumentReference classReference, List<BaseObject> objects)
     {
         // Remove existing objects
-        List<BaseObject> existingbjects = this.xObjects.get(classReference);
+        List<BaseObject> existingbjects = getXObjects().get(classReference);
         if (existingbjects != null) {
             existingbjects.clear();
         }
@@ -2143,7 +2153,7 @@ public void setXObjects(DocumentReference classReference, List<BaseObject> objec
             // Pretty wrong but can't remove that for retro compatibility reasons...
             // Note that it means that someone can put an unmodifiable list here make impossible to add any object of
             // this class.
-            this.xObjects.put(classReference, objects);
+            getXObjects().put(classReference, objects);
         } else {
             for (BaseObject baseObject : objects) {
                 addXObject(classReference, baseObject);
@@ -2336,7 +2346,7 @@ public BaseObject getObject(String className, String key, String value, boolean
     @Deprecated
     public void addXObject(DocumentReference classReference, BaseObject object)
     {
-        List<BaseObject> vobj = this.xObjects.get(classReference);
+        List<BaseObject> vobj = getXObjects().get(classReference);
         if (vobj == null) {
             setXObject(classReference, 0, object);
         } else {
@@ -2356,7 +2366,7 @@ public void addXObject(BaseObject object)
     {
         object.setDocumentReference(getDocumentReference());
 
-        List<BaseObject> vobj = this.xObjects.get(object.getXClassReference());
+        List<BaseObject> vobj = getXObjects().get(object.getXClassReference());
         if (vobj == null) {
             setXObject(0, object);
         } else {
@@ -2385,10 +2395,10 @@ public void setXObject(DocumentReference classReference, int nb, BaseObject obje
             object.setNumber(nb);
         }
 
-        List<BaseObject> objects = this.xObjects.get(classReference);
+        List<BaseObject> objects = getXObjects().get(classReference);
         if (objects == null) {
             objects = new ArrayList<BaseObject>();
-            this.xObjects.put(classReference, objects);
+            getXObjects().put(classReference, objects);
         }
         while (nb >= objects.size()) {
             objects.add(null);
@@ -2411,10 +2421,10 @@ public void setXObject(int nb, BaseObject object)
         object.setDocumentReference(getDocumentReference());
         object.setNumber(nb);
 
-        List<BaseObject> objects = this.xObjects.get(object.getXClassReference());
+        List<BaseObject> objects = getXObjects().get(object.getXClassReference());
         if (objects == null) {
             objects = new ArrayList<BaseObject>();
-            this.xObjects.put(object.getXClassReference(), objects);
+            getXObjects().put(object.getXClassReference(), objects);
         }
         while (nb >= objects.size()) {
             objects.add(null);
@@ -2529,7 +2539,7 @@ public void duplicateXObjects(XWikiDocument templatedoc)
     private void cloneXObjects(XWikiDocument templatedoc, boolean keepsIdentity)
     {
         // clean map
-        this.xObjects.clear();
+        getXObjects().clear();
 
         // fill map
         for (Map.Entry<DocumentReference, List<BaseObject>> entry : templatedoc.getXObjects().entrySet()) {
@@ -3454,8 +3464,14 @@ private XWikiDocument cloneInternal(DocumentReference newDocumentReference, bool
             doc.setHidden(isHidden());
 
             if (keepsIdentity) {
-                doc.cloneXObjects(this);
-                doc.cloneAttachments(this);
+                // The objects and attachments are copied only once the document or its clone accesses them
+                if (doc.shareCollections(this)) {
+                    // Like adding the objects to the clone does
+                    doc.setContentDirty(true);
+                }
+                // The parsed content is never exposed (see #getXDOM()) so it can be shared instead of being parsed
+                // again by the clone. A duplicate can't share it since its source meta data is the document reference.
+                doc.xdom = this.xdom;
             } else {
                 doc.duplicateXObjects(this);
                 doc.copyAttachments(this);
@@ -3471,6 +3487,145 @@ private XWikiDocument cloneInternal(DocumentReference newDocumentReference, bool
         return doc;
     }
 
+    /**
+     * Objects and attachments shared by documents cloned from each other. The collections and the objects they contain
+     * are mutable and handed out by the document getters, so each document but the last one sharing them copies them the
+     * first time it accesses them, while the last one keeps them.
+     */
+    private static final class SharedCollections
+    {
+        /**
+         * The shared objects.
+         */
+        private final Map<DocumentReference, List<BaseObject>> xObjects;
+
+        /**
+         * The shared attachments.
+         */
+        private final List<XWikiAttachment> attachmentList;
+
+        /**
+         * The number of documents sharing the collections, protected by the monitor of this instance.
+         */
+        private int documents = 1;
+
+        /**
+         * @param xObjects the shared objects
+         * @param attachmentList the shared attachments
+         */
+        SharedCollections(Map<DocumentReference, List<BaseObject>> xObjects, List<XWikiAttachment> attachmentList)
+        {
+            this.xObjects = xObjects;
+            this.attachmentList = attachmentList;
+        }
+    }
+
+    /**
+     * Share the objects and attachments of the passed document, which this document is a clone of, instead of copying
+     * them.
+     * 
+     * @param sourceDocument the document to share the objects and attachments of
+     * @return true if the source document has objects
+     */
+    private boolean shareCollections(XWikiDocument sourceDocument)
+    {
+        synchronized (sourceDocument) {
+            SharedCollections collections = sourceDocument.sharedCollections;
+            if (collections == null) {
+                collections = new SharedCollections(sourceDocument.xObjects, sourceDocument.attachmentList);
+                sourceDocument.sharedCollections = collections;
+            }
+
+            synchronized (collections) {
+                ++collections.documents;
+            }
+
+            this.sharedCollections = collections;
+
+            for (List<BaseObject> objects : collections.xObjects.values()) {
+                if (!objects.isEmpty()) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Make sure the objects and attachments of this document are not shared anymore with other documents, copying them
+     * if they are still used by another document.
+     */
+    private void ownCollections()
+    {
+        if (this.sharedCollections == null) {
+            return;
+        }
+
+        synchronized (this) {
+            SharedCollections collections = this.sharedCollections;
+            if (collections != null) {
+                synchronized (collections) {
+                    if (collections.documents > 1) {
+                        this.xObjects = copyXObjects(collections.xObjects);
+                        this.attachmentList = copyAttachments(collections.attachmentList);
+                        --collections.documents;
+                    } else {
+                        this.xObjects = collections.xObjects;
+                        this.attachmentList = collections.attachmentList;
+                        for (XWikiAttachment attachment : this.attachmentList) {
+                            if (attachment.getDoc() != this) {
+                                attachment.setDoc(this);
+                            }
+                        }
+                    }
+                }
+
+                this.sharedCollections = null;
+            }
+        }
+    }
+
+    /**
+     * @param objects the objects of a document this document is a clone of
+     * @return a copy of the objects, for this document
+     */
+    private Map<DocumentReference, List<BaseObject>> copyXObjects(Map<DocumentReference, List<BaseObject>> objects)
+    {
+        Map<DocumentReference, List<BaseObject>> copy = new TreeMap<DocumentReference, List<BaseObject>>();
+        for (Map.Entry<DocumentReference, List<BaseObject>> entry : objects.entrySet()) {
+            List<BaseObject> copiedObjects = new ArrayList<BaseObject>(entry.getValue().size());
+            for (BaseObject object : entry.getValue()) {
+                BaseObject copiedObject = null;
+                if (object != null) {
+                    copiedObject = object.clone();
+                    copiedObject.setDocumentReference(getDocumentReference());
+                    copiedObject.setNumber(copiedObjects.size());
+                }
+                copiedObjects.add(copiedObject);
+            }
+            copy.put(entry.getKey(), copiedObjects);
+        }
+
+        return copy;
+    }
+
+    /**
+     * @param attachments the attachments of a document this document is a clone of
+     * @return a copy of the attachments, for this document
+     */
+    private List<XWikiAttachment> copyAttachments(List<XWikiAttachment> attachments)
+    {
+        List<XWikiAttachment> copy = new ArrayList<XWikiAttachment>(attachments.size());
+        for (XWikiAttachment attachment : attachments) {
+            XWikiAttachment copiedAttachment = (XWikiAttachment) attachment.clone();
+            copiedAttachment.setDoc(this);
+            copy.add(copiedAttachment);
+        }
+
+        return copy;
+    }
+
     /**
      * Clone attachments from another document. This implementation expects that this document is the same as the other
      * document and thus attachments will be saved in the database in the same place as the ones which they are cloning.
@@ -4296,17 +4451,21 @@ public static boolean containsXMLWikiDocument(Document domdoc)
 
     public void setAttachmentList(List<XWikiAttachment> list)
     {
+        ownCollections();
+
         this.attachmentList = list;
     }
 
     public List<XWikiAttachment> getAttachmentList()
     {
+        ownCollections();
+
         return this.attachmentList;
     }
 
     public void saveAllAttachments(XWikiContext context) throws XWikiException
     {
-        for (XWikiAttachment attachment : this.attachmentList) {
+        for (XWikiAttachment attachment : getAttachmentList()) {
             saveAttachmentContent(attachment, context);
         }
     }
@@ -4314,7 +4473,7 @@ public void saveAllAttachments(XWikiContext context) throws XWikiException
     public void saveAllAttachments(boolean updateParent, boolean transaction, XWikiContext context)
         throws XWikiException
     {
-        for (XWikiAttachment attachment : this.attachmentList) {
+        for (XWikiAttachment attachment : getAttachmentList()) {
             saveAttachmentContent(attachment, updateParent, transaction, context);
         }
     }
@@ -4590,7 +4749,7 @@ public Set<String> getUniqueLinkedPages(XWikiContext context)
             if (is10Syntax()) {
                 pageNames = getUniqueLinkedPages10(context);
             } else {
-                XDOM dom = getXDOM();
+                XDOM dom = getParsedXDOM();
 
                 List<LinkBlock> linkBlocks =
                     dom.getBlocks(new ClassBlockMatcher(LinkBlock.class), Block.Axes.DESCENDANT);
@@ -4701,7 +4860,7 @@ public List<String> getChildren(int nb, int start, XWikiContext context) throws
      */
     public void renameProperties(DocumentReference classReference, Map<String, String> fieldsToRename)
     {
-        List<BaseObject> objects = this.xObjects.get(classReference);
+        List<BaseObject> objects = getXObjects().get(classReference);
         if (objects == null) {
             return;
         }
@@ -4820,7 +4979,7 @@ public List<String> getIncludedPages(XWikiContext context)
             return getIncludedPagesForXWiki10Syntax(getContent(), context);
         } else {
             // Find all include macros listed on the page
-            XDOM dom = getXDOM();
+            XDOM dom = getParsedXDOM();
 
             List<String> result = new ArrayList<String>();
             List<MacroBlock> macroBlocks =
@@ -6118,7 +6277,7 @@ public String getDefaultEditMode(XWikiContext context) throws XWikiException
             // Find all include macros and extract the document names
             // TODO: Is there a good way not to hardcode the macro name? The macro itself shouldn't know
             // its own name since it's a deployment time concern.
-            for (Block macroBlock : getXDOM().getBlocks(new MacroBlockMatcher("include"), Axes.CHILD)) {
+            for (Block macroBlock : getParsedXDOM().getBlocks(new MacroBlockMatcher("include"), Axes.CHILD)) {
                 String documentName = macroBlock.getParameter("document");
                 if (documentName != null) {
                     // Resolve the document name into a valid Reference
@@ -6721,7 +6880,7 @@ public boolean isProgrammaticContent()
      */
     public boolean removeXObject(BaseObject object)
     {
-        List<BaseObject> objects = this.xObjects.get(object.getXClassReference());
+        List<BaseObject> objects = getXObjects().get(object.getXClassReference());
         // No objects at all, nothing to remove
         if (objects == null) {
             return false;
@@ -6778,7 +6937,7 @@ public boolean removeObject(BaseObject object)
      */
     public boolean removeXObjects(DocumentReference classReference)
     {
-        List<BaseObject> objects = this.xObjects.get(classReference);
+        List<BaseObject> objects = getXObjects().get(classReference);
         // No objects at all, nothing to remove
         if (objects == null) {
             return false;
@@ -7557,15 +7716,26 @@ public void convertSyntax(Syntax targetSyntax, XWikiContext context) throws XWik
      */
     public XDOM getXDOM()
     {
-        if (this.xdom == null) {
+        return getParsedXDOM().clone();
+    }
+
+    /**
+     * @return the XDOM corresponding to the document's string content, shared with the clones of this document so it
+     *         must not be modified
+     */
+    private XDOM getParsedXDOM()
+    {
+        XDOM parsedXDOM = this.xdom;
+        if (parsedXDOM == null) {
             try {
-                this.xdom = parseContent(getContent());
+                parsedXDOM = parseContent(getContent());
+                this.xdom = parsedXDOM;
             } catch (XWikiException e) {
                 LOGGER.error("Failed to parse document content to XDOM", e);
             }
         }
 
-        return this.xdom.clone();
+        return parsedXDOM;
     }
 
     /**
@@ -21,8 +21,10 @@
 
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 
@@ -34,6 +36,8 @@
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.InstantiationStrategy;
 import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
@@ -46,7 +50,10 @@
 /**
  * Specialized cache component related to documents. It automatically clean the cache when the document is related.
  * <p>
- * TODO: add support for dependencies
+ * Entries can also depend on other documents (for example the documents included by a rendered document), in which
+ * case they are removed from the cache as soon as one of these documents is modified. The entries of a document are
+ * removed as well when the list of these entries is evicted from the mapping cache, so that no entry is left without a
+ * way to invalidate it.
  * 
  * @param <C> the type of the data stored in the cache
  * @version $Id$
@@ -62,6 +69,11 @@
     private static final List<Event> EVENTS = Arrays.<Event> asList(new DocumentCreatedEvent(),
         new DocumentUpdatedEvent(), new DocumentDeletedEvent());
 
+    /**
+     * The number of locks used to update the list of entries of the documents atomically.
+     */
+    private static final int MAPPING_LOCKS = 64;
+
     /**
      * Used to listen to document modification events.
      * 
@@ -84,18 +96,54 @@ public List<Event> getEvents()
         @Override
         public void onEvent(Event event, Object source, Object data)
         {
+            // The entries being added are not stored anymore
+            generation.incrementAndGet();
+
             String documentReferenceString = ((AbstractDocumentEvent) event).getEventFilter().getFilter();
 
-            Collection<String> keys = mappingCache.get(documentReferenceString);
+            Collection<String> keys;
+            synchronized (getMappingLock(documentReferenceString)) {
+                keys = mappingCache.get(documentReferenceString);
 
-            if (keys != null) {
-                for (String key : keys) {
-                    cache.remove(key);
+                if (keys != null) {
+                    mappingCache.remove(documentReferenceString);
                 }
+            }
+
+            if (keys != null) {
+                removeEntries(keys);
+            }
+        }
+    }
+
+    /**
+     * Used to remove the entries of a document when their list is evicted from the mapping cache.
+     * 
+     * @version $Id$
+     */
+    protected class MappingListener implements CacheEntryListener<Collection<String>>
+    {
+        @Override
+        public void cacheEntryAdded(CacheEntryEvent<Collection<String>> event)
+        {
+            // Nothing to do
+        }
+
+        @Override
+        public void cacheEntryRemoved(CacheEntryEvent<Collection<String>> event)
+        {
+            Collection<String> keys = event.getEntry().getValue();
 
-                mappingCache.remove(documentReferenceString);
+            if (keys != null) {
+                removeEntries(keys);
             }
         }
+
+        @Override
+        public void cacheEntryModified(CacheEntryEvent<Collection<String>> event)
+        {
+            // Nothing to do
+        }
     }
 
     /**
@@ -136,6 +184,26 @@ public void onEvent(Event event, Object source, Object data)
      */
     private String name;
 
+    /**
+     * Incremented each time a document is modified.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * The locks used to update the list of entries of the documents atomically.
+     */
+    private final Object[] mappingLocks = new Object[MAPPING_LOCKS];
+
+    /**
+     * Default constructor.
+     */
+    public DefaultDocumentCache()
+    {
+        for (int i = 0; i < this.mappingLocks.length; ++i) {
+            this.mappingLocks[i] = new Object();
+        }
+    }
+
     @Override
     public void create(CacheConfiguration cacheConfiguration) throws CacheException
     {
@@ -147,6 +215,7 @@ public void create(CacheConfiguration cacheConfiguration) throws CacheException
         mappingCacheConfiguration.setConfigurationId(cacheConfiguration.getConfigurationId() + ".mapping");
 
         this.mappingCache = this.cacheManager.createNewCache(mappingCacheConfiguration);
+        this.mappingCache.addCacheEntryListener(new MappingListener());
 
         this.observationManager.addListener(this.listener);
     }
@@ -162,19 +231,82 @@ public C get(DocumentReference documentReference, Object... extensions)
     @Override
     public void set(C data, DocumentReference documentReference, Object... extensions)
     {
+        set(data, Collections.<DocumentReference> emptyList(), getGeneration(), documentReference, extensions);
+    }
+
+    @Override
+    public void set(C data, Collection<DocumentReference> dependencies, long generation,
+        DocumentReference documentReference, Object... extensions)
+    {
+        if (this.generation.get() != generation) {
+            return;
+        }
+
         String key = getKey(documentReference, extensions);
         this.cache.set(key, data);
 
+        boolean mapped = addMapping(documentReference, key);
+        for (DocumentReference dependency : dependencies) {
+            mapped &= addMapping(dependency, key);
+        }
+
+        // A document modified (or a list of entries evicted) while the mappings were added may not have removed the
+        // entry
+        if (!mapped || this.generation.get() != generation) {
+            this.cache.remove(key);
+        }
+    }
+
+    @Override
+    public long getGeneration()
+    {
+        return this.generation.get();
+    }
+
+    /**
+     * Remember that the provided cache entry has to be removed when the provided document is modified.
+     * 
+     * @param documentReference the reference of the document
+     * @param key the key of the cache entry
+     * @return false if the list of entries of the document has been evicted while adding the entry to it
+     */
+    private boolean addMapping(DocumentReference documentReference, String key)
+    {
         String documentReferenceString = this.serializer.serialize(documentReference);
 
-        Collection<String> keys = this.mappingCache.get(documentReferenceString);
+        Collection<String> keys;
+        synchronized (getMappingLock(documentReferenceString)) {
+            keys = this.mappingCache.get(documentReferenceString);
+
+            if (keys == null) {
+                keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                keys.add(key);
+                this.mappingCache.set(documentReferenceString, keys);
+            } else {
+                keys.add(key);
+            }
 
-        if (keys == null) {
-            keys = new HashSet<String>();
-            this.mappingCache.set(documentReferenceString, keys);
+            return this.mappingCache.get(documentReferenceString) == keys;
         }
+    }
 
-        keys.add(key);
+    /**
+     * @param documentReferenceString the serialized reference of a document
+     * @return the lock used to update the list of entries of the document
+     */
+    private Object getMappingLock(String documentReferenceString)
+    {
+        return this.mappingLocks[(documentReferenceString.hashCode() & Integer.MAX_VALUE) % MAPPING_LOCKS];
+    }
+
+    /**
+     * @param keys the keys of the cache entries to remove
+     */
+    private void removeEntries(Collection<String> keys)
+    {
+        for (String key : keys) {
+            this.cache.remove(key);
+        }
     }
 
     /**
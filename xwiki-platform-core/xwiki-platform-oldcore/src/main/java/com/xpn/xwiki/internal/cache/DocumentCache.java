@@ -19,6 +19,8 @@
  */
 package com.xpn.xwiki.internal.cache;
 
+import java.util.Collection;
+
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.component.annotation.ComponentRole;
@@ -62,6 +64,30 @@
      */
     void set(C data, DocumentReference documentReference, Object... extensions);
 
+    /**
+     * Add a new value or overwrite the existing one associated with the provided key. The value is removed from the
+     * cache when the provided document or any of the provided dependencies is modified.
+     * <p>
+     * The value is not stored if a document has been modified since the provided generation was returned by
+     * {@link #getGeneration()}: it may have been computed from a version of a dependency which is already outdated.
+     * 
+     * @param data the data to store
+     * @param dependencies the references of the other documents the data has been computed from
+     * @param generation the generation of the cache when the computation of the data started
+     * @param documentReference the reference of the document
+     * @param extensions the extensions to the document reference
+     * @since 4.0M1
+     */
+    void set(C data, Collection<DocumentReference> dependencies, long generation, DocumentReference documentReference,
+        Object... extensions);
+
+    /**
+     * @return a number incremented each time a document is modified, to be captured before computing data which is
+     *         then stored with {@link #set(Object, Collection, long, DocumentReference, Object...)}
+     * @since 4.0M1
+     */
+    long getGeneration();
+
     /**
      * Remove from the cache the value associated to the provided key elements.
      * 
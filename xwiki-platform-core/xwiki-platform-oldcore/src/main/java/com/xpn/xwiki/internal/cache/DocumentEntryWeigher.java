@@ -0,0 +1,115 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.cache;
+
+import java.util.List;
+
+import org.xwiki.cache.eviction.EntryWeigher;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+
+/**
+ * Estimate the number of bytes used by a cached {@link XWikiDocument} from its content, the values of its objects and
+ * the content of the attachments loaded in memory.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+public class DocumentEntryWeigher implements EntryWeigher<XWikiDocument>
+{
+    /**
+     * The estimated size of a document without its content, objects and attachments.
+     */
+    private static final long DOCUMENT_OVERHEAD = 2048;
+
+    /**
+     * The estimated size of an object without its properties.
+     */
+    private static final long OBJECT_OVERHEAD = 256;
+
+    /**
+     * The estimated size of a property without its value, or with a value which is not a {@link String}.
+     */
+    private static final long PROPERTY_OVERHEAD = 128;
+
+    /**
+     * The estimated size of an attachment without its content.
+     */
+    private static final long ATTACHMENT_OVERHEAD = 256;
+
+    /**
+     * The parsed content generally takes a few times the size of the source content.
+     */
+    private static final int XDOM_FACTOR = 4;
+
+    @Override
+    public long weigh(String key, XWikiDocument document)
+    {
+        long weight = DOCUMENT_OVERHEAD + 2L * key.length();
+
+        String content = document.getContent();
+        if (content != null) {
+            weight += 2L * content.length() * (1 + XDOM_FACTOR);
+        }
+
+        for (List<BaseObject> objects : document.getXObjects().values()) {
+            for (BaseObject object : objects) {
+                if (object != null) {
+                    weight += weighObject(object);
+                }
+            }
+        }
+
+        for (XWikiAttachment attachment : document.getAttachmentList()) {
+            weight += ATTACHMENT_OVERHEAD;
+            // Only count the attachment content when it's loaded in memory
+            if (attachment.getAttachment_content() != null) {
+                weight += attachment.getFilesize();
+            }
+        }
+
+        return weight;
+    }
+
+    /**
+     * @param object the object to weigh
+     * @return the estimated number of bytes used by the object
+     */
+    private long weighObject(BaseObject object)
+    {
+        long weight = OBJECT_OVERHEAD;
+
+        for (Object field : object.getFieldList()) {
+            weight += PROPERTY_OVERHEAD;
+
+            if (field instanceof BaseProperty) {
+                Object value = ((BaseProperty) field).getValue();
+                if (value instanceof String) {
+                    weight += 2L * ((String) value).length();
+                }
+            }
+        }
+
+        return weight;
+    }
+}
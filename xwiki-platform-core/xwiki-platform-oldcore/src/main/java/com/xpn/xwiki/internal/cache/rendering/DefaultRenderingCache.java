@@ -19,8 +19,13 @@
  */
 package com.xpn.xwiki.internal.cache.rendering;
 
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -56,6 +61,57 @@ public class DefaultRenderingCache implements RenderingCache, Initializable
      */
     private static final String PARAMETER_REFRESH = "refresh";
 
+    /**
+     * A rendering in progress, collecting the documents it depends on.
+     * 
+     * @version $Id$
+     */
+    private static class Fragment
+    {
+        /**
+         * The reference of the document being rendered.
+         */
+        private final DocumentReference documentReference;
+
+        /**
+         * The source being rendered.
+         */
+        private final String source;
+
+        /**
+         * The generation of the cache when the rendering started.
+         */
+        private final long generation;
+
+        /**
+         * The references of the documents read so far by the rendering.
+         */
+        private final Set<DocumentReference> dependencies = new HashSet<DocumentReference>();
+
+        /**
+         * @param documentReference the reference of the document being rendered
+         * @param source the source being rendered
+         * @param generation the generation of the cache when the rendering started
+         */
+        Fragment(DocumentReference documentReference, String source, long generation)
+        {
+            this.documentReference = documentReference;
+            this.source = source;
+            this.generation = generation;
+        }
+
+        /**
+         * @param documentReference the reference of a document
+         * @param source a source
+         * @return true if this fragment is the rendering of the provided source in the provided document
+         */
+        boolean matches(DocumentReference documentReference, String source)
+        {
+            return this.documentReference.equals(documentReference)
+                && (this.source == null ? source == null : this.source.equals(source));
+        }
+    }
+
     /**
      * Configuration of the rendering cache.
      */
@@ -66,7 +122,7 @@ public class DefaultRenderingCache implements RenderingCache, Initializable
      * Actually cache object.
      */
     @Inject
-    private DocumentCache<String> cache;
+    private DocumentCache<RenderedFragment> cache;
 
     @Override
     public void initialize() throws InitializationException
@@ -99,9 +155,21 @@ public String getRenderedContent(DocumentReference documentReference, String sou
                 context.getRequest() != null ? context.getRequest().getParameter(PARAMETER_REFRESH) : null;
 
             if (!"1".equals(refresh)) {
-                renderedContent =
+                RenderedFragment fragment =
                     this.cache.get(documentReference, source, getAction(context), context.getLanguage(),
                         getRequestParameters(context));
+
+                if (fragment != null) {
+                    renderedContent = fragment.getContent();
+
+                    // The enclosing fragment depends on everything the cached fragment depends on
+                    addDependencies(documentReference, fragment.getDependencies(), context);
+                }
+            }
+
+            if (renderedContent == null) {
+                getFragments(context, true).push(
+                    new Fragment(documentReference, source, this.cache.getGeneration()));
             }
         }
 
@@ -113,9 +181,107 @@ public void setRenderedContent(DocumentReference documentReference, String sourc
         XWikiContext context)
     {
         if (this.configuration.isCached(documentReference)) {
-            this.cache.set(renderedContent, documentReference, source, getAction(context), context.getLanguage(),
+            Fragment fragment = endFragment(documentReference, source, context);
+
+            // Not cached if a document has been modified during the rendering, it may have read the previous version
+            this.cache.set(new RenderedFragment(renderedContent, fragment.dependencies), fragment.dependencies,
+                fragment.generation, documentReference, source, getAction(context), context.getLanguage(),
                 getRequestParameters(context));
+
+            addDependencies(documentReference, fragment.dependencies, context);
+        }
+    }
+
+    @Override
+    public void addDependency(DocumentReference documentReference, XWikiContext context)
+    {
+        Deque<Fragment> fragments = getFragments(context, false);
+
+        if (fragments != null && !fragments.isEmpty()) {
+            fragments.peek().dependencies.add(documentReference);
+        }
+    }
+
+    /**
+     * Add the provided document and its dependencies to the fragment currently being rendered, if any.
+     * 
+     * @param documentReference the reference of the rendered document
+     * @param dependencies the references of the documents the rendering depends on
+     * @param context the XWiki context
+     */
+    private void addDependencies(DocumentReference documentReference, Collection<DocumentReference> dependencies,
+        XWikiContext context)
+    {
+        Deque<Fragment> fragments = getFragments(context, false);
+
+        if (fragments != null && !fragments.isEmpty()) {
+            Fragment parent = fragments.peek();
+            parent.dependencies.add(documentReference);
+            parent.dependencies.addAll(dependencies);
+        }
+    }
+
+    /**
+     * Remove the fragment matching the provided rendering from the stack of fragments being rendered. The fragments
+     * started after it and never ended (because their rendering failed for example) are removed too and their
+     * dependencies are merged into the ended fragment.
+     * 
+     * @param documentReference the reference of the rendered document
+     * @param source the rendered source
+     * @param context the XWiki context
+     * @return the ended fragment, with the references of all the documents the rendering depends on; a fragment
+     *         starting now when the rendering was not started through the cache
+     */
+    private Fragment endFragment(DocumentReference documentReference, String source, XWikiContext context)
+    {
+        Deque<Fragment> fragments = getFragments(context, false);
+
+        Fragment found = null;
+        if (fragments != null) {
+            for (Fragment fragment : fragments) {
+                if (fragment.matches(documentReference, source)) {
+                    found = fragment;
+                    break;
+                }
+            }
         }
+
+        if (found == null) {
+            found = new Fragment(documentReference, source, this.cache.getGeneration());
+        } else {
+            Fragment fragment;
+            do {
+                fragment = fragments.pop();
+                found.dependencies.addAll(fragment.dependencies);
+            } while (fragment != found);
+        }
+
+        if (fragments != null && fragments.isEmpty()) {
+            context.remove(FRAGMENTS_CONTEXT_KEY);
+        }
+
+        // A document does not depend on itself
+        found.dependencies.remove(documentReference);
+
+        return found;
+    }
+
+    /**
+     * @param context the XWiki context
+     * @param create true if the stack should be created when it does not exist yet
+     * @return the stack of fragments being rendered in the current request
+     */
+    private Deque<Fragment> getFragments(XWikiContext context, boolean create)
+    {
+        @SuppressWarnings("unchecked")
+        Deque<Fragment> fragments = (Deque<Fragment>) context.get(FRAGMENTS_CONTEXT_KEY);
+
+        if (fragments == null && create) {
+            fragments = new ArrayDeque<Fragment>();
+            context.put(FRAGMENTS_CONTEXT_KEY, fragments);
+        }
+
+        return fragments;
     }
 
     /**
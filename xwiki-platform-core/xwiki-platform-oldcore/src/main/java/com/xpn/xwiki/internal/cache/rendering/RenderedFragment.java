@@ -0,0 +1,69 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.cache.rendering;
+
+import java.util.Collection;
+
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * A cached rendering result along with the documents it has been computed from.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+class RenderedFragment
+{
+    /**
+     * The result of the rendering.
+     */
+    private final String content;
+
+    /**
+     * The references of the documents read during the rendering.
+     */
+    private final Collection<DocumentReference> dependencies;
+
+    /**
+     * @param content the result of the rendering
+     * @param dependencies the references of the documents read during the rendering
+     */
+    RenderedFragment(String content, Collection<DocumentReference> dependencies)
+    {
+        this.content = content;
+        this.dependencies = dependencies;
+    }
+
+    /**
+     * @return the result of the rendering
+     */
+    String getContent()
+    {
+        return this.content;
+    }
+
+    /**
+     * @return the references of the documents read during the rendering
+     */
+    Collection<DocumentReference> getDependencies()
+    {
+        return this.dependencies;
+    }
+}
@@ -26,6 +26,10 @@
 
 /**
  * Cache rendering result.
+ * <p>
+ * Each rendering (the content of a document, an included document, a sheet, etc.) is cached as a separate fragment
+ * which records the documents read while it was rendered. A fragment is invalidated as soon as its own document or one
+ * of these dependencies is modified, and an enclosing fragment inherits the dependencies of the fragments it contains.
  * 
  * @version $Id$
  * @since 2.4M1
@@ -33,8 +37,18 @@
 @ComponentRole
 public interface RenderingCache
 {
+    /**
+     * The key under which the fragments being rendered are stored in the XWiki context.
+     * 
+     * @since 4.0M1
+     */
+    String FRAGMENTS_CONTEXT_KEY = "core.renderingcache.fragments";
+
     /**
      * The stored result of the rendering of the provided source.
+     * <p>
+     * When there is no stored result a new fragment is started, which collects the dependencies of the rendering until
+     * {@link #setRenderedContent(DocumentReference, String, String, XWikiContext)} is called.
      * 
      * @param documentReference the reference of the document being rendered
      * @param source the source to render
@@ -53,4 +67,13 @@
      */
     void setRenderedContent(DocumentReference documentReference, String source, String renderedContent,
         XWikiContext context);
+
+    /**
+     * Record that the fragments currently being rendered depend on the provided document.
+     * 
+     * @param documentReference the reference of the document read during the rendering
+     * @param context the XWiki context
+     * @since 4.0M1
+     */
+    void addDependency(DocumentReference documentReference, XWikiContext context);
 }
@@ -0,0 +1,150 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.template;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.cache.DocumentCache;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Default implementation of {@link SkinFileCache}.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+@Component
+@Singleton
+public class DefaultSkinFileCache implements SkinFileCache, Initializable
+{
+    /**
+     * Identifier of the cache.
+     */
+    private static final String CACHE_NAME = "core.skinfilecache";
+
+    /**
+     * The maximum number of skin file locations kept in the cache.
+     */
+    private static final int CACHE_SIZE = 1000;
+
+    /**
+     * The locations of the skin files, removed from the cache when the skin document is modified. The locations on the
+     * filesystem are cached with the skin document too, since the document has precedence over them.
+     */
+    @Inject
+    private DocumentCache<SkinFileLocation> locations;
+
+    /**
+     * Used to resolve the name of the skin document, the same way {@link XWiki#getDocument(String, XWikiContext)}
+     * does.
+     */
+    @Inject
+    @Named("currentmixed")
+    private DocumentReferenceResolver<String> resolver;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        CacheConfiguration cacheConfiguration = new CacheConfiguration();
+        cacheConfiguration.setConfigurationId(CACHE_NAME);
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(CACHE_SIZE);
+        cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+
+        try {
+            this.locations.create(cacheConfiguration);
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to initialize the skin file cache", e);
+        }
+    }
+
+    @Override
+    public SkinFileLocation getLocation(String skin, String filename, XWikiContext context) throws XWikiException
+    {
+        DocumentReference skinReference = this.resolver.resolve(skin);
+
+        // The skin name is part of the key since it's used as is to find the skin directory
+        SkinFileLocation location = this.locations.get(skinReference, skin, filename);
+        if (location == null) {
+            location = findLocation(skin, skinReference, filename, context);
+            this.locations.set(location, skinReference, skin, filename);
+        }
+
+        return location;
+    }
+
+    /**
+     * @param skin the name of the skin
+     * @param skinReference the reference of the skin document
+     * @param filename the name of the skin file
+     * @param context the XWiki context
+     * @return the place where the skin provides the file
+     * @throws XWikiException when failing to load the skin document
+     */
+    private SkinFileLocation findLocation(String skin, DocumentReference skinReference, String filename,
+        XWikiContext context) throws XWikiException
+    {
+        XWiki xwiki = context.getWiki();
+
+        XWikiDocument doc = xwiki.getDocument(skinReference, context);
+        if (!doc.isNew()) {
+            // Look for an object property
+            BaseObject object =
+                doc.getXObject(new DocumentReference(skinReference.getWikiReference().getName(), XWiki.SYSTEM_SPACE,
+                    "XWikiSkins"));
+            if (object != null && StringUtils.isNotBlank(object.getStringValue(filename))) {
+                return SkinFileLocation.OBJECT;
+            }
+
+            // Look for an attachment
+            if (doc.getAttachment(StringUtils.replaceChars(filename, '/', '.')) != null) {
+                return SkinFileLocation.ATTACHMENT;
+            }
+        }
+
+        // Look for a skin file
+        if (xwiki.resourceExists("/skins/" + skin + "/" + filename)) {
+            return SkinFileLocation.SKIN;
+        }
+
+        // Look for a resource file
+        if (xwiki.resourceExists("/resources/" + filename)) {
+            return SkinFileLocation.RESOURCE;
+        }
+
+        return SkinFileLocation.NONE;
+    }
+}
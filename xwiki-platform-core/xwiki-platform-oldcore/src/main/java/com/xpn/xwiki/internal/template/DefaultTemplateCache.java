@@ -0,0 +1,251 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.template;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.cache.DocumentCache;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Default implementation of {@link TemplateCache}.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+@Component
+@Singleton
+public class DefaultTemplateCache implements TemplateCache, Initializable
+{
+    /**
+     * Identifier of the cache of the templates located in skin documents.
+     */
+    private static final String DOCUMENT_CACHE_NAME = "core.templatecache.documents";
+
+    /**
+     * Identifier of the cache of the templates located on the filesystem.
+     */
+    private static final String RESOURCE_CACHE_NAME = "core.templatecache.resources";
+
+    /**
+     * The maximum number of templates kept in each cache.
+     */
+    private static final int CACHE_SIZE = 1000;
+
+    /**
+     * The modification date used for the resources which cannot be modified (when the web application is not
+     * extracted).
+     */
+    private static final long UNMODIFIABLE = -1L;
+
+    /**
+     * A cached template, null if the template does not exist.
+     * 
+     * @version $Id$
+     */
+    private static class TemplateSource
+    {
+        /**
+         * The template, null if the template does not exist.
+         */
+        private final VelocityTemplate template;
+
+        /**
+         * The modification date of the file the template has been read from.
+         */
+        private final long lastModified;
+
+        /**
+         * @param content the source of the template, null if the template does not exist
+         * @param lastModified the modification date of the file the template has been read from
+         */
+        TemplateSource(String content, long lastModified)
+        {
+            this.template = content != null ? new VelocityTemplate(content) : null;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Used to create the cache of the templates located on the filesystem.
+     */
+    @Inject
+    private CacheManager cacheManager;
+
+    /**
+     * The templates located in skin documents, removed from the cache when the skin document is modified.
+     */
+    @Inject
+    private DocumentCache<TemplateSource> documentTemplates;
+
+    /**
+     * Used to resolve the name of the skin document, the same way {@link XWiki#getDocument(String, XWikiContext)}
+     * does.
+     */
+    @Inject
+    @Named("currentmixed")
+    private DocumentReferenceResolver<String> resolver;
+
+    /**
+     * The templates located on the filesystem.
+     */
+    private Cache<TemplateSource> resourceTemplates;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.documentTemplates.create(createCacheConfiguration(DOCUMENT_CACHE_NAME));
+            this.resourceTemplates = this.cacheManager.createNewCache(createCacheConfiguration(RESOURCE_CACHE_NAME));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to initialize the template cache", e);
+        }
+    }
+
+    /**
+     * @param name the identifier of the cache
+     * @return the configuration of the cache
+     */
+    private CacheConfiguration createCacheConfiguration(String name)
+    {
+        CacheConfiguration cacheConfiguration = new CacheConfiguration();
+        cacheConfiguration.setConfigurationId(name);
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(CACHE_SIZE);
+        cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+
+        return cacheConfiguration;
+    }
+
+    @Override
+    public VelocityTemplate getDocumentTemplate(String skin, String template, XWikiContext context)
+        throws XWikiException, IOException
+    {
+        DocumentReference skinReference = this.resolver.resolve(skin);
+
+        TemplateSource source = this.documentTemplates.get(skinReference, template);
+        if (source == null) {
+            source = new TemplateSource(loadDocumentTemplate(skinReference, template, context), UNMODIFIABLE);
+            this.documentTemplates.set(source, skinReference, template);
+        }
+
+        return source.template;
+    }
+
+    /**
+     * @param skinReference the reference of the skin document
+     * @param template the name of the template
+     * @param context the XWiki context
+     * @return the source of the template, null if the skin document does not define it
+     * @throws XWikiException when failing to load the skin document
+     * @throws IOException when failing to read the template attachment
+     */
+    private String loadDocumentTemplate(DocumentReference skinReference, String template, XWikiContext context)
+        throws XWikiException, IOException
+    {
+        XWikiDocument doc = context.getWiki().getDocument(skinReference, context);
+        if (!doc.isNew()) {
+            // Try the object property
+            BaseObject object =
+                doc.getXObject(new DocumentReference(skinReference.getWikiReference().getName(), XWiki.SYSTEM_SPACE,
+                    "XWikiSkins"));
+            if (object != null) {
+                String content = object.getStringValue(template);
+                if (StringUtils.isNotBlank(content)) {
+                    return content;
+                }
+            }
+
+            // Try a document attachment
+            XWikiAttachment attachment = doc.getAttachment(template);
+            if (attachment != null) {
+                // It's impossible to know the real attachment encoding, but let's assume that they respect the
+                // standard and use UTF-8 (which is required for the files located on the filesystem)
+                String content = IOUtils.toString(attachment.getContentInputStream(context), XWiki.DEFAULT_ENCODING);
+                if (StringUtils.isNotBlank(content)) {
+                    return content;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public VelocityTemplate getResourceTemplate(String path, XWikiContext context)
+    {
+        long lastModified = getLastModified(path, context);
+
+        TemplateSource source = this.resourceTemplates.get(path);
+        if (source == null || source.lastModified != lastModified) {
+            try {
+                source = new TemplateSource(context.getWiki().getResourceContent(path), lastModified);
+            } catch (IOException e) {
+                // Remember that the template does not exist, unless the file exists but could not be read
+                if (lastModified != 0L && lastModified != UNMODIFIABLE) {
+                    return null;
+                }
+                source = new TemplateSource(null, lastModified);
+            }
+            this.resourceTemplates.set(path, source);
+        }
+
+        return source.template;
+    }
+
+    /**
+     * @param path the path of the resource in the web application
+     * @param context the XWiki context
+     * @return the modification date of the resource file, 0 if the file does not exist and {@link #UNMODIFIABLE} if
+     *         the resource is not located in a file (the web application is not extracted)
+     */
+    private long getLastModified(String path, XWikiContext context)
+    {
+        String realPath = path;
+        if (context.getWiki().getEngineContext() != null) {
+            realPath = context.getWiki().getEngineContext().getRealPath(path);
+        }
+
+        return realPath != null ? new File(realPath).lastModified() : UNMODIFIABLE;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.template;
+
+import org.xwiki.component.annotation.ComponentRole;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Remember where the files of a skin are located so that generating the URL of a skin file (icons, CSS, JavaScript,
+ * etc.) does not load the skin document and look for the file in its object and attachments each time.
+ * <p>
+ * The locations are invalidated when the skin document is created, modified or deleted. The content of the skin and
+ * resources directories of the web application is expected not to change while the wiki is running.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+@ComponentRole
+public interface SkinFileCache
+{
+    /**
+     * @param skin the name of the skin (document)
+     * @param filename the name of the skin file
+     * @param context the XWiki context
+     * @return the place where the skin provides the file, {@link SkinFileLocation#NONE} if it does not provide it
+     * @throws XWikiException when failing to load the skin document
+     */
+    SkinFileLocation getLocation(String skin, String filename, XWikiContext context) throws XWikiException;
+}
@@ -0,0 +1,54 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.template;
+
+/**
+ * The place where a skin file has been found.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+public enum SkinFileLocation
+{
+    /**
+     * A property of the {@code XWiki.XWikiSkins} object of the skin document.
+     */
+    OBJECT,
+
+    /**
+     * An attachment of the skin document.
+     */
+    ATTACHMENT,
+
+    /**
+     * The skin directory on the filesystem ({@code /skins/<skin>/}).
+     */
+    SKIN,
+
+    /**
+     * The resources directory on the filesystem ({@code /resources/}).
+     */
+    RESOURCE,
+
+    /**
+     * The skin does not provide the file.
+     */
+    NONE
+}
@@ -0,0 +1,60 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.template;
+
+import java.io.IOException;
+
+import org.xwiki.component.annotation.ComponentRole;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Cache the skin templates so that evaluating a template does not read it again from the skin document or from the
+ * filesystem, and does not parse it again, each time.
+ * <p>
+ * The templates located in a skin document are invalidated when the document is modified and the templates located on
+ * the filesystem are invalidated when the modification date of the file changes.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+@ComponentRole
+public interface TemplateCache
+{
+    /**
+     * @param skin the name of the skin document
+     * @param template the name of the template
+     * @param context the XWiki context
+     * @return the template defined in the {@code XWiki.XWikiSkins} object or as an attachment of the skin document,
+     *         null if the skin document does not define a (non blank) template with this name
+     * @throws XWikiException when failing to load the skin document
+     * @throws IOException when failing to read the template attachment
+     */
+    VelocityTemplate getDocumentTemplate(String skin, String template, XWikiContext context) throws XWikiException,
+        IOException;
+
+    /**
+     * @param path the path of the template in the web application
+     * @param context the XWiki context
+     * @return the template, null if there is no template at this path
+     */
+    VelocityTemplate getResourceTemplate(String path, XWikiContext context);
+}
@@ -0,0 +1,157 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.template;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.xwiki.velocity.VelocityManager;
+import org.xwiki.velocity.XWikiVelocityException;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.render.DefaultVelocityManager;
+import com.xpn.xwiki.render.XWikiVelocityRenderer;
+import com.xpn.xwiki.util.Util;
+import com.xpn.xwiki.web.Utils;
+
+/**
+ * A skin template, parsed only the first time it is evaluated with each Velocity Engine.
+ * <p>
+ * The templates defining Velocity macros are parsed each time they are evaluated: the macros are registered when the
+ * template is parsed and another template may have registered different macros with the same name in the meantime.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+public class VelocityTemplate
+{
+    /**
+     * The directive used to define a Velocity macro.
+     */
+    private static final String MACRO_DIRECTIVE = "#macro";
+
+    /**
+     * The source of the template.
+     */
+    private final String content;
+
+    /**
+     * The parsed template, for each Velocity Engine runtime it has been evaluated with.
+     */
+    private final Map<RuntimeServices, Template> parsedTemplates = new ConcurrentHashMap<RuntimeServices, Template>();
+
+    /**
+     * @param content the source of the template
+     */
+    public VelocityTemplate(String content)
+    {
+        this.content = content;
+    }
+
+    /**
+     * @return the source of the template
+     */
+    public String getContent()
+    {
+        return this.content;
+    }
+
+    /**
+     * Evaluate the template with the Velocity Engine of the current skin.
+     * 
+     * @param name the name of the template, used as namespace for the macros it defines
+     * @param vcontext the Velocity context
+     * @param context the XWiki context
+     * @return the result of the evaluation, an error message if the evaluation fails
+     */
+    public String evaluate(String name, VelocityContext vcontext, XWikiContext context)
+    {
+        RuntimeServices runtime = null;
+        if (vcontext != null && !this.content.contains(MACRO_DIRECTIVE)) {
+            runtime = getRuntimeServices();
+        }
+
+        if (runtime == null) {
+            return XWikiVelocityRenderer.evaluate(this.content, name, vcontext, context);
+        }
+
+        StringWriter writer = new StringWriter();
+        try {
+            getTemplate(runtime, name).merge(vcontext, writer);
+
+            return writer.toString();
+        } catch (Exception e) {
+            Object[] args = {name};
+            XWikiException xe =
+                new XWikiException(XWikiException.MODULE_XWIKI_RENDERING,
+                    XWikiException.ERROR_XWIKI_RENDERING_VELOCITY_EXCEPTION, "Error while parsing velocity page {0}",
+                    e, args);
+            return Util.getHTMLExceptionMessage(xe, context);
+        }
+    }
+
+    /**
+     * @param runtime the runtime of a Velocity Engine
+     * @param name the name of the template
+     * @return the template parsed by the provided runtime
+     * @throws Exception when failing to parse the template
+     */
+    Template getTemplate(RuntimeServices runtime, String name) throws Exception
+    {
+        Template template = this.parsedTemplates.get(runtime);
+
+        if (template == null || !name.equals(template.getName())) {
+            template = new Template();
+            template.setRuntimeServices(runtime);
+            template.setName(name);
+            // Don't clear the macros registered in the namespace of the template
+            template.setData(runtime.parse(new StringReader(this.content), name, false));
+            template.initDocument();
+
+            this.parsedTemplates.put(runtime, template);
+        }
+
+        return template;
+    }
+
+    /**
+     * @return the runtime of the Velocity Engine of the current skin, null if it is unknown
+     */
+    private RuntimeServices getRuntimeServices()
+    {
+        VelocityManager velocityManager = Utils.getComponent(VelocityManager.class);
+
+        if (velocityManager instanceof DefaultVelocityManager) {
+            try {
+                return ((DefaultVelocityManager) velocityManager).getRuntimeServices();
+            } catch (XWikiVelocityException e) {
+                // Let the evaluation report the error
+            }
+        }
+
+        return null;
+    }
+}
@@ -164,6 +164,16 @@ private void initCache(XWikiContext context)
             }
             lru.setMaxEntries(this.capacity);
 
+            String maxMemoryParam = context.getWiki().Param("xwiki.plugin.image.cache.maxmemory");
+            if (!StringUtils.isBlank(maxMemoryParam) && StringUtils.isNumeric(maxMemoryParam.trim())) {
+                try {
+                    lru.setMaxWeight(Long.parseLong(maxMemoryParam.trim()));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Failed to parse xwiki.plugin.image.cache.maxmemory configuration parameter. "
+                        + "The memory used by the image cache won't be limited.", e);
+                }
+            }
+
             try {
                 this.imageCache = context.getWiki().getLocalCacheFactory().newCache(configuration);
             } catch (CacheException e) {
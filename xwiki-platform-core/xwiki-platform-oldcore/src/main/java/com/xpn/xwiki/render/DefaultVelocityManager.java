@@ -19,7 +19,9 @@
  */
 package com.xpn.xwiki.render;
 
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -27,6 +29,7 @@
 import org.apache.commons.lang3.StringUtils;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeServices;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.context.Execution;
 import org.xwiki.rendering.syntax.SyntaxFactory;
@@ -67,9 +70,20 @@ public class DefaultVelocityManager implements VelocityManager
      */
     private static final String RESOURCE_LOADER_CLASS = "xwiki.resource.loader.class";
 
+    /**
+     * The name of the Velocity configuration property holding the key of the Velocity Engine, used by
+     * {@link XWikiResourceManager} to register the runtime of the engine.
+     */
+    static final String ENGINE_KEY = "xwiki.engine.key";
+
     @Inject
     private Execution execution;
 
+    /**
+     * The runtimes of the Velocity Engines, indexed by the key of the engines.
+     */
+    private final Map<String, RuntimeServices> runtimes = new ConcurrentHashMap<String, RuntimeServices>();
+
     @Override
     public VelocityContext getVelocityContext()
     {
@@ -184,8 +198,47 @@ public VelocityEngine getVelocityEngine() throws XWikiVelocityException
         // Get the location of the skin's macros.vm file
         XWikiContext xcontext = (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
         String skin = xcontext.getWiki().getSkin(xcontext);
+
+        return getVelocityEngine(getVelocityEngineCacheKey(skin, xcontext), xcontext);
+    }
+
+    /**
+     * @return the runtime of the Velocity Engine of the current skin, null if it is unknown (when a custom Velocity
+     *         resource manager is configured)
+     * @throws XWikiVelocityException when failing to create the Velocity Engine
+     * @since 4.0M1
+     */
+    public RuntimeServices getRuntimeServices() throws XWikiVelocityException
+    {
+        XWikiContext xcontext = (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
+        String skin = xcontext.getWiki().getSkin(xcontext);
         String cacheKey = getVelocityEngineCacheKey(skin, xcontext);
 
+        // Make sure the engine, and thus its runtime, is initialized
+        getVelocityEngine(cacheKey, xcontext);
+
+        return this.runtimes.get(cacheKey);
+    }
+
+    /**
+     * Called by {@link XWikiResourceManager} when a Velocity Engine is initialized.
+     * 
+     * @param cacheKey the key of the Velocity Engine
+     * @param runtime the runtime of the Velocity Engine
+     */
+    void registerRuntimeServices(String cacheKey, RuntimeServices runtime)
+    {
+        this.runtimes.put(cacheKey, runtime);
+    }
+
+    /**
+     * @param cacheKey the key of the Velocity Engine
+     * @param xcontext the XWiki context
+     * @return the Velocity Engine, created if needed
+     * @throws XWikiVelocityException when failing to create the Velocity Engine
+     */
+    private VelocityEngine getVelocityEngine(String cacheKey, XWikiContext xcontext) throws XWikiVelocityException
+    {
         // Get the Velocity Engine to use
         VelocityFactory velocityFactory = Utils.getComponent(VelocityFactory.class);
         VelocityEngine velocityEngine;
@@ -196,11 +249,18 @@ public VelocityEngine getVelocityEngine() throws XWikiVelocityException
             Properties properties = new Properties();
 
             // If the user hasn't specified any custom Velocity Resource Loader to use, use the XWiki Resource Loader
-            if (!Utils.getComponent(VelocityConfiguration.class).getProperties().containsKey(RESOURCE_LOADER)) {
+            Properties configuredProperties = Utils.getComponent(VelocityConfiguration.class).getProperties();
+            if (!configuredProperties.containsKey(RESOURCE_LOADER)) {
                 properties.setProperty(RESOURCE_LOADER, "xwiki");
                 properties.setProperty(RESOURCE_LOADER_CLASS, XWikiWebappResourceLoader.class.getName());
             }
 
+            // Used to know the runtime of the engine, needed to evaluate the parsed templates
+            if (!configuredProperties.containsKey(RuntimeConstants.RESOURCE_MANAGER_CLASS)) {
+                properties.setProperty(RuntimeConstants.RESOURCE_MANAGER_CLASS, XWikiResourceManager.class.getName());
+                properties.setProperty(ENGINE_KEY, cacheKey);
+            }
+
             // Note: if you don't want any template to be used set the property named
             // xwiki.render.velocity.macrolist to an empty string value.
             String macroList = xcontext.getWiki().Param("xwiki.render.velocity.macrolist");
@@ -0,0 +1,58 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.render;
+
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.resource.ResourceManagerImpl;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.velocity.VelocityManager;
+
+/**
+ * Velocity resource manager which registers the runtime of the Velocity Engine it is created for in
+ * {@link DefaultVelocityManager}, so that the skin templates can be parsed once for each engine. The resources are
+ * otherwise managed like in {@link ResourceManagerImpl}.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+public class XWikiResourceManager extends ResourceManagerImpl
+{
+    @Override
+    public synchronized void initialize(RuntimeServices rs)
+    {
+        super.initialize(rs);
+
+        String engineKey = rs.getString(DefaultVelocityManager.ENGINE_KEY);
+        ComponentManager componentManager =
+            (ComponentManager) rs.getApplicationAttribute(ComponentManager.class.getName());
+
+        if (engineKey != null && componentManager != null) {
+            try {
+                VelocityManager velocityManager = componentManager.lookupComponent(VelocityManager.class);
+                if (velocityManager instanceof DefaultVelocityManager) {
+                    ((DefaultVelocityManager) velocityManager).registerRuntimeServices(engineKey, rs);
+                }
+            } catch (ComponentLookupException e) {
+                this.log.warn("Failed to register the runtime of the Velocity Engine [" + engineKey + "]", e);
+            }
+        }
+    }
+}
@@ -124,6 +124,16 @@ public void init(XWikiContext context)
         }
     }
 
+    /**
+     * @return the statistics storing service, null if statistics are disabled; used to monitor the storage of the
+     *         statistics
+     * @since 4.0M1
+     */
+    public XWikiStatsStoreService getStoreService()
+    {
+        return this.statsRegister;
+    }
+
     @Override
     public Collection<Object> getRecentActions(String action, int size, XWikiContext context)
     {
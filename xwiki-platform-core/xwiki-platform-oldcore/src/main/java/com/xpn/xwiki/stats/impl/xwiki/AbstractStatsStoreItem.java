@@ -26,6 +26,7 @@
 import org.xwiki.context.ExecutionContext;
 
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.stats.impl.StatsUtil;
 import com.xpn.xwiki.stats.impl.StatsUtil.PeriodType;
 import com.xpn.xwiki.web.Utils;
@@ -96,6 +97,29 @@ public void store(List<XWikiStatsStoreItem> statsList)
         }
     }
 
+    /**
+     * Store provided statistics into the database, in the transaction shared by several statistics. Unlike
+     * {@link #store(List)}, the storage errors are thrown instead of being logged, so that the shared transaction can
+     * be rolled back.
+     * 
+     * @param statsList the list of statistics item to store.
+     * @throws XWikiException when failing to store the statistics
+     */
+    void storeInBatch(List<XWikiStatsStoreItem> statsList) throws XWikiException
+    {
+        ExecutionContext econtext = Utils.getComponent(Execution.class).getContext();
+
+        XWikiContext currentContext = (XWikiContext) econtext.getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+
+        try {
+            econtext.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, this.context);
+
+            storeInternal(statsList, true);
+        } finally {
+            econtext.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, currentContext);
+        }
+    }
+
     /**
      * Store provided statistics into the database.
      * 
@@ -103,4 +127,20 @@ public void store(List<XWikiStatsStoreItem> statsList)
      * @since 2.2.4
      */
     protected abstract void storeInternal(List<XWikiStatsStoreItem> statsList);
+
+    /**
+     * Store provided statistics into the database.
+     * <p>
+     * The default implementation calls {@link #storeInternal(List)}, which cannot report the storage errors.
+     * 
+     * @param statsList the list of statistics item to store.
+     * @param failOnError true if any storage error should be thrown, false if the errors which don't prevent storing
+     *            the statistics (e.g. failing to load their previous value) should only be logged
+     * @throws XWikiException when failing to store the statistics
+     * @since 4.0M1
+     */
+    protected void storeInternal(List<XWikiStatsStoreItem> statsList, boolean failOnError) throws XWikiException
+    {
+        storeInternal(statsList);
+    }
 }
@@ -86,6 +86,16 @@ public String getId()
 
     @Override
     public void storeInternal(List<XWikiStatsStoreItem> stats)
+    {
+        try {
+            storeInternal(stats, false);
+        } catch (XWikiException e) {
+            LOGGER.error("Failed to save document statistics object [{}]", getId(), e);
+        }
+    }
+
+    @Override
+    protected void storeInternal(List<XWikiStatsStoreItem> stats, boolean failOnError) throws XWikiException
     {
         DocumentStatsStoreItem lastItem = (DocumentStatsStoreItem) stats.get(stats.size() - 1);
 
@@ -102,6 +112,9 @@ public void storeInternal(List<XWikiStatsStoreItem> stats)
             // TODO Fix use of deprecated call.
             store.loadXWikiCollection(documentStat, context, true);
         } catch (XWikiException e) {
+            if (failOnError) {
+                throw e;
+            }
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Failed to load document statistics object [{}]", getId(), e);
             }
@@ -118,11 +131,7 @@ public void storeInternal(List<XWikiStatsStoreItem> stats)
         }
 
         // Re-save statistics object
-        try {
-            // TODO Fix use of deprecated call.
-            store.saveXWikiCollection(documentStat, context, true);
-        } catch (XWikiException e) {
-            LOGGER.error("Failed to save document statistics object [{}]", getId(), e);
-        }
+        // TODO Fix use of deprecated call.
+        store.saveXWikiCollection(documentStat, context, true);
     }
 }
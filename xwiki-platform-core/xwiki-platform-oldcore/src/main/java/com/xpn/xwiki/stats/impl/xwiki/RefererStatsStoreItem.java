@@ -74,6 +74,16 @@ public String getId()
 
     @Override
     public void storeInternal(List<XWikiStatsStoreItem> stats)
+    {
+        try {
+            storeInternal(stats, false);
+        } catch (XWikiException e) {
+            LOGGER.error("Failed to save referer statictics object [" + getId() + "]");
+        }
+    }
+
+    @Override
+    protected void storeInternal(List<XWikiStatsStoreItem> stats, boolean failOnError) throws XWikiException
     {
         RefererStatsStoreItem lastItem = (RefererStatsStoreItem) stats.get(stats.size() - 1);
 
@@ -90,6 +100,9 @@ public void storeInternal(List<XWikiStatsStoreItem> stats)
             // TODO Fix use of deprecated call.
             store.loadXWikiCollection(refererStat, context, true);
         } catch (XWikiException e) {
+            if (failOnError) {
+                throw e;
+            }
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Failed to load referer statictics object [" + getId() + "]");
             }
@@ -99,11 +112,7 @@ public void storeInternal(List<XWikiStatsStoreItem> stats)
         refererStat.setIntValue("pageViews", refererStat.getPageViews() + stats.size());
 
         // Re-save statistics object
-        try {
-            // TODO Fix use of deprecated call.
-            store.saveXWikiCollection(refererStat, context, true);
-        } catch (XWikiException e) {
-            LOGGER.error("Failed to save referer statictics object [" + getId() + "]");
-        }
+        // TODO Fix use of deprecated call.
+        store.saveXWikiCollection(refererStat, context, true);
     }
 }
@@ -72,6 +72,16 @@ public String getId()
 
     @Override
     public void storeInternal(List<XWikiStatsStoreItem> stats)
+    {
+        try {
+            storeInternal(stats, false);
+        } catch (XWikiException e) {
+            LOGGER.error("Failed to save visit statistics object [{}]", getId(), e);
+        }
+    }
+
+    @Override
+    protected void storeInternal(List<XWikiStatsStoreItem> stats, boolean failOnError) throws XWikiException
     {
         VisitStatsStoreItem firstItem = (VisitStatsStoreItem) stats.get(0);
         VisitStats oldVisitStats = firstItem.visitStats.getOldObject();
@@ -84,24 +94,23 @@ public void storeInternal(List<XWikiStatsStoreItem> stats)
             return;
         }
 
-        try {
-            // In case we have store the old object then we need to remove it before saving the
-            // other one because the ID info have changed
-            if (oldVisitStats != null) {
-                try {
-                    // TODO Fix use of deprecated call.
-                    store.deleteXWikiCollection(oldVisitStats, this.context, true, true);
-                } catch (Exception e) {
-                    if (LOGGER.isWarnEnabled()) {
-                        LOGGER.error("Failed to delete old visit statistics object from database [{}]", getId(), e);
-                    }
+        // In case we have store the old object then we need to remove it before saving the
+        // other one because the ID info have changed
+        if (oldVisitStats != null) {
+            try {
+                // TODO Fix use of deprecated call.
+                store.deleteXWikiCollection(oldVisitStats, this.context, true, true);
+            } catch (XWikiException e) {
+                if (failOnError) {
+                    throw e;
                 }
+                LOGGER.error("Failed to delete old visit statistics object from database [{}]", getId(), e);
+            } catch (Exception e) {
+                LOGGER.error("Failed to delete old visit statistics object from database [{}]", getId(), e);
             }
-
-            // TODO Fix use of deprecated call.
-            store.saveXWikiCollection(newVisitStats, this.context, true);
-        } catch (XWikiException e) {
-            LOGGER.error("Failed to save visit statistics object [{}]", getId(), e);
         }
+
+        // TODO Fix use of deprecated call.
+        store.saveXWikiCollection(newVisitStats, this.context, true);
     }
 }
@@ -21,10 +21,12 @@
 
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +35,7 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.stats.impl.StatsUtil;
 import com.xpn.xwiki.stats.impl.VisitStats;
+import com.xpn.xwiki.store.XWikiHibernateStore;
 import com.xpn.xwiki.util.AbstractXWikiRunnable;
 import com.xpn.xwiki.web.DownloadAction;
 import com.xpn.xwiki.web.SaveAction;
@@ -40,6 +43,9 @@
 
 /**
  * Back-end statistics storing service.
+ * <p>
+ * The statistics are accumulated during a configurable time window ({@code xwiki.stats.store.interval}, in milliseconds),
+ * the statistics with the same identifier are merged and the result is stored in one transaction per wiki.
  * 
  * @version $Id$
  * @since 1.4M2
@@ -56,6 +62,37 @@ public class XWikiStatsStoreService extends AbstractXWikiRunnable
      */
     private ArrayBlockingQueue<XWikiStatsStoreItem> queue;
 
+    /**
+     * The number of milliseconds during which statistics are accumulated before being stored.
+     */
+    private long interval;
+
+    /**
+     * The number of statistics merged with another statistic with the same identifier instead of being stored
+     * separately.
+     */
+    private final AtomicLong mergedItems = new AtomicLong();
+
+    /**
+     * The number of statistics stored.
+     */
+    private final AtomicLong storedItems = new AtomicLong();
+
+    /**
+     * The number of flushes of the accumulated statistics.
+     */
+    private final AtomicLong flushes = new AtomicLong();
+
+    /**
+     * The total number of milliseconds spent flushing the accumulated statistics.
+     */
+    private final AtomicLong flushTime = new AtomicLong();
+
+    /**
+     * The number of milliseconds spent in the last flush.
+     */
+    private volatile long lastFlushTime;
+
     /**
      * The thread on which the storing service is running.
      */
@@ -72,6 +109,7 @@ public XWikiStatsStoreService(XWikiContext context)
 
         long queueSize = context.getWiki().ParamAsLong("stats.queue.size", 200);
         this.queue = new ArrayBlockingQueue<XWikiStatsStoreItem>((int) queueSize);
+        this.interval = context.getWiki().ParamAsLong("xwiki.stats.store.interval", 1000);
     }
 
     /**
@@ -132,33 +170,188 @@ private void register() throws InterruptedException, StopStatsStoreException
     {
         XWikiStatsStoreItem stat = this.queue.take();
 
-        List<List<XWikiStatsStoreItem>> statsList = new ArrayList<List<XWikiStatsStoreItem>>();
-        Map<String, List<XWikiStatsStoreItem>> statsMap = new HashMap<String, List<XWikiStatsStoreItem>>();
+        Map<String, List<XWikiStatsStoreItem>> statsMap = new LinkedHashMap<String, List<XWikiStatsStoreItem>>();
 
-        do {
-            if (stat instanceof StopStatsRegisterObject) {
-                throw new StopStatsStoreException();
-            }
+        // Accumulate the statistics during the time window
+        long end = System.currentTimeMillis() + this.interval;
+        try {
+            do {
+                if (stat instanceof StopStatsRegisterObject) {
+                    throw new StopStatsStoreException();
+                }
 
-            String statId = stat.getId();
+                String statId = stat.getId();
 
-            List<XWikiStatsStoreItem> stats = statsMap.get(statId);
+                List<XWikiStatsStoreItem> stats = statsMap.get(statId);
 
-            if (stats == null) {
-                stats = new ArrayList<XWikiStatsStoreItem>();
+                if (stats == null) {
+                    stats = new ArrayList<XWikiStatsStoreItem>();
 
-                statsMap.put(statId, stats);
-                statsList.add(stats);
-            }
+                    statsMap.put(statId, stats);
+                } else {
+                    this.mergedItems.incrementAndGet();
+                }
 
-            stats.add(stat);
+                stats.add(stat);
 
-            stat = this.queue.poll();
-        } while (stat != null);
+                long remaining = end - System.currentTimeMillis();
+                stat = remaining > 0 ? this.queue.poll(remaining, TimeUnit.MILLISECONDS) : this.queue.poll();
+            } while (stat != null);
+        } finally {
+            flush(statsMap.values());
+        }
+    }
+
+    /**
+     * Store the accumulated statistics, in one transaction per wiki.
+     * 
+     * @param statsList the statistics to store, grouped by identifier
+     */
+    private void flush(Iterable<List<XWikiStatsStoreItem>> statsList)
+    {
+        long start = System.currentTimeMillis();
 
+        Map<String, List<List<XWikiStatsStoreItem>>> statsByWiki =
+            new LinkedHashMap<String, List<List<XWikiStatsStoreItem>>>();
         for (List<XWikiStatsStoreItem> stats : statsList) {
-            stats.get(0).store(stats);
+            XWikiStatsStoreItem stat = stats.get(0);
+            if (stat instanceof AbstractStatsStoreItem) {
+                String wiki = ((AbstractStatsStoreItem) stat).context.getDatabase();
+                List<List<XWikiStatsStoreItem>> wikiStats = statsByWiki.get(wiki);
+                if (wikiStats == null) {
+                    wikiStats = new ArrayList<List<XWikiStatsStoreItem>>();
+                    statsByWiki.put(wiki, wikiStats);
+                }
+                wikiStats.add(stats);
+            } else {
+                stat.store(stats);
+            }
+            this.storedItems.addAndGet(stats.size());
         }
+
+        for (List<List<XWikiStatsStoreItem>> wikiStats : statsByWiki.values()) {
+            storeBatch(wikiStats);
+        }
+
+        this.lastFlushTime = System.currentTimeMillis() - start;
+        this.flushTime.addAndGet(this.lastFlushTime);
+        this.flushes.incrementAndGet();
+    }
+
+    /**
+     * Store the statistics of a wiki in one transaction. If the transaction fails, each statistic is stored in its own
+     * transaction.
+     * 
+     * @param wikiStats the statistics of the wiki, grouped by identifier
+     */
+    private void storeBatch(List<List<XWikiStatsStoreItem>> wikiStats)
+    {
+        XWikiContext batchContext = ((AbstractStatsStoreItem) wikiStats.get(0).get(0)).context;
+        XWikiHibernateStore store = batchContext.getWiki().getHibernateStore();
+
+        boolean stored = false;
+        if (store != null) {
+            try {
+                store.checkHibernate(batchContext);
+                boolean transaction = store.beginTransaction(batchContext);
+                boolean commit = false;
+                try {
+                    for (List<XWikiStatsStoreItem> stats : wikiStats) {
+                        // Make the statistics use the batch transaction
+                        XWikiContext context = ((AbstractStatsStoreItem) stats.get(0)).context;
+                        if (context != batchContext) {
+                            store.setSession(store.getSession(batchContext), context);
+                            store.setTransaction(store.getTransaction(batchContext), context);
+                        }
+                        try {
+                            // Fail on the first error so that the transaction is rolled back
+                            ((AbstractStatsStoreItem) stats.get(0)).storeInBatch(stats);
+                        } finally {
+                            if (context != batchContext) {
+                                store.setSession(null, context);
+                                store.setTransaction(null, context);
+                            }
+                        }
+                    }
+                    commit = true;
+                } finally {
+                    if (transaction) {
+                        store.endTransaction(batchContext, commit);
+                    }
+                }
+                stored = true;
+            } catch (Exception e) {
+                LOGGER.warn("Failed to store the statistics of wiki [{}] in one transaction, storing them separately",
+                    batchContext.getDatabase(), e);
+            }
+        }
+
+        if (!stored) {
+            for (List<XWikiStatsStoreItem> stats : wikiStats) {
+                stats.get(0).store(stats);
+            }
+        }
+    }
+
+    // ////////////////////////////////////////////////////////////////////////////
+    // Metrics
+    // ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return the number of statistics waiting in the queue
+     * @since 4.0M1
+     */
+    public int getQueueSize()
+    {
+        return this.queue.size();
+    }
+
+    /**
+     * @return the number of statistics merged with another statistic with the same identifier instead of being stored
+     *         separately
+     * @since 4.0M1
+     */
+    public long getMergedItems()
+    {
+        return this.mergedItems.get();
+    }
+
+    /**
+     * @return the number of statistics stored
+     * @since 4.0M1
+     */
+    public long getStoredItems()
+    {
+        return this.storedItems.get();
+    }
+
+    /**
+     * @return the number of flushes of the accumulated statistics
+     * @since 4.0M1
+     */
+    public long getFlushCount()
+    {
+        return this.flushes.get();
+    }
+
+    /**
+     * @return the number of milliseconds spent in the last flush of the accumulated statistics
+     * @since 4.0M1
+     */
+    public long getLastFlushTime()
+    {
+        return this.lastFlushTime;
+    }
+
+    /**
+     * @return the average number of milliseconds spent flushing the accumulated statistics
+     * @since 4.0M1
+     */
+    public long getAverageFlushTime()
+    {
+        long count = this.flushes.get();
+
+        return count > 0 ? this.flushTime.get() / count : 0;
     }
 
     // ////////////////////////////////////////////////////////////////////////////
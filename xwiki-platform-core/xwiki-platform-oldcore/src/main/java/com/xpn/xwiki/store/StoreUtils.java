@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Helpers to use the optional store interfaces whatever the store implementation.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+public final class StoreUtils
+{
+    /**
+     * Utility class.
+     */
+    private StoreUtils()
+    {
+
+    }
+
+    /**
+     * Load several documents at once if the store supports it (see {@link XWikiBulkStoreInterface}), one by one
+     * otherwise.
+     * 
+     * @param store the store to load the documents from
+     * @param docs the documents to load, identified by their reference and language, all belonging to the current wiki
+     * @param context the XWiki context
+     * @return the loaded documents, in the same order as the passed documents; the documents which don't exist are
+     *         returned as new documents
+     * @throws XWikiException when failing to load the documents
+     */
+    public static List<XWikiDocument> loadXWikiDocs(XWikiStoreInterface store, List<XWikiDocument> docs,
+        XWikiContext context) throws XWikiException
+    {
+        if (store instanceof XWikiBulkStoreInterface) {
+            return ((XWikiBulkStoreInterface) store).loadXWikiDocs(docs, context);
+        }
+
+        List<XWikiDocument> documents = new ArrayList<XWikiDocument>(docs.size());
+        for (XWikiDocument doc : docs) {
+            documents.add(store.loadXWikiDoc(doc, context));
+        }
+
+        return documents;
+    }
+}
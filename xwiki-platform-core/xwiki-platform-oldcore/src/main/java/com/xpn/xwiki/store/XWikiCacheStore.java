@@ -19,8 +19,16 @@
  */
 package com.xpn.xwiki.store;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,8 +39,11 @@
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheFactory;
+import org.xwiki.cache.CacheLoader;
+import org.xwiki.cache.LoadingCache;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.util.AbstractCacheLoader;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.ObservationManager;
@@ -45,6 +56,7 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.doc.XWikiLink;
 import com.xpn.xwiki.doc.XWikiLock;
+import com.xpn.xwiki.internal.cache.DocumentEntryWeigher;
 import com.xpn.xwiki.objects.classes.BaseClass;
 import com.xpn.xwiki.web.Utils;
 
@@ -54,7 +66,7 @@
  * 
  * @version $Id$
  */
-public class XWikiCacheStore implements XWikiCacheStoreInterface, EventListener
+public class XWikiCacheStore implements XWikiCacheStoreInterface, XWikiBulkStoreInterface, EventListener
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(XWikiCacheStore.class);
 
@@ -68,6 +80,11 @@ public class XWikiCacheStore implements XWikiCacheStoreInterface, EventListener
 
     private int pageExistCacheCapacity = 10000;
 
+    /**
+     * The maximum estimated number of bytes used by the cached documents, 0 if it's not limited.
+     */
+    private long cacheMaxMemory;
+
     /**
      * Used to know if a received event is a local or remote one.
      */
@@ -119,6 +136,13 @@ public synchronized void initCache(XWikiContext context) throws XWikiException
                 }
             } catch (Exception e) {
             }
+            try {
+                String maxMemory = context.getWiki().Param("xwiki.store.cache.maxmemory");
+                if (maxMemory != null) {
+                    this.cacheMaxMemory = Long.parseLong(maxMemory);
+                }
+            } catch (Exception e) {
+            }
             initCache(this.cacheCapacity, this.pageExistCacheCapacity, context);
         }
     }
@@ -133,6 +157,12 @@ public void initCache(int capacity, int pageExistCacheCapacity, XWikiContext con
             cacheConfiguration.setConfigurationId("xwiki.store.pagecache");
             LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
             lru.setMaxEntries(capacity);
+            // Weighing the documents has a cost (every access updates the eviction order) only worth paying when the
+            // memory used by the cache is limited
+            if (this.cacheMaxMemory > 0) {
+                lru.setWeigher(new DocumentEntryWeigher());
+                lru.setMaxWeight(this.cacheMaxMemory);
+            }
             cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
 
             Cache<XWikiDocument> pageCache = cacheFactory.newCache(cacheConfiguration);
@@ -266,7 +296,7 @@ public String getKey(final String wiki, final String fullName, final String lang
     }
 
     @Override
-    public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throws XWikiException
+    public XWikiDocument loadXWikiDoc(final XWikiDocument doc, final XWikiContext context) throws XWikiException
     {
         String key = doc.getKey();
 
@@ -277,30 +307,210 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
 
         LOGGER.debug("Cache: Trying to get doc {} from cache", key);
 
-        XWikiDocument cachedoc = getCache().get(key);
+        // The concurrent loads of the same document (e.g. a popular page which has just been evicted) are done once
+        final XWikiDocument[] loadedDocument = new XWikiDocument[1];
+        XWikiDocument document = getDocument(key, new AbstractCacheLoader<XWikiDocument>()
+        {
+            @Override
+            public XWikiDocument load(String key) throws XWikiException
+            {
+                LOGGER.debug("Cache: Trying to get doc {} from persistent storage", key);
+
+                XWikiDocument storedDocument = store.loadXWikiDoc(doc, context);
+                storedDocument.setStore(store);
+                getPageExistCache().set(key, new Boolean(!storedDocument.isNew()));
+                loadedDocument[0] = storedDocument;
 
-        if (cachedoc != null) {
-            doc = cachedoc;
-            doc.setFromCache(true);
+                LOGGER.debug("Cache: Got doc {} from storage", key);
+
+                return storedDocument;
+            }
+        });
+
+        if (document != null && document != loadedDocument[0]) {
+            document.setFromCache(true);
 
             LOGGER.debug("Cache: got doc {} from cache", key);
-        } else {
-            LOGGER.debug("Cache: Trying to get doc {} from persistent storage", key);
+        }
+
+        LOGGER.debug("Cache: end for doc {} in cache", key);
+
+        return document;
+    }
+
+    @Override
+    public List<XWikiDocument> loadXWikiDocs(List<XWikiDocument> docs, final XWikiContext context)
+        throws XWikiException
+    {
+        // Make sure cache is initialized
+        initCache(context);
+
+        final Map<String, XWikiDocument> requestedDocuments = new LinkedHashMap<String, XWikiDocument>();
+        for (XWikiDocument doc : docs) {
+            String key = doc.getKey();
+            if (!requestedDocuments.containsKey(key)) {
+                requestedDocuments.put(key, doc);
+            }
+        }
 
-            doc = this.store.loadXWikiDoc(doc, context);
-            doc.setStore(this.store);
+        // Load all the documents missing from the cache at once
+        final Set<String> loadedKeys = new HashSet<String>();
+        Map<String, XWikiDocument> documents =
+            getDocuments(requestedDocuments.keySet(), new CacheLoader<XWikiDocument>()
+            {
+                @Override
+                public XWikiDocument load(String key) throws XWikiException
+                {
+                    return loadAll(Arrays.asList(key)).get(key);
+                }
 
-            LOGGER.debug("Cache: Got doc {} from storage", key);
+                @Override
+                public Map<String, XWikiDocument> loadAll(Collection<String> keys) throws XWikiException
+                {
+                    List<XWikiDocument> missingDocuments = new ArrayList<XWikiDocument>(keys.size());
+                    for (String key : keys) {
+                        missingDocuments.add(requestedDocuments.get(key));
+                    }
+
+                    Map<String, XWikiDocument> loadedDocuments = new HashMap<String, XWikiDocument>(keys.size());
+                    for (XWikiDocument doc : StoreUtils.loadXWikiDocs(store, missingDocuments, context)) {
+                        String key = doc.getKey();
+
+                        doc.setStore(store);
+                        getPageExistCache().set(key, new Boolean(!doc.isNew()));
+
+                        loadedDocuments.put(key, doc);
+                        loadedKeys.add(key);
+                    }
+
+                    return loadedDocuments;
+                }
+            });
 
-            getCache().set(key, doc);
-            getPageExistCache().set(key, new Boolean(!doc.isNew()));
+        LOGGER.debug("Cache: got {} docs out of {} from cache", requestedDocuments.size() - loadedKeys.size(),
+            requestedDocuments.size());
 
-            LOGGER.debug("Cache: put doc {} in cache", key);
+        for (Map.Entry<String, XWikiDocument> entry : documents.entrySet()) {
+            if (!loadedKeys.contains(entry.getKey())) {
+                entry.getValue().setFromCache(true);
+            }
         }
 
-        LOGGER.debug("Cache: end for doc {} in cache", key);
+        List<XWikiDocument> result = new ArrayList<XWikiDocument>(docs.size());
+        for (XWikiDocument doc : docs) {
+            result.add(documents.get(doc.getKey()));
+        }
+
+        return result;
+    }
+
+    /**
+     * Get a document from the cache, loading it if it's missing.
+     * 
+     * @param key the key of the document
+     * @param loader the loader of the missing document
+     * @return the document
+     * @throws XWikiException when failing to load the document
+     */
+    private XWikiDocument getDocument(String key, CacheLoader<XWikiDocument> loader) throws XWikiException
+    {
+        Cache<XWikiDocument> documentCache = getCache();
+
+        try {
+            if (documentCache instanceof LoadingCache) {
+                return ((LoadingCache<XWikiDocument>) documentCache).get(key, loader);
+            }
+
+            XWikiDocument document = documentCache.get(key);
+            if (document == null) {
+                document = loadDocuments(Collections.singletonList(key), loader).get(key);
+            }
+
+            return document;
+        } catch (CacheException e) {
+            throw toXWikiException(e, "Failed to load document [" + key + "]");
+        }
+    }
+
+    /**
+     * Get documents from the cache, loading the missing ones.
+     * 
+     * @param keys the keys of the documents
+     * @param loader the loader of the missing documents
+     * @return the documents, indexed by key
+     * @throws XWikiException when failing to load the documents
+     */
+    private Map<String, XWikiDocument> getDocuments(Collection<String> keys, CacheLoader<XWikiDocument> loader)
+        throws XWikiException
+    {
+        Cache<XWikiDocument> documentCache = getCache();
+
+        try {
+            if (documentCache instanceof LoadingCache) {
+                return ((LoadingCache<XWikiDocument>) documentCache).getAll(keys, loader);
+            }
+
+            Map<String, XWikiDocument> documents = new HashMap<String, XWikiDocument>(keys.size());
+            List<String> missingKeys = new ArrayList<String>();
+            for (String key : keys) {
+                XWikiDocument document = documentCache.get(key);
+                if (document != null) {
+                    documents.put(key, document);
+                } else {
+                    missingKeys.add(key);
+                }
+            }
+            if (!missingKeys.isEmpty()) {
+                documents.putAll(loadDocuments(missingKeys, loader));
+            }
+
+            return documents;
+        } catch (CacheException e) {
+            throw toXWikiException(e, "Failed to load documents " + keys);
+        }
+    }
+
+    /**
+     * Load documents and store them in a cache which is not a {@link LoadingCache}, in which case the concurrent loads
+     * of the same document are not merged.
+     * 
+     * @param keys the keys of the documents
+     * @param loader the loader of the documents
+     * @return the loaded documents, indexed by key
+     * @throws CacheException when failing to load the documents
+     */
+    private Map<String, XWikiDocument> loadDocuments(Collection<String> keys, CacheLoader<XWikiDocument> loader)
+        throws CacheException
+    {
+        Map<String, XWikiDocument> documents;
+        try {
+            documents = loader.loadAll(keys);
+        } catch (Exception e) {
+            throw new CacheException("Failed to load documents " + keys, e);
+        }
+
+        for (Map.Entry<String, XWikiDocument> entry : documents.entrySet()) {
+            getCache().set(entry.getKey(), entry.getValue());
+        }
+
+        return documents;
+    }
+
+    /**
+     * @param e the error of the cache
+     * @param message the message to use when the error of the loader is not a {@link XWikiException}
+     * @return the error of the loader
+     */
+    private XWikiException toXWikiException(CacheException e, String message)
+    {
+        if (e.getCause() instanceof XWikiException) {
+            return (XWikiException) e.getCause();
+        } else if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+        }
 
-        return doc;
+        return new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+            XWikiException.ERROR_XWIKI_STORE_HIBERNATE_READING_DOC, message, e);
     }
 
     @Override
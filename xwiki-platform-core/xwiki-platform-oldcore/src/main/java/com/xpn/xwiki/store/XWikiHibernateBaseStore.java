@@ -1175,6 +1175,53 @@ public <T> T failSafeExecute(XWikiContext context, boolean doCommit, HibernateCa
         }
     }
 
+    /**
+     * Open a new session, with its transaction, on the current database of the context. The session of the context (if
+     * any) is left untouched, so the new session can be kept open while other operations are executed in the context,
+     * e.g. to read the results of a query as they are needed. The new session must be closed with
+     * {@link #closeIndependentSession(Session)}.
+     *
+     * @param context the current XWikiContext
+     * @return the new session
+     * @throws XWikiException if the session can't be opened
+     * @since 4.0M1
+     */
+    public Session openIndependentSession(XWikiContext context) throws XWikiException
+    {
+        final Session originalSession = getSession(context);
+        final Transaction originalTransaction = getTransaction(context);
+        final String originalDatabase = getCurrentDatabase(context);
+        setSession(null, context);
+        setTransaction(null, context);
+
+        try {
+            checkHibernate(context);
+            beginTransaction(context);
+
+            return getSession(context);
+        } finally {
+            setSession(originalSession, context);
+            setTransaction(originalTransaction, context);
+            setCurrentDatabase(context, originalDatabase);
+        }
+    }
+
+    /**
+     * Rollback the transaction of a session opened with {@link #openIndependentSession(XWikiContext)} and close it.
+     *
+     * @param session the session to close
+     * @since 4.0M1
+     */
+    public void closeIndependentSession(Session session)
+    {
+        try {
+            preCloseSession(session);
+            session.getTransaction().rollback();
+        } finally {
+            closeSession(session);
+        }
+    }
+
     /**
      * Execute method for operations in hibernate. spring like.
      *
@@ -1335,6 +1382,10 @@ private String getCurrentDatabase(XWikiContext context)
      */
     private void setCurrentDatabase(XWikiContext context, String database)
     {
-        context.put(currentDatabaseKey, database);
+        if (database == null) {
+            context.remove(currentDatabaseKey);
+        } else {
+            context.put(currentDatabaseKey, database);
+        }
     }
 }
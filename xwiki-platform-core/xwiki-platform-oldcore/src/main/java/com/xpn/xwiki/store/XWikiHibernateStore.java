@@ -24,11 +24,15 @@
 import java.sql.Connection;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -58,10 +62,8 @@
 import org.xwiki.component.annotation.Component;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
-import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
-import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.model.reference.WikiReference;
@@ -82,6 +84,7 @@
 import com.xpn.xwiki.objects.BaseProperty;
 import com.xpn.xwiki.objects.BaseStringProperty;
 import com.xpn.xwiki.objects.DBStringListProperty;
+import com.xpn.xwiki.objects.DateProperty;
 import com.xpn.xwiki.objects.DoubleProperty;
 import com.xpn.xwiki.objects.FloatProperty;
 import com.xpn.xwiki.objects.IntegerProperty;
@@ -113,10 +116,24 @@
 @Component
 @Named("hibernate")
 @Singleton
-public class XWikiHibernateStore extends XWikiHibernateBaseStore implements XWikiStoreInterface
+public class XWikiHibernateStore extends XWikiHibernateBaseStore implements XWikiStoreInterface,
+    XWikiBulkStoreInterface
 {
     private static final Logger log = LoggerFactory.getLogger(XWikiHibernateStore.class);
 
+    /**
+     * The maximum number of values passed to a SQL {@code IN} clause when loading several documents at once.
+     */
+    private static final int BULK_LOAD_BATCH_SIZE = 500;
+
+    /**
+     * The property types mapped in the generic property tables, which can be loaded in bulk.
+     */
+    private static final Set<String> BULK_LOADABLE_PROPERTY_TYPES = new HashSet<String>(Arrays.asList(
+        IntegerProperty.class.getName(), LongProperty.class.getName(), FloatProperty.class.getName(),
+        DoubleProperty.class.getName(), StringProperty.class.getName(), DateProperty.class.getName(),
+        LargeStringProperty.class.getName(), StringListProperty.class.getName(), DBStringListProperty.class.getName()));
+
     private Map<String, String[]> validTypesMap = new HashMap<String, String[]>();
 
     /**
@@ -741,116 +758,106 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
                 return doc;
             }
 
-            // Loading the attachment list
-            if (doc.hasElement(XWikiDocument.HAS_ATTACHMENTS)) {
-                loadAttachmentList(doc, context, false);
+            // Load the attachments, class and objects of the document
+            loadXWikiDocsElements(Collections.singletonList(doc), context);
+
+            // We need to ensure that the loaded document becomes the original document
+            doc.setOriginalDocument(doc.clone());
+
+            if (bTransaction) {
+                endTransaction(context, false, false);
+            }
+        } catch (Exception e) {
+            Object[] args = {doc.getDocumentReference()};
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_READING_DOC, "Exception while reading document [{0}]", e,
+                args);
+        } finally {
+            try {
+                if (bTransaction) {
+                    endTransaction(context, false, false);
+                }
+            } catch (Exception e) {
             }
 
-            // TODO: handle the case where there are no xWikiClass and xWikiObject in the Database
-            BaseClass bclass = new BaseClass();
-            String cxml = doc.getXClassXML();
-            if (cxml != null) {
-                bclass.fromXML(cxml);
-                bclass.setDocumentReference(doc.getDocumentReference());
-                doc.setXClass(bclass);
+            // End monitoring timer
+            if (monitor != null) {
+                monitor.endTimer("hibernate");
             }
+        }
 
-            // Store this XWikiClass in the context so that we can use it in case of recursive usage
-            // of classes
-            context.addBaseClass(bclass);
+        log.debug("Loaded XWikiDocument: " + doc.getDocumentReference());
 
-            if (doc.hasElement(XWikiDocument.HAS_OBJECTS)) {
-                Query query =
-                    session.createQuery("from BaseObject as bobject where bobject.name = :name order by "
-                        + "bobject.number");
-                query.setText("name", doc.getFullName());
-                @SuppressWarnings("unchecked")
-                Iterator<BaseObject> it = query.list().iterator();
+        return doc;
+    }
 
-                EntityReference localGroupEntityReference =
-                    new EntityReference("XWikiGroups", EntityType.DOCUMENT, new EntityReference("XWiki",
-                        EntityType.SPACE));
-                DocumentReference groupsDocumentReference =
-                    new DocumentReference(context.getDatabase(), localGroupEntityReference.getParent().getName(),
-                        localGroupEntityReference.getName());
+    @Override
+    public List<XWikiDocument> loadXWikiDocs(List<XWikiDocument> docs, XWikiContext context) throws XWikiException
+    {
+        // Dynamic custom mappings require a specific session factory for each document
+        if (context.getWiki().hasDynamicCustomMappings()) {
+            List<XWikiDocument> documents = new ArrayList<XWikiDocument>(docs.size());
+            for (XWikiDocument doc : docs) {
+                documents.add(loadXWikiDoc(doc, context));
+            }
 
-                boolean hasGroups = false;
-                while (it.hasNext()) {
-                    BaseObject object = it.next();
-                    DocumentReference classReference = object.getXClassReference();
+            return documents;
+        }
 
-                    if (classReference == null) {
-                        continue;
-                    }
+        Map<Long, XWikiDocument> loadedDocuments = new LinkedHashMap<Long, XWikiDocument>();
 
-                    // It seems to search before is case insensitive. And this would break the loading if we get an
-                    // object which doesn't really belong to this document
-                    if (!object.getDocumentReference().equals(doc.getDocumentReference())) {
-                        continue;
-                    }
+        boolean bTransaction = true;
+        MonitorPlugin monitor = Util.getMonitorPlugin(context);
+        try {
+            // Start monitoring timer
+            if (monitor != null) {
+                monitor.startTimer("hibernate");
+            }
+            checkHibernate(context);
 
-                    BaseObject newobject;
-                    if (classReference.equals(doc.getDocumentReference())) {
-                        newobject = bclass.newCustomClassInstance(context);
-                    } else {
-                        newobject = BaseClass.newCustomClassInstance(classReference, context);
-                    }
-                    if (newobject != null) {
-                        newobject.setId(object.getId());
-                        newobject.setXClassReference(object.getRelativeXClassReference());
-                        newobject.setDocumentReference(object.getDocumentReference());
-                        newobject.setNumber(object.getNumber());
-                        newobject.setGuid(object.getGuid());
-                        object = newobject;
-                    }
+            bTransaction = bTransaction && beginTransaction(false, context);
+            Session session = getSession(context);
+            session.setFlushMode(FlushMode.MANUAL);
 
-                    if (classReference.equals(groupsDocumentReference)) {
-                        // Groups objects are handled differently.
-                        hasGroups = true;
-                    } else {
-                        loadXWikiCollection(object, doc, context, false, true);
-                    }
-                    doc.setXObject(object.getNumber(), object);
-                }
-
-                // AFAICT this was added as an emergency patch because loading of objects has proven
-                // too slow and the objects which cause the most overhead are the XWikiGroups objects
-                // as each group object (each group member) would otherwise cost 2 database queries.
-                // This will do every group member in a single query.
-                if (hasGroups) {
-                    Query query2 =
-                        session
-                            .createQuery("select bobject.number, prop.value from StringProperty as prop,"
-                                + "BaseObject as bobject where bobject.name = :name and bobject.className='XWiki.XWikiGroups' "
-                                + "and bobject.id=prop.id.id and prop.id.name='member' order by bobject.number");
-                    query2.setText("name", doc.getFullName());
-                    @SuppressWarnings("unchecked")
-                    Iterator<Object[]> it2 = query2.list().iterator();
-                    while (it2.hasNext()) {
-                        Object[] result = it2.next();
-                        Integer number = (Integer) result[0];
-                        String member = (String) result[1];
-                        BaseObject obj = BaseClass.newCustomClassInstance(groupsDocumentReference, context);
-                        obj.setDocumentReference(doc.getDocumentReference());
-                        obj.setXClassReference(localGroupEntityReference);
-                        obj.setNumber(number.intValue());
-                        obj.setStringValue("member", member);
-                        doc.setXObject(obj.getNumber(), obj);
-                    }
+            Set<Long> ids = new LinkedHashSet<Long>();
+            for (XWikiDocument doc : docs) {
+                ids.add(doc.getId());
+            }
+
+            // Load the documents rows
+            for (List<Long> idsBatch : partition(new ArrayList<Long>(ids))) {
+                Query query = session.createQuery("from XWikiDocument as doc where doc.id in (:ids)");
+                query.setParameterList("ids", idsBatch);
+                @SuppressWarnings("unchecked")
+                List<XWikiDocument> documents = query.list();
+                for (XWikiDocument doc : documents) {
+                    doc.setStore(this);
+                    doc.setDatabase(context.getDatabase());
+                    doc.setNew(false);
+                    doc.setMostRecent(true);
+                    // Fix for XWIKI-1651
+                    doc.setDate(new Date(doc.getDate().getTime()));
+                    doc.setCreationDate(new Date(doc.getCreationDate().getTime()));
+                    doc.setContentUpdateDate(new Date(doc.getContentUpdateDate().getTime()));
+
+                    loadedDocuments.put(doc.getId(), doc);
                 }
             }
 
-            // We need to ensure that the loaded document becomes the original document
-            doc.setOriginalDocument(doc.clone());
+            // Load the attachments, classes and objects of all the documents at once
+            loadXWikiDocsElements(new ArrayList<XWikiDocument>(loadedDocuments.values()), context);
+
+            // We need to ensure that the loaded documents become the original documents
+            for (XWikiDocument doc : loadedDocuments.values()) {
+                doc.setOriginalDocument(doc.clone());
+            }
 
             if (bTransaction) {
                 endTransaction(context, false, false);
             }
         } catch (Exception e) {
-            Object[] args = {doc.getDocumentReference()};
             throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
-                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_READING_DOC, "Exception while reading document [{0}]", e,
-                args);
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_READING_DOC, "Exception while reading documents", e);
         } finally {
             try {
                 if (bTransaction) {
@@ -865,9 +872,160 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
             }
         }
 
-        log.debug("Loaded XWikiDocument: " + doc.getDocumentReference());
+        // Return the documents in the requested order, the ones which could not be found being new documents
+        List<XWikiDocument> documents = new ArrayList<XWikiDocument>(docs.size());
+        for (XWikiDocument doc : docs) {
+            XWikiDocument loadedDocument = loadedDocuments.get(doc.getId());
+            if (loadedDocument != null) {
+                documents.add(loadedDocument);
+            } else {
+                doc.setStore(this);
+                doc.setNew(true);
+                documents.add(doc);
+            }
+        }
 
-        return doc;
+        log.debug("Loaded {} XWikiDocuments out of {}", loadedDocuments.size(), docs.size());
+
+        return documents;
+    }
+
+    /**
+     * Load the attachment lists, classes and objects of the passed documents, whose rows have already been loaded,
+     * with a fixed number of queries whatever the number of documents.
+     * <p>
+     * Must be called inside an already opened transaction.
+     * 
+     * @param docs the documents to complete, all of them belonging to the current wiki
+     * @param context the XWiki context
+     * @throws XWikiException when failing to load the documents elements
+     */
+    private void loadXWikiDocsElements(List<XWikiDocument> docs, XWikiContext context) throws XWikiException
+    {
+        List<XWikiDocument> docsWithAttachments = new ArrayList<XWikiDocument>();
+        // Documents having the same name (i.e. translations) are dispatched in distinct groups since the objects are
+        // matched to their document by name
+        List<Map<String, XWikiDocument>> docsWithObjects = new ArrayList<Map<String, XWikiDocument>>();
+        for (XWikiDocument doc : docs) {
+            if (doc.hasElement(XWikiDocument.HAS_ATTACHMENTS)) {
+                docsWithAttachments.add(doc);
+            }
+
+            // TODO: handle the case where there are no xWikiClass and xWikiObject in the Database
+            BaseClass bclass = new BaseClass();
+            String cxml = doc.getXClassXML();
+            if (cxml != null) {
+                bclass.fromXML(cxml);
+                bclass.setDocumentReference(doc.getDocumentReference());
+                doc.setXClass(bclass);
+            }
+
+            // Store this XWikiClass in the context so that we can use it in case of recursive usage
+            // of classes
+            context.addBaseClass(bclass);
+
+            if (doc.hasElement(XWikiDocument.HAS_OBJECTS)) {
+                Map<String, XWikiDocument> group = null;
+                for (Map<String, XWikiDocument> docsGroup : docsWithObjects) {
+                    if (!docsGroup.containsKey(doc.getFullName())) {
+                        group = docsGroup;
+                        break;
+                    }
+                }
+                if (group == null) {
+                    group = new HashMap<String, XWikiDocument>();
+                    docsWithObjects.add(group);
+                }
+                group.put(doc.getFullName(), doc);
+            }
+        }
+
+        if (!docsWithAttachments.isEmpty()) {
+            loadAttachmentLists(docsWithAttachments, context);
+        }
+
+        for (Map<String, XWikiDocument> docsGroup : docsWithObjects) {
+            loadXWikiObjects(docsGroup, context);
+        }
+    }
+
+    /**
+     * Load the objects of the passed documents with a fixed number of queries whatever the number of documents and
+     * objects.
+     * <p>
+     * Must be called inside an already opened transaction.
+     * 
+     * @param docs the documents to load the objects of, indexed by full name
+     * @param context the XWiki context
+     * @throws XWikiException when failing to load the objects
+     */
+    private void loadXWikiObjects(Map<String, XWikiDocument> docs, XWikiContext context) throws XWikiException
+    {
+        Session session = getSession(context);
+
+        List<BaseObject> objects = new ArrayList<BaseObject>();
+        for (List<String> namesBatch : partition(new ArrayList<String>(docs.keySet()))) {
+            Query query =
+                session.createQuery("from BaseObject as bobject where bobject.name in (:names) order by "
+                    + "bobject.number");
+            query.setParameterList("names", namesBatch);
+            @SuppressWarnings("unchecked")
+            Iterator<BaseObject> it = query.list().iterator();
+
+            while (it.hasNext()) {
+                BaseObject object = it.next();
+                DocumentReference classReference = object.getXClassReference();
+
+                if (classReference == null) {
+                    continue;
+                }
+
+                // It seems to search before is case insensitive. And this would break the loading if we get an
+                // object which doesn't really belong to this document
+                XWikiDocument doc = docs.get(object.getName());
+                if (doc == null || !object.getDocumentReference().equals(doc.getDocumentReference())) {
+                    continue;
+                }
+
+                BaseObject newobject;
+                if (classReference.equals(doc.getDocumentReference())) {
+                    newobject = doc.getXClass().newCustomClassInstance(context);
+                } else {
+                    newobject = BaseClass.newCustomClassInstance(classReference, context);
+                }
+                if (newobject != null) {
+                    newobject.setId(object.getId());
+                    newobject.setXClassReference(object.getRelativeXClassReference());
+                    newobject.setDocumentReference(object.getDocumentReference());
+                    newobject.setNumber(object.getNumber());
+                    newobject.setGuid(object.getGuid());
+                    object = newobject;
+                }
+
+                objects.add(object);
+                doc.setXObject(object.getNumber(), object);
+            }
+        }
+
+        // Load the properties of all the objects at once instead of issuing several queries per object
+        loadXWikiObjectsProperties(objects, docs, context);
+    }
+
+    /**
+     * Split the passed list in sub lists small enough to be used as parameter of a SQL {@code IN} clause.
+     * 
+     * @param <T> the type of the list elements
+     * @param list the list to split
+     * @return the sub lists
+     */
+    private static <T> List<List<T>> partition(List<T> list)
+    {
+        List<List<T>> batches = new ArrayList<List<T>>();
+        for (int i = 0; i < list.size(); i += BULK_LOAD_BATCH_SIZE) {
+            batches.add(list.subList(i, Math.min(i + BULK_LOAD_BATCH_SIZE, list.size())));
+        }
+
+        return batches;
     }
 
     @Override
@@ -1184,7 +1342,9 @@ public void loadXWikiCollection(BaseCollection object1, XWikiDocument doc, XWiki
                     session.createQuery("select prop.name, prop.classType from BaseProperty as prop where "
                         + "prop.id.id = :id");
                 query.setLong("id", object.getId());
-                for (Object[] result : (List<Object[]>) query.list()) {
+                @SuppressWarnings("unchecked")
+                List<Object[]> results = query.list();
+                for (Object[] result : results) {
                     String name = (String) result[0];
                     // No need to load fields already loaded from
                     // custom mapping
@@ -1192,54 +1352,8 @@ public void loadXWikiCollection(BaseCollection object1, XWikiDocument doc, XWiki
                         continue;
                     }
                     String classType = (String) result[1];
-                    BaseProperty property = null;
-
-                    try {
-                        property = (BaseProperty) Class.forName(classType).newInstance();
-                        property.setObject(object);
-                        property.setName(name);
-                        loadXWikiProperty(property, context, false);
-                    } catch (Exception e) {
-                        // WORKAROUND IN CASE OF MIXMATCH BETWEEN STRING AND LARGESTRING
-                        try {
-                            if (property instanceof StringProperty) {
-                                LargeStringProperty property2 = new LargeStringProperty();
-                                property2.setObject(object);
-                                property2.setName(name);
-                                loadXWikiProperty(property2, context, false);
-                                property.setValue(property2.getValue());
-
-                                if (bclass != null) {
-                                    if (bclass.get(name) instanceof TextAreaClass) {
-                                        property = property2;
-                                    }
-                                }
-
-                            } else if (property instanceof LargeStringProperty) {
-                                StringProperty property2 = new StringProperty();
-                                property2.setObject(object);
-                                property2.setName(name);
-                                loadXWikiProperty(property2, context, false);
-                                property.setValue(property2.getValue());
-
-                                if (bclass != null) {
-                                    if (bclass.get(name) instanceof StringClass) {
-                                        property = property2;
-                                    }
-                                }
-                            } else {
-                                throw e;
-                            }
-                        } catch (Throwable e2) {
-                            Object[] args =
-                                {object.getName(), object.getClass(), Integer.valueOf(object.getNumber() + ""), name};
-                            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
-                                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_OBJECT,
-                                "Exception while loading object '{0}' of class '{1}', number '{2}' and property '{3}'",
-                                e, args);
-                        }
-                    }
 
+                    BaseProperty property = loadXWikiProperty(object, bclass, name, classType, context);
                     object.addField(name, property);
                 }
             }
@@ -1264,6 +1378,195 @@ public void loadXWikiCollection(BaseCollection object1, XWikiDocument doc, XWiki
 
     }
 
+    /**
+     * Load a single property of an object, working around type mismatches between {@link StringProperty} and
+     * {@link LargeStringProperty} in the database.
+     * 
+     * @param object the object the property belongs to
+     * @param bclass the class of the object, if any
+     * @param name the name of the property
+     * @param classType the type of the property as stored in the database
+     * @param context the XWiki context
+     * @return the loaded property
+     * @throws XWikiException when the property cannot be loaded
+     */
+    private BaseProperty loadXWikiProperty(BaseCollection object, BaseClass bclass, String name, String classType,
+        XWikiContext context) throws XWikiException
+    {
+        BaseProperty property = null;
+
+        try {
+            property = (BaseProperty) Class.forName(classType).newInstance();
+            property.setObject(object);
+            property.setName(name);
+            loadXWikiProperty(property, context, false);
+        } catch (Exception e) {
+            // WORKAROUND IN CASE OF MIXMATCH BETWEEN STRING AND LARGESTRING
+            try {
+                if (property instanceof StringProperty) {
+                    LargeStringProperty property2 = new LargeStringProperty();
+                    property2.setObject(object);
+                    property2.setName(name);
+                    loadXWikiProperty(property2, context, false);
+                    property.setValue(property2.getValue());
+
+                    if (bclass != null) {
+                        if (bclass.get(name) instanceof TextAreaClass) {
+                            property = property2;
+                        }
+                    }
+
+                } else if (property instanceof LargeStringProperty) {
+                    StringProperty property2 = new StringProperty();
+                    property2.setObject(object);
+                    property2.setName(name);
+                    loadXWikiProperty(property2, context, false);
+                    property.setValue(property2.getValue());
+
+                    if (bclass != null) {
+                        if (bclass.get(name) instanceof StringClass) {
+                            property = property2;
+                        }
+                    }
+                } else {
+                    throw e;
+                }
+            } catch (Throwable e2) {
+                Object[] args = {object.getName(), object.getClass(), Integer.valueOf(object.getNumber() + ""), name};
+                throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                    XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_OBJECT,
+                    "Exception while loading object '{0}' of class '{1}', number '{2}' and property '{3}'", e, args);
+            }
+        }
+
+        return property;
+    }
+
+    /**
+     * Load the properties of all the passed objects with a fixed number of queries: one query listing the properties of
+     * all the objects of the documents and then one query per property type, whatever the number of objects and
+     * documents. Objects of classes having a custom mapping are loaded one by one since their properties are not stored
+     * in the generic property tables.
+     * <p>
+     * Must be called inside an already opened transaction.
+     * 
+     * @param objects the objects to load, already attached to their document
+     * @param docs the documents the objects belong to, indexed by full name
+     * @param context the XWiki context
+     * @throws XWikiException when failing to load the properties
+     */
+    private void loadXWikiObjectsProperties(List<BaseObject> objects, Map<String, XWikiDocument> docs,
+        XWikiContext context) throws XWikiException
+    {
+        Map<Long, BaseObject> objectsById = new HashMap<Long, BaseObject>();
+        Map<Long, BaseClass> classesById = new HashMap<Long, BaseClass>();
+        for (BaseObject object : objects) {
+            BaseClass bclass;
+            if (object.getXClassReference().equals(object.getDocumentReference())) {
+                // We need to get it from the document otherwise we will go in an endless loop
+                bclass = docs.get(object.getName()).getXClass();
+            } else {
+                bclass = object.getXClass(context);
+            }
+
+            if (bclass != null && bclass.hasCustomMapping() && context.getWiki().hasCustomMappings()) {
+                loadXWikiCollection(object, docs.get(object.getName()), context, false, true);
+            } else {
+                objectsById.put(object.getId(), object);
+                classesById.put(object.getId(), bclass);
+            }
+        }
+
+        if (objectsById.isEmpty()) {
+            return;
+        }
+
+        Session session = getSession(context);
+
+        // Find the names and types of all the properties of the document objects
+        Map<Long, Map<String, String>> expectedProperties = new HashMap<Long, Map<String, String>>();
+        Set<String> classTypes = new LinkedHashSet<String>();
+        List<List<String>> namesBatches = partition(new ArrayList<String>(docs.keySet()));
+        for (List<String> namesBatch : namesBatches) {
+            Query query =
+                session.createQuery("select prop.id.id, prop.id.name, prop.classType from BaseProperty as prop, "
+                    + "BaseObject as bobject where bobject.name in (:names) and bobject.id = prop.id.id");
+            query.setParameterList("names", namesBatch);
+            @SuppressWarnings("unchecked")
+            List<Object[]> results = query.list();
+            for (Object[] result : results) {
+                Long id = (Long) result[0];
+                if (objectsById.containsKey(id)) {
+                    Map<String, String> objectProperties = expectedProperties.get(id);
+                    if (objectProperties == null) {
+                        objectProperties = new HashMap<String, String>();
+                        expectedProperties.put(id, objectProperties);
+                    }
+                    objectProperties.put((String) result[1], (String) result[2]);
+                    classTypes.add((String) result[2]);
+                }
+            }
+        }
+
+        // Load all the values of a given property type at once
+        for (String classType : classTypes) {
+            if (!BULK_LOADABLE_PROPERTY_TYPES.contains(classType)) {
+                // Unknown property type, it will be loaded one by one below
+                continue;
+            }
+
+            StringBuilder hql = new StringBuilder("select prop from ");
+            hql.append(classType);
+            hql.append(" as prop");
+            if (DBStringListProperty.class.getName().equals(classType)) {
+                // Avoid one more query per list property to get the list items
+                hql.append(" left join fetch prop.list");
+            }
+            hql.append(", BaseObject as bobject where bobject.name in (:names) and bobject.id = prop.id.id"
+                + " and prop.classType = :classType");
+
+            for (List<String> namesBatch : namesBatches) {
+                Query propertiesQuery = session.createQuery(hql.toString());
+                propertiesQuery.setParameterList("names", namesBatch);
+                propertiesQuery.setText("classType", classType);
+                @SuppressWarnings("unchecked")
+                List<BaseProperty> properties = propertiesQuery.list();
+                for (BaseProperty property : properties) {
+                    long id = property.getId();
+                    Map<String, String> objectProperties = expectedProperties.get(id);
+                    // The list can contain the same property several times when list items are fetched
+                    if (objectProperties == null || objectProperties.remove(property.getName()) == null) {
+                        continue;
+                    }
+
+                    // In Oracle, empty string are converted to NULL. Since an undefined property is not found at all,
+                    // it is safe to assume that a retrieved NULL value should actually be an empty string.
+                    if (property instanceof BaseStringProperty) {
+                        BaseStringProperty stringProperty = (BaseStringProperty) property;
+                        if (stringProperty.getValue() == null) {
+                            stringProperty.setValue("");
+                        }
+                    }
+
+                    BaseObject object = objectsById.get(id);
+                    property.setObject(object);
+                    object.addField(property.getName(), property);
+                }
+            }
+        }
+
+        // Load one by one the properties which could not be found in the table of their type, for example because of
+        // a mismatch between String and LargeString
+        for (Map.Entry<Long, Map<String, String>> entry : expectedProperties.entrySet()) {
+            BaseObject object = objectsById.get(entry.getKey());
+            BaseClass bclass = classesById.get(entry.getKey());
+            for (Map.Entry<String, String> propertyEntry : entry.getValue().entrySet()) {
+                String name = propertyEntry.getKey();
+                object.addField(name, loadXWikiProperty(object, bclass, name, propertyEntry.getValue(), context));
+            }
+        }
+    }
+
     /**
      * @deprecated This is internal to XWikiHibernateStore and may be removed in the future.
      */
@@ -1486,41 +1789,45 @@ public void saveXWikiProperty(final PropertyInterface property, final XWikiConte
         }
     }
 
-    private void loadAttachmentList(XWikiDocument doc, XWikiContext context, boolean bTransaction)
-        throws XWikiException
+    /**
+     * Load the attachment lists of the passed documents.
+     * <p>
+     * Must be called inside an already opened transaction.
+     * 
+     * @param docs the documents to load the attachment lists of
+     * @param context the XWiki context
+     * @throws XWikiException when failing to load the attachments
+     */
+    private void loadAttachmentLists(List<XWikiDocument> docs, XWikiContext context) throws XWikiException
     {
         try {
-            if (bTransaction) {
-                checkHibernate(context);
-                bTransaction = beginTransaction(false, context);
-            }
             Session session = getSession(context);
 
-            Query query = session.createQuery("from XWikiAttachment as attach where attach.docId=:docid");
-            query.setLong("docid", doc.getId());
-            @SuppressWarnings("unchecked")
-            List<XWikiAttachment> list = query.list();
-            for (XWikiAttachment attachment : list) {
-                attachment.setDoc(doc);
+            Map<Long, XWikiDocument> docsById = new HashMap<Long, XWikiDocument>();
+            Map<Long, List<XWikiAttachment>> attachmentsById = new HashMap<Long, List<XWikiAttachment>>();
+            for (XWikiDocument doc : docs) {
+                docsById.put(doc.getId(), doc);
+                attachmentsById.put(doc.getId(), new ArrayList<XWikiAttachment>());
             }
-            doc.setAttachmentList(list);
-            if (bTransaction) {
-                endTransaction(context, false, false);
-                bTransaction = false;
+
+            for (List<Long> idsBatch : partition(new ArrayList<Long>(docsById.keySet()))) {
+                Query query = session.createQuery("from XWikiAttachment as attach where attach.docId in (:docids)");
+                query.setParameterList("docids", idsBatch);
+                @SuppressWarnings("unchecked")
+                List<XWikiAttachment> list = query.list();
+                for (XWikiAttachment attachment : list) {
+                    attachment.setDoc(docsById.get(attachment.getDocId()));
+                    attachmentsById.get(attachment.getDocId()).add(attachment);
+                }
+            }
+
+            for (XWikiDocument doc : docs) {
+                doc.setAttachmentList(attachmentsById.get(doc.getId()));
             }
         } catch (Exception e) {
-            e.printStackTrace();
-            Object[] args = {doc.getDocumentReference()};
             throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
                 XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SEARCHING_ATTACHMENT,
-                "Exception while searching attachments for documents {0}", e, args);
-        } finally {
-            try {
-                if (bTransaction) {
-                    endTransaction(context, false, false);
-                }
-            } catch (Exception e) {
-            }
+                "Exception while searching attachments for documents", e);
         }
     }
 
@@ -2412,7 +2719,8 @@ public List<XWikiDocument> searchDocuments(String wheresql, boolean distinctbyla
 
         // Resolve documents. We use two separated sessions because rights service could need to switch database to
         // check rights
-        List<XWikiDocument> documents = new ArrayList<XWikiDocument>();
+        List<DocumentReference> documentReferences = new ArrayList<DocumentReference>();
+        List<String> languages = new ArrayList<String>();
         for (Object[] result : documentDatas) {
             XWikiDocument doc =
                 new XWikiDocument(new DocumentReference(context.getDatabase(), (String) result[0], (String) result[1]));
@@ -2422,17 +2730,37 @@ public List<XWikiDocument> searchDocuments(String wheresql, boolean distinctbyla
                 }
             }
 
-            DocumentReference documentReference = doc.getDocumentReference();
-            if (distinctbylanguage) {
-                String language = (String) result[2];
-                XWikiDocument document = context.getWiki().getDocument(documentReference, context);
-                if ((language == null) || (language.equals(""))) {
-                    documents.add(document);
-                } else {
-                    documents.add(document.getTranslatedDocument(language, context));
+            documentReferences.add(doc.getDocumentReference());
+            languages.add(distinctbylanguage ? (String) result[2] : null);
+        }
+
+        // Load all the documents at once
+        List<XWikiDocument> documents = context.getWiki().getDocuments(documentReferences, context);
+
+        if (distinctbylanguage) {
+            // Load all the translations at once
+            List<XWikiDocument> translations = new ArrayList<XWikiDocument>();
+            List<Integer> translationPositions = new ArrayList<Integer>();
+            for (int i = 0; i < documents.size(); ++i) {
+                XWikiDocument document = documents.get(i);
+                String language = languages.get(i);
+                if (!StringUtils.isEmpty(language) && !language.equals(document.getDefaultLanguage())) {
+                    XWikiDocument translation = new XWikiDocument(document.getDocumentReference());
+                    translation.setLanguage(language);
+                    translations.add(translation);
+                    translationPositions.add(i);
+                }
+            }
+
+            if (!translations.isEmpty()) {
+                translations = StoreUtils.loadXWikiDocs(context.getWiki().getStore(), translations, context);
+                for (int i = 0; i < translations.size(); ++i) {
+                    XWikiDocument translation = translations.get(i);
+                    // Fallback on the default document when the translation does not exist
+                    if (!translation.isNew()) {
+                        documents.set(translationPositions.get(i), translation);
+                    }
                 }
-            } else {
-                documents.add(context.getWiki().getDocument(documentReference, context));
             }
         }
 
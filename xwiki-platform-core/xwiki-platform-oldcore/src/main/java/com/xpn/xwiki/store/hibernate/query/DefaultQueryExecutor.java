@@ -27,8 +27,9 @@
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.query.Query;
+import org.xwiki.query.QueryCursor;
 import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryExecutor;
+import org.xwiki.query.StreamingQueryExecutor;
 
 /**
  * The default QueryExecutor, this uses The HqlQueryExecutor since XWikiHibernateStore is the default store. Wrapping
@@ -39,16 +40,22 @@
  */
 @Component
 @Singleton
-public class DefaultQueryExecutor implements QueryExecutor
+public class DefaultQueryExecutor implements StreamingQueryExecutor
 {
     /** The Hibernate HQL query executor. */
     @Inject
     @Named("hql")
-    private QueryExecutor executor;
+    private StreamingQueryExecutor executor;
 
     @Override
     public <T> List<T> execute(final Query query) throws QueryException
     {
         return this.executor.execute(query);
     }
+
+    @Override
+    public <T> QueryCursor<T> iterate(Query query) throws QueryException
+    {
+        return this.executor.iterate(query);
+    }
 }
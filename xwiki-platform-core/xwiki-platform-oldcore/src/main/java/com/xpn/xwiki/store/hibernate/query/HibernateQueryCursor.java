@@ -0,0 +1,154 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store.hibernate.query;
+
+import java.util.NoSuchElementException;
+
+import org.hibernate.HibernateException;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.xwiki.query.QueryCursor;
+
+import com.xpn.xwiki.store.XWikiHibernateBaseStore;
+
+/**
+ * {@link QueryCursor} reading the results of a Hibernate query from a forward only {@link ScrollableResults}. The
+ * session is cleared each time a batch of results has been read so that the entities already returned don't pile up in
+ * it, which means the returned entities are detached.
+ *
+ * @param <T> the type of the results
+ * @version $Id$
+ * @since 4.0M1
+ */
+class HibernateQueryCursor<T> implements QueryCursor<T>
+{
+    /**
+     * The store which opened the session.
+     */
+    private final XWikiHibernateBaseStore store;
+
+    /**
+     * The independent session used by the cursor.
+     */
+    private final Session session;
+
+    /**
+     * The results of the query.
+     */
+    private final ScrollableResults results;
+
+    /**
+     * The number of results read between two clears of the session.
+     */
+    private final int batchSize;
+
+    /**
+     * The number of results read so far.
+     */
+    private long count;
+
+    /**
+     * Whether there is a result available, null if the results have not been moved to the next one yet.
+     */
+    private Boolean hasNext;
+
+    /**
+     * True once the session has been closed.
+     */
+    private boolean closed;
+
+    /**
+     * @param store the store which opened the session
+     * @param session the session opened with {@link XWikiHibernateBaseStore#openIndependentSession}, closed with the
+     *            cursor
+     * @param results the results of the query
+     * @param batchSize the number of results read between two clears of the session
+     */
+    HibernateQueryCursor(XWikiHibernateBaseStore store, Session session, ScrollableResults results, int batchSize)
+    {
+        this.store = store;
+        this.session = session;
+        this.results = results;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (this.closed) {
+            return false;
+        }
+
+        if (this.hasNext == null) {
+            try {
+                if (this.count > 0 && this.count % this.batchSize == 0) {
+                    this.session.clear();
+                }
+                this.hasNext = this.results.next();
+            } catch (HibernateException e) {
+                close();
+
+                throw e;
+            }
+
+            if (!this.hasNext) {
+                close();
+            }
+        }
+
+        return this.hasNext;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        this.hasNext = null;
+        ++this.count;
+
+        // Same as Query#list(): a single selected field is returned as is
+        Object[] row = this.results.get();
+
+        return (T) (row.length == 1 ? row[0] : row);
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close()
+    {
+        if (!this.closed) {
+            this.closed = true;
+            try {
+                this.results.close();
+            } finally {
+                this.store.closeIndependentSession(this.session);
+            }
+        }
+    }
+}
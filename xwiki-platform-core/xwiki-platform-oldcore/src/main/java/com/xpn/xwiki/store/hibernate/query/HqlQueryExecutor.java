@@ -19,6 +19,7 @@
  */
 package com.xpn.xwiki.store.hibernate.query;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
@@ -27,14 +28,18 @@
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.hibernate.HibernateException;
+import org.hibernate.ScrollMode;
 import org.hibernate.Session;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.context.Execution;
 import org.xwiki.query.Query;
+import org.xwiki.query.QueryCursor;
 import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryExecutor;
+import org.xwiki.query.StreamingQuery;
+import org.xwiki.query.StreamingQueryExecutor;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
@@ -52,8 +57,13 @@
 @Component
 @Named("hql")
 @Singleton
-public class HqlQueryExecutor implements QueryExecutor, Initializable
+public class HqlQueryExecutor implements StreamingQueryExecutor, Initializable
 {
+    /**
+     * Number of results fetched at once by {@link #iterate(Query)} when the query doesn't specify it.
+     */
+    private static final int DEFAULT_FETCH_SIZE = 100;
+
     /**
      * Session factory needed for register named queries mapping.
      */
@@ -103,6 +113,47 @@ public List<T> doInHibernate(Session session)
         }
     }
 
+    @Override
+    public <T> QueryCursor<T> iterate(Query query) throws QueryException
+    {
+        String olddatabase = getContext().getDatabase();
+        Session session = null;
+        try {
+            if (query.getWiki() != null) {
+                getContext().setDatabase(query.getWiki());
+            }
+            // The cursor outlives the current request operations so it needs its own session
+            session = getStore().openIndependentSession(getContext());
+
+            int fetchSize = query instanceof StreamingQuery ? ((StreamingQuery) query).getFetchSize() : 0;
+            if (fetchSize <= 0) {
+                fetchSize = DEFAULT_FETCH_SIZE;
+            }
+            org.hibernate.Query hquery = createHibernateQuery(session, query);
+            populateParameters(hquery, query);
+            // Note that MySQL Connector/J ignores the fetch size and loads all the results unless the connection URL
+            // has useCursorFetch=true; the session is still cleared every fetchSize results
+            hquery.setFetchSize(fetchSize);
+            hquery.setReadOnly(true);
+
+            QueryCursor<T> cursor =
+                new HibernateQueryCursor<T>(getStore(), session, hquery.scroll(ScrollMode.FORWARD_ONLY), fetchSize);
+            // The session is now closed by the cursor
+            session = null;
+
+            return cursor;
+        } catch (XWikiException e) {
+            throw new QueryException("Exception while execute query", query, e);
+        } catch (HibernateException e) {
+            throw new QueryException("Exception while execute query", query, e);
+        } finally {
+            if (session != null) {
+                getStore().closeIndependentSession(session);
+            }
+            getContext().setDatabase(olddatabase);
+        }
+    }
+
     /**
      * @param session hibernate session
      * @param query Query object
@@ -127,7 +178,12 @@ protected void populateParameters(org.hibernate.Query hquery, Query query)
             hquery.setMaxResults(query.getLimit());
         }
         for (Entry<String, Object> e : query.getNamedParameters().entrySet()) {
-            hquery.setParameter(e.getKey(), e.getValue());
+            if (e.getValue() instanceof Collection) {
+                // Bind the values of "in (:parameter)" expressions
+                hquery.setParameterList(e.getKey(), (Collection< ? >) e.getValue());
+            } else {
+                hquery.setParameter(e.getKey(), e.getValue());
+            }
         }
         if (query.getPositionalParameters().size() > 0) {
             int start = Collections.min(query.getPositionalParameters().keySet());
@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.user.impl.xwiki;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In memory index of the members of the groups of a wiki. Members are indexed exactly as they are written in the
+ * {@code member} field of the {@code XWiki.XWikiGroups} objects (e.g. {@code XWiki.User}, {@code User} or
+ * {@code wiki:XWiki.User} for a member from another wiki), and groups are identified by the full name of their
+ * document.
+ * <p>
+ * Members and groups are matched exactly, including their case, like the {@code prop.value = :member} comparison of
+ * the database queries the index replaces: otherwise a user whose name differs only by its case from the name of a
+ * member would get the groups, and thus the rights, of that member.
+ * </p>
+ * <p>
+ * The index is filled with all the group objects of the wiki at once and then kept up to date group by group, using
+ * {@link #setMembers(String, Collection)}, when group documents are modified.
+ * </p>
+ *
+ * @version $Id$
+ * @since 4.0M1
+ */
+public class GroupMembershipIndex
+{
+    /**
+     * The full names of the groups of each member.
+     */
+    private final Map<String, Set<String>> groupsByMember = new HashMap<String, Set<String>>();
+
+    /**
+     * The members of each group, by full name of the group document.
+     */
+    private final Map<String, Set<String>> membersByGroup = new HashMap<String, Set<String>>();
+
+    /**
+     * Add a member to a group.
+     *
+     * @param group the full name of the group document
+     * @param member the member, as written in the group object
+     */
+    public synchronized void addMember(String group, String member)
+    {
+        getSet(this.membersByGroup, group).add(member);
+        getSet(this.groupsByMember, member).add(group);
+    }
+
+    /**
+     * Replace all the members of a group.
+     *
+     * @param group the full name of the group document
+     * @param members the new members of the group, empty if the group has been deleted
+     */
+    public synchronized void setMembers(String group, Collection<String> members)
+    {
+        Set<String> previousMembers = this.membersByGroup.remove(group);
+        if (previousMembers != null) {
+            for (String member : previousMembers) {
+                Set<String> groups = this.groupsByMember.get(member);
+                if (groups != null) {
+                    groups.remove(group);
+                    if (groups.isEmpty()) {
+                        this.groupsByMember.remove(member);
+                    }
+                }
+            }
+        }
+
+        for (String member : members) {
+            addMember(group, member);
+        }
+    }
+
+    /**
+     * @param members the different ways the member can be written in the group objects
+     * @return the full names of the groups containing the member
+     */
+    public synchronized Set<String> getGroups(String... members)
+    {
+        Set<String> groups = null;
+
+        for (String member : members) {
+            Set<String> memberGroups = this.groupsByMember.get(member);
+            if (memberGroups != null) {
+                if (groups == null) {
+                    groups = new HashSet<String>();
+                }
+                groups.addAll(memberGroups);
+            }
+        }
+
+        return groups != null ? groups : Collections.<String> emptySet();
+    }
+
+    /**
+     * @param group the full name of the group document
+     * @return the members of the group, as written in the group objects
+     */
+    public synchronized Set<String> getMembers(String group)
+    {
+        Set<String> members = this.membersByGroup.get(group);
+
+        return members != null ? new HashSet<String>(members) : Collections.<String> emptySet();
+    }
+
+    private Set<String> getSet(Map<String, Set<String>> map, String key)
+    {
+        Set<String> set = map.get(key);
+        if (set == null) {
+            set = new HashSet<String>();
+            map.put(key, set);
+        }
+
+        return set;
+    }
+}
@@ -26,16 +26,16 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xwiki.bridge.event.DocumentCreatedEvent;
 import org.xwiki.bridge.event.DocumentDeletedEvent;
 import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.cache.Cache;
-import org.xwiki.cache.CacheException;
-import org.xwiki.cache.CacheManager;
-import org.xwiki.cache.config.CacheConfiguration;
-import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReferenceSerializer;
@@ -65,6 +65,11 @@
  */
 public class XWikiGroupServiceImpl implements XWikiGroupService, EventListener
 {
+    /**
+     * Logging helper object.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(XWikiGroupServiceImpl.class);
+
     /**
      * Name of the "XWiki.XWikiGroups" class without the space name.
      */
@@ -115,6 +120,11 @@ public class XWikiGroupServiceImpl implements XWikiGroupService, EventListener
      */
     private static final String HQLLIKE_ALL_SYMBOL = "%";
 
+    /**
+     * Configuration parameter of the capacity of the former group cache, ignored since 4.0M1.
+     */
+    private static final String PARAM_CACHE_CAPACITY = "xwiki.authentication.group.cache.capacity";
+
     private static final String NAME = "groupservice";
 
     private static final List<Event> EVENTS = new ArrayList<Event>()
@@ -126,8 +136,20 @@ public class XWikiGroupServiceImpl implements XWikiGroupService, EventListener
         }
     };
 
+    /**
+     * @deprecated since 4.0M1, the group members are indexed in memory for each wiki and this cache is not created
+     *             anymore
+     */
+    @Deprecated
     protected Cache<Collection<DocumentReference>> memberGroupsCache;
 
+    /**
+     * The members of the groups of each wiki, loaded the first time the groups of a wiki are needed and then updated
+     * when group documents are modified.
+     */
+    private final ConcurrentMap<String, GroupMembershipIndex> groupIndexes =
+        new ConcurrentHashMap<String, GroupMembershipIndex>();
+
     /**
      * Used to convert a string into a proper Document Reference.
      */
@@ -146,37 +168,31 @@ public synchronized void init(XWiki xwiki, XWikiContext context) throws XWikiExc
         initCache(context);
 
         Utils.getComponent(ObservationManager.class).addListener(this);
+
+        // Index the groups of the main wiki right away, they are needed by most of the rights checks
+        try {
+            getGroupIndex(context.getMainXWiki(), context);
+        } catch (Exception e) {
+            LOGGER.warn("Failed to index the groups of the main wiki: {}", e.getMessage());
+        }
     }
 
     @Override
     public synchronized void initCache(XWikiContext context) throws XWikiException
     {
-        int iCapacity = 100;
-        try {
-            String capacity = context.getWiki().Param("xwiki.authentication.group.cache.capacity");
-            if (capacity != null) {
-                iCapacity = Integer.parseInt(capacity);
-            }
-        } catch (Exception e) {
+        if (context.getWiki().Param(PARAM_CACHE_CAPACITY) != null) {
+            LOGGER.warn("The [{}] configuration parameter is deprecated since 4.0M1 and ignored: the group members "
+                + "are not cached anymore but indexed in memory for each wiki", PARAM_CACHE_CAPACITY);
         }
-        initCache(iCapacity, context);
+
+        initCache(0, context);
     }
 
     @Override
     public synchronized void initCache(int iCapacity, XWikiContext context) throws XWikiException
     {
-        try {
-            CacheConfiguration configuration = new CacheConfiguration();
-            configuration.setConfigurationId("xwiki.groupservice.usergroups");
-            LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
-            lru.setMaxEntries(iCapacity);
-            configuration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
-
-            this.memberGroupsCache = Utils.getComponent(CacheManager.class).createNewCache(configuration);
-        } catch (CacheException e) {
-            throw new XWikiException(XWikiException.MODULE_XWIKI_CACHE, XWikiException.ERROR_CACHE_INITIALIZING,
-                "Failed to initialize cache", e);
-        }
+        // The group members are indexed in memory for each wiki and the indexes are kept up to date when group
+        // documents are modified, so there's no cache to create anymore.
     }
 
     @Override
@@ -185,6 +201,94 @@ public void flushCache()
         if (this.memberGroupsCache != null) {
             this.memberGroupsCache.removeAll();
         }
+
+        this.groupIndexes.clear();
+    }
+
+    /**
+     * Get the index of the members of the groups of a wiki, loading all the group objects of the wiki with a single
+     * query the first time.
+     * 
+     * @param wiki the wiki
+     * @param context the XWiki context
+     * @return the index of the group members of the wiki
+     * @throws XWikiException when failing to load the groups
+     */
+    private GroupMembershipIndex getGroupIndex(String wiki, XWikiContext context) throws XWikiException
+    {
+        GroupMembershipIndex index = this.groupIndexes.get(wiki);
+
+        if (index == null) {
+            // Group modifications arriving while loading wait for the index to be published before applying
+            synchronized (this.groupIndexes) {
+                index = this.groupIndexes.get(wiki);
+                if (index == null) {
+                    index = new GroupMembershipIndex();
+
+                    try {
+                        Query query =
+                            context.getWiki().getStore().getQueryManager()
+                                .createQuery("select obj.name, prop.value from BaseObject as obj, "
+                                    + "StringProperty as prop where obj.className='" + CLASS_XWIKIGROUPS
+                                    + "' and obj.id = prop.id.id and prop.id.name='" + FIELD_XWIKIGROUPS_MEMBER + "'",
+                                    Query.HQL);
+                        query.setWiki(wiki);
+
+                        for (Object[] result : query.<Object[]> execute()) {
+                            String member = (String) result[1];
+                            if (StringUtils.isNotBlank(member)) {
+                                index.addMember((String) result[0], member);
+                            }
+                        }
+                    } catch (QueryException e) {
+                        throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                            XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SEARCH, "Failed to load the groups of wiki ["
+                                + wiki + "]", e);
+                    }
+
+                    this.groupIndexes.put(wiki, index);
+                }
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Update the index of the group members of the wiki of the passed document, if loaded.
+     * 
+     * @param document the modified group document
+     */
+    private void updateGroupIndex(XWikiDocument document)
+    {
+        String wiki = document.getDocumentReference().getWikiReference().getName();
+
+        GroupMembershipIndex index = this.groupIndexes.get(wiki);
+        if (index == null) {
+            // Wait for the index if it's being loaded
+            synchronized (this.groupIndexes) {
+                index = this.groupIndexes.get(wiki);
+            }
+        }
+
+        // An index which is not loaded yet will be read from the database
+        if (index != null) {
+            List<String> members = new ArrayList<String>();
+            List<BaseObject> groupObjects = document.getXObjects(document.resolveClassReference(CLASS_XWIKIGROUPS));
+            if (groupObjects != null) {
+                for (BaseObject groupObject : groupObjects) {
+                    if (groupObject != null) {
+                        String member = groupObject.getStringValue(FIELD_XWIKIGROUPS_MEMBER);
+                        if (StringUtils.isNotBlank(member)) {
+                            members.add(member);
+                        }
+                    }
+                }
+            }
+
+            index.setMembers(this.localWikiEntityReferenceSerializer.serialize(document.getDocumentReference()),
+                members);
+        }
     }
 
     /**
@@ -213,20 +317,12 @@ public void addUserToGroup(String username, String database, String group, XWiki
         throws XWikiException
     {
         String shortname = Util.getName(username);
-        String key = database + "/" + database + ":" + shortname;
-
-        if (this.memberGroupsCache == null) {
-            initCache(context);
-        }
-
-        Collection<DocumentReference> list = this.memberGroupsCache.get(key);
 
-        if (list == null) {
-            list = new ArrayList<DocumentReference>();
-            this.memberGroupsCache.set(key, list);
-        }
+        DocumentReference groupReference =
+            this.currentMixedDocumentReferenceResolver.resolve(group, new WikiReference(database));
 
-        list.add(this.currentMixedDocumentReferenceResolver.resolve(group, new WikiReference(database)));
+        getGroupIndex(database, context).addMember(this.localWikiEntityReferenceSerializer.serialize(groupReference),
+            shortname);
     }
 
     /**
@@ -400,9 +496,10 @@ public void onEvent(Event event, Object source, Object data)
         XWikiDocument document = (XWikiDocument) source;
         XWikiDocument oldDocument = document.getOriginalDocument();
 
-        // if there is any chance some group changed, flush the group cache
-        if (document.getObject(CLASS_XWIKIGROUPS) != null || oldDocument.getObject(CLASS_XWIKIGROUPS) != null) {
-            flushCache();
+        // if there is any chance some group changed, update the members of this group
+        if (document.getObject(CLASS_XWIKIGROUPS) != null
+            || (oldDocument != null && oldDocument.getObject(CLASS_XWIKIGROUPS) != null)) {
+            updateGroupIndex(document);
         }
     }
 
@@ -712,76 +809,75 @@ public Collection<String> getAllGroupsNamesForMember(String member, int nb, int
     public Collection<DocumentReference> getAllGroupsReferencesForMember(DocumentReference memberReference, int limit,
         int offset, XWikiContext context) throws XWikiException
     {
-        Collection<DocumentReference> groupReferences = null;
+        Collection<DocumentReference> groupReferences;
 
         String prefixedFullName = this.entityReferenceSerializer.serialize(memberReference);
 
-        String key = context.getDatabase() + "/" + prefixedFullName;
-        synchronized (key) {
-            if (this.memberGroupsCache == null) {
-                initCache(context);
-            }
+        boolean sameWiki =
+            memberReference.getWikiReference().getName().equals(context.getDatabase())
+                || (memberReference.getLastSpaceReference().getName().equals("XWiki") && memberReference.getName()
+                    .equals(XWikiRightService.GUEST_USER));
 
-            // TODO: add cache support for customized limit/offset ?
-            boolean supportCache = limit <= 0 && offset <= 0;
+        // TODO: add index support for customized limit/offset ?
+        if (limit <= 0 && offset <= 0) {
+            GroupMembershipIndex index = getGroupIndex(context.getDatabase(), context);
 
-            if (supportCache) {
-                groupReferences = this.memberGroupsCache.get(key);
+            Collection<String> groupNames;
+            if (sameWiki) {
+                groupNames =
+                    index.getGroups(prefixedFullName,
+                        this.localWikiEntityReferenceSerializer.serialize(memberReference), memberReference.getName());
+            } else {
+                groupNames = index.getGroups(prefixedFullName);
             }
 
-            if (groupReferences == null) {
-                List<String> groupNames;
-                try {
-                    Query query;
-                    if (memberReference.getWikiReference().getName().equals(context.getDatabase())
-                        || (memberReference.getLastSpaceReference().getName().equals("XWiki") && memberReference
-                            .getName().equals(XWikiRightService.GUEST_USER))) {
-                        query =
-                            context
-                                .getWiki()
-                                .getStore()
-                                .getQueryManager()
-                                .getNamedQuery("listGroupsForUser")
-                                .bindValue("username", prefixedFullName)
-                                .bindValue("shortname",
-                                    this.localWikiEntityReferenceSerializer.serialize(memberReference))
-                                .bindValue("veryshortname", memberReference.getName());
-                    } else {
-                        query =
-                            context.getWiki().getStore().getQueryManager()
-                                .getNamedQuery("listGroupsForUserInOtherWiki")
-                                .bindValue("prefixedmembername", prefixedFullName);
-                    }
-
-                    query.setOffset(offset);
-                    query.setLimit(limit);
-
-                    groupNames = query.execute();
-                } catch (QueryException ex) {
-                    throw new XWikiException(0, 0, ex.getMessage(), ex);
+            groupReferences = new HashSet<DocumentReference>(groupNames.size());
+            for (String groupName : groupNames) {
+                groupReferences.add(this.currentMixedDocumentReferenceResolver.resolve(groupName));
+            }
+        } else {
+            List<String> groupNames;
+            try {
+                Query query;
+                if (sameWiki) {
+                    query =
+                        context
+                            .getWiki()
+                            .getStore()
+                            .getQueryManager()
+                            .getNamedQuery("listGroupsForUser")
+                            .bindValue("username", prefixedFullName)
+                            .bindValue("shortname", this.localWikiEntityReferenceSerializer.serialize(memberReference))
+                            .bindValue("veryshortname", memberReference.getName());
+                } else {
+                    query =
+                        context.getWiki().getStore().getQueryManager().getNamedQuery("listGroupsForUserInOtherWiki")
+                            .bindValue("prefixedmembername", prefixedFullName);
                 }
 
-                groupReferences = new HashSet<DocumentReference>(groupNames.size());
-                for (String groupName : groupNames) {
-                    groupReferences.add(this.currentMixedDocumentReferenceResolver.resolve(groupName));
-                }
+                query.setOffset(offset);
+                query.setLimit(limit);
 
-                // If the 'XWiki.XWikiAllGroup' is implicit, all users/groups except XWikiGuest and XWikiAllGroup
-                // itself are part of it.
-                if (isAllGroupImplicit(context)
-                    && memberReference.getWikiReference().getName().equals(context.getDatabase())
-                    && !memberReference.getName().equals(XWikiRightService.GUEST_USER)) {
-                    DocumentReference currentXWikiAllGroup =
-                        new DocumentReference(context.getDatabase(), "XWiki", XWikiRightService.ALLGROUP_GROUP);
+                groupNames = query.execute();
+            } catch (QueryException ex) {
+                throw new XWikiException(0, 0, ex.getMessage(), ex);
+            }
 
-                    if (!currentXWikiAllGroup.equals(memberReference)) {
-                        groupReferences.add(currentXWikiAllGroup);
-                    }
-                }
+            groupReferences = new HashSet<DocumentReference>(groupNames.size());
+            for (String groupName : groupNames) {
+                groupReferences.add(this.currentMixedDocumentReferenceResolver.resolve(groupName));
+            }
+        }
 
-                if (supportCache) {
-                    this.memberGroupsCache.set(key, groupReferences);
-                }
+        // If the 'XWiki.XWikiAllGroup' is implicit, all users/groups except XWikiGuest and XWikiAllGroup
+        // itself are part of it.
+        if (isAllGroupImplicit(context) && memberReference.getWikiReference().getName().equals(context.getDatabase())
+            && !memberReference.getName().equals(XWikiRightService.GUEST_USER)) {
+            DocumentReference currentXWikiAllGroup =
+                new DocumentReference(context.getDatabase(), "XWiki", XWikiRightService.ALLGROUP_GROUP);
+
+            if (!currentXWikiAllGroup.equals(memberReference)) {
+                groupReferences.add(currentXWikiAllGroup);
             }
         }
 
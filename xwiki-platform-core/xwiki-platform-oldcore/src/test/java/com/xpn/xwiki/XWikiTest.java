@@ -27,6 +27,7 @@
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -59,6 +60,7 @@
 import com.xpn.xwiki.web.XWikiRequest;
 import com.xpn.xwiki.web.XWikiServletRequest;
 import com.xpn.xwiki.web.XWikiServletRequestStub;
+import com.xpn.xwiki.web.XWikiServletURLFactory;
 
 /**
  * Unit tests for {@link com.xpn.xwiki.XWiki}.
@@ -272,6 +274,56 @@ public void testParseTemplateConsidersObjectFieldBeforeAttachment() throws Excep
         assertEquals("parsing a field", this.xwiki.parseTemplate("template.vm", getContext()));
     }
 
+    public void testParseTemplateWhenSkinDocumentIsModified() throws XWikiException
+    {
+        DocumentReference skinReference = new DocumentReference("xwiki", "XWiki", "XWikiSkins");
+        XWikiDocument skinClass = new XWikiDocument(skinReference);
+        skinClass.getXClass().addTextAreaField("template.vm", "template", 80, 20);
+        this.xwiki.saveDocument(skinClass, getContext());
+
+        DocumentReference mySkinReference = new DocumentReference("xwiki", "XWiki", "Skin");
+        XWikiDocument skinDocument = new XWikiDocument(mySkinReference);
+        BaseObject obj = skinDocument.newXObject(skinReference, getContext());
+        obj.setLargeStringValue("template.vm", "parsing a field");
+        this.xwiki.saveDocument(skinDocument, getContext());
+
+        getContext().put("skin", "XWiki.Skin");
+        assertEquals("parsing a field", this.xwiki.parseTemplate("template.vm", getContext()));
+
+        // The cached template source must not be used anymore once the skin document is modified
+        skinDocument = this.xwiki.getDocument(mySkinReference, getContext());
+        skinDocument.getXObject(skinReference).setLargeStringValue("template.vm", "parsing a modified field");
+        this.xwiki.saveDocument(skinDocument, getContext());
+
+        assertEquals("parsing a modified field", this.xwiki.parseTemplate("template.vm", getContext()));
+    }
+
+    public void testGetSkinFileWhenSkinDocumentIsModified() throws Exception
+    {
+        getContext().setURLFactory(new XWikiServletURLFactory(new URL("http://localhost/"), "xwiki/", "bin/"));
+
+        DocumentReference skinReference = new DocumentReference("xwiki", "XWiki", "XWikiSkins");
+        XWikiDocument skinClass = new XWikiDocument(skinReference);
+        skinClass.getXClass().addTextAreaField("style.css", "style", 80, 20);
+        this.xwiki.saveDocument(skinClass, getContext());
+
+        DocumentReference mySkinReference = new DocumentReference("xwiki", "XWiki", "Skin");
+        XWikiDocument skinDocument = new XWikiDocument(mySkinReference);
+        BaseObject obj = skinDocument.newXObject(skinReference, getContext());
+        obj.setLargeStringValue("style.css", "a style");
+        this.xwiki.saveDocument(skinDocument, getContext());
+
+        assertTrue(this.xwiki.getSkinFile("style.css", "XWiki.Skin", getContext()).endsWith(
+            "/skin/XWiki/Skin/style.css"));
+
+        // The cached location of the skin file must not be used anymore once the skin document is modified
+        skinDocument = this.xwiki.getDocument(mySkinReference, getContext());
+        skinDocument.getXObject(skinReference).setLargeStringValue("style.css", "");
+        this.xwiki.saveDocument(skinDocument, getContext());
+
+        assertNull(this.xwiki.getSkinFile("style.css", "XWiki.Skin", getContext()));
+    }
+
     public void testClearNameWithoutStripDotsWithoutAscii()
     {
         assertEquals("ee{&.txt", this.xwiki.clearName("\u00E9\u00EA{&.txt", false, false, getContext()));
@@ -503,4 +555,46 @@ public Object invoke(Invocation invocation) throws Throwable
         xwiki.getPrefsClass(getContext());
         xwiki.getPrefsClass(getContext());
     }
+
+    public void testGetDocuments() throws XWikiException
+    {
+        final List<String> loadedWikis = new ArrayList<String>();
+        this.mockXWikiStore.stubs().method("loadXWikiDocs").will(
+            new CustomStub("Implements XWikiStoreInterface.loadXWikiDocs")
+            {
+                @Override
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    XWikiContext context = (XWikiContext) invocation.parameterValues.get(1);
+                    loadedWikis.add(context.getDatabase());
+
+                    List<XWikiDocument> documents = new ArrayList<XWikiDocument>();
+                    for (XWikiDocument shallowDoc : (List<XWikiDocument>) invocation.parameterValues.get(0)) {
+                        assertEquals(context.getDatabase(), shallowDoc.getDatabase());
+                        if (XWikiTest.this.docs.containsKey(shallowDoc.getName())) {
+                            documents.add(XWikiTest.this.docs.get(shallowDoc.getName()));
+                        } else {
+                            documents.add(shallowDoc);
+                        }
+                    }
+                    return documents;
+                }
+            });
+
+        DocumentReference otherWikiReference = new DocumentReference("OtherWiki", "Space", "Page");
+        DocumentReference missingReference = new DocumentReference("Wiki", "MilkyWay", "Missing");
+        String currentWiki = getContext().getDatabase();
+
+        List<XWikiDocument> documents =
+            this.xwiki.getDocuments(
+                Arrays.asList(otherWikiReference, this.document.getDocumentReference(), missingReference),
+                getContext());
+
+        assertEquals(3, documents.size());
+        assertEquals(otherWikiReference, documents.get(0).getDocumentReference());
+        assertSame(this.document, documents.get(1));
+        assertEquals(missingReference, documents.get(2).getDocumentReference());
+        assertEquals(Arrays.asList("OtherWiki", "Wiki"), loadedWikis);
+        assertEquals(currentWiki, getContext().getDatabase());
+    }
 }
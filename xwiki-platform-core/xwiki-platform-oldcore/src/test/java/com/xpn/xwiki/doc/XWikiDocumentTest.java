@@ -490,6 +490,56 @@ public void testCloneSaveVersions()
         assertEquals(doc1.getVersion(), doc2.getVersion());
     }
 
+    public void testCloneSharesParsedContent() throws XWikiException
+    {
+        getContext().setDoc(
+            new XWikiDocument(new DocumentReference("contextdocwiki", "contextdocspace", "contextdocpage")));
+
+        this.document.setContent("[[TargetPage]]");
+        this.document.setSyntax(Syntax.XWIKI_2_0);
+        // Parse the content before cloning
+        this.document.getXDOM();
+
+        XWikiDocument clone = this.document.clone();
+        assertNotSame(this.document.getXDOM(), clone.getXDOM());
+        assertEquals(this.document.getUniqueLinkedPages(getContext()), clone.getUniqueLinkedPages(getContext()));
+
+        // Modifying the content of the clone doesn't modify the original document
+        clone.setContent("[[OtherPage]]");
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("Space.OtherPage")),
+            clone.getUniqueLinkedPages(getContext()));
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("Space.TargetPage")),
+            this.document.getUniqueLinkedPages(getContext()));
+    }
+
+    public void testCloneSharesObjectsAndAttachmentsUntilAccessed() throws XWikiException
+    {
+        XWikiAttachment attachment = new XWikiAttachment(this.document, "file.txt");
+        attachment.setAuthor("XWiki.Admin");
+        this.document.getAttachmentList().add(attachment);
+
+        // The clone copies the objects and attachments when accessing them first
+        XWikiDocument clone = this.document.clone();
+        BaseObject clonedObject = clone.getXObject(CLASS_REFERENCE);
+        assertNotSame(this.baseObject, clonedObject);
+        clonedObject.setStringValue("string", "cloned");
+        assertSame(clone, clone.getAttachment("file.txt").getDoc());
+
+        // The original document keeps its objects and attachments without copying them again
+        assertSame(this.baseObject, this.document.getXObject(CLASS_REFERENCE));
+        assertEquals("string", this.baseObject.getStringValue("string"));
+        assertSame(attachment, this.document.getAttachment("file.txt"));
+        assertSame(this.document, attachment.getDoc());
+
+        // The original document copies them when accessing them first
+        XWikiDocument secondClone = this.document.clone();
+        this.document.getXObject(CLASS_REFERENCE).setStringValue("string", "modified");
+        assertNotSame(this.baseObject, this.document.getXObject(CLASS_REFERENCE));
+        assertSame(this.baseObject, secondClone.getXObject(CLASS_REFERENCE));
+        assertEquals("string", secondClone.getXObject(CLASS_REFERENCE).getStringValue("string"));
+        assertSame(secondClone, secondClone.getAttachment("file.txt").getDoc());
+    }
+
     public void testAddObject() throws XWikiException
     {
         XWikiDocument doc = new XWikiDocument(new DocumentReference("test", "test", "document"));
@@ -19,6 +19,8 @@
  */
 package com.xpn.xwiki.internal.cache;
 
+import java.util.Collections;
+
 import junit.framework.Assert;
 
 import org.jmock.Expectations;
@@ -101,4 +103,25 @@ public void testEventBasedCleanup() throws Exception
         Assert.assertNull(this.cache.get(this.document.getDocumentReference()));
         Assert.assertNull(this.cache.get(this.document.getDocumentReference(), "ext1", "ext2"));
     }
+
+    @Test
+    public void testSetSkippedWhenDocumentModifiedSinceGeneration() throws Exception
+    {
+        DocumentReference dependencyReference = new DocumentReference("wiki", "space", "dependency");
+        long generation = this.cache.getGeneration();
+
+        // A document is modified while the data is computed
+        getComponentManager().lookup(ObservationManager.class).notify(
+            new DocumentUpdatedEvent(this.document.getDocumentReference()), this.document, getContext());
+
+        this.cache.set("data", Collections.singletonList(dependencyReference), generation,
+            this.document.getDocumentReference());
+
+        Assert.assertNull(this.cache.get(this.document.getDocumentReference()));
+
+        this.cache.set("data", Collections.singletonList(dependencyReference), this.cache.getGeneration(),
+            this.document.getDocumentReference());
+
+        Assert.assertEquals("data", this.cache.get(this.document.getDocumentReference()));
+    }
 }
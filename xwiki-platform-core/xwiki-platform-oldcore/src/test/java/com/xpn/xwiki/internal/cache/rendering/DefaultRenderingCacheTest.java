@@ -119,4 +119,63 @@ public void testGetSetRenderedContent() throws Exception
         Assert.assertNull(this.renderingCache.getRenderedContent(this.document.getDocumentReference(), "source",
             getContext()));
     }
+
+    @Test
+    public void testInvalidateFragmentOnDependencyUpdate() throws Exception
+    {
+        getConfigurationSource().setProperty("core.renderingcache.documents", Collections.singletonList(".*"));
+
+        DocumentReference includingReference = this.document.getDocumentReference();
+        DocumentReference includedReference = new DocumentReference("wiki", "space", "included");
+        DocumentReference readReference = new DocumentReference("wiki", "space", "read");
+        final XWikiDocument readDocument = new XWikiDocument(readReference);
+
+        // The listeners notified of the update may load the updated document
+        // @formatter:off
+        getMockery().checking(new Expectations() {{
+            allowing(mockXWiki).getDocument(readDocument.getDocumentReference(), getContext());
+                will(returnValue(readDocument));
+        }});
+        //@formatter:on
+
+        // Render a document including another document which reads a third one
+        Assert.assertNull(this.renderingCache.getRenderedContent(includingReference, "including", getContext()));
+        Assert.assertNull(this.renderingCache.getRenderedContent(includedReference, "included", getContext()));
+        this.renderingCache.addDependency(readReference, getContext());
+        this.renderingCache.setRenderedContent(includedReference, "included", "renderedIncluded", getContext());
+        this.renderingCache.setRenderedContent(includingReference, "including", "renderedIncluding", getContext());
+
+        Assert.assertNull(getContext().get(RenderingCache.FRAGMENTS_CONTEXT_KEY));
+        Assert.assertEquals("renderedIncluding",
+            this.renderingCache.getRenderedContent(includingReference, "including", getContext()));
+        Assert.assertEquals("renderedIncluded",
+            this.renderingCache.getRenderedContent(includedReference, "included", getContext()));
+
+        // Modifying the document read by the included document invalidates both fragments
+        getComponentManager().lookup(ObservationManager.class).notify(new DocumentUpdatedEvent(readReference),
+            readDocument, getContext());
+
+        Assert.assertNull(this.renderingCache.getRenderedContent(includingReference, "including", getContext()));
+        Assert.assertNull(this.renderingCache.getRenderedContent(includedReference, "included", getContext()));
+    }
+
+    @Test
+    public void testFragmentNotCachedWhenDocumentModifiedDuringRendering() throws Exception
+    {
+        getConfigurationSource().setProperty("core.renderingcache.documents", Collections.singletonList(".*"));
+
+        DocumentReference documentReference = this.document.getDocumentReference();
+
+        Assert.assertNull(this.renderingCache.getRenderedContent(documentReference, "source", getContext()));
+        // The document is modified after the rendering read it
+        getComponentManager().lookup(ObservationManager.class).notify(new DocumentUpdatedEvent(documentReference),
+            this.document, getContext());
+        this.renderingCache.setRenderedContent(documentReference, "source", "renderedContent", getContext());
+
+        Assert.assertNull(this.renderingCache.getRenderedContent(documentReference, "source", getContext()));
+        this.renderingCache.setRenderedContent(documentReference, "source", "renderedContent", getContext());
+
+        Assert.assertEquals("renderedContent",
+            this.renderingCache.getRenderedContent(documentReference, "source", getContext()));
+    }
 }
@@ -0,0 +1,95 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.template;
+
+import java.io.StringWriter;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.runtime.log.NullLogChute;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link VelocityTemplate}.
+ * 
+ * @version $Id$
+ */
+public class VelocityTemplateTest
+{
+    private RuntimeInstance runtime;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.runtime = createRuntime();
+    }
+
+    private RuntimeInstance createRuntime() throws Exception
+    {
+        RuntimeInstance runtime = new RuntimeInstance();
+        runtime.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, NullLogChute.class.getName());
+        runtime.init();
+
+        return runtime;
+    }
+
+    private String merge(Template template, String name)
+    {
+        VelocityContext vcontext = new VelocityContext();
+        vcontext.put("name", name);
+
+        StringWriter writer = new StringWriter();
+        template.merge(vcontext, writer);
+
+        return writer.toString();
+    }
+
+    @Test
+    public void testTemplateIsParsedOncePerRuntime() throws Exception
+    {
+        VelocityTemplate velocityTemplate = new VelocityTemplate("#set($greeting = 'Hello')$greeting $name");
+
+        Template template = velocityTemplate.getTemplate(this.runtime, "");
+        Assert.assertSame(template, velocityTemplate.getTemplate(this.runtime, ""));
+
+        // The parsed template is rendered with each context
+        Assert.assertEquals("Hello World", merge(template, "World"));
+        Assert.assertEquals("Hello XWiki", merge(template, "XWiki"));
+
+        // Each Velocity Engine parses the template
+        Assert.assertNotSame(template, velocityTemplate.getTemplate(createRuntime(), ""));
+    }
+
+    @Test
+    public void testTemplateIsParsedAgainForAnotherName() throws Exception
+    {
+        VelocityTemplate velocityTemplate = new VelocityTemplate("$name");
+
+        Template template = velocityTemplate.getTemplate(this.runtime, "");
+        Template namedTemplate = velocityTemplate.getTemplate(this.runtime, "/templates/template.vm");
+
+        Assert.assertNotSame(template, namedTemplate);
+        Assert.assertEquals("/templates/template.vm", namedTemplate.getName());
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.stats.impl.xwiki;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.stats.impl.DocumentStats;
+import com.xpn.xwiki.stats.impl.StatsUtil.PeriodType;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+
+/**
+ * Unit tests for {@link XWikiStatsStoreService}.
+ * 
+ * @version $Id$
+ */
+public class XWikiStatsStoreServiceTest extends AbstractBridgedComponentTestCase
+{
+    private XWikiHibernateStore mockStore;
+
+    private XWikiStatsStoreService storeService;
+
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        final XWiki mockXWiki = getMockery().mock(XWiki.class);
+        this.mockStore = getMockery().mock(XWikiHibernateStore.class);
+
+        getMockery().checking(new Expectations() {{
+            allowing(mockXWiki).ParamAsLong("stats.queue.size", 200); will(returnValue(200L));
+            // Large enough for all the statistics of a test to be stored in the same batch
+            allowing(mockXWiki).ParamAsLong("xwiki.stats.store.interval", 1000); will(returnValue(500L));
+            allowing(mockXWiki).getHibernateStore(); will(returnValue(mockStore));
+
+            allowing(mockStore).getSession(with(any(XWikiContext.class)));
+            will(returnValue(getMockery().mock(Session.class)));
+            allowing(mockStore).getTransaction(with(any(XWikiContext.class)));
+            will(returnValue(getMockery().mock(Transaction.class)));
+            allowing(mockStore).setSession(with(any(Session.class)), with(any(XWikiContext.class)));
+            allowing(mockStore).setTransaction(with(any(Transaction.class)), with(any(XWikiContext.class)));
+            allowing(mockStore).checkHibernate(with(any(XWikiContext.class)));
+            allowing(mockStore).loadXWikiCollection(with(any(DocumentStats.class)), with(any(XWikiContext.class)),
+                with(equal(true)));
+        }});
+
+        getContext().setWiki(mockXWiki);
+
+        this.storeService = new XWikiStatsStoreService(getContext());
+    }
+
+    @Override
+    public void tearDown() throws Exception
+    {
+        this.storeService.stop();
+
+        super.tearDown();
+    }
+
+    /**
+     * When one of the statistics of a batch fails to be stored, the batch transaction is rolled back and each
+     * statistic is stored again in its own transaction.
+     */
+    @Test
+    public void testStoreBatchWithFailingItem() throws Exception
+    {
+        final List<String> savedStats = Collections.synchronizedList(new ArrayList<String>());
+
+        getMockery().checking(new Expectations() {{
+            oneOf(mockStore).beginTransaction(with(any(XWikiContext.class))); will(returnValue(true));
+
+            allowing(mockStore).saveXWikiCollection(with(any(DocumentStats.class)), with(any(XWikiContext.class)),
+                with(equal(true)));
+            will(new CustomAction("save the statistics")
+            {
+                @Override
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    String name = ((DocumentStats) invocation.getParameter(0)).getName();
+                    savedStats.add(name);
+                    if (name.equals("Space.Failing")) {
+                        throw new XWikiException();
+                    }
+                    return null;
+                }
+            });
+
+            // The batch transaction is rolled back, never committed
+            oneOf(mockStore).endTransaction(with(any(XWikiContext.class)), with(equal(false)));
+            never(mockStore).endTransaction(with(any(XWikiContext.class)), with(equal(true)));
+        }});
+
+        Date now = new Date();
+        this.storeService.add(new DocumentStatsStoreItem("Space.Page", now, PeriodType.MONTH, "view", false,
+            getContext()));
+        this.storeService.add(new DocumentStatsStoreItem("Space.Failing", now, PeriodType.MONTH, "view", false,
+            getContext()));
+        this.storeService.add(new DocumentStatsStoreItem("Space.Other", now, PeriodType.MONTH, "view", false,
+            getContext()));
+
+        this.storeService.start();
+        waitForFlush();
+
+        // The batch stops at the failing statistic, then all the statistics are stored separately
+        Assert.assertEquals(Arrays.asList("Space.Page", "Space.Failing", "Space.Page", "Space.Failing", "Space.Other"),
+            savedStats);
+        Assert.assertEquals(3, this.storeService.getStoredItems());
+    }
+
+    /**
+     * When all the statistics of a batch are stored, the batch transaction is committed once.
+     */
+    @Test
+    public void testStoreBatch() throws Exception
+    {
+        final List<String> savedStats = Collections.synchronizedList(new ArrayList<String>());
+
+        getMockery().checking(new Expectations() {{
+            oneOf(mockStore).beginTransaction(with(any(XWikiContext.class))); will(returnValue(true));
+
+            allowing(mockStore).saveXWikiCollection(with(any(DocumentStats.class)), with(any(XWikiContext.class)),
+                with(equal(true)));
+            will(new CustomAction("save the statistics")
+            {
+                @Override
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    savedStats.add(((DocumentStats) invocation.getParameter(0)).getName());
+                    return null;
+                }
+            });
+
+            oneOf(mockStore).endTransaction(with(any(XWikiContext.class)), with(equal(true)));
+        }});
+
+        Date now = new Date();
+        this.storeService.add(new DocumentStatsStoreItem("Space.Page", now, PeriodType.MONTH, "view", false,
+            getContext()));
+        this.storeService.add(new DocumentStatsStoreItem("Space.Page", now, PeriodType.MONTH, "view", true,
+            getContext()));
+        this.storeService.add(new DocumentStatsStoreItem("Space.Other", now, PeriodType.MONTH, "view", false,
+            getContext()));
+
+        this.storeService.start();
+        waitForFlush();
+
+        // The statistics with the same identifier are merged
+        Assert.assertEquals(Arrays.asList("Space.Page", "Space.Other"), savedStats);
+        Assert.assertEquals(1, this.storeService.getMergedItems());
+    }
+
+    private void waitForFlush() throws InterruptedException
+    {
+        long timeout = System.currentTimeMillis() + 10000;
+        while (this.storeService.getFlushCount() == 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+
+        Assert.assertEquals(1, this.storeService.getFlushCount());
+    }
+}
@@ -19,13 +19,37 @@
  */
 package com.xpn.xwiki.store;
 
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiConfig;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.IntegerProperty;
+import com.xpn.xwiki.objects.LargeStringProperty;
+import com.xpn.xwiki.objects.StringProperty;
+import com.xpn.xwiki.objects.classes.BaseClass;
 import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+import org.hibernate.EntityMode;
+import org.hibernate.FlushMode;
 import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
 import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
 import org.junit.Assert;
+import org.xwiki.model.reference.DocumentReference;
 
+import java.io.Serializable;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Unit tests for the {@link XWikiHibernateStore} class.
@@ -91,4 +115,206 @@ public void testEndTransactionWhenSQLBatchUpdateExceptionThrown() throws Excepti
                 + "SQL next exception = [java.sql.SQLException: nextexception2]]", e.getMessage());
         }
     }
+
+    /**
+     * Load a document whose objects mix property types: one object uses the generic property tables and one object
+     * uses a custom mapping. One of the generic properties is stored as a LargeString while its class declares a
+     * String.
+     */
+    @org.junit.Test
+    public void testLoadXWikiDocsWithMixedPropertyTypes() throws Exception
+    {
+        final DocumentReference documentReference = new DocumentReference("xwiki", "Space", "Page");
+        final DocumentReference genericClassReference = new DocumentReference("xwiki", "Space", "GenericClass");
+        final DocumentReference mappedClassReference = new DocumentReference("xwiki", "Space", "MappedClass");
+
+        final BaseClass genericClass = new BaseClass();
+        genericClass.setDocumentReference(genericClassReference);
+        genericClass.addTextField("string", "String", 30);
+        genericClass.addNumberField("number", "Number", 10, "integer");
+        genericClass.addTextAreaField("text", "Text", 40, 5);
+        genericClass.addTextField("mismatch", "Mismatch", 30);
+
+        final BaseClass mappedClass = new BaseClass();
+        mappedClass.setDocumentReference(mappedClassReference);
+        mappedClass.setCustomMapping("internal");
+        mappedClass.addTextField("mapped", "Mapped", 30);
+
+        final XWiki mockXWiki = getMockery().mock(XWiki.class);
+        final XWikiStoreInterface mockMappingStore = getMockery().mock(XWikiStoreInterface.class);
+        getMockery().checking(new Expectations() {{
+            allowing(mockXWiki).getConfig(); will(returnValue(new XWikiConfig()));
+            allowing(mockXWiki).getPlugin("monitor", getContext()); will(returnValue(null));
+            allowing(mockXWiki).hasDynamicCustomMappings(); will(returnValue(false));
+            allowing(mockXWiki).hasCustomMappings(); will(returnValue(true));
+            allowing(mockXWiki).getXClass(genericClassReference, getContext()); will(returnValue(genericClass));
+            allowing(mockXWiki).getXClass(mappedClassReference, getContext()); will(returnValue(mappedClass));
+            allowing(mockXWiki).getStore(); will(returnValue(mockMappingStore));
+            allowing(mockMappingStore).getCustomMappingPropertyList(mappedClass);
+            will(returnValue(new ArrayList<String>(Arrays.asList("mapped"))));
+        }});
+        getContext().setWiki(mockXWiki);
+
+        XWikiHibernateStore store =
+            (XWikiHibernateStore) getComponentManager().lookup(XWikiStoreInterface.class, "hibernate");
+
+        // Use an already opened session so that the store does not open a new one
+        final Session mockSession = getMockery().mock(Session.class);
+        final Session mockDynamicSession = getMockery().mock(Session.class, "dynamicSession");
+        store.setSessionFactory(getMockery().mock(SessionFactory.class));
+        store.setSession(mockSession, getContext());
+        store.setTransaction(getMockery().mock(Transaction.class), getContext());
+
+        final XWikiDocument storedDocument = new XWikiDocument(documentReference);
+        storedDocument.setElements(XWikiDocument.HAS_OBJECTS);
+
+        BaseObject storedGenericObject = new BaseObject();
+        storedGenericObject.setDocumentReference(documentReference);
+        storedGenericObject.setXClassReference(genericClassReference);
+        storedGenericObject.setNumber(0);
+        final long genericId = storedGenericObject.getId();
+
+        BaseObject storedMappedObject = new BaseObject();
+        storedMappedObject.setDocumentReference(documentReference);
+        storedMappedObject.setXClassReference(mappedClassReference);
+        storedMappedObject.setNumber(0);
+        final long mappedId = storedMappedObject.getId();
+
+        final List<BaseObject> storedObjects = Arrays.asList(storedGenericObject, storedMappedObject);
+
+        final List<Object[]> propertyTypes = Arrays.asList(
+            new Object[] {genericId, "string", StringProperty.class.getName()},
+            new Object[] {genericId, "number", IntegerProperty.class.getName()},
+            new Object[] {genericId, "text", LargeStringProperty.class.getName()},
+            new Object[] {genericId, "mismatch", StringProperty.class.getName()},
+            new Object[] {mappedId, "mapped", StringProperty.class.getName()});
+
+        final Map<String, Object> mappedValues = new HashMap<String, Object>();
+        mappedValues.put("mapped", "mapped value");
+
+        final Query documentsQuery = getMockery().mock(Query.class, "documents");
+        final Query objectsQuery = getMockery().mock(Query.class, "objects");
+        final Query propertyTypesQuery = getMockery().mock(Query.class, "propertyTypes");
+        final Query stringsQuery = getMockery().mock(Query.class, "strings");
+        final Query integersQuery = getMockery().mock(Query.class, "integers");
+        final Query largeStringsQuery = getMockery().mock(Query.class, "largeStrings");
+        final Query mappedPropertiesQuery = getMockery().mock(Query.class, "mappedProperties");
+
+        getMockery().checking(new Expectations() {{
+            allowing(mockSession).setFlushMode(with(any(FlushMode.class)));
+
+            allowing(documentsQuery).setParameterList(with(any(String.class)), with(any(Collection.class)));
+            allowing(objectsQuery).setParameterList(with(any(String.class)), with(any(Collection.class)));
+            allowing(propertyTypesQuery).setParameterList(with(any(String.class)),
+                with(any(Collection.class)));
+            allowing(stringsQuery).setParameterList(with(any(String.class)), with(any(Collection.class)));
+            allowing(stringsQuery).setText("classType", StringProperty.class.getName());
+            allowing(integersQuery).setParameterList(with(any(String.class)), with(any(Collection.class)));
+            allowing(integersQuery).setText("classType", IntegerProperty.class.getName());
+            allowing(largeStringsQuery).setParameterList(with(any(String.class)),
+                with(any(Collection.class)));
+            allowing(largeStringsQuery).setText("classType", LargeStringProperty.class.getName());
+            allowing(mappedPropertiesQuery).setLong("id", mappedId);
+
+            oneOf(mockSession).createQuery("from XWikiDocument as doc where doc.id in (:ids)");
+            will(returnValue(documentsQuery));
+            oneOf(documentsQuery).list(); will(returnValue(Collections.singletonList(storedDocument)));
+
+            oneOf(mockSession).createQuery("from BaseObject as bobject where bobject.name in (:names) order by "
+                + "bobject.number");
+            will(returnValue(objectsQuery));
+            oneOf(objectsQuery).list(); will(returnValue(storedObjects));
+
+            // The object with a custom mapping is loaded on its own
+            oneOf(mockSession).getSession(EntityMode.MAP); will(returnValue(mockDynamicSession));
+            oneOf(mockDynamicSession).load("Space.MappedClass", mappedId); will(returnValue(mappedValues));
+            oneOf(mockSession).createQuery("select prop.name, prop.classType from BaseProperty as prop where "
+                + "prop.id.id = :id");
+            will(returnValue(mappedPropertiesQuery));
+            oneOf(mappedPropertiesQuery).list();
+            will(returnValue(Collections.singletonList(new Object[] {"mapped", StringProperty.class.getName()})));
+
+            // The other objects are loaded with one query listing the properties and one query per property type
+            oneOf(mockSession).createQuery("select prop.id.id, prop.id.name, prop.classType from BaseProperty as "
+                + "prop, BaseObject as bobject where bobject.name in (:names) and bobject.id = prop.id.id");
+            will(returnValue(propertyTypesQuery));
+            oneOf(propertyTypesQuery).list(); will(returnValue(propertyTypes));
+
+            oneOf(mockSession).createQuery(getPropertiesQuery(StringProperty.class));
+            will(returnValue(stringsQuery));
+            oneOf(stringsQuery).list(); will(returnValue(Collections.singletonList(newStringProperty(genericId))));
+
+            oneOf(mockSession).createQuery(getPropertiesQuery(IntegerProperty.class));
+            will(returnValue(integersQuery));
+            oneOf(integersQuery).list(); will(returnValue(Collections.singletonList(newIntegerProperty(genericId))));
+
+            oneOf(mockSession).createQuery(getPropertiesQuery(LargeStringProperty.class));
+            will(returnValue(largeStringsQuery));
+            oneOf(largeStringsQuery).list();
+            will(returnValue(Collections.singletonList(newLargeStringProperty(genericId, "text", "text value"))));
+
+            // The String property stored as a LargeString is not found in the String table, it's loaded on its own
+            oneOf(mockSession).load(with(any(StringProperty.class)), with(any(Serializable.class)));
+            will(throwException(new HibernateException("Not a string")));
+            oneOf(mockSession).load(with(any(LargeStringProperty.class)), with(any(Serializable.class)));
+            will(new CustomAction("load the large string")
+            {
+                @Override
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    ((LargeStringProperty) invocation.getParameter(0)).setValue("large value");
+                    return null;
+                }
+            });
+        }});
+
+        XWikiDocument document = new XWikiDocument(documentReference);
+        List<XWikiDocument> documents = store.loadXWikiDocs(Collections.singletonList(document), getContext());
+
+        Assert.assertEquals(1, documents.size());
+        XWikiDocument loadedDocument = documents.get(0);
+
+        BaseObject genericObject = loadedDocument.getXObject(genericClassReference);
+        Assert.assertEquals("string value", genericObject.getStringValue("string"));
+        Assert.assertEquals(42, genericObject.getIntValue("number"));
+        Assert.assertEquals("text value", genericObject.getLargeStringValue("text"));
+        Assert.assertTrue(genericObject.get("mismatch") instanceof StringProperty);
+        Assert.assertEquals("large value", genericObject.getStringValue("mismatch"));
+
+        BaseObject mappedObject = loadedDocument.getXObject(mappedClassReference);
+        Assert.assertEquals("mapped value", mappedObject.getStringValue("mapped"));
+    }
+
+    private String getPropertiesQuery(Class< ? > propertyClass)
+    {
+        return "select prop from " + propertyClass.getName() + " as prop, BaseObject as bobject where bobject.name in "
+            + "(:names) and bobject.id = prop.id.id and prop.classType = :classType";
+    }
+
+    private StringProperty newStringProperty(long id)
+    {
+        StringProperty property = new StringProperty();
+        property.setId(id);
+        property.setName("string");
+        property.setValue("string value");
+        return property;
+    }
+
+    private IntegerProperty newIntegerProperty(long id)
+    {
+        IntegerProperty property = new IntegerProperty();
+        property.setId(id);
+        property.setName("number");
+        property.setValue(42);
+        return property;
+    }
+
+    private LargeStringProperty newLargeStringProperty(long id, String name, String value)
+    {
+        LargeStringProperty property = new LargeStringProperty();
+        property.setId(id);
+        property.setName(name);
+        property.setValue(value);
+        return property;
+    }
 }
@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.user.impl.xwiki;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link GroupMembershipIndex}.
+ *
+ * @version $Id$
+ */
+public class GroupMembershipIndexTest
+{
+    @Test
+    public void testGetGroups()
+    {
+        GroupMembershipIndex index = new GroupMembershipIndex();
+        index.addMember("XWiki.Group1", "XWiki.User");
+        index.addMember("XWiki.Group2", "User");
+        index.addMember("XWiki.Group3", "otherwiki:XWiki.User");
+
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("XWiki.Group1", "XWiki.Group2")),
+            index.getGroups("wiki:XWiki.User", "XWiki.User", "User"));
+        Assert.assertEquals(Collections.singleton("XWiki.Group3"), index.getGroups("otherwiki:XWiki.User"));
+        Assert.assertTrue(index.getGroups("XWiki.Unknown").isEmpty());
+    }
+
+    @Test
+    public void testSetMembers()
+    {
+        GroupMembershipIndex index = new GroupMembershipIndex();
+        index.addMember("XWiki.Group", "XWiki.User1");
+        index.addMember("XWiki.Group", "XWiki.User2");
+        index.addMember("XWiki.OtherGroup", "XWiki.User2");
+
+        index.setMembers("XWiki.Group", Arrays.asList("XWiki.User2", "XWiki.User3"));
+
+        Assert.assertTrue(index.getGroups("XWiki.User1").isEmpty());
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("XWiki.Group", "XWiki.OtherGroup")),
+            index.getGroups("XWiki.User2"));
+        Assert.assertEquals(Collections.singleton("XWiki.Group"), index.getGroups("XWiki.User3"));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("XWiki.User2", "XWiki.User3")),
+            index.getMembers("XWiki.Group"));
+
+        // Deleted group
+        index.setMembers("XWiki.Group", Collections.<String> emptyList());
+
+        Assert.assertTrue(index.getMembers("XWiki.Group").isEmpty());
+        Assert.assertEquals(Collections.singleton("XWiki.OtherGroup"), index.getGroups("XWiki.User2"));
+        Assert.assertTrue(index.getGroups("XWiki.User3").isEmpty());
+    }
+
+    @Test
+    public void testCaseSensitive()
+    {
+        GroupMembershipIndex index = new GroupMembershipIndex();
+        index.addMember("XWiki.AdminGroup", "XWiki.Admin");
+        index.addMember("XWiki.Group", "XWiki.user");
+        index.addMember("XWiki.GROUP", "XWiki.OtherUser");
+
+        // A user whose name differs only by its case is another user
+        Assert.assertTrue(index.getGroups("XWiki.admin").isEmpty());
+        Assert.assertEquals(Collections.singleton("XWiki.Group"), index.getGroups("XWiki.user"));
+        Assert.assertTrue(index.getGroups("XWiki.User").isEmpty());
+
+        // Groups differing only by their case don't share their members
+        Assert.assertEquals(Collections.singleton("XWiki.user"), index.getMembers("XWiki.Group"));
+        Assert.assertEquals(Collections.singleton("XWiki.OtherUser"), index.getMembers("XWiki.GROUP"));
+        Assert.assertTrue(index.getMembers("xwiki.group").isEmpty());
+
+        index.setMembers("XWiki.GROUP", Collections.<String> emptyList());
+
+        Assert.assertEquals(Collections.singleton("XWiki.Group"), index.getGroups("XWiki.user"));
+        Assert.assertTrue(index.getGroups("XWiki.OtherUser").isEmpty());
+    }
+}
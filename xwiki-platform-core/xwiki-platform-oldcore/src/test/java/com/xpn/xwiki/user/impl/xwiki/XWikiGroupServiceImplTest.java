@@ -20,17 +20,23 @@
 package com.xpn.xwiki.user.impl.xwiki;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 
 import org.jmock.Mock;
 import org.jmock.core.Invocation;
 import org.jmock.core.stub.CustomStub;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.store.XWikiStoreInterface;
 import com.xpn.xwiki.test.AbstractBridgedXWikiComponentTestCase;
 
 public class XWikiGroupServiceImplTest extends AbstractBridgedXWikiComponentTestCase
@@ -97,6 +103,19 @@ public Object invoke(Invocation invocation) throws Throwable
             returnValue(this.group));
         this.mockXWiki.stubs().method("getDocument").with(eq(this.group.getFullName()), ANYTHING).will(
             returnValue(this.group));
+
+        this.mockXWiki.stubs().method("ParamAsLong").will(returnValue(0L));
+
+        // The group members of the wiki are loaded only once, the index is then updated by the group modifications
+        Mock mockQuery = mock(Query.class);
+        mockQuery.stubs().method("setWiki").with(eq(this.group.getWikiName())).will(returnValue(mockQuery.proxy()));
+        mockQuery.stubs().method("execute").will(
+            returnValue(Collections.singletonList(new Object[] {this.group.getFullName(), this.user.getFullName()})));
+        Mock mockQueryManager = mock(QueryManager.class);
+        mockQueryManager.expects(atMostOnce()).method("createQuery").will(returnValue(mockQuery.proxy()));
+        Mock mockStore = mock(XWikiStoreInterface.class);
+        mockStore.stubs().method("getQueryManager").will(returnValue(mockQueryManager.proxy()));
+        this.mockXWiki.stubs().method("getStore").will(returnValue(mockStore.proxy()));
     }
 
     public void testListMemberForGroup() throws XWikiException
@@ -109,4 +128,63 @@ public void testListMemberForGroup() throws XWikiException
         assertEquals(new HashSet<String>(Arrays.asList(this.userWithSpaces.getFullName())), new HashSet<String>(this.groupService
             .listMemberForGroup(this.group.getFullName(), getContext())));
     }
+
+    public void testListGroupsForUser() throws XWikiException
+    {
+        assertEquals(Collections.singleton(this.group.getFullName()), new HashSet<String>(this.groupService
+            .listGroupsForUser(this.user.getPrefixedFullName(), getContext())));
+        assertEquals(Collections.emptySet(), new HashSet<String>(this.groupService.listGroupsForUser(
+            this.userWithSpaces.getPrefixedFullName(), getContext())));
+    }
+
+    public void testOnEventWhenGroupIsSaved() throws XWikiException
+    {
+        // Load the index
+        this.groupService.listGroupsForUser(this.user.getPrefixedFullName(), getContext());
+
+        XWikiDocument newGroup = new XWikiDocument(new DocumentReference("wiki", "XWiki", "newgroup"));
+        BaseObject newGroupObject = new BaseObject();
+        newGroupObject.setClassName("XWiki.XWikiGroups");
+        newGroupObject.setStringValue("member", this.user.getFullName());
+        newGroup.addXObject(newGroupObject);
+        this.groupService.onEvent(new DocumentUpdatedEvent(newGroup.getDocumentReference()), newGroup, getContext());
+
+        assertEquals(new HashSet<String>(Arrays.asList(this.group.getFullName(), newGroup.getFullName())),
+            new HashSet<String>(this.groupService.listGroupsForUser(this.user.getPrefixedFullName(), getContext())));
+
+        // Replace the member of the group
+        this.groupObject.setStringValue("member", this.userWithSpaces.getFullName());
+        this.groupService.onEvent(new DocumentUpdatedEvent(this.group.getDocumentReference()), this.group,
+            getContext());
+
+        assertEquals(Collections.singleton(newGroup.getFullName()), new HashSet<String>(this.groupService
+            .listGroupsForUser(this.user.getPrefixedFullName(), getContext())));
+        assertEquals(Collections.singleton(this.group.getFullName()), new HashSet<String>(this.groupService
+            .listGroupsForUser(this.userWithSpaces.getPrefixedFullName(), getContext())));
+    }
+
+    public void testOnEventWhenGroupIsDeleted() throws XWikiException
+    {
+        // Load the index
+        this.groupService.listGroupsForUser(this.user.getPrefixedFullName(), getContext());
+
+        XWikiDocument deletedGroup = new XWikiDocument(this.group.getDocumentReference());
+        deletedGroup.setOriginalDocument(this.group);
+        this.groupService.onEvent(new DocumentDeletedEvent(deletedGroup.getDocumentReference()), deletedGroup,
+            getContext());
+
+        assertEquals(Collections.emptySet(), new HashSet<String>(this.groupService.listGroupsForUser(
+            this.user.getPrefixedFullName(), getContext())));
+    }
+
+    public void testAddUserToGroup() throws XWikiException
+    {
+        this.groupService.addUserToGroup(this.userWithSpaces.getPrefixedFullName(), this.group.getWikiName(),
+            this.group.getFullName(), getContext());
+
+        assertEquals(Collections.singleton(this.group.getFullName()), new HashSet<String>(this.groupService
+            .listGroupsForUser(this.userWithSpaces.getPrefixedFullName(), getContext())));
+        assertEquals(Collections.singleton(this.group.getFullName()), new HashSet<String>(this.groupService
+            .listGroupsForUser(this.user.getPrefixedFullName(), getContext())));
+    }
 }
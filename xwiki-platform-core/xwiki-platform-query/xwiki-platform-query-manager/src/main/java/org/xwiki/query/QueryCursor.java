@@ -0,0 +1,42 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.query;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Iterator over the results of a query which are fetched from the store as they are needed, instead of being all
+ * loaded in memory. The cursor keeps some store resources (e.g. a database connection) open until it's closed, so it
+ * must always be closed, which is done automatically when the last result has been read.
+ *
+ * @param <T> expected type of the results. If several fields are selected then T=Object[].
+ * @version $Id$
+ * @see StreamingQuery#iterate()
+ * @since 4.0M1
+ */
+public interface QueryCursor<T> extends Iterator<T>, Closeable
+{
+    /**
+     * Release the store resources used by the cursor. Does nothing if the cursor is already closed.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,58 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.query;
+
+/**
+ * {@link Query} whose results can be fetched from the store as they are read, instead of being all loaded in memory.
+ * Check if a query supports it with {@code instanceof}.
+ *
+ * @version $Id$
+ * @since 4.0M1
+ */
+public interface StreamingQuery extends Query
+{
+    /**
+     * @param fetchSize number of results fetched at once from the store by {@link #iterate()}, 0 to use the default
+     *            of the store. Note that some JDBC drivers ignore it unless configured otherwise (e.g. MySQL
+     *            Connector/J requires {@code useCursorFetch=true} in the connection URL).
+     * @return this query.
+     */
+    StreamingQuery setFetchSize(int fetchSize);
+
+    /**
+     * @return number of results fetched at once from the store by {@link #iterate()}.
+     * @see #setFetchSize(int)
+     */
+    int getFetchSize();
+
+    /**
+     * Execute the query without loading all its results in memory: they are fetched from the store as they are read,
+     * which is the way to go for queries returning a lot of results (exports, index rebuilds, migrations...). The
+     * returned cursor must be closed, which is done automatically once all the results have been read.
+     * <p>
+     * Not available to scripts, since a cursor left open would keep a database connection.
+     * </p>
+     *
+     * @param <T> expected type of the results. If several fields are selected then T=Object[].
+     * @return a cursor over the results of the query.
+     * @throws QueryException if something goes wrong.
+     */
+    <T> QueryCursor<T> iterate() throws QueryException;
+}
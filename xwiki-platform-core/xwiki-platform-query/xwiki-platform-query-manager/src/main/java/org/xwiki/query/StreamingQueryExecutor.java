@@ -0,0 +1,42 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.query;
+
+import org.xwiki.component.annotation.ComponentRole;
+
+/**
+ * {@link QueryExecutor} able to fetch the results of a query from the store as they are read.
+ *
+ * @version $Id$
+ * @see StreamingQuery#iterate()
+ * @since 4.0M1
+ */
+@ComponentRole
+public interface StreamingQueryExecutor extends QueryExecutor
+{
+    /**
+     * @param <T> expected type of the results
+     * @param query query to execute
+     * @return a cursor over the results of the query, which must be closed
+     * @throws QueryException if something goes wrong
+     * @see StreamingQuery#iterate()
+     */
+    <T> QueryCursor<T> iterate(Query query) throws QueryException;
+}
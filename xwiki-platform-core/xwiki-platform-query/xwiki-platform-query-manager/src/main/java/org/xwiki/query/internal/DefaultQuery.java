@@ -24,8 +24,11 @@
 import java.util.Map;
 
 import org.xwiki.query.Query;
+import org.xwiki.query.QueryCursor;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryExecutor;
+import org.xwiki.query.StreamingQuery;
+import org.xwiki.query.StreamingQueryExecutor;
 
 /**
  * Stores all information needed for execute a query.
@@ -33,7 +36,7 @@
  * @version $Id$
  * @since 1.6M1
  */
-public class DefaultQuery implements Query
+public class DefaultQuery implements StreamingQuery
 {
     /**
      * field for {@link Query#getStatement()}.
@@ -70,6 +73,11 @@ public class DefaultQuery implements Query
      */
     private int offset;
 
+    /**
+     * field for {@link StreamingQuery#setFetchSize(int)}.
+     */
+    private int fetchSize;
+
     /**
      * field for {@link #isNamed()}.
      */
@@ -188,6 +196,19 @@ public Query setOffset(int offset)
         return this;
     }
 
+    @Override
+    public int getFetchSize()
+    {
+        return fetchSize;
+    }
+
+    @Override
+    public StreamingQuery setFetchSize(int fetchSize)
+    {
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
     @Override
     public Map<String, Object> getNamedParameters()
     {
@@ -206,6 +227,17 @@ public <T> List<T> execute() throws QueryException
         return getExecuter().execute(this);
     }
 
+    @Override
+    public <T> QueryCursor<T> iterate() throws QueryException
+    {
+        QueryExecutor executor = getExecuter();
+        if (executor instanceof StreamingQueryExecutor) {
+            return ((StreamingQueryExecutor) executor).iterate(this);
+        }
+
+        return new ListQueryCursor<T>(executor.<T> execute(this));
+    }
+
     /**
      * @return QueryExecutor interface for execute the query.
      */
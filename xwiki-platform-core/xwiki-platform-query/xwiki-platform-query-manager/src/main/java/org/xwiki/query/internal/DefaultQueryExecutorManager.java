@@ -30,9 +30,11 @@
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.query.Query;
+import org.xwiki.query.QueryCursor;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryExecutor;
 import org.xwiki.query.QueryExecutorManager;
+import org.xwiki.query.StreamingQueryExecutor;
 
 /**
  * Default implementation of {@link QueryExecutorManager}.
@@ -44,7 +46,7 @@
 // to users as a valid QueryExecutor component.
 @Component(roles = { QueryExecutorManager.class })
 @Singleton
-public class DefaultQueryExecutorManager implements QueryExecutorManager
+public class DefaultQueryExecutorManager implements QueryExecutorManager, StreamingQueryExecutor
 {
     /**
      * Map from language to its executor.
@@ -61,11 +63,32 @@ public class DefaultQueryExecutorManager implements QueryExecutorManager
 
     @Override
     public <T> List<T> execute(Query query) throws QueryException
+    {
+        return getExecutor(query).execute(query);
+    }
+
+    @Override
+    public <T> QueryCursor<T> iterate(Query query) throws QueryException
+    {
+        QueryExecutor executor = getExecutor(query);
+        if (executor instanceof StreamingQueryExecutor) {
+            return ((StreamingQueryExecutor) executor).iterate(query);
+        }
+
+        // The executor can't stream the results, fall back on loading them all
+        return new ListQueryCursor<T>(executor.<T> execute(query));
+    }
+
+    /**
+     * @param query the query to execute
+     * @return the executor of the query
+     */
+    private QueryExecutor getExecutor(Query query)
     {
         if (query.isNamed()) {
-            return this.namedQueryExecutorProvider.get().execute(query);
+            return this.namedQueryExecutorProvider.get();
         } else {
-            return this.executors.get(query.getLanguage()).execute(query);
+            return this.executors.get(query.getLanguage());
         }
     }
 
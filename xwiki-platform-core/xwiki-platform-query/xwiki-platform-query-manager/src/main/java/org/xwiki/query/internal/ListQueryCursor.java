@@ -0,0 +1,77 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.query.internal;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.xwiki.query.QueryCursor;
+
+/**
+ * {@link QueryCursor} over results already loaded in memory, used when the executor of a query can't fetch its results
+ * as they are read.
+ *
+ * @param <T> the type of the results
+ * @version $Id$
+ * @since 4.0M1
+ */
+public class ListQueryCursor<T> implements QueryCursor<T>
+{
+    /**
+     * The results not read yet, null once the cursor is closed.
+     */
+    private Iterator<T> results;
+
+    /**
+     * @param results the results of the query
+     */
+    public ListQueryCursor(List<T> results)
+    {
+        this.results = results.iterator();
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        return this.results != null && this.results.hasNext();
+    }
+
+    @Override
+    public T next()
+    {
+        if (this.results == null) {
+            throw new IllegalStateException("The cursor is closed");
+        }
+
+        return this.results.next();
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close()
+    {
+        this.results = null;
+    }
+}
@@ -29,8 +29,10 @@
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.query.Query;
+import org.xwiki.query.QueryCursor;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryExecutorManager;
+import org.xwiki.query.StreamingQueryExecutor;
 
 /**
  * {@link QueryExecutorManager} with access rights checking.
@@ -43,7 +45,7 @@
 @Component(roles = { QueryExecutorManager.class })
 @Named("secure")
 @Singleton
-public class SecureQueryExecutorManager implements QueryExecutorManager
+public class SecureQueryExecutorManager implements QueryExecutorManager, StreamingQueryExecutor
 {
     /**
      * Nested {@link QueryExecutorManager}.
@@ -59,6 +61,30 @@ public class SecureQueryExecutorManager implements QueryExecutorManager
 
     @Override
     public <T> List<T> execute(Query query) throws QueryException
+    {
+        checkAllowed(query);
+
+        return getNestedQueryExecutorManager().execute(query);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Streaming is refused: nothing guarantees that a script closes the cursor, which would keep a database connection
+     * open. Scripts have to use {@link Query#execute()} with a limit.
+     * </p>
+     */
+    @Override
+    public <T> QueryCursor<T> iterate(Query query) throws QueryException
+    {
+        throw new QueryException("Query#iterate is not allowed from scripts", query, null);
+    }
+
+    /**
+     * @param query the query to execute
+     * @throws QueryException if the current user is not allowed to execute the query
+     */
+    private void checkAllowed(Query query) throws QueryException
     {
         if (query.getWiki() != null && !getBridge().hasProgrammingRights()) {
             throw new QueryException("Query#setWiki requires programming right", query, null);
@@ -75,7 +101,6 @@ public <T> List<T> execute(Query query) throws QueryException
         if (query.getStatement().trim().toLowerCase().startsWith("select") && !getBridge().hasProgrammingRights()) {
             throw new QueryException("Full form XWQL statements requires programming right", query, null);
         }
-        return getNestedQueryExecutorManager().execute(query);
     }
 
     @Override
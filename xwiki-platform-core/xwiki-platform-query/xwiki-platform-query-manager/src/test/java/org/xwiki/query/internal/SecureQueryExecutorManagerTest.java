@@ -114,7 +114,22 @@ public void testWithoutProgrammingRight() throws QueryException
         }
     }
 
-    private Query createQuery(String stmt, String lang)
+    @Test
+    public void testIterateIsRefused() throws QueryException
+    {
+        getMockery().checking(new Expectations() {{
+            allowing(dab).hasProgrammingRights();
+                will(returnValue(true));
+        }});
+
+        try {
+            createQuery("where doc.space='WebHome'", "xwql").iterate();
+            fail("streaming not allowed from scripts since the cursor could be left open");
+        } catch (QueryException expected) {
+        }
+    }
+
+    private DefaultQuery createQuery(String stmt, String lang)
     {
         return new DefaultQuery(stmt, lang, this.qem);
     }
@@ -0,0 +1,296 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.query.xwql.internal;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded cache of translated statements, keyed by wiki and statement, so that the statements executed again and again
+ * (livetables, REST resources...) are parsed and translated only once. The translation depends on the definition of
+ * the classes used in the statement, so the translations using a class are removed when it's modified.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+public class TranslationCache
+{
+    /**
+     * Separates the wiki from the statement in the cache keys, and the wiki from the class full names.
+     */
+    public static final char WIKI_SEPARATOR = ':';
+
+    /**
+     * The number of generations the classes are spread over.
+     */
+    private static final int GENERATION_STRIPES = 256;
+
+    /**
+     * The translations, in access order.
+     */
+    private final Map<String, Translation> translations;
+
+    /**
+     * The keys of the translations using each class, to find them without going through all the translations.
+     */
+    private final Map<String, Set<String>> keysByClass = new HashMap<String, Set<String>>();
+
+    /**
+     * Incremented each time a class is modified.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * The value of {@link #sequence} when the classes were last modified, by stripe of class names, so that a
+     * translation computed while the classes it uses were modified is not cached, without rejecting the translations
+     * using other classes.
+     */
+    private final AtomicLongArray classGenerations = new AtomicLongArray(GENERATION_STRIPES);
+
+    /**
+     * Number of translations found in the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Number of translations not found in the cache.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of translations to keep
+     */
+    public TranslationCache(final int capacity)
+    {
+        this.translations = new LinkedHashMap<String, Translation>(16, 0.75F, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Translation> eldest)
+            {
+                if (size() > capacity) {
+                    unindex(eldest.getKey(), eldest.getValue(), null);
+
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param wiki the wiki where the statement is executed
+     * @param statement the statement to translate
+     * @return the cached translation, null if the statement is not cached
+     */
+    public String get(String wiki, String statement)
+    {
+        Translation translation;
+        synchronized (this.translations) {
+            translation = this.translations.get(wiki + WIKI_SEPARATOR + statement);
+        }
+
+        if (translation != null) {
+            this.hits.incrementAndGet();
+
+            return translation.statement;
+        }
+
+        this.misses.incrementAndGet();
+
+        return null;
+    }
+
+    /**
+     * @return the current generation of the cache, to get before translating a statement and give to
+     *         {@link #put(String, String, String, Set, long)}
+     */
+    public long getGeneration()
+    {
+        return this.sequence.get();
+    }
+
+    /**
+     * Cache a translation, unless one of the classes it uses has been modified since it started, in which case it may
+     * have been computed from the old definition of the class.
+     * 
+     * @param wiki the wiki where the statement is executed
+     * @param statement the statement to translate
+     * @param translatedStatement the translated statement
+     * @param classNames the classes used by the statement, as full names prefixed with their wiki
+     * @param generation the generation of the cache before the translation started, see {@link #getGeneration()}
+     */
+    public void put(String wiki, String statement, String translatedStatement, Set<String> classNames,
+        long generation)
+    {
+        String key = wiki + WIKI_SEPARATOR + statement;
+
+        synchronized (this.translations) {
+            for (String className : classNames) {
+                if (this.classGenerations.get(getStripe(className)) > generation) {
+                    return;
+                }
+            }
+
+            Translation previousTranslation =
+                this.translations.put(key, new Translation(translatedStatement, classNames));
+            if (previousTranslation != null) {
+                unindex(key, previousTranslation, null);
+            }
+            for (String className : classNames) {
+                Set<String> keys = this.keysByClass.get(className);
+                if (keys == null) {
+                    keys = new HashSet<String>();
+                    this.keysByClass.put(className, keys);
+                }
+                keys.add(key);
+            }
+        }
+    }
+
+    /**
+     * Remove the translations using a class.
+     * 
+     * @param className the full name of the class, prefixed with its wiki
+     */
+    public void invalidate(String className)
+    {
+        // Reject the translations in progress before removing the cached ones, see put()
+        this.classGenerations.set(getStripe(className), this.sequence.incrementAndGet());
+
+        synchronized (this.translations) {
+            Set<String> keys = this.keysByClass.remove(className);
+            if (keys != null) {
+                for (String key : keys) {
+                    unindex(key, this.translations.remove(key), className);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all the translations.
+     */
+    public void clear()
+    {
+        long generation = this.sequence.incrementAndGet();
+        for (int i = 0; i < GENERATION_STRIPES; ++i) {
+            this.classGenerations.set(i, generation);
+        }
+
+        synchronized (this.translations) {
+            this.translations.clear();
+            this.keysByClass.clear();
+        }
+    }
+
+    /**
+     * @return the number of cached translations
+     */
+    public int size()
+    {
+        synchronized (this.translations) {
+            return this.translations.size();
+        }
+    }
+
+    /**
+     * @return the number of translations found in the cache
+     */
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+
+    /**
+     * @return the number of translations not found in the cache
+     */
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+
+    /**
+     * @param className the full name of a class, prefixed with its wiki
+     * @return the index of the generation of the class in {@link #classGenerations}
+     */
+    private int getStripe(String className)
+    {
+        return (className.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    /**
+     * Remove a translation which is no longer cached from the index of the classes it uses. The lock on
+     * {@link #translations} has to be held.
+     * 
+     * @param key the key of the translation
+     * @param translation the removed translation, may be null
+     * @param skippedClassName a class whose index entry has already been removed, null if there is none
+     */
+    private void unindex(String key, Translation translation, String skippedClassName)
+    {
+        if (translation != null) {
+            for (String className : translation.classNames) {
+                if (!className.equals(skippedClassName)) {
+                    Set<String> keys = this.keysByClass.get(className);
+                    if (keys != null) {
+                        keys.remove(key);
+                        if (keys.isEmpty()) {
+                            this.keysByClass.remove(className);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A cached translation.
+     */
+    private static class Translation
+    {
+        /**
+         * The translated statement.
+         */
+        private final String statement;
+
+        /**
+         * The classes used by the statement.
+         */
+        private final Set<String> classNames;
+
+        /**
+         * @param statement the translated statement
+         * @param classNames the classes used by the statement
+         */
+        Translation(String statement, Set<String> classNames)
+        {
+            this.statement = statement;
+            this.classNames = classNames;
+        }
+    }
+}
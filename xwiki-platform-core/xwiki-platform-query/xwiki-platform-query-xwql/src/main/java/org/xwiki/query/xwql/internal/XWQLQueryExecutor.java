@@ -34,14 +34,17 @@
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.WikiReference;
 import org.xwiki.query.Query;
+import org.xwiki.query.QueryCursor;
 import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryExecutor;
 import org.xwiki.query.QueryManager;
+import org.xwiki.query.StreamingQuery;
+import org.xwiki.query.StreamingQueryExecutor;
+import org.xwiki.query.internal.ListQueryCursor;
 
 @Component
 @Named("xwql")
 @Singleton
-public class XWQLQueryExecutor implements QueryExecutor
+public class XWQLQueryExecutor implements StreamingQueryExecutor
 {
     @Inject
     @Named("hql")
@@ -61,6 +64,32 @@ public QueryManager getQueryManager() throws ComponentLookupException
 
     @Override
     public <T> List<T> execute(Query query) throws QueryException
+    {
+        return createNativeQuery(query).execute();
+    }
+
+    @Override
+    public <T> QueryCursor<T> iterate(Query query) throws QueryException
+    {
+        Query nativeQuery = createNativeQuery(query);
+        if (nativeQuery instanceof StreamingQuery) {
+            StreamingQuery streamingQuery = (StreamingQuery) nativeQuery;
+            if (query instanceof StreamingQuery) {
+                streamingQuery.setFetchSize(((StreamingQuery) query).getFetchSize());
+            }
+
+            return streamingQuery.iterate();
+        }
+
+        return new ListQueryCursor<T>(nativeQuery.<T> execute());
+    }
+
+    /**
+     * @param query the XWQL query
+     * @return the query translated in the language of the store, with the same parameters
+     * @throws QueryException if the query can't be translated
+     */
+    private Query createNativeQuery(Query query) throws QueryException
     {
         EntityReference currentEntityReference = this.context.getCurrentEntityReference();
 
@@ -88,7 +117,7 @@ public <T> List<T> execute(Query query) throws QueryException
                 nativeQuery.bindValue(e.getKey(), e.getValue());
             }
 
-            return nativeQuery.execute();
+            return nativeQuery;
         } catch (Exception e) {
             if (e instanceof QueryException) {
                 throw (QueryException) e;
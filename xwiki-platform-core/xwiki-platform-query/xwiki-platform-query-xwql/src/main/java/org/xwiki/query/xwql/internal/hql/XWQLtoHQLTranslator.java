@@ -19,6 +19,11 @@
  */
 package org.xwiki.query.xwql.internal.hql;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -27,21 +32,104 @@
 import org.xwiki.query.jpql.node.Start;
 import org.xwiki.query.xwql.internal.QueryAnalyzer;
 import org.xwiki.query.xwql.internal.QueryContext;
+import org.xwiki.query.xwql.internal.QueryContext.ObjectInfo;
 import org.xwiki.query.xwql.internal.QueryTranslator;
+import org.xwiki.query.xwql.internal.TranslationCache;
 import org.xwiki.query.Query;
 import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 
 @Component
 @Named("hql")
 @Singleton
-public class XWQLtoHQLTranslator implements QueryTranslator
+public class XWQLtoHQLTranslator implements QueryTranslator, Initializable
 {
+    /**
+     * The maximum number of translated statements kept in the cache.
+     */
+    private static final int CACHE_CAPACITY = 1000;
+
+    /**
+     * The events invalidating the translations using a class.
+     */
+    private static final List<Event> EVENTS = Arrays.<Event> asList(new DocumentCreatedEvent(),
+        new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+
     @Inject
     protected DocumentAccessBridge documentAccessBridge;
 
+    @Inject
+    private ObservationManager observation;
+
+    /**
+     * The statements already translated.
+     */
+    private final TranslationCache cache = new TranslationCache(CACHE_CAPACITY);
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        // The translation of a statement depends on the classes it uses.
+        this.observation.addListener(new EventListener()
+        {
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                DocumentModelBridge document = (DocumentModelBridge) source;
+                cache.invalidate(document.getWikiName() + TranslationCache.WIKI_SEPARATOR + document.getFullName());
+            }
+
+            @Override
+            public String getName()
+            {
+                return XWQLtoHQLTranslator.class.getName();
+            }
+
+            @Override
+            public List<Event> getEvents()
+            {
+                return EVENTS;
+            }
+        });
+    }
+
     @Override
     public String translate(String input) throws Exception
+    {
+        String wiki = getDocumentAccessBridge().getCurrentWiki();
+
+        String output = this.cache.get(wiki, input);
+        if (output == null) {
+            long generation = this.cache.getGeneration();
+
+            QueryContext context = analyze(input);
+
+            Printer printer = getPrinter(context);
+            output = printer.print();
+
+            this.cache.put(wiki, input, output, getClassNames(context, wiki), generation);
+        }
+
+        return output;
+    }
+
+    /**
+     * Parse and analyze a statement.
+     * 
+     * @param input the statement
+     * @return the analyzed statement
+     * @throws Exception if the statement is invalid
+     */
+    protected QueryContext analyze(String input) throws Exception
     {
         input = input.trim();
         String lcInput = input.toLowerCase();
@@ -57,8 +145,34 @@ public String translate(String input) throws Exception
         // analize query and store info in context
         tree.apply(new QueryAnalyzer(context));
 
-        Printer printer = getPrinter(context);
-        return printer.print();
+        return context;
+    }
+
+    /**
+     * @param context the analyzed statement
+     * @param wiki the wiki where the statement is executed
+     * @return the classes used by the statement, as full names prefixed with their wiki
+     */
+    private Set<String> getClassNames(QueryContext context, String wiki)
+    {
+        Set<String> classNames = new HashSet<String>();
+        for (ObjectInfo object : context.getObjects()) {
+            if (object.className.indexOf(TranslationCache.WIKI_SEPARATOR) < 0) {
+                classNames.add(wiki + TranslationCache.WIKI_SEPARATOR + object.className);
+            } else {
+                classNames.add(object.className);
+            }
+        }
+
+        return classNames;
+    }
+
+    /**
+     * @return the cache of the translated statements
+     */
+    public TranslationCache getCache()
+    {
+        return this.cache;
     }
 
     @Override
@@ -19,17 +19,28 @@
  */
 package org.xwiki.query.xwql.internal;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.util.Collections;
+
 import org.apache.commons.lang3.StringUtils;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
+import org.jmock.api.Invocation;
 import org.jmock.integration.junit4.JMock;
 import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.action.CustomAction;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
 import org.xwiki.query.xwql.internal.hql.XWQLtoHQLTranslator;
 
 @RunWith(JMock.class)
@@ -39,6 +50,13 @@
 
     private DocumentAccessBridge dab = context.mock(DocumentAccessBridge.class);
 
+    private ObservationManager observation = context.mock(ObservationManager.class);
+
+    /**
+     * The listener registered by the translator to be notified when classes are modified.
+     */
+    private EventListener listener;
+
     private XWQLtoHQLTranslator translator = new XWQLtoHQLTranslator()
     {
         @Override
@@ -53,6 +71,9 @@ public void setUp() throws Exception
     {
         context.checking(new Expectations()
         {{
+                allowing(dab).getCurrentWiki();
+                will(returnValue("xwiki"));
+
                 allowing(dab).getPropertyType(with(any(String.class)), with(equal("number")));
                 will(returnValue(null));
 
@@ -70,7 +91,20 @@ public void setUp() throws Exception
 
                 allowing(dab).isPropertyCustomMapped(with(any(String.class)), with(any(String.class)));
                 will(returnValue(false));
+
+                oneOf(observation).addListener(with(any(EventListener.class)));
+                will(new CustomAction("register the listener")
+                {
+                    public Object invoke(Invocation invocation) throws Throwable
+                    {
+                        listener = (EventListener) invocation.getParameter(0);
+                        return null;
+                    }
+                });
             }});
+
+        ReflectionUtils.setFieldValue(translator, "observation", observation);
+        translator.initialize();
     }
 
     void assertTranslate(String input, String expectedOutput) throws Exception
@@ -89,6 +123,63 @@ void assertTranslate(String input, String expectedOutput) throws Exception
         }
     }
 
+    @Test
+    public void testTranslationIsCachedUntilClassIsModified() throws Exception
+    {
+        String statement = "from doc.object(XWiki.XWikiUsers) as user where user.email = 'some'";
+
+        String output = translator.translate(statement);
+        assertEquals(0, translator.getCache().getHits());
+        assertEquals(output, translator.translate(statement));
+        assertEquals(1, translator.getCache().getHits());
+
+        final DocumentModelBridge classDocument = context.mock(DocumentModelBridge.class);
+        context.checking(new Expectations()
+        {{
+                allowing(classDocument).getWikiName();
+                will(returnValue("xwiki"));
+
+                allowing(classDocument).getFullName();
+                will(returnValue("XWiki.XWikiUsers"));
+            }});
+        listener.onEvent(new DocumentUpdatedEvent(new DocumentReference("xwiki", "XWiki", "XWikiUsers")),
+            classDocument, null);
+
+        assertEquals(output, translator.translate(statement));
+        assertEquals(1, translator.getCache().getHits());
+        assertEquals(2, translator.getCache().getMisses());
+    }
+
+    @Test
+    public void testTranslationIsNotCachedWhenClassIsModifiedDuringTranslation() throws Exception
+    {
+        TranslationCache cache = translator.getCache();
+
+        long generation = cache.getGeneration();
+        cache.invalidate("xwiki:XWiki.XWikiUsers");
+        cache.put("xwiki", "statement", "translation", Collections.singleton("xwiki:XWiki.XWikiUsers"), generation);
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testTranslationIsKeptWhenOtherClassIsModified() throws Exception
+    {
+        TranslationCache cache = translator.getCache();
+
+        long generation = cache.getGeneration();
+        cache.put("xwiki", "statement", "translation", Collections.singleton("xwiki:XWiki.XWikiUsers"), generation);
+        cache.invalidate("xwiki:XWiki.XWikiGroups");
+        cache.put("xwiki", "statement2", "translation2", Collections.singleton("xwiki:XWiki.XWikiUsers"), generation);
+
+        assertEquals(2, cache.size());
+        assertEquals("translation", cache.get("xwiki", "statement"));
+
+        cache.invalidate("xwiki:XWiki.XWikiUsers");
+
+        assertEquals(0, cache.size());
+    }
+
     @Test
     public void testDocument() throws Exception
     {
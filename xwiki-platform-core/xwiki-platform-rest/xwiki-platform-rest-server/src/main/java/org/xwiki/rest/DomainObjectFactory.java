@@ -193,29 +193,34 @@ public static Space createSpace(ObjectFactory objectFactory, URI baseUri, String
     public static Translations createTranslations(ObjectFactory objectFactory, URI baseUri, Document doc)
         throws XWikiException
     {
-        Translations translations = objectFactory.createTranslations();
+        return createTranslations(objectFactory, baseUri, doc.getWiki(), doc.getSpace(), doc.getName(),
+            doc.getDefaultLanguage(), doc.getTranslationList());
+    }
 
-        List<String> languages = doc.getTranslationList();
+    public static Translations createTranslations(ObjectFactory objectFactory, URI baseUri, String wikiName,
+        String spaceName, String pageName, String defaultLanguage, List<String> languages)
+    {
+        Translations translations = objectFactory.createTranslations();
 
         if (!languages.isEmpty()) {
-            if (!doc.getDefaultLanguage().equals("")) {
-                translations.setDefault(doc.getDefaultLanguage());
+            if (!defaultLanguage.equals("")) {
+                translations.setDefault(defaultLanguage);
 
                 Translation translation = objectFactory.createTranslation();
-                translation.setLanguage(doc.getDefaultLanguage());
+                translation.setLanguage(defaultLanguage);
 
                 /* Add the default page with the default translation explicitely */
                 String pageTranslationUri =
-                    UriBuilder.fromUri(baseUri).path(PageResource.class).build(doc.getWiki(), doc.getSpace(),
-                        doc.getName()).toString();
+                    UriBuilder.fromUri(baseUri).path(PageResource.class).build(wikiName, spaceName, pageName)
+                        .toString();
                 Link pageTranslationLink = objectFactory.createLink();
                 pageTranslationLink.setHref(pageTranslationUri);
                 pageTranslationLink.setRel(Relations.PAGE);
                 translation.getLinks().add(pageTranslationLink);
 
                 String historyUri =
-                    UriBuilder.fromUri(baseUri).path(PageHistoryResource.class).build(doc.getWiki(), doc.getSpace(),
-                        doc.getName()).toString();
+                    UriBuilder.fromUri(baseUri).path(PageHistoryResource.class).build(wikiName, spaceName, pageName)
+                        .toString();
                 Link historyLink = objectFactory.createLink();
                 historyLink.setHref(historyUri);
                 historyLink.setRel(Relations.HISTORY);
@@ -230,16 +235,16 @@ public static Translations createTranslations(ObjectFactory objectFactory, URI b
             translation.setLanguage(language);
 
             String pageTranslationUri =
-                UriBuilder.fromUri(baseUri).path(PageTranslationResource.class).build(doc.getWiki(), doc.getSpace(),
-                    doc.getName(), language).toString();
+                UriBuilder.fromUri(baseUri).path(PageTranslationResource.class).build(wikiName, spaceName,
+                    pageName, language).toString();
             Link pageTranslationLink = objectFactory.createLink();
             pageTranslationLink.setHref(pageTranslationUri);
             pageTranslationLink.setRel(Relations.PAGE);
             translation.getLinks().add(pageTranslationLink);
 
             String historyUri =
-                UriBuilder.fromUri(baseUri).path(PageTranslationHistoryResource.class).build(doc.getWiki(),
-                    doc.getSpace(), doc.getName(), language).toString();
+                UriBuilder.fromUri(baseUri).path(PageTranslationHistoryResource.class).build(wikiName, spaceName,
+                    pageName, language).toString();
             Link historyLink = objectFactory.createLink();
             historyLink.setHref(historyUri);
             historyLink.setRel(Relations.HISTORY);
@@ -0,0 +1,555 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rest;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.ws.rs.core.UriBuilder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.rest.model.jaxb.Link;
+import org.xwiki.rest.model.jaxb.ObjectFactory;
+import org.xwiki.rest.model.jaxb.PageSummary;
+import org.xwiki.rest.resources.SyntaxesResource;
+import org.xwiki.rest.resources.attachments.AttachmentsResource;
+import org.xwiki.rest.resources.comments.CommentsResource;
+import org.xwiki.rest.resources.objects.ObjectsResource;
+import org.xwiki.rest.resources.pages.PageChildrenResource;
+import org.xwiki.rest.resources.pages.PageHistoryResource;
+import org.xwiki.rest.resources.pages.PageResource;
+import org.xwiki.rest.resources.pages.PageTagsResource;
+import org.xwiki.rest.resources.spaces.SpaceResource;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.user.api.XWikiRightService;
+import com.xpn.xwiki.web.XWikiURLFactory;
+
+/**
+ * <p>
+ * Builds the summaries of the pages of a space from a few queries on the columns they need, instead of loading each
+ * document. The documents are only loaded when their title has to be evaluated.
+ * </p>
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+public class PageSummaryBuilder
+{
+    private static final String PAGES_QUERY =
+        "select doc.id, doc.name, doc.title, doc.parent, doc.syntaxId, doc.defaultLanguage from XWikiDocument as doc"
+            + " where doc.space = :space and doc.translation = 0 and (doc.hidden <> true or doc.hidden is null)"
+            + " order by doc.name asc";
+
+    private static final String TRANSLATIONS_QUERY =
+        "select doc.name, doc.language from XWikiDocument as doc"
+            + " where doc.space = :space and doc.translation = 1 and doc.name in (:names)";
+
+    private static final String EXISTING_DOCUMENTS_QUERY =
+        "select distinct doc.fullName from XWikiDocument as doc where doc.fullName in (:fullNames)";
+
+    private static final String CHILDREN_QUERY =
+        "select distinct doc.parent, doc.space from XWikiDocument as doc where doc.parent in (:parents)";
+
+    private static final String OBJECTS_QUERY =
+        "select distinct obj.name, obj.className from BaseObject as obj where obj.name in (:fullNames)";
+
+    private static final String ATTACHMENTS_QUERY =
+        "select distinct attachment.docId from XWikiAttachment as attachment where attachment.docId in (:ids)";
+
+    private static final String TAGS_QUERY =
+        "select distinct obj.name from BaseObject as obj, BaseProperty as prop where obj.className = 'XWiki.TagClass'"
+            + " and obj.number = 0 and prop.id.id = obj.id and prop.id.name = 'tags' and obj.name in (:fullNames)";
+
+    /**
+     * The maximum number of values passed to a SQL {@code IN} clause.
+     */
+    private static final int BATCH_SIZE = 500;
+
+    private static final String SPACE = "space";
+
+    private static final String FULL_NAMES = "fullNames";
+
+    private static final String VIEW = "view";
+
+    private static final String COMMENTS_CLASS = "XWiki.XWikiComments";
+
+    private static final String TAGS_CLASS = "XWiki.TagClass";
+
+    /**
+     * The characters which can make the displayed title different from the raw title (Velocity code, XML escaping).
+     */
+    private static final String TITLE_SPECIAL_CHARACTERS = "$#\\&<>\"\r\n";
+
+    private final ObjectFactory objectFactory;
+
+    private final URI baseUri;
+
+    private final QueryManager queryManager;
+
+    private final DocumentReferenceResolver<String> resolver;
+
+    private final XWikiContext context;
+
+    /**
+     * @param objectFactory the object factory used to create the summaries
+     * @param baseUri the base URI of the REST resources
+     * @param queryManager the query manager used to get information about the pages
+     * @param resolver the resolver used to resolve the parent of the pages
+     * @param context the XWiki context, whose database is the wiki of the pages
+     */
+    public PageSummaryBuilder(ObjectFactory objectFactory, URI baseUri, QueryManager queryManager,
+        DocumentReferenceResolver<String> resolver, XWikiContext context)
+    {
+        this.objectFactory = objectFactory;
+        this.baseUri = baseUri;
+        this.queryManager = queryManager;
+        this.resolver = resolver;
+        this.context = context;
+    }
+
+    /**
+     * @param wikiName the wiki of the pages
+     * @param spaceName the space of the pages
+     * @param start the index of the first page to list
+     * @param number the maximum number of pages to list, -1 for all
+     * @param parentFilter the pattern the id of the parent of the pages has to match, null to list all the pages
+     * @return the summaries of the pages the current user is allowed to view
+     * @throws QueryException when failing to get information about the pages
+     * @throws XWikiException when failing to check rights or to evaluate a title
+     */
+    public List<PageSummary> getPageSummaries(String wikiName, String spaceName, int start, int number,
+        Pattern parentFilter) throws QueryException, XWikiException
+    {
+        List<Object[]> rows =
+            this.queryManager.createQuery(PAGES_QUERY, Query.HQL).bindValue(SPACE, spaceName).setOffset(start)
+                .setLimit(number).execute();
+
+        XWikiRightService rightService = this.context.getWiki().getRightService();
+        String user = this.context.getUser();
+
+        /* We only list the pages we have the right to access */
+        List<PageRow> pages = new ArrayList<PageRow>(rows.size());
+        for (Object[] row : rows) {
+            PageRow page = new PageRow(wikiName, spaceName, row);
+            if (rightService.hasAccessLevel(VIEW, user, page.id, this.context)) {
+                pages.add(page);
+            }
+        }
+
+        resolveParents(pages, wikiName);
+
+        if (parentFilter != null) {
+            for (Iterator<PageRow> it = pages.iterator(); it.hasNext();) {
+                if (!parentFilter.matcher(it.next().parentId).matches()) {
+                    it.remove();
+                }
+            }
+        }
+
+        if (pages.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<String, List<String>> translations = getTranslations(pages, spaceName);
+        Set<String> childrenParents = getChildrenParents(pages);
+        Map<String, Set<String>> objectClasses = getObjectClasses(pages);
+        Set<Long> documentsWithAttachments = getDocumentsWithAttachments(pages);
+        Set<String> taggedPages = getTaggedPages(pages, objectClasses);
+
+        List<PageSummary> pageSummaries = new ArrayList<PageSummary>(pages.size());
+        for (PageRow page : pages) {
+            List<String> languages = translations.get(page.name);
+            Set<String> classes = objectClasses.get(page.fullName);
+
+            PageSummary pageSummary = this.objectFactory.createPageSummary();
+            fillPageSummary(pageSummary, page, languages != null ? languages : Collections.<String> emptyList());
+
+            if (childrenParents.contains(page.fullName) || childrenParents.contains(page.id)) {
+                addLink(pageSummary, Relations.CHILDREN, PageChildrenResource.class, page);
+            }
+            if (classes != null && classes.contains(COMMENTS_CLASS)) {
+                addLink(pageSummary, Relations.COMMENTS, CommentsResource.class, page);
+            }
+            if (documentsWithAttachments.contains(page.documentId)) {
+                addLink(pageSummary, Relations.ATTACHMENTS, AttachmentsResource.class, page);
+            }
+            if (classes != null) {
+                addLink(pageSummary, Relations.OBJECTS, ObjectsResource.class, page);
+            }
+            if (taggedPages.contains(page.fullName)) {
+                addLink(pageSummary, Relations.TAGS, PageTagsResource.class, page);
+            }
+
+            Link syntaxesLink = this.objectFactory.createLink();
+            syntaxesLink.setHref(UriBuilder.fromUri(this.baseUri).path(SyntaxesResource.class).build().toString());
+            syntaxesLink.setRel(Relations.SYNTAXES);
+            pageSummary.getLinks().add(syntaxesLink);
+
+            addLink(pageSummary, Relations.PAGE, PageResource.class, page);
+
+            pageSummaries.add(pageSummary);
+        }
+
+        return pageSummaries;
+    }
+
+    /**
+     * Resolve the parent of the pages and check that they exist, in a single query for the parents located in the
+     * wiki of the pages.
+     */
+    private void resolveParents(List<PageRow> pages, String wikiName) throws QueryException, XWikiException
+    {
+        XWikiRightService rightService = this.context.getWiki().getRightService();
+        String user = this.context.getUser();
+
+        List<String> localParents = new ArrayList<String>();
+        for (PageRow page : pages) {
+            if (!StringUtils.isEmpty(page.parent)) {
+                /*
+                 * Mimic the behavior of link generation: if the parent does not specify its space, use the current
+                 * document space.
+                 */
+                String parentName = page.parent;
+                if (!parentName.contains(".")) {
+                    parentName = page.space + "." + parentName;
+                }
+                DocumentReference parentReference = this.resolver.resolve(parentName);
+                String parentWiki = parentReference.getWikiReference().getName();
+                String parentSpace = parentReference.getLastSpaceReference().getName();
+
+                String parentId = Utils.getPageId(parentWiki, parentSpace, parentReference.getName());
+                if (rightService.hasAccessLevel(VIEW, user, parentId, this.context)) {
+                    page.parentReference = parentReference;
+                    page.parentFullName = Utils.getPageFullName(parentWiki, parentSpace, parentReference.getName());
+                    page.parentPrefixedFullName = parentId;
+                    if (parentWiki.equals(wikiName)) {
+                        localParents.add(page.parentFullName);
+                    }
+                }
+            }
+        }
+
+        Set<String> existingParents = new HashSet<String>();
+        for (List<String> localParentsBatch : partition(localParents)) {
+            List<String> fullNames =
+                this.queryManager.createQuery(EXISTING_DOCUMENTS_QUERY, Query.HQL)
+                    .bindValue(FULL_NAMES, localParentsBatch).execute();
+            existingParents.addAll(fullNames);
+        }
+
+        for (PageRow page : pages) {
+            if (page.parentReference != null) {
+                boolean exists;
+                if (page.parentReference.getWikiReference().getName().equals(wikiName)) {
+                    exists = existingParents.contains(page.parentFullName);
+                } else {
+                    exists = this.context.getWiki().exists(page.parentReference, this.context);
+                }
+                // parentId must not be set if the parent document does not exist.
+                if (exists) {
+                    page.parentId = page.parentPrefixedFullName;
+                }
+            }
+        }
+    }
+
+    private Map<String, List<String>> getTranslations(List<PageRow> pages, String spaceName) throws QueryException
+    {
+        List<String> names = new ArrayList<String>(pages.size());
+        for (PageRow page : pages) {
+            names.add(page.name);
+        }
+
+        Map<String, List<String>> translations = new HashMap<String, List<String>>();
+        for (List<String> namesBatch : partition(names)) {
+            List<Object[]> rows =
+                this.queryManager.createQuery(TRANSLATIONS_QUERY, Query.HQL).bindValue(SPACE, spaceName)
+                    .bindValue("names", namesBatch).execute();
+            for (Object[] row : rows) {
+                getList(translations, (String) row[0]).add((String) row[1]);
+            }
+        }
+
+        return translations;
+    }
+
+    /**
+     * @return the values of the parent field of the children of the pages, plus the full name of the parent when the
+     *         parent field only contains a page name
+     */
+    private Set<String> getChildrenParents(List<PageRow> pages) throws QueryException
+    {
+        // The parent field of the children can contain the prefixed full name, the full name or only the name of the
+        // page
+        Set<String> parents = new HashSet<String>();
+        for (PageRow page : pages) {
+            parents.add(page.id);
+            parents.add(page.fullName);
+            parents.add(page.name);
+        }
+
+        Set<String> childrenParents = new HashSet<String>();
+        for (List<String> parentsBatch : partition(new ArrayList<String>(parents))) {
+            List<Object[]> rows =
+                this.queryManager.createQuery(CHILDREN_QUERY, Query.HQL).bindValue("parents", parentsBatch).execute();
+            for (Object[] row : rows) {
+                String parent = (String) row[0];
+                childrenParents.add(parent);
+                if (!parent.contains(".")) {
+                    // A parent without space is in the space of the child
+                    childrenParents.add(row[1] + "." + parent);
+                }
+            }
+        }
+
+        return childrenParents;
+    }
+
+    /**
+     * @return the classes of the objects of each page, indexed by page full name
+     */
+    private Map<String, Set<String>> getObjectClasses(List<PageRow> pages) throws QueryException
+    {
+        List<String> fullNames = new ArrayList<String>(pages.size());
+        for (PageRow page : pages) {
+            fullNames.add(page.fullName);
+        }
+
+        Map<String, Set<String>> objectClasses = new HashMap<String, Set<String>>();
+        for (List<String> fullNamesBatch : partition(fullNames)) {
+            List<Object[]> rows =
+                this.queryManager.createQuery(OBJECTS_QUERY, Query.HQL).bindValue(FULL_NAMES, fullNamesBatch)
+                    .execute();
+            for (Object[] row : rows) {
+                String fullName = (String) row[0];
+                Set<String> classes = objectClasses.get(fullName);
+                if (classes == null) {
+                    classes = new HashSet<String>();
+                    objectClasses.put(fullName, classes);
+                }
+                classes.add((String) row[1]);
+            }
+        }
+
+        return objectClasses;
+    }
+
+    private Set<Long> getDocumentsWithAttachments(List<PageRow> pages) throws QueryException
+    {
+        List<Long> ids = new ArrayList<Long>(pages.size());
+        for (PageRow page : pages) {
+            ids.add(page.documentId);
+        }
+
+        Set<Long> documentsWithAttachments = new HashSet<Long>();
+        for (List<Long> idsBatch : partition(ids)) {
+            List<Long> documentIds =
+                this.queryManager.createQuery(ATTACHMENTS_QUERY, Query.HQL).bindValue("ids", idsBatch).execute();
+            documentsWithAttachments.addAll(documentIds);
+        }
+
+        return documentsWithAttachments;
+    }
+
+    /**
+     * @return the full name of the pages whose first tags object has a tags property, like
+     *         DomainObjectFactory#createPageSummary() checks before linking to the tags of a page
+     */
+    private Set<String> getTaggedPages(List<PageRow> pages, Map<String, Set<String>> objectClasses)
+        throws QueryException
+    {
+        List<String> fullNames = new ArrayList<String>();
+        for (PageRow page : pages) {
+            Set<String> classes = objectClasses.get(page.fullName);
+            if (classes != null && classes.contains(TAGS_CLASS)) {
+                fullNames.add(page.fullName);
+            }
+        }
+
+        Set<String> taggedPages = new HashSet<String>();
+        for (List<String> fullNamesBatch : partition(fullNames)) {
+            List<String> taggedFullNames =
+                this.queryManager.createQuery(TAGS_QUERY, Query.HQL).bindValue(FULL_NAMES, fullNamesBatch).execute();
+            taggedPages.addAll(taggedFullNames);
+        }
+
+        return taggedPages;
+    }
+
+    /**
+     * Split the passed list in sub lists small enough to be used as parameter of a SQL {@code IN} clause.
+     * 
+     * @param <T> the type of the list elements
+     * @param list the list to split
+     * @return the sub lists
+     */
+    private static <T> List<List<T>> partition(List<T> list)
+    {
+        List<List<T>> batches = new ArrayList<List<T>>();
+        for (int i = 0; i < list.size(); i += BATCH_SIZE) {
+            batches.add(list.subList(i, Math.min(i + BATCH_SIZE, list.size())));
+        }
+
+        return batches;
+    }
+
+    /* Fill the same fields as DomainObjectFactory#createPageSummary() */
+    private void fillPageSummary(PageSummary pageSummary, PageRow page, List<String> languages)
+        throws XWikiException
+    {
+        pageSummary.setWiki(page.wiki);
+        pageSummary.setFullName(page.fullName);
+        pageSummary.setId(page.id);
+        pageSummary.setSpace(page.space);
+        pageSummary.setName(page.name);
+        pageSummary.setTitle(getDisplayTitle(page));
+
+        XWikiURLFactory urlFactory = this.context.getURLFactory();
+        URL url = urlFactory.createURL(page.space, page.name, VIEW, null, null, page.wiki, this.context);
+        pageSummary.setXwikiRelativeUrl(urlFactory.getURL(url, this.context));
+        pageSummary.setXwikiAbsoluteUrl(urlFactory.createExternalURL(page.space, page.name, VIEW, null, null,
+            page.wiki, this.context).toString());
+
+        pageSummary.setTranslations(DomainObjectFactory.createTranslations(this.objectFactory, this.baseUri,
+            page.wiki, page.space, page.name, page.defaultLanguage, languages));
+        pageSummary.setSyntax(page.syntaxId);
+
+        pageSummary.setParent(page.parent);
+        pageSummary.setParentId(page.parentId);
+
+        Link spaceLink = this.objectFactory.createLink();
+        spaceLink.setHref(UriBuilder.fromUri(this.baseUri).path(SpaceResource.class).build(page.wiki, page.space)
+            .toString());
+        spaceLink.setRel(Relations.SPACE);
+        pageSummary.getLinks().add(spaceLink);
+
+        if (page.parentReference != null) {
+            String parentUri =
+                UriBuilder.fromUri(this.baseUri).path(PageResource.class).build(
+                    page.parentReference.getWikiReference().getName(),
+                    page.parentReference.getLastSpaceReference().getName(), page.parentReference.getName())
+                    .toString();
+            Link parentLink = this.objectFactory.createLink();
+            parentLink.setHref(parentUri);
+            parentLink.setRel(Relations.PARENT);
+            pageSummary.getLinks().add(parentLink);
+        }
+
+        addLink(pageSummary, Relations.HISTORY, PageHistoryResource.class, page);
+    }
+
+    /**
+     * @return the displayed title of the page, the document is loaded only if the title needs to be evaluated or
+     *         extracted from the content
+     */
+    private String getDisplayTitle(PageRow page) throws XWikiException
+    {
+        if (!StringUtils.isEmpty(page.title) && !StringUtils.containsAny(page.title, TITLE_SPECIAL_CHARACTERS)) {
+            return page.title;
+        }
+
+        return this.context.getWiki().getDocument(new DocumentReference(page.wiki, page.space, page.name),
+            this.context).getDisplayTitle(this.context);
+    }
+
+    private void addLink(PageSummary pageSummary, String relation, Class< ? > resource, PageRow page)
+    {
+        Link link = this.objectFactory.createLink();
+        link.setHref(UriBuilder.fromUri(this.baseUri).path(resource).build(page.wiki, page.space, page.name)
+            .toString());
+        link.setRel(relation);
+        pageSummary.getLinks().add(link);
+    }
+
+    private List<String> getList(Map<String, List<String>> map, String key)
+    {
+        List<String> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<String>();
+            map.put(key, list);
+        }
+
+        return list;
+    }
+
+    /**
+     * The columns of a page needed to build its summary.
+     */
+    private static class PageRow
+    {
+        private final String wiki;
+
+        private final String space;
+
+        private final long documentId;
+
+        private final String name;
+
+        private final String title;
+
+        private final String parent;
+
+        private final String syntaxId;
+
+        private final String defaultLanguage;
+
+        private final String fullName;
+
+        private final String id;
+
+        private DocumentReference parentReference;
+
+        private String parentFullName;
+
+        private String parentPrefixedFullName;
+
+        private String parentId = "";
+
+        PageRow(String wiki, String space, Object[] row)
+        {
+            this.wiki = wiki;
+            this.space = space;
+            this.documentId = (Long) row[0];
+            this.name = (String) row[1];
+            this.title = (String) row[2];
+            this.parent = (String) row[3];
+            this.syntaxId = (String) row[4];
+            this.defaultLanguage = row[5] != null ? (String) row[5] : "";
+            this.fullName = Utils.getPageFullName(wiki, space, this.name);
+            this.id = Utils.getPageId(wiki, space, this.name);
+        }
+    }
+}
@@ -19,7 +19,6 @@
  */
 package org.xwiki.rest.resources.pages;
 
-import java.util.List;
 import java.util.regex.Pattern;
 
 import javax.ws.rs.DefaultValue;
@@ -29,14 +28,14 @@
 import javax.ws.rs.QueryParam;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.query.QueryException;
-import org.xwiki.rest.DomainObjectFactory;
+import org.xwiki.rest.PageSummaryBuilder;
 import org.xwiki.rest.Utils;
 import org.xwiki.rest.XWikiResource;
 import org.xwiki.rest.model.jaxb.Pages;
 
 import com.xpn.xwiki.XWikiException;
-import com.xpn.xwiki.api.Document;
 
 /**
  * @version $Id$
@@ -45,6 +44,9 @@
 @Path("/wikis/{wikiName}/spaces/{spaceName}/pages")
 public class PagesResource extends XWikiResource
 {
+    private DocumentReferenceResolver<String> currentMixedDocumentReferenceResolver =
+        com.xpn.xwiki.web.Utils.getComponent(DocumentReferenceResolver.TYPE_STRING, "currentmixed");
+
     @GET
     public Pages getPages(@PathParam("wikiName") String wikiName, @PathParam("spaceName") String spaceName,
         @QueryParam("start") @DefaultValue("0") Integer start,
@@ -59,11 +61,6 @@ public Pages getPages(@PathParam("wikiName") String wikiName, @PathParam("spaceN
         try {
             Utils.getXWikiContext(componentManager).setDatabase(wikiName);
 
-            /* Use an explicit query to improve performance */
-            List<String> pageNames =
-                queryManager.getNamedQuery("getSpaceDocsName").bindValue("space", spaceName).setOffset(start).setLimit(
-                    number).execute();
-
             Pattern parentFilter = null;
             if (parentFilterExpression != null) {
                 if (parentFilterExpression.equals("null")) {
@@ -73,38 +70,12 @@ public Pages getPages(@PathParam("wikiName") String wikiName, @PathParam("spaceN
                 }
             }
 
-            for (String pageName : pageNames) {
-                String pageFullName = Utils.getPageId(wikiName, spaceName, pageName);
-
-                if (!Utils.getXWikiApi(componentManager).exists(pageFullName)) {
-                    logger.warning(String
-                        .format("[Page '%s' appears to be in space '%s' but no information is available.]", pageName,
-                            spaceName));
-                } else {
-                    Document doc = Utils.getXWikiApi(componentManager).getDocument(pageFullName);
-
-                    /* We only add pages we have the right to access */
-                    if (doc != null) {
-                        boolean add = true;
-
-                        Document parent = Utils.getParentDocument(doc, Utils.getXWikiApi(componentManager));
-
-                        if (parentFilter != null) {
-                            String parentId = "";
-                            if (parent != null && !parent.isNew()) {
-                                parentId = parent.getPrefixedFullName();
-                            }
-                            add = parentFilter.matcher(parentId).matches();
-                        }
-
-                        if (add) {
-                            pages.getPageSummaries().add(
-                                DomainObjectFactory.createPageSummary(objectFactory, uriInfo.getBaseUri(), doc, Utils
-                                    .getXWikiApi(componentManager)));
-                        }
-                    }
-                }
-            }
+            /* Build the summaries from explicit queries instead of loading each document, to improve performance */
+            PageSummaryBuilder pageSummaryBuilder =
+                new PageSummaryBuilder(objectFactory, uriInfo.getBaseUri(), queryManager,
+                    this.currentMixedDocumentReferenceResolver, Utils.getXWikiContext(componentManager));
+            pages.getPageSummaries().addAll(
+                pageSummaryBuilder.getPageSummaries(wikiName, spaceName, start, number, parentFilter));
         } finally {
             Utils.getXWikiContext(componentManager).setDatabase(database);
         }
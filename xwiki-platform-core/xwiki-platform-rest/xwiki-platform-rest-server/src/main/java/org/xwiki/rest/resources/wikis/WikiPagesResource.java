@@ -43,8 +43,9 @@
 import org.xwiki.rest.model.jaxb.Pages;
 import org.xwiki.rest.resources.pages.PageResource;
 
-import com.xpn.xwiki.api.Document;
-import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.user.api.XWikiRightService;
 
 /**
  * @version $Id$
@@ -57,7 +58,7 @@ public class WikiPagesResource extends XWikiResource
     public Pages getPages(@PathParam("wikiName") String wikiName,
         @QueryParam("start") @DefaultValue("0") Integer start, @QueryParam("name") @DefaultValue("") String name,
         @QueryParam("space") @DefaultValue("") String space, @QueryParam("author") @DefaultValue("") String author,
-        @QueryParam("number") @DefaultValue("25") Integer number) throws QueryException
+        @QueryParam("number") @DefaultValue("25") Integer number) throws QueryException, XWikiException
     {
         String database = Utils.getXWikiContext(componentManager).getDatabase();
 
@@ -78,7 +79,7 @@ public Pages getPages(@PathParam("wikiName") String wikiName,
 
             /* Build the query */
             Formatter f = new Formatter();
-            f.format("select doc from XWikiDocument as doc");
+            f.format("select doc.space, doc.name, doc.title, doc.parent from XWikiDocument as doc");
 
             if (filters.keySet().size() > 0) {
                 f.format(" where (");
@@ -115,48 +116,53 @@ public Pages getPages(@PathParam("wikiName") String wikiName,
                 query.bindValue(param, String.format("%%%s%%", filters.get(param).toUpperCase()));
             }
 
-            List<Object> queryResult = null;
+            List<Object[]> queryResult = null;
             queryResult = query.execute();
 
-            /* Get the results and populate the returned representation */
-            for (Object object : queryResult) {
-                XWikiDocument xwikiDocument = (XWikiDocument) object;
-                xwikiDocument.setDatabase(wikiName);
+            XWikiContext xwikiContext = Utils.getXWikiContext(componentManager);
+            XWikiRightService rightService = xwikiContext.getWiki().getRightService();
 
-                Document doc = new Document(xwikiDocument, Utils.getXWikiContext(componentManager));
+            /* Get the results and populate the returned representation */
+            for (Object[] row : queryResult) {
+                String pageSpace = (String) row[0];
+                String pageName = (String) row[1];
+                String pageId = Utils.getPageId(wikiName, pageSpace, pageName);
+
+                /* We only add pages we have the right to access */
+                if (!rightService.hasAccessLevel("view", xwikiContext.getUser(), pageId, xwikiContext)) {
+                    continue;
+                }
 
                 /*
                  * We manufacture page summaries in place because we don't have all the data for calling the
                  * DomainObjectFactory method (doing so would require to retrieve an actual Document)
                  */
                 PageSummary pageSummary = objectFactory.createPageSummary();
-                pageSummary.setId(doc.getPrefixedFullName());
-                pageSummary.setFullName(doc.getFullName());
+                pageSummary.setId(pageId);
+                pageSummary.setFullName(Utils.getPageFullName(wikiName, pageSpace, pageName));
                 pageSummary.setWiki(wikiName);
-                pageSummary.setSpace(doc.getSpace());
-                pageSummary.setName(doc.getName());
-                pageSummary.setTitle(doc.getTitle());
-                pageSummary.setParent(doc.getParent());
+                pageSummary.setSpace(pageSpace);
+                pageSummary.setName(pageName);
+                pageSummary.setTitle((String) row[2]);
+                pageSummary.setParent((String) row[3]);
 
                 URL absoluteUrl =
-                    Utils.getXWikiContext(componentManager).getURLFactory().createExternalURL(doc.getSpace(),
-                        doc.getName(), "view", null, null, Utils.getXWikiContext(componentManager));
+                    xwikiContext.getURLFactory().createExternalURL(pageSpace, pageName, "view", null, null,
+                        xwikiContext);
                 pageSummary.setXwikiAbsoluteUrl(absoluteUrl.toString());
-                pageSummary.setXwikiRelativeUrl(Utils.getXWikiContext(componentManager).getURLFactory().getURL(
-                    absoluteUrl, Utils.getXWikiContext(componentManager)));
+                pageSummary.setXwikiRelativeUrl(xwikiContext.getURLFactory().getURL(absoluteUrl, xwikiContext));
 
                 String baseUri = uriInfo.getBaseUri().toString();
 
                 String pageUri =
-                    UriBuilder.fromUri(baseUri).path(PageResource.class).build(doc.getWiki(), doc.getSpace(),
-                        doc.getName()).toString();
+                    UriBuilder.fromUri(baseUri).path(PageResource.class).build(wikiName, pageSpace, pageName)
+                        .toString();
                 Link pageLink = objectFactory.createLink();
                 pageLink.setHref(pageUri);
                 pageLink.setRel(Relations.PAGE);
                 pageSummary.getLinks().add(pageLink);
 
                 pages.getPageSummaries().add(pageSummary);
-
             }
         } finally {
             Utils.getXWikiContext(componentManager).setDatabase(database);
@@ -0,0 +1,133 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.lucene;
+
+import java.util.Arrays;
+
+import org.apache.lucene.search.Searcher;
+
+/**
+ * The positions, in the Lucene hits of a query, of the results a user is allowed to view. The hits are filtered
+ * incrementally, as the user pages through the results, and the positions are shared by all the {@link SearchResults}
+ * of the same query and user as long as the searchers and the rights don't change.
+ *
+ * @version $Id$
+ * @since 4.0M1
+ */
+class FilteredHits
+{
+    /**
+     * The searchers the hits come from.
+     */
+    private final Searcher[] searchers;
+
+    /**
+     * The date when the hits started to be filtered, in milliseconds.
+     */
+    private final long date = System.currentTimeMillis();
+
+    /**
+     * The positions of the allowed hits.
+     */
+    private int[] positions = new int[16];
+
+    /**
+     * The number of allowed hits.
+     */
+    private int size;
+
+    /**
+     * The number of hits already filtered.
+     */
+    private int checkedHits;
+
+    /**
+     * @param searchers the searchers the hits come from
+     */
+    FilteredHits(Searcher[] searchers)
+    {
+        this.searchers = searchers;
+    }
+
+    /**
+     * @return the searchers the hits come from
+     */
+    Searcher[] getSearchers()
+    {
+        return this.searchers;
+    }
+
+    /**
+     * @return the date when the hits started to be filtered, in milliseconds
+     */
+    long getDate()
+    {
+        return this.date;
+    }
+
+    /**
+     * @return the number of allowed hits found so far
+     */
+    synchronized int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * @param index the index of the allowed hit
+     * @return the position of the allowed hit in the Lucene hits
+     */
+    synchronized int getPosition(int index)
+    {
+        if (index >= this.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+
+        return this.positions[index];
+    }
+
+    /**
+     * @param position the position of a hit the user is allowed to view
+     */
+    synchronized void add(int position)
+    {
+        if (this.size == this.positions.length) {
+            this.positions = Arrays.copyOf(this.positions, this.size * 2);
+        }
+
+        this.positions[this.size++] = position;
+    }
+
+    /**
+     * @return the number of hits already filtered
+     */
+    synchronized int getCheckedHits()
+    {
+        return this.checkedHits;
+    }
+
+    /**
+     * @param checkedHits the number of hits already filtered
+     */
+    synchronized void setCheckedHits(int checkedHits)
+    {
+        this.checkedHits = checkedHits;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.lucene;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of an index rebuild started by the {@link IndexRebuilder}. The documents to index are counted as they are
+ * listed, so the estimated remaining time only take into account the documents which have already been listed.
+ *
+ * @version $Id$
+ * @since 4.0M1
+ */
+public class IndexRebuildProgress
+{
+    /**
+     * Date (in milliseconds) when the rebuild started.
+     */
+    private final long startDate = System.currentTimeMillis();
+
+    /**
+     * Date (in milliseconds) when the rebuild ended, 0 if it's still running.
+     */
+    private volatile long endDate;
+
+    /**
+     * Number of document translations found so far.
+     */
+    private final AtomicLong total = new AtomicLong();
+
+    /**
+     * Number of document translations indexed so far.
+     */
+    private final AtomicLong indexed = new AtomicLong();
+
+    /**
+     * Number of document translations which failed to be indexed so far.
+     */
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Number of document translations found already up to date in the index so far.
+     */
+    private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * Number of document translations found, by wiki.
+     */
+    private final ConcurrentMap<String, AtomicLong> totalByWiki = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Number of document translations indexed, by wiki.
+     */
+    private final ConcurrentMap<String, AtomicLong> indexedByWiki = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Number of document translations which failed to be indexed, by wiki.
+     */
+    private final ConcurrentMap<String, AtomicLong> failedByWiki = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Keep the wikis in the order they are indexed.
+     */
+    private final Map<String, Boolean> wikis = new LinkedHashMap<String, Boolean>();
+
+    /**
+     * @param wiki the wiki where the documents have been found
+     * @param count the number of document translations to index in the wiki
+     */
+    void addToIndex(String wiki, long count)
+    {
+        synchronized (this.wikis) {
+            this.wikis.put(wiki, Boolean.TRUE);
+        }
+
+        getCounter(this.totalByWiki, wiki).addAndGet(count);
+        this.total.addAndGet(count);
+    }
+
+    /**
+     * @param wiki the wiki of the document translation which has been indexed
+     */
+    void indexed(String wiki)
+    {
+        getCounter(this.indexedByWiki, wiki).incrementAndGet();
+        this.indexed.incrementAndGet();
+    }
+
+    /**
+     * @param wiki the wiki of the document translation which failed to be indexed
+     */
+    void failed(String wiki)
+    {
+        getCounter(this.failedByWiki, wiki).incrementAndGet();
+        this.failed.incrementAndGet();
+    }
+
+    /**
+     * Count a document translation which is already up to date in the index.
+     */
+    void skipped()
+    {
+        this.skipped.incrementAndGet();
+    }
+
+    /**
+     * Mark the rebuild as finished.
+     */
+    void finish()
+    {
+        this.endDate = System.currentTimeMillis();
+    }
+
+    private AtomicLong getCounter(ConcurrentMap<String, AtomicLong> counters, String wiki)
+    {
+        AtomicLong counter = counters.get(wiki);
+        if (counter == null) {
+            counter = new AtomicLong();
+            AtomicLong existing = counters.putIfAbsent(wiki, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+
+        return counter;
+    }
+
+    /**
+     * @return the date (in milliseconds) when the rebuild started
+     */
+    public long getStartDate()
+    {
+        return this.startDate;
+    }
+
+    /**
+     * @return the date (in milliseconds) when the rebuild ended, 0 if it's still running
+     */
+    public long getEndDate()
+    {
+        return this.endDate;
+    }
+
+    /**
+     * @return true if the rebuild is finished
+     */
+    public boolean isFinished()
+    {
+        return this.endDate != 0;
+    }
+
+    /**
+     * @return the number of document translations found so far
+     */
+    public long getTotal()
+    {
+        return this.total.get();
+    }
+
+    /**
+     * @return the number of document translations indexed so far
+     */
+    public long getIndexed()
+    {
+        return this.indexed.get();
+    }
+
+    /**
+     * @return the number of document translations which failed to be indexed so far
+     */
+    public long getFailed()
+    {
+        return this.failed.get();
+    }
+
+    /**
+     * @return the number of document translations found already up to date in the index so far
+     */
+    public long getSkipped()
+    {
+        return this.skipped.get();
+    }
+
+    /**
+     * @return the number of document translations handled so far, whether they have been indexed, failed to be
+     *         indexed or were already up to date
+     */
+    public long getProcessed()
+    {
+        return getIndexed() + getFailed() + getSkipped();
+    }
+
+    /**
+     * @return the number of milliseconds spent in the rebuild
+     */
+    public long getElapsedTime()
+    {
+        return (isFinished() ? this.endDate : System.currentTimeMillis()) - this.startDate;
+    }
+
+    /**
+     * @return the average number of document translations handled by second
+     */
+    public double getSpeed()
+    {
+        long elapsedTime = getElapsedTime();
+
+        return elapsedTime > 0 ? getProcessed() * 1000D / elapsedTime : 0;
+    }
+
+    /**
+     * @return the estimated number of milliseconds left before the documents found so far are handled, -1 if it can't
+     *         be estimated yet
+     */
+    public long getRemainingTime()
+    {
+        if (isFinished()) {
+            return 0;
+        }
+
+        double speed = getSpeed();
+
+        return speed > 0 ? (long) ((getTotal() - getProcessed()) * 1000D / speed) : -1;
+    }
+
+    /**
+     * @return the number of document translations found, by wiki
+     */
+    public Map<String, Long> getTotalByWiki()
+    {
+        return getCounts(this.totalByWiki);
+    }
+
+    /**
+     * @return the number of document translations indexed, by wiki
+     */
+    public Map<String, Long> getIndexedByWiki()
+    {
+        return getCounts(this.indexedByWiki);
+    }
+
+    /**
+     * @return the number of document translations which failed to be indexed, by wiki
+     */
+    public Map<String, Long> getFailedByWiki()
+    {
+        return getCounts(this.failedByWiki);
+    }
+
+    private Map<String, Long> getCounts(ConcurrentMap<String, AtomicLong> counters)
+    {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+
+        synchronized (this.wikis) {
+            for (String wiki : this.wikis.keySet()) {
+                AtomicLong counter = counters.get(wiki);
+                counts.put(wiki, counter != null ? counter.get() : 0L);
+            }
+        }
+
+        return counts;
+    }
+}
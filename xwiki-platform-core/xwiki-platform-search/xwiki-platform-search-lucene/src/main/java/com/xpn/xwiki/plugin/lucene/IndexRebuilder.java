@@ -23,10 +23,13 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
@@ -39,10 +42,16 @@
 import org.slf4j.LoggerFactory;
 import org.xwiki.context.Execution;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryCursor;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.StreamingQuery;
+import org.xwiki.query.internal.ListQueryCursor;
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.util.AbstractXWikiRunnable;
 import com.xpn.xwiki.web.Utils;
@@ -64,14 +73,18 @@
  * </ul>
  * The rebuild can be triggered using the {@link LucenePluginApi#rebuildIndex()} method of the {@link LucenePluginApi}.
  * Once a rebuild request is made, a new thread is created, so the requesting script can continue processing, while the
- * rebuilding is done in the background. The actual indexing is done by the IndexUpdater thread, this thread just
- * gathers the data and passes it to the IndexUpdater.
+ * rebuilding is done in the background. This thread just lists the documents to index and passes them through a
+ * bounded queue to a pool of worker threads which load the documents, extract their content and add them to the
+ * index of the IndexUpdater. The size of the pool can be configured using the
+ * {@link LucenePlugin#PROP_REBUILD_THREADS} property and the size of the queue is the maximum queue size of the
+ * IndexUpdater.
  * </p>
  * <p>
  * As a summary, this plugin:
  * <ul>
  * <li>cleans the Lucene search indexes and re-submits all the contents of all the wikis for indexing</li>
  * <li>without clogging the indexing thread (since 1.2)</li>
+ * <li>extracting the content of the documents in parallel (since 4.0M1)</li>
  * <li>all in a background thread (since 1.2)</li>
  * <li>making sure that only one rebuild is in progress (since 1.2)</li>
  * </ul>
@@ -87,20 +100,57 @@ public class IndexRebuilder extends AbstractXWikiRunnable
     private static final Logger LOGGER = LoggerFactory.getLogger(IndexRebuilder.class);
 
     /**
-     * Amount of time (milliseconds) to sleep while waiting for the indexing queue to empty.
+     * Entry sent to the workers to tell them to stop.
      */
-    private static final int RETRYINTERVAL = 30000;
+    private static final RebuildEntry STOP = new RebuildEntry(null, null);
+
+    /**
+     * Number of milliseconds to wait for a worker to make room in the rebuild queue before checking that the workers
+     * are still alive.
+     */
+    private static final long QUEUE_TIMEOUT = 1000L;
 
     /**
      * The actual object/thread that indexes data.
      */
     private final IndexUpdater indexUpdater;
 
+    /**
+     * The number of worker threads loading and indexing the documents.
+     */
+    private final int workers;
+
+    /**
+     * The queue of document translations waiting for a worker during a rebuild.
+     */
+    private BlockingQueue<RebuildEntry> rebuildQueue;
+
+    /**
+     * The threads of the workers of the current rebuild.
+     */
+    private List<Thread> workerThreads;
+
+    /**
+     * The progress of the current or last rebuild.
+     */
+    private volatile IndexRebuildProgress progress;
+
     /**
      * Variable used for indicating that a rebuild is already in progress.
      */
     private volatile boolean rebuildInProgress = false;
 
+    /**
+     * The thread of the current rebuild.
+     */
+    private Thread rebuilderThread;
+
+    /**
+     * Indicate that the rebuilder has been stopped: the current rebuild ends as soon as possible and no new rebuild can
+     * be started.
+     */
+    private volatile boolean stopped = false;
+
     /**
      * Wikis where to search.
      */
@@ -116,11 +166,86 @@ public class IndexRebuilder extends AbstractXWikiRunnable
      */
     private boolean onlyNew = false;
 
+    /**
+     * A document translation to index.
+     */
+    private static class RebuildEntry
+    {
+        private final DocumentReference documentReference;
+
+        private final String language;
+
+        RebuildEntry(DocumentReference documentReference, String language)
+        {
+            this.documentReference = documentReference;
+            this.language = language;
+        }
+    }
+
+    /**
+     * Load and index the document translations taken from the rebuild queue until told to stop.
+     */
+    private class Worker extends AbstractXWikiRunnable
+    {
+        private final BlockingQueue<RebuildEntry> queue;
+
+        private final IndexRebuildProgress workerProgress;
+
+        Worker(BlockingQueue<RebuildEntry> queue, IndexRebuildProgress progress, XWikiContext context)
+        {
+            super(XWikiContext.EXECUTIONCONTEXT_KEY, context);
+
+            this.queue = queue;
+            this.workerProgress = progress;
+        }
+
+        @Override
+        protected void runInternal()
+        {
+            XWikiContext context = getContext();
+            prepareContext(context);
+
+            try {
+                for (RebuildEntry entry = this.queue.take(); entry != STOP && !IndexRebuilder.this.stopped;
+                    entry = this.queue.take()) {
+                    String wikiName = entry.documentReference.getWikiReference().getName();
+                    context.setDatabase(wikiName);
+
+                    try {
+                        addTranslationOfDocument(entry.documentReference, entry.language, context);
+                        this.workerProgress.indexed(wikiName);
+                    } catch (Exception e) {
+                        this.workerProgress.failed(wikiName);
+                        LOGGER.error("Error indexing document [{}] for language [{}]", new Object[] {
+                            entry.documentReference, entry.language, e});
+                    } finally {
+                        // Don't keep a database connection for each worker
+                        context.getWiki().getStore().cleanUp(context);
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOGGER.warn("The index rebuilder worker thread has been interrupted");
+            }
+        }
+    }
+
     public IndexRebuilder(IndexUpdater indexUpdater, XWikiContext context)
+    {
+        this(indexUpdater, Runtime.getRuntime().availableProcessors(), context);
+    }
+
+    /**
+     * @param indexUpdater the updater holding the index
+     * @param workers the number of threads loading and indexing the documents during a rebuild
+     * @param context the XWiki context
+     * @since 4.0M1
+     */
+    public IndexRebuilder(IndexUpdater indexUpdater, int workers, XWikiContext context)
     {
         super(XWikiContext.EXECUTIONCONTEXT_KEY, context.clone());
 
         this.indexUpdater = indexUpdater;
+        this.workers = Math.max(1, workers);
     }
 
     private XWikiContext getContext()
@@ -137,7 +262,11 @@ public int startRebuildIndex(XWikiContext context)
     public synchronized int startIndex(Collection<String> wikis, String hqlFilter, boolean clearIndex, boolean onlyNew,
         XWikiContext context)
     {
-        if (this.rebuildInProgress) {
+        if (this.stopped) {
+            LOGGER.warn("Cannot launch rebuild because the index rebuilder has been stopped");
+
+            return LucenePluginApi.REBUILD_NOT_ALLOWED;
+        } else if (this.rebuildInProgress) {
             LOGGER.warn("Cannot launch rebuild because another rebuild is in progress");
 
             return LucenePluginApi.REBUILD_IN_PROGRESS;
@@ -146,20 +275,14 @@ public synchronized int startIndex(Collection<String> wikis, String hqlFilter, b
                 if (wikis == null) {
                     this.indexUpdater.cleanIndex();
                 } else {
-                    try {
-                        IndexWriter writer = this.indexUpdater.openWriter(false);
-                        for (String wiki : wikis) {
-                            writer.deleteDocuments(new Term(IndexFields.DOCUMENT_WIKI, wiki));
-                        }
-                    } catch (IOException ex) {
-                        LOGGER.warn("Failed to clean wiki index: {}", ex.getMessage());
-                    }
+                    this.indexUpdater.cleanWikis(wikis);
                 }
             }
 
             this.wikis = wikis != null ? new ArrayList<String>(wikis) : null;
             this.hqlFilter = hqlFilter;
             this.onlyNew = onlyNew;
+            this.progress = new IndexRebuildProgress();
             this.rebuildInProgress = true;
 
             Thread indexRebuilderThread = new Thread(this, "Lucene Index Rebuilder");
@@ -169,6 +292,7 @@ public synchronized int startIndex(Collection<String> wikis, String hqlFilter, b
             indexRebuilderThread.setPriority(3);
             // Finally, start the rebuild in the background
             indexRebuilderThread.start();
+            this.rebuilderThread = indexRebuilderThread;
 
             // Too bad that now we can't tell how many items are there to be indexed...
             return 0;
@@ -200,18 +324,7 @@ protected void runInternal()
             // context.put("org.xwiki.component.manager.ComponentManager", this.context
             // .get("org.xwiki.component.manager.ComponentManager"));
             context = getContext();
-            // For example, we definitely don't want to use the same hibernate session...
-            context.remove("hibsession");
-            context.remove("hibtransaction");
-            // This is also causing serious problems, as the same xcontext gets shared between
-            // threads and causes the hibernate session to be shared in the end. The vcontext is
-            // automatically recreated by the velocity renderer, if it isn't found in the xcontext.
-            context.remove("vcontext");
-
-            // The original request and response should not be used outside the actual request
-            // processing thread, as they will be cleaned later by the container.
-            context.setRequest(null);
-            context.setResponse(null);
+            prepareContext(context);
 
             rebuildIndex(context);
         } catch (InterruptedException e) {
@@ -219,6 +332,7 @@ protected void runInternal()
         } catch (Exception e) {
             LOGGER.error("Error in lucene rebuild thread: {}", e.getMessage(), e);
         } finally {
+            this.progress.finish();
             this.rebuildInProgress = false;
 
             if (context != null) {
@@ -229,15 +343,123 @@ protected void runInternal()
         LOGGER.debug("Lucene index rebuild done");
     }
 
+    /**
+     * Make sure the passed context, cloned from a request context, can safely be used in a different thread.
+     * 
+     * @param context the context to clean
+     */
+    private void prepareContext(XWikiContext context)
+    {
+        // For example, we definitely don't want to use the same hibernate session...
+        context.remove("hibsession");
+        context.remove("hibtransaction");
+        // This is also causing serious problems, as the same xcontext gets shared between
+        // threads and causes the hibernate session to be shared in the end. The vcontext is
+        // automatically recreated by the velocity renderer, if it isn't found in the xcontext.
+        context.remove("vcontext");
+
+        // The original request and response should not be used outside the actual request
+        // processing thread, as they will be cleaned later by the container.
+        context.setRequest(null);
+        context.setResponse(null);
+    }
+
+    /**
+     * Stop the current rebuild, if any, and wait for its threads to finish, so that they don't update the index
+     * anymore. The documents indexed so far are committed. No rebuild can be started afterwards.
+     * 
+     * @throws InterruptedException when interrupted while waiting for the rebuild to finish
+     * @since 4.0M1
+     */
+    public void stop() throws InterruptedException
+    {
+        Thread currentRebuilderThread;
+        synchronized (this) {
+            this.stopped = true;
+            currentRebuilderThread = this.rebuilderThread;
+        }
+
+        if (currentRebuilderThread != null) {
+            currentRebuilderThread.join();
+        }
+    }
+
+    /**
+     * @return the progress of the current or last rebuild, {@code null} if no rebuild has been started
+     * @since 4.0M1
+     */
+    public IndexRebuildProgress getProgress()
+    {
+        return this.progress;
+    }
+
+    /**
+     * @return the number of threads loading and indexing the documents during a rebuild
+     * @since 4.0M1
+     */
+    public int getWorkers()
+    {
+        return this.workers;
+    }
+
     /**
      * First empties the index, then fetches all Documents, their translations and their attachments for re-addition to
      * the index.
      * 
      * @param context the XWiki context
-     * @return the number of indexed elements
+     * @return the number of queued document translations
      * @throws InterruptedException
      */
     private int rebuildIndex(XWikiContext context) throws InterruptedException
+    {
+        // The bounded queue blocks the listing of the documents when the workers can't keep up, in order not to load
+        // the whole database in memory
+        this.rebuildQueue =
+            new ArrayBlockingQueue<RebuildEntry>(Math.max(this.indexUpdater.getMaxQueueSize(), this.workers));
+
+        this.workerThreads = new ArrayList<Thread>(this.workers);
+        for (int i = 0; i < this.workers; ++i) {
+            Thread workerThread =
+                new Thread(new Worker(this.rebuildQueue, this.progress, context.clone()),
+                    "Lucene Index Rebuilder Worker " + i);
+            workerThread.setDaemon(true);
+            workerThread.setPriority(Thread.currentThread().getPriority());
+            workerThread.start();
+            this.workerThreads.add(workerThread);
+        }
+
+        boolean done = false;
+        try {
+            int retval = listDocuments(context);
+            done = !this.stopped;
+
+            return retval;
+        } finally {
+            if (!done) {
+                // Drop the remaining documents
+                this.rebuildQueue.clear();
+            }
+            // Stop the workers still alive
+            int stopped = 0;
+            while (stopped < this.workers && offerToWorkers(STOP)) {
+                ++stopped;
+            }
+            for (Thread workerThread : this.workerThreads) {
+                workerThread.join();
+            }
+
+            this.indexUpdater.commit();
+        }
+    }
+
+    /**
+     * Fetches all Documents and their translations and queue them for the workers.
+     * 
+     * @param context the XWiki context
+     * @return the number of queued document translations
+     * @throws InterruptedException
+     */
+    private int listDocuments(XWikiContext context) throws InterruptedException
     {
         int retval = 0;
 
@@ -262,6 +484,9 @@ private int rebuildIndex(XWikiContext context) throws InterruptedException
 
         // Iterate all found virtual wikis
         for (String wikiName : wikiServers) {
+            if (this.stopped) {
+                break;
+            }
             int wikiResult = indexWiki(wikiName, context);
             if (wikiResult > 0) {
                 retval += wikiResult;
@@ -272,11 +497,11 @@ private int rebuildIndex(XWikiContext context) throws InterruptedException
     }
 
     /**
-     * Adds the content of a given wiki to the indexUpdater's queue.
+     * Adds the content of a given wiki to the rebuild queue.
      * 
      * @param wikiName the name of the wiki to index
      * @param context the XWiki context
-     * @return the number of indexed elements
+     * @return the number of queued document translations
      * @throws InterruptedException
      */
     protected int indexWiki(String wikiName, XWikiContext context) throws InterruptedException
@@ -305,10 +530,14 @@ protected int indexWiki(String wikiName, XWikiContext context) throws Interrupte
                     hql += this.hqlFilter;
                 }
 
-                List<Object[]> documents = context.getWiki().search(hql, context);
-
-                retval = indexDocuments(wikiName, documents, searcher, context);
-            } catch (XWikiException e) {
+                // Stream the document names instead of loading them all, there can be millions of them
+                QueryCursor<Object[]> documents = iterateDocuments(hql, wikiName, context);
+                try {
+                    retval = indexDocuments(wikiName, documents, searcher, context);
+                } finally {
+                    documents.close();
+                }
+            } catch (QueryException e) {
                 LOGGER.warn("Error getting document names for wiki [{}] and filter [{}]: {}.",
                     new Object[] {wikiName, this.hqlFilter, e.getMessage()});
 
@@ -329,65 +558,128 @@ protected int indexWiki(String wikiName, XWikiContext context) throws Interrupte
         return retval;
     }
 
-    private int indexDocuments(String wikiName, List<Object[]> documents, Searcher searcher, XWikiContext context)
-        throws InterruptedException
+    /**
+     * @param hql the query listing the space, name, version and language of the document translations to index
+     * @param wikiName the wiki where to execute the query
+     * @param context the XWiki context
+     * @return a cursor over the results of the query
+     * @throws QueryException when failing to execute the query
+     */
+    protected QueryCursor<Object[]> iterateDocuments(String hql, String wikiName, XWikiContext context)
+        throws QueryException
+    {
+        Query query = context.getWiki().getStore().getQueryManager().createQuery(hql, Query.HQL).setWiki(wikiName);
+        if (query instanceof StreamingQuery) {
+            return ((StreamingQuery) query).iterate();
+        }
+
+        return new ListQueryCursor<Object[]>(query.<Object[]> execute());
+    }
+
+    private int indexDocuments(String wikiName, Iterator<Object[]> documents, Searcher searcher,
+        XWikiContext context) throws InterruptedException
     {
         int retval = 0;
 
-        for (Object[] document : documents) {
+        // Don't leave the connection of the context open while waiting for the workers (the cursor has its own)
+        context.getWiki().getStore().cleanUp(context);
+
+        while (!this.stopped && documents.hasNext()) {
+            Object[] document = documents.next();
+            this.progress.addToIndex(wikiName, 1);
+
             DocumentReference documentReference =
                 new DocumentReference(wikiName, (String) document[0], (String) document[1]);
             String version = (String) document[2];
             String language = (String) document[3];
             if (searcher == null || !isIndexed(documentReference, version, language, searcher)) {
-                try {
-                    retval += addTranslationOfDocument(documentReference, language, context);
-                } catch (XWikiException e) {
-                    LOGGER.error("Error fetching document [{}] for language [{}]",
-                        new Object[] {documentReference, language, e});
-
-                    return retval;
+                // Wait for the workers if the queue is full. We don't use the queue of the index updater, that would
+                // delay the indexing of the documents modified by the users.
+                if (!offerToWorkers(new RebuildEntry(documentReference, language))) {
+                    throw new IllegalStateException("All the index rebuilder workers stopped unexpectedly");
                 }
+                ++retval;
+            } else {
+                this.progress.skipped();
             }
         }
 
         return retval;
     }
 
+    /**
+     * Put an entry in the rebuild queue, waiting for the workers to make room if it's full. Nobody would ever make room
+     * if all the workers died, e.g. because of an {@link Error}, so give up in that case.
+     * 
+     * @param entry the entry to queue
+     * @return false if the entry could not be queued because no worker is alive anymore
+     * @throws InterruptedException when interrupted while waiting for the workers
+     */
+    private boolean offerToWorkers(RebuildEntry entry) throws InterruptedException
+    {
+        while (!this.rebuildQueue.offer(entry, QUEUE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            boolean alive = false;
+            for (Thread workerThread : this.workerThreads) {
+                alive |= workerThread.isAlive();
+            }
+            if (!alive) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Load and index a document translation, and the attachments of the document if it's the default translation.
+     * Called from the worker threads.
+     * 
+     * @param documentReference the reference of the document to index
+     * @param language the language of the translation to index
+     * @param wikiContext the XWiki context of the worker
+     * @return the number of indexed elements
+     * @throws XWikiException when failing to load the document
+     * @throws IOException when failing to update the index
+     */
     protected int addTranslationOfDocument(DocumentReference documentReference, String language,
-        XWikiContext wikiContext) throws XWikiException, InterruptedException
+        XWikiContext wikiContext) throws XWikiException, IOException
     {
         int retval = 0;
 
         XWikiDocument document = wikiContext.getWiki().getDocument(documentReference, wikiContext);
         XWikiDocument tdocument = document.getTranslatedDocument(language, wikiContext);
 
-        // In order not to load the whole database in memory, we're limiting the number
-        // of documents that are in the processing queue at a moment. We could use a
-        // Bounded Queue in the index updater, but that would generate exceptions in the
-        // rest of the platform, as the index rebuilder could fill the queue, and then a
-        // user trying to save a document would cause an exception. Thus, it is better
-        // to limit the index rebuilder thread only, and not the index updater.
-        while (this.indexUpdater.getQueueSize() > this.indexUpdater.getMaxQueueSize()) {
-            // Don't leave any database connections open while sleeping
-            // This shouldn't be needed, but we never know what bugs might be there
-            wikiContext.getWiki().getStore().cleanUp(wikiContext);
-            Thread.sleep(RETRYINTERVAL);
-        }
-
         addTranslationOfDocument(tdocument, wikiContext);
         ++retval;
 
         if (document == tdocument) {
-            retval += this.indexUpdater.queueAttachments(document, wikiContext);
+            retval += addAttachmentsOfDocument(document, wikiContext);
         }
 
         return retval;
     }
 
-    protected void addTranslationOfDocument(XWikiDocument document, XWikiContext wikiContext)
+    protected void addTranslationOfDocument(XWikiDocument document, XWikiContext wikiContext) throws XWikiException,
+        IOException
+    {
+        this.indexUpdater.indexData(new DocumentData(document, wikiContext, false), wikiContext);
+    }
+
+    private int addAttachmentsOfDocument(XWikiDocument document, XWikiContext wikiContext)
     {
-        this.indexUpdater.queueDocument(document, wikiContext, false);
+        int retval = 0;
+
+        for (XWikiAttachment attachment : document.getAttachmentList()) {
+            try {
+                this.indexUpdater.indexData(new AttachmentData(attachment, wikiContext, false), wikiContext);
+                ++retval;
+            } catch (Exception e) {
+                LOGGER.error("Failed to index attachment [{}] of document [{}]", new Object[] {
+                    attachment.getFilename(), document, e});
+            }
+        }
+
+        return retval;
     }
 
     private Collection<String> findWikiServers(XWikiContext context)
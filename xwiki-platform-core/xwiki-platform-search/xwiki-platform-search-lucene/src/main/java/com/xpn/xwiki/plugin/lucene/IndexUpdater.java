@@ -20,18 +20,23 @@
 package com.xpn.xwiki.plugin.lucene;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TieredMergePolicy;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.LockObtainFailedException;
 import org.apache.lucene.util.Version;
@@ -42,6 +47,7 @@
 import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.bridge.event.WikiDeletedEvent;
 import org.xwiki.context.Execution;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.WikiReference;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.event.Event;
@@ -54,6 +60,7 @@
 import com.xpn.xwiki.internal.event.AttachmentAddedEvent;
 import com.xpn.xwiki.internal.event.AttachmentDeletedEvent;
 import com.xpn.xwiki.internal.event.AttachmentUpdatedEvent;
+import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.util.AbstractXWikiRunnable;
 import com.xpn.xwiki.web.Utils;
 
@@ -74,14 +81,28 @@ public class IndexUpdater extends AbstractXWikiRunnable implements EventListener
      */
     private static final int EXIT_INTERVAL = 3000;
 
+    /**
+     * The default number of milliseconds between two commits of the index.
+     */
+    private static final int DEFAULT_COMMIT_INTERVAL = 60000;
+
     private static final List<Event> EVENTS = Arrays.<Event> asList(new DocumentUpdatedEvent(),
         new DocumentCreatedEvent(), new DocumentDeletedEvent(), new AttachmentAddedEvent(),
         new AttachmentDeletedEvent());
 
+    /**
+     * The classes of the objects defining the rights, the groups and the users, in the XWiki space. Updating them
+     * changes the results a user is allowed to view.
+     */
+    private static final List<String> RIGHTS_CLASSES = Arrays.asList("XWikiRights", "XWikiGlobalRights",
+        "XWikiGroups", "XWikiUsers");
+
+    private static final String RIGHTS_CLASSES_SPACE = "XWiki";
+
     /**
      * Collecting all the fields for using up in search
      */
-    static final List<String> fields = new ArrayList<String>();
+    static final CopyOnWriteArrayList<String> fields = new CopyOnWriteArrayList<String>();
 
     private final LucenePlugin plugin;
 
@@ -101,9 +122,8 @@ public class IndexUpdater extends AbstractXWikiRunnable implements EventListener
 
     /**
      * Soft threshold after which no more documents will be added to the indexing queue. When the queue size gets larger
-     * than this value, the index rebuilding thread will sleep chunks of {@code IndexRebuilder#retryInterval}
-     * milliseconds until the queue size will get back bellow this threshold. This does not affect normal indexing
-     * through wiki updates.
+     * than this value, the index rebuilding thread waits until it gets back bellow this threshold. This does not
+     * affect normal indexing through wiki updates.
      */
     private final int maxQueueSize;
 
@@ -115,7 +135,40 @@ public class IndexUpdater extends AbstractXWikiRunnable implements EventListener
 
     private Analyzer analyzer;
 
+    /**
+     * Milliseconds between two commits of the index changes. Changes are visible to the searchers of the plugin as
+     * soon as they are indexed, but they are persisted only when committed.
+     */
+    private final int commitInterval;
+
+    /**
+     * The long-lived writer used to update the index, opened the first time something needs to be indexed.
+     */
+    private volatile IndexWriter writer;
+
+    /**
+     * Date (in milliseconds) of the last commit of the writer.
+     */
+    private long lastCommitDate;
+
+    /**
+     * Indicate if the writer holds changes which have not been committed yet.
+     */
+    private volatile boolean uncommittedChanges;
+
+    /**
+     * Indicate if documents have been indexed without going through the queue since the last refresh of the
+     * searchers.
+     */
+    private volatile boolean refreshNeeded;
+
     IndexUpdater(Directory directory, int indexingInterval, int maxQueueSize, LucenePlugin plugin, XWikiContext context)
+    {
+        this(directory, indexingInterval, maxQueueSize, DEFAULT_COMMIT_INTERVAL, plugin, context);
+    }
+
+    IndexUpdater(Directory directory, int indexingInterval, int maxQueueSize, int commitInterval,
+        LucenePlugin plugin, XWikiContext context)
     {
         super(XWikiContext.EXECUTIONCONTEXT_KEY, context.clone());
 
@@ -125,6 +178,7 @@ public class IndexUpdater extends AbstractXWikiRunnable implements EventListener
 
         this.indexingInterval = indexingInterval;
         this.maxQueueSize = maxQueueSize;
+        this.commitInterval = commitInterval;
     }
 
     private XWikiContext getContext()
@@ -133,7 +187,10 @@ private XWikiContext getContext()
             .getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
     }
 
-    public void doExit()
+    /**
+     * Stop the updater thread. The writer is closed by the updater thread and is not opened again afterwards.
+     */
+    public synchronized void doExit()
     {
         this.exit = true;
     }
@@ -182,6 +239,9 @@ private void runMainLoop()
                 LOGGER.warn("Error while sleeping", e);
             }
         }
+
+        // Persist the last changes
+        closeWriter();
     }
 
     /**
@@ -189,6 +249,27 @@ private void runMainLoop()
      */
     private void updateIndex()
     {
+        // The searchers are refreshed without holding the monitor of the updater since the plugin gets the writer
+        if (indexQueue()) {
+            // Only the segments which changed are reloaded, no need to wait for a commit to see the changes
+            this.plugin.refreshSearchers(getContext());
+        }
+
+        commitIfNeeded();
+    }
+
+    /**
+     * Index the queued documents.
+     * 
+     * @return true if the searchers have to be refreshed to see the changes made to the index
+     */
+    private synchronized boolean indexQueue()
+    {
+        if (this.exit) {
+            // Stopped while waiting for the monitor, the writer must not be opened again
+            return false;
+        }
+
         if (this.queue.isEmpty()) {
             LOGGER.debug("IndexUpdater: queue empty, nothing to do");
         } else {
@@ -197,23 +278,7 @@ private void updateIndex()
             XWikiContext context = getContext();
             context.getWiki().getStore().cleanUp(context);
 
-            IndexWriter writer;
-            RETRY: while (true) {
-                // We will retry after repairing if the index was
-                // corrupt
-                try {
-                    try {
-                        writer = openWriter(false);
-                        break RETRY;
-                    } catch (CorruptIndexException e) {
-                        this.plugin.handleCorruptIndex(context);
-                    }
-                } catch (IOException e) {
-                    LOGGER.error("Failed to open index", e);
-
-                    throw new RuntimeException(e);
-                }
-            }
+            IndexWriter writer = getOrOpenWriter(context);
 
             try {
                 int nb = 0;
@@ -233,21 +298,107 @@ private void updateIndex()
                     }
                 }
 
+                this.uncommittedChanges = true;
+
                 LOGGER.info("indexed [{}] docs to lucene index", nb);
             } catch (Exception e) {
                 LOGGER.error("error indexing documents", e);
             } finally {
                 context.getWiki().getStore().cleanUp(context);
+            }
+
+            this.refreshNeeded = true;
+        }
+
+        // The changes made after the reset are seen by the refresh anyway
+        boolean refresh = this.refreshNeeded;
+        if (refresh) {
+            this.refreshNeeded = false;
+        }
 
+        return refresh;
+    }
+
+    /**
+     * Persist the changes made to the index if the commit interval is elapsed since the last commit.
+     */
+    private synchronized void commitIfNeeded()
+    {
+        if (this.uncommittedChanges && System.currentTimeMillis() - this.lastCommitDate >= this.commitInterval) {
+            commit();
+        }
+    }
+
+    /**
+     * Return the long-lived writer used to update the index, opening it if needed. Segments are merged in the
+     * background according to the writer merge policy.
+     * 
+     * @param context the XWiki context
+     * @return the writer
+     */
+    private synchronized IndexWriter getOrOpenWriter(XWikiContext context)
+    {
+        if (this.writer == null && this.exit) {
+            // Nobody would close the writer and release the index lock
+            throw new IllegalStateException("The index updater has been stopped");
+        }
+
+        while (this.writer == null) {
+            // We will retry after repairing if the index was corrupt
+            try {
                 try {
-                    writer.optimize();
-                    writer.close();
-                } catch (IOException e) {
-                    LOGGER.warn("Failed to close writer.", e);
+                    this.writer = openWriter(false);
+                    this.lastCommitDate = System.currentTimeMillis();
+                } catch (CorruptIndexException e) {
+                    this.plugin.handleCorruptIndex(context);
                 }
+            } catch (IOException e) {
+                LOGGER.error("Failed to open index", e);
+
+                throw new RuntimeException(e);
             }
+        }
+
+        return this.writer;
+    }
 
-            this.plugin.openSearchers(context);
+    /**
+     * @return the long-lived writer used to update the index or {@code null} if it's not opened
+     */
+    synchronized IndexWriter getWriter()
+    {
+        return this.writer;
+    }
+
+    /**
+     * Persist the changes made to the index since the last commit.
+     */
+    synchronized void commit()
+    {
+        if (this.writer != null) {
+            try {
+                this.writer.commit();
+                this.uncommittedChanges = false;
+            } catch (IOException e) {
+                LOGGER.error("Failed to commit index changes", e);
+            }
+            this.lastCommitDate = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Commit the pending changes and release the long-lived writer.
+     */
+    private synchronized void closeWriter()
+    {
+        if (this.writer != null) {
+            try {
+                this.writer.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close writer.", e);
+            }
+            this.writer = null;
+            this.uncommittedChanges = false;
         }
     }
 
@@ -259,6 +410,9 @@ protected IndexWriter openWriter(boolean create) throws IOException
                 if (create) {
                     cfg.setOpenMode(OpenMode.CREATE);
                 }
+                // Merge segments in background threads instead of optimizing the whole index after each update
+                cfg.setMergePolicy(new TieredMergePolicy());
+                cfg.setMergeScheduler(new ConcurrentMergeScheduler());
                 IndexWriter w = new IndexWriter(this.directory, cfg);
                 return w;
             } catch (LockObtainFailedException e) {
@@ -284,9 +438,7 @@ private void addToIndex(IndexWriter writer, AbstractIndexData data, XWikiContext
 
         // collecting all the fields for using up in search
         for (Fieldable field : luceneDoc.getFields()) {
-            if (!fields.contains(field.name())) {
-                fields.add(field.name());
-            }
+            fields.addIfAbsent(field.name());
         }
 
         writer.updateDocument(data.getTerm(), luceneDoc);
@@ -300,6 +452,33 @@ private void removeFromIndex(IndexWriter writer, AbstractIndexData data, XWikiCo
         writer.deleteDocuments(data.getTerm());
     }
 
+    /**
+     * Index the passed data right away from the calling thread, without going through the queue. Used by the index
+     * rebuilder workers which extract the content of the documents in parallel: the writer supports concurrent
+     * updates.
+     * 
+     * @param data the data to index
+     * @param context the XWiki context of the calling thread
+     * @throws IOException when failing to update the index
+     * @throws XWikiException when failing to extract the data
+     */
+    void indexData(AbstractIndexData data, XWikiContext context) throws IOException, XWikiException
+    {
+        IndexWriter currentWriter = this.writer;
+        if (currentWriter == null) {
+            currentWriter = getOrOpenWriter(context);
+        }
+
+        if (data.isDeleted()) {
+            removeFromIndex(currentWriter, data, context);
+        } else {
+            addToIndex(currentWriter, data, context);
+        }
+
+        this.uncommittedChanges = true;
+        this.refreshNeeded = true;
+    }
+
     /**
      * @param analyzer The analyzer to set.
      */
@@ -308,17 +487,42 @@ public void setAnalyzer(Analyzer analyzer)
         this.analyzer = analyzer;
     }
 
-    public void cleanIndex()
+    public synchronized void cleanIndex()
     {
         LOGGER.info("trying to clear index for rebuilding");
 
         try {
-            openWriter(true).close();
+            if (this.writer != null) {
+                this.writer.deleteAll();
+                this.writer.commit();
+                this.uncommittedChanges = false;
+                this.lastCommitDate = System.currentTimeMillis();
+            } else {
+                openWriter(true).close();
+            }
         } catch (IOException e) {
             LOGGER.error("Failed to clean index", e);
         }
     }
 
+    /**
+     * Remove from the index all the documents of the passed wikis.
+     * 
+     * @param wikis the wikis to remove from the index
+     */
+    public synchronized void cleanWikis(Collection<String> wikis)
+    {
+        try {
+            IndexWriter writer = getOrOpenWriter(getContext());
+            for (String wiki : wikis) {
+                writer.deleteDocuments(new Term(IndexFields.DOCUMENT_WIKI, wiki));
+            }
+            commit();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to clean wiki index: {}", e.getMessage());
+        }
+    }
+
     public void queueDocument(XWikiDocument document, XWikiContext context, boolean deleted)
     {
         this.queue.add(new DocumentData(document, context, deleted));
@@ -392,8 +596,10 @@ public void onEvent(Event event, Object source, Object data)
 
         try {
             if (event instanceof DocumentUpdatedEvent || event instanceof DocumentCreatedEvent) {
+                invalidateFilteredHits((XWikiDocument) source);
                 queueDocument((XWikiDocument) source, context, false);
             } else if (event instanceof DocumentDeletedEvent) {
+                invalidateFilteredHits((XWikiDocument) source);
                 queueDocument((XWikiDocument) source, context, true);
             } else if (event instanceof AttachmentUpdatedEvent || event instanceof AttachmentAddedEvent) {
                 queueAttachment(((XWikiDocument) source).getAttachment(((AbstractAttachmentEvent) event).getName()),
@@ -408,6 +614,39 @@ public void onEvent(Event event, Object source, Object data)
         }
     }
 
+    /**
+     * Make the plugin forget the hits filtered for the users when the saved or deleted document holds rights, groups or
+     * users, before or after the change.
+     * 
+     * @param document the saved or deleted document
+     */
+    private void invalidateFilteredHits(XWikiDocument document)
+    {
+        if (hasRightsObjects(document) || hasRightsObjects(document.getOriginalDocument())) {
+            this.plugin.invalidateFilteredHits();
+        }
+    }
+
+    /**
+     * @param document a document, can be {@code null}
+     * @return true if the document holds objects defining rights, groups or users
+     */
+    private boolean hasRightsObjects(XWikiDocument document)
+    {
+        if (document != null) {
+            for (Map.Entry<DocumentReference, List<BaseObject>> entry : document.getXObjects().entrySet()) {
+                DocumentReference classReference = entry.getKey();
+                if (RIGHTS_CLASSES.contains(classReference.getName())
+                    && RIGHTS_CLASSES_SPACE.equals(classReference.getLastSpaceReference().getName())
+                    && !entry.getValue().isEmpty()) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
     /**
      * @return the number of documents in the queue.
      */
@@ -419,14 +658,18 @@ public long getQueueSize()
     /**
      * @return the number of documents in Lucene index writer.
      */
-    public long getLuceneDocCount()
+    public synchronized long getLuceneDocCount()
     {
         int n = -1;
 
         try {
-            IndexWriter w = openWriter(false);
-            n = w.numDocs();
-            w.close();
+            if (this.writer != null) {
+                n = this.writer.numDocs();
+            } else {
+                IndexWriter w = openWriter(false);
+                n = w.numDocs();
+                w.close();
+            }
         } catch (IOException e) {
             LOGGER.error("Failed to get the number of documents in Lucene index writer", e);
         }
@@ -434,6 +677,14 @@ public long getLuceneDocCount()
         return n;
     }
 
+    /**
+     * @return the number of milliseconds the oldest document of the queue has been waiting to be indexed
+     */
+    public long getQueueAge()
+    {
+        return this.queue.getAge();
+    }
+
     public int getMaxQueueSize()
     {
         return this.maxQueueSize;
@@ -21,10 +21,19 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.commons.collections.map.LRUMap;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
@@ -91,8 +100,23 @@ public class LucenePlugin extends XWikiDefaultPlugin
 
     public static final String PROP_MAX_QUEUE_SIZE = "xwiki.plugins.lucene.maxQueueSize";
 
+    public static final String PROP_COMMIT_INTERVAL = "xwiki.plugins.lucene.commitinterval";
+
+    public static final String PROP_REBUILD_THREADS = "xwiki.plugins.lucene.rebuildthreads";
+
     private static final String DEFAULT_ANALYZER = "org.apache.lucene.analysis.standard.StandardAnalyzer";
 
+    /**
+     * The maximum number of queries for which the results allowed to a user are remembered.
+     */
+    private static final int FILTERED_HITS_CACHE_SIZE = 100;
+
+    /**
+     * Number of milliseconds the results allowed to a user are remembered, to bound the time a change of rights not
+     * made through a document update (e.g. by an external authentication service) takes to be visible in the results.
+     */
+    private static final long FILTERED_HITS_TIMEOUT = 300000L;
+
     /**
      * The Lucene text analyzer, can be configured in <tt>xwiki.cfg</tt> using the key {@link #PROP_ANALYZER} (
      * <tt>xwiki.plugins.lucene.analyzer</tt>).
@@ -113,7 +137,22 @@ public class LucenePlugin extends XWikiDefaultPlugin
      * List of Lucene indexes used for searching. By default there is only one such index for all the wiki. One searches
      * is created for each entry in {@link #indexDirs}.
      */
-    private Searcher[] searchers;
+    private volatile Searcher[] searchers;
+
+    /**
+     * Lock protecting the replacement of the searchers and the reference counts of their index readers.
+     */
+    private final Object searchersLock = new Object();
+
+    /**
+     * The references to the search results not garbage collected yet, protected by {@link #searchersLock}.
+     */
+    private final Set<SearchResultsReference> searchResultsReferences = new HashSet<SearchResultsReference>();
+
+    /**
+     * The references to the garbage collected search results, whose index readers may have not been released.
+     */
+    private final ReferenceQueue<SearchResults> collectedSearchResults = new ReferenceQueue<SearchResults>();
 
     /**
      * Comma separated list of directories holding Lucene index data. The first such directory is used by the internal
@@ -123,7 +162,57 @@ public class LucenePlugin extends XWikiDefaultPlugin
      */
     private String indexDirs;
 
-    private IndexRebuilder indexRebuilder;
+    private volatile IndexRebuilder indexRebuilder;
+
+    /**
+     * Indicate if the first searcher is a near real-time searcher, i.e. reading the changes of the index updater writer
+     * before they are committed.
+     */
+    private boolean nearRealTimeSearcher;
+
+    /**
+     * Number of milliseconds the last refresh of the searchers took.
+     */
+    private volatile long searcherRefreshTime;
+
+    /**
+     * The positions of the hits allowed to a user, by query and user, to page cheaply through the results.
+     */
+    @SuppressWarnings("unchecked")
+    private final Map<String, FilteredHits> filteredHitsCache = Collections.synchronizedMap(new LRUMap(
+        FILTERED_HITS_CACHE_SIZE));
+
+    /**
+     * Reference to search results, used to release the index readers of the results garbage collected without having
+     * been released.
+     */
+    private static final class SearchResultsReference extends PhantomReference<SearchResults>
+    {
+        /**
+         * The searchers of the results.
+         */
+        private final Searcher[] indexes;
+
+        /**
+         * Whether the index readers of the results have been released, shared with the results.
+         */
+        private final AtomicBoolean released;
+
+        /**
+         * @param results the search results
+         * @param indexes the searchers of the results
+         * @param released whether the index readers of the results have been released
+         * @param queue the queue the reference is enqueued in once the results are garbage collected
+         */
+        SearchResultsReference(SearchResults results, Searcher[] indexes, AtomicBoolean released,
+            ReferenceQueue<SearchResults> queue)
+        {
+            super(results, queue);
+
+            this.indexes = indexes;
+            this.released = released;
+        }
+    }
 
     public LucenePlugin(String name, String className, XWikiContext context)
     {
@@ -181,11 +270,8 @@ public int startIndex(Collection<String> wikis, String hqlFilter, boolean clearI
     public SearchResults getSearchResultsFromIndexes(String query, String myIndexDirs, String languages,
         XWikiContext context) throws Exception
     {
-        Searcher[] mySearchers = createSearchers(myIndexDirs, context);
-        SearchResults retval = search(query, (String) null, null, languages, mySearchers, context);
-        closeSearchers(mySearchers);
-
-        return retval;
+        // The searchers are closed when the results are released
+        return search(query, (String) null, null, languages, createSearchers(myIndexDirs, context), context);
     }
 
     /**
@@ -205,11 +291,8 @@ public SearchResults getSearchResultsFromIndexes(String query, String myIndexDir
     public SearchResults getSearchResultsFromIndexes(String query, String[] sortFields, String myIndexDirs,
         String languages, XWikiContext context) throws Exception
     {
-        Searcher[] mySearchers = createSearchers(myIndexDirs, context);
-        SearchResults retval = search(query, sortFields, null, languages, mySearchers, context);
-        closeSearchers(mySearchers);
-
-        return retval;
+        // The searchers are closed when the results are released
+        return search(query, sortFields, null, languages, createSearchers(myIndexDirs, context), context);
     }
 
     /**
@@ -230,11 +313,8 @@ public SearchResults getSearchResultsFromIndexes(String query, String[] sortFiel
     public SearchResults getSearchResultsFromIndexes(String query, String sortField, String myIndexDirs,
         String languages, XWikiContext context) throws Exception
     {
-        Searcher[] mySearchers = createSearchers(myIndexDirs, context);
-        SearchResults retval = search(query, sortField, null, languages, mySearchers, context);
-        closeSearchers(mySearchers);
-
-        return retval;
+        // The searchers are closed when the results are released
+        return search(query, sortField, null, languages, createSearchers(myIndexDirs, context), context);
     }
 
     /**
@@ -254,7 +334,7 @@ public SearchResults getSearchResultsFromIndexes(String query, String sortField,
     public SearchResults getSearchResults(String query, String sortField, String virtualWikiNames, String languages,
         XWikiContext context) throws Exception
     {
-        return search(query, sortField, virtualWikiNames, languages, this.searchers, context);
+        return search(query, sortField, virtualWikiNames, languages, acquireSearchers(), context);
     }
 
     /**
@@ -274,7 +354,7 @@ public SearchResults getSearchResults(String query, String sortField, String vir
     public SearchResults getSearchResults(String query, String[] sortField, String virtualWikiNames, String languages,
         XWikiContext context) throws Exception
     {
-        return search(query, sortField, virtualWikiNames, languages, this.searchers, context);
+        return search(query, sortField, virtualWikiNames, languages, acquireSearchers(), context);
     }
 
     /**
@@ -349,7 +429,8 @@ private SearchResults search(String query, String[] sortFields, String virtualWi
      *        all virtual wikis.
      * @param languages Comma separated list of language codes to search in, may be <tt>null</tt> or empty to search all
      *        languages.
-     * @param indexes List of Lucene indexes (searchers) to search.
+     * @param indexes List of Lucene indexes (searchers) to search. The reference held on their index readers is
+     *        released when the returned results are released.
      * @param context The context of the request.
      * @return The list of search results.
      * @throws IOException If the Lucene searchers encounter a problem reading the indexes.
@@ -358,23 +439,76 @@ private SearchResults search(String query, String[] sortFields, String virtualWi
     private SearchResults search(String query, Sort sort, String virtualWikiNames, String languages,
         Searcher[] indexes, XWikiContext context) throws IOException, ParseException
     {
-        MultiSearcher searcher = new MultiSearcher(indexes);
+        SearchResults searchResults = null;
+        try {
+            MultiSearcher searcher = new MultiSearcher(indexes);
 
-        // Enhance the base query with wiki names and languages.
-        Query q = buildQuery(query, virtualWikiNames, languages);
+            // Enhance the base query with wiki names and languages.
+            Query q = buildQuery(query, virtualWikiNames, languages);
 
-        // Perform the actual search
-        TopDocsCollector< ? extends ScoreDoc> results;
-        if (sort != null) {
-            results = TopFieldCollector.create(sort, 1000, true, true, false, false);
-        } else {
-            results = TopScoreDocCollector.create(1000, false);
+            // Perform the actual search
+            TopDocsCollector< ? extends ScoreDoc> results;
+            if (sort != null) {
+                results = TopFieldCollector.create(sort, 1000, true, true, false, false);
+            } else {
+                results = TopScoreDocCollector.create(1000, false);
+            }
+            searcher.search(q, results);
+            LOGGER.debug("query [{}] returned {} hits", q, results.getTotalHits());
+
+            // Transform the raw Lucene search results into XWiki-aware results
+            searchResults =
+                new SearchResults(results, searcher, indexes, this, getFilteredHits(q, sort, indexes, context),
+                    new com.xpn.xwiki.api.XWiki(context.getWiki(), context), context);
+        } finally {
+            if (searchResults == null) {
+                releaseSearchers(indexes);
+            }
+        }
+
+        return searchResults;
+    }
+
+    /**
+     * Get the hits of a query already filtered for the current user. They are reused as long as the searchers don't
+     * change, i.e. as long as the index is not updated, the rights are not updated and
+     * {@link #FILTERED_HITS_TIMEOUT} is not elapsed.
+     * 
+     * @param query the executed query
+     * @param sort the sort of the hits
+     * @param indexes the searchers used to execute the query
+     * @param context the XWiki context
+     * @return the filtered hits
+     */
+    FilteredHits getFilteredHits(Query query, Sort sort, Searcher[] indexes, XWikiContext context)
+    {
+        // Don't remember the hits of indexes searched only once
+        if (indexes != this.searchers) {
+            return new FilteredHits(indexes);
         }
-        searcher.search(q, results);
-        LOGGER.debug("query [{}] returned {} hits", q, results.getTotalHits());
 
-        // Transform the raw Lucene search results into XWiki-aware results
-        return new SearchResults(results, searcher, new com.xpn.xwiki.api.XWiki(context.getWiki(), context), context);
+        String key = context.getDatabase() + ':' + context.getUser() + ':' + sort + ':' + query;
+
+        synchronized (this.filteredHitsCache) {
+            FilteredHits filteredHits = this.filteredHitsCache.get(key);
+            if (filteredHits == null || filteredHits.getSearchers() != indexes
+                || System.currentTimeMillis() - filteredHits.getDate() > FILTERED_HITS_TIMEOUT) {
+                filteredHits = new FilteredHits(indexes);
+                this.filteredHitsCache.put(key, filteredHits);
+            }
+
+            return filteredHits;
+        }
+    }
+
+    /**
+     * Forget the hits filtered for the users, because the rights, the groups or the users changed.
+     * 
+     * @since 4.0M1
+     */
+    void invalidateFilteredHits()
+    {
+        this.filteredHitsCache.clear();
     }
 
     /**
@@ -519,7 +653,16 @@ public void init(Directory directory, XWikiContext context)
             maxQueueSize = 1000;
         }
 
-        IndexUpdater indexUpdater = new IndexUpdater(directory, indexingInterval, maxQueueSize, this, context);
+        int commitInterval;
+        try {
+            commitInterval = 1000 * (int) context.getWiki().ParamAsLong(PROP_COMMIT_INTERVAL, 60);
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Invalid commit interval in configuration.");
+            commitInterval = 60000;
+        }
+
+        IndexUpdater indexUpdater =
+            new IndexUpdater(directory, indexingInterval, maxQueueSize, commitInterval, this, context);
 
         init(indexUpdater, context);
     }
@@ -535,7 +678,16 @@ public void init(IndexUpdater indexUpdater, XWikiContext context)
             LOGGER.warn("Failed to check if index exists: {}", e.getMessage());
         }
 
-        IndexRebuilder indexRebuilder = new IndexRebuilder(indexUpdater, context);
+        int rebuildThreads;
+        try {
+            rebuildThreads =
+                (int) context.getWiki().ParamAsLong(PROP_REBUILD_THREADS, Runtime.getRuntime().availableProcessors());
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Invalid number of rebuild threads in configuration.");
+            rebuildThreads = Runtime.getRuntime().availableProcessors();
+        }
+
+        IndexRebuilder indexRebuilder = new IndexRebuilder(indexUpdater, rebuildThreads, context);
         if (needInitialRebuild) {
             indexRebuilder.startRebuildIndex(context);
             LOGGER.info("Launched initial lucene indexing");
@@ -603,6 +755,16 @@ public void flushCache(XWikiContext context)
                 .getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
         }
 
+        // Stop the rebuild workers first, they index through the updater
+        IndexRebuilder currentIndexRebuilder = this.indexRebuilder;
+        if (currentIndexRebuilder != null) {
+            try {
+                currentIndexRebuilder.stop();
+            } catch (InterruptedException ex) {
+                LOGGER.warn("Error while waiting for the index rebuild to stop.", ex);
+            }
+        }
+
         if (this.indexUpdater != null) {
             Utils.getComponent(ObservationManager.class).removeListener(this.indexUpdater.getName());
 
@@ -622,10 +784,12 @@ public void flushCache(XWikiContext context)
 
         this.indexRebuilder = null;
 
-        try {
-            closeSearchers(this.searchers);
-        } catch (IOException e) {
-            LOGGER.warn("Cannot close searchers: {}", e.getMessage());
+        invalidateFilteredHits();
+
+        synchronized (this.searchersLock) {
+            // The search results not released yet keep their index readers open
+            retireSearchers(this.searchers);
+            this.searchers = null;
         }
 
         this.analyzer = null;
@@ -670,17 +834,212 @@ public Searcher[] createSearchers(String indexDirs, XWikiContext context) throws
      */
     protected synchronized void openSearchers(XWikiContext context)
     {
+        long start = System.currentTimeMillis();
+
         try {
-            closeSearchers(this.searchers);
-            this.searchers = createSearchers(this.indexDirs, context);
+            Searcher[] newSearchers = createSearchers(this.indexDirs, context);
+            synchronized (this.searchersLock) {
+                Searcher[] oldSearchers = this.searchers;
+                this.searchers = newSearchers;
+                retireSearchers(oldSearchers);
+            }
+            this.nearRealTimeSearcher = false;
         } catch (Exception e) {
             LOGGER.error("Error opening searchers for index dirs [{}]", context.getWiki().Param(PROP_INDEX_DIR), e);
             throw new RuntimeException("Error opening searchers for index dirs "
                 + context.getWiki().Param(PROP_INDEX_DIR), e);
         }
+
+        this.searcherRefreshTime = System.currentTimeMillis() - start;
     }
 
     /**
+     * Reopen the searchers so that they see the latest changes made to the indexes. Unlike
+     * {@link #openSearchers(XWikiContext)}, only the index segments which changed are loaded. The searcher of the index
+     * updated by the {@link IndexUpdater} reads directly from its writer so that changes are visible before being
+     * committed.
+     */
+    protected synchronized void refreshSearchers(XWikiContext context)
+    {
+        if (this.searchers == null) {
+            openSearchers(context);
+
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+
+        try {
+            IndexWriter writer = this.indexUpdater != null ? this.indexUpdater.getWriter() : null;
+
+            Searcher[] newSearchers = new Searcher[this.searchers.length];
+            List<Searcher> oldSearchers = new ArrayList<Searcher>();
+            for (int i = 0; i < this.searchers.length; ++i) {
+                IndexReader reader = ((IndexSearcher) this.searchers[i]).getIndexReader();
+                IndexReader newReader;
+                if (i == 0 && writer != null && !this.nearRealTimeSearcher) {
+                    newReader = IndexReader.open(writer, true);
+                    this.nearRealTimeSearcher = true;
+                } else {
+                    newReader = reader.reopen();
+                }
+
+                if (newReader != reader) {
+                    newSearchers[i] = new IndexSearcher(newReader);
+                    oldSearchers.add(this.searchers[i]);
+                } else {
+                    newSearchers[i] = this.searchers[i];
+                }
+            }
+
+            synchronized (this.searchersLock) {
+                this.searchers = newSearchers;
+                retireSearchers(oldSearchers.toArray(new Searcher[oldSearchers.size()]));
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Failed to reopen searchers, opening new ones: {}", e.getMessage());
+
+            openSearchers(context);
+
+            return;
+        }
+
+        this.searcherRefreshTime = System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Close the searchers replaced by a refresh. Closing a searcher only releases the reference the plugin holds on its
+     * index reader: the reader is really closed once the search results using it are released too. Must be called
+     * while holding {@link #searchersLock}.
+     * 
+     * @param oldSearchers the searchers which have just been replaced
+     */
+    private void retireSearchers(Searcher[] oldSearchers)
+    {
+        try {
+            closeSearchers(oldSearchers);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot close searchers: {}", e.getMessage());
+        }
+
+        releaseCollectedSearchResults();
+    }
+
+    /**
+     * Remember the index readers used by search results, to release them if the results are garbage collected without
+     * having been released.
+     * 
+     * @param results the search results
+     * @param indexes the searchers of the results
+     * @param released whether the index readers of the results have been released, shared with the results
+     */
+    void trackSearchResults(SearchResults results, Searcher[] indexes, AtomicBoolean released)
+    {
+        synchronized (this.searchersLock) {
+            releaseCollectedSearchResults();
+
+            this.searchResultsReferences.add(new SearchResultsReference(results, indexes, released,
+                this.collectedSearchResults));
+        }
+    }
+
+    /**
+     * Release the index readers of the search results garbage collected without having been released. Must be called
+     * while holding {@link #searchersLock}.
+     */
+    private void releaseCollectedSearchResults()
+    {
+        Reference< ? extends SearchResults> reference;
+        while ((reference = this.collectedSearchResults.poll()) != null) {
+            SearchResultsReference searchResultsReference = (SearchResultsReference) reference;
+            this.searchResultsReferences.remove(searchResultsReference);
+            releaseSearchers(searchResultsReference.indexes, searchResultsReference.released);
+        }
+    }
+
+    /**
+     * Release the index readers of search results, unless they have already been released.
+     * 
+     * @param indexes the searchers of the results
+     * @param released whether the index readers of the results have been released, shared with the results
+     */
+    void releaseSearchers(Searcher[] indexes, AtomicBoolean released)
+    {
+        if (released.compareAndSet(false, true)) {
+            releaseSearchers(indexes);
+        }
+    }
+
+    /**
+     * Get the current searchers and prevent their index readers from being closed until they are released with
+     * {@link #releaseSearchers(Searcher[])}, even if the searchers are replaced in the meantime.
+     * 
+     * @return the current searchers
+     */
+    Searcher[] acquireSearchers()
+    {
+        synchronized (this.searchersLock) {
+            Searcher[] currentSearchers = this.searchers;
+            if (currentSearchers != null) {
+                for (Searcher searcher : currentSearchers) {
+                    ((IndexSearcher) searcher).getIndexReader().incRef();
+                }
+            }
+
+            return currentSearchers;
+        }
+    }
+
+    /**
+     * Prevent the index readers of searchers acquired before from being closed until they are released again with
+     * {@link #releaseSearchers(Searcher[])}.
+     * 
+     * @param indexes searchers acquired before with {@link #acquireSearchers()}
+     * @return false if the index readers have already been closed, in which case nothing is acquired
+     */
+    boolean acquireSearchers(Searcher[] indexes)
+    {
+        synchronized (this.searchersLock) {
+            for (Searcher searcher : indexes) {
+                if (!(searcher instanceof IndexSearcher)
+                    || ((IndexSearcher) searcher).getIndexReader().getRefCount() <= 0) {
+                    return false;
+                }
+            }
+            for (Searcher searcher : indexes) {
+                ((IndexSearcher) searcher).getIndexReader().incRef();
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Release the index readers of acquired searchers. A reader is closed when it is not used anymore by the plugin nor
+     * by any search.
+     * 
+     * @param indexes searchers acquired with {@link #acquireSearchers()} or {@link #acquireSearchers(Searcher[])}
+     */
+    void releaseSearchers(Searcher[] indexes)
+    {
+        if (indexes == null) {
+            return;
+        }
+
+        synchronized (this.searchersLock) {
+            for (Searcher searcher : indexes) {
+                try {
+                    ((IndexSearcher) searcher).getIndexReader().decRef();
+                } catch (IOException e) {
+                    LOGGER.warn("Cannot close index reader: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Close the searchers, or release the plugin reference on their index reader when searches are still using them.
+     * 
      * @throws IOException
      */
     protected static void closeSearchers(Searcher[] searchers) throws IOException
@@ -689,6 +1048,10 @@ protected static void closeSearchers(Searcher[] searchers) throws IOException
             for (int i = 0; i < searchers.length; i++) {
                 if (searchers[i] != null) {
                     searchers[i].close();
+                    // Searchers created from a reader don't close it
+                    if (searchers[i] instanceof IndexSearcher) {
+                        ((IndexSearcher) searchers[i]).getIndexReader().close();
+                    }
                 }
             }
         }
@@ -704,6 +1067,35 @@ public long getQueueSize()
         return this.indexUpdater.getQueueSize();
     }
 
+    /**
+     * @return the number of milliseconds the oldest document of the queue has been waiting to be indexed
+     */
+    public long getQueueAge()
+    {
+        return this.indexUpdater.getQueueAge();
+    }
+
+    /**
+     * @return the number of milliseconds the last refresh of the searchers took
+     */
+    public long getSearcherRefreshTime()
+    {
+        return this.searcherRefreshTime;
+    }
+
+    /**
+     * @return the progress of the current or last index rebuild, {@code null} if no rebuild has been started or if the
+     *         plugin is being reinitialized
+     * @since 4.0M1
+     */
+    public IndexRebuildProgress getRebuildProgress()
+    {
+        // The rebuilder is reset when the cache is flushed
+        IndexRebuilder currentIndexRebuilder = this.indexRebuilder;
+
+        return currentIndexRebuilder != null ? currentIndexRebuilder.getProgress() : null;
+    }
+
     public void queueDocument(XWikiDocument doc, XWikiContext context)
     {
         this.indexUpdater.queueDocument(doc, context, false);
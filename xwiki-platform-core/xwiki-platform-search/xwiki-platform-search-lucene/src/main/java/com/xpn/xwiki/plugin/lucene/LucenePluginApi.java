@@ -155,6 +155,52 @@ public long getQueueSize()
         }
     }
 
+    /**
+     * @return the number of milliseconds the oldest document of the queue has been waiting to be indexed, i.e. how late
+     *         the index is
+     */
+    public long getQueueAge()
+    {
+        try {
+            return getProtectedPlugin().getQueueAge();
+        } catch (Exception e) {
+            LOGGER.error("Failed to get the age of the indexing queue", e);
+
+            return 0;
+        }
+    }
+
+    /**
+     * @return the number of milliseconds the last refresh of the searchers took after an index update
+     */
+    public long getSearcherRefreshTime()
+    {
+        try {
+            return getProtectedPlugin().getSearcherRefreshTime();
+        } catch (Exception e) {
+            LOGGER.error("Failed to get the searchers refresh time", e);
+
+            return 0;
+        }
+    }
+
+    /**
+     * @return the progress (indexed documents by wiki, documents per second, estimated remaining time) of the current
+     *         or last index rebuild, {@code null} if no rebuild has been started or if the plugin is being
+     *         reinitialized
+     * @since 4.0M1
+     */
+    public IndexRebuildProgress getRebuildProgress()
+    {
+        try {
+            return getProtectedPlugin().getRebuildProgress();
+        } catch (Exception e) {
+            LOGGER.error("Failed to get the progress of the index rebuild", e);
+
+            return null;
+        }
+    }
+
     /**
      * @return the number of documents Lucene index writer.
      */
@@ -19,12 +19,22 @@
  */
 package com.xpn.xwiki.plugin.lucene;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Searcher;
-import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TopDocsCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,22 +47,65 @@
  * Container for the results of a search.
  * <p>
  * This class handles paging through search results and enforces the xwiki rights management by only returning search
- * results the user executing the search is allowed to view.
+ * results the user executing the search is allowed to view. The hits are filtered by blocks, only as far as needed to
+ * fill the requested page. The existence of the documents targeted by a block is checked with one query per wiki and
+ * the view right is checked once for all the hits of a block targeting the same document, without loading the
+ * documents.
  * </p>
  * 
  * @version $Id$
  */
 public class SearchResults extends Api
 {
+    /**
+     * The number of hits filtered at once.
+     */
+    private static final int BLOCK_SIZE = 100;
+
+    /**
+     * The only fields needed to filter the hits.
+     */
+    private static final FieldSelector FILTER_FIELDS = new MapFieldSelector(new String[] {IndexFields.DOCUMENT_TYPE,
+    IndexFields.DOCUMENT_WIKI, IndexFields.DOCUMENT_SPACE, IndexFields.DOCUMENT_NAME});
+
     private final XWiki xwiki;
 
     private final Searcher searcher;
 
+    /**
+     * The searchers the results come from, acquired again from the plugin each time a hit is read.
+     */
+    private final Searcher[] indexes;
+
+    /**
+     * Whether the index readers of the searchers have been released, shared with the plugin which releases them when
+     * the results are garbage collected.
+     */
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * The plugin managing the searchers, {@code null} if the searchers are not shared.
+     */
+    private final LucenePlugin plugin;
+
     private final TopDocsCollector< ? extends ScoreDoc> results;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SearchResults.class);
 
-    private List<SearchResult> relevantResults;
+    /**
+     * The hits, Lucene only allows to get them once from the collector.
+     */
+    private ScoreDoc[] scoreDocs;
+
+    /**
+     * The positions of the hits the user is allowed to view, possibly shared with previous searches.
+     */
+    private final FilteredHits filteredHits;
+
+    /**
+     * The results already created, by hit position.
+     */
+    private final Map<Integer, SearchResult> searchResults = new HashMap<Integer, SearchResult>();
 
     /**
      * @param results Lucene search results
@@ -60,41 +113,258 @@ public class SearchResults extends Api
      */
     SearchResults(TopDocsCollector< ? extends ScoreDoc> results, Searcher searcher, XWiki xwiki,
         XWikiContext context)
+    {
+        this(results, searcher, null, null, new FilteredHits(null), xwiki, context);
+    }
+
+    /**
+     * @param results Lucene search results
+     * @param searcher the searcher the results come from
+     * @param indexes the searchers combined by {@code searcher}, whose index readers are kept open until the results
+     *        are released
+     * @param plugin the plugin managing the searchers, used to make sure they are not closed while reading the hits
+     * @param filteredHits the hits of the same query already filtered for the same user
+     * @param xwiki xwiki instance for access rights checking
+     * @param context the XWiki context
+     * @since 4.0M1
+     */
+    SearchResults(TopDocsCollector< ? extends ScoreDoc> results, Searcher searcher, Searcher[] indexes,
+        LucenePlugin plugin, FilteredHits filteredHits, XWiki xwiki, XWikiContext context)
     {
         super(context);
 
         this.results = results;
         this.searcher = searcher;
+        this.indexes = indexes;
+        this.plugin = plugin;
+        this.filteredHits = filteredHits;
         this.xwiki = xwiki;
+
+        if (plugin != null) {
+            plugin.trackSearchResults(this, indexes, this.released);
+        }
     }
 
-    private List<SearchResult> getRelevantResults()
+    /**
+     * Release the index readers used by the search, the hits not read yet can't be read anymore. The readers are
+     * released anyway when the results are garbage collected, but releasing them as soon as the results are not needed
+     * anymore avoids keeping old readers open while the index is updated.
+     * 
+     * @since 4.0M1
+     */
+    public void release()
     {
-        if (this.relevantResults == null) {
-            this.relevantResults = new ArrayList<SearchResult>();
-            TopDocs docs = this.results.topDocs();
+        if (this.plugin != null) {
+            this.plugin.releaseSearchers(this.indexes, this.released);
+        }
+    }
 
-            for (int i = 0; i < docs.scoreDocs.length; i++) {
-                try {
-                    SearchResult result =
-                        new SearchResult(this.searcher.doc(docs.scoreDocs[i].doc), docs.scoreDocs[i].score, this.xwiki);
+    /**
+     * Read a hit, making sure the index readers are not closed meanwhile by a refresh of the searchers.
+     * 
+     * @param doc the number of the hit document
+     * @param fields the fields to read, {@code null} to read all the fields
+     * @return the hit document
+     * @throws IOException when failing to read the document, or when the results have been released
+     */
+    private Document doc(int doc, FieldSelector fields) throws IOException
+    {
+        if (this.plugin == null) {
+            return this.searcher.doc(doc, fields);
+        }
 
-                    String pageName = null;
-                    if (result.isWikiContent()) {
-                        pageName = result.getWiki() + ":" + result.getSpace() + "." + result.getName();
+        if (this.released.get() || !this.plugin.acquireSearchers(this.indexes)) {
+            throw new IOException("The search results have been released, the hits can't be read anymore");
+        }
+        try {
+            return this.searcher.doc(doc, fields);
+        } finally {
+            this.plugin.releaseSearchers(this.indexes);
+        }
+    }
 
-                        if (this.xwiki.exists(pageName)
-                            && this.xwiki.hasAccessLevel("view", this.context.getUser(), pageName)) {
-                            this.relevantResults.add(result);
-                        }
+    private synchronized ScoreDoc[] getScoreDocs()
+    {
+        if (this.scoreDocs == null) {
+            this.scoreDocs = this.results.topDocs().scoreDocs;
+        }
+
+        return this.scoreDocs;
+    }
+
+    /**
+     * Filter the hits until the passed number of results the user is allowed to view is found, or all the hits are
+     * filtered.
+     * 
+     * @param count the number of allowed results needed
+     * @return the number of allowed results found, can be greater than {@code count}
+     */
+    private int filter(int count)
+    {
+        ScoreDoc[] docs = getScoreDocs();
+
+        synchronized (this.filteredHits) {
+            while (this.filteredHits.size() < count && this.filteredHits.getCheckedHits() < docs.length) {
+                int begin = this.filteredHits.getCheckedHits();
+                int end = Math.min(begin + BLOCK_SIZE, docs.length);
+
+                filter(docs, begin, end);
+
+                this.filteredHits.setCheckedHits(end);
+            }
+
+            return this.filteredHits.size();
+        }
+    }
+
+    /**
+     * Filter a block of hits.
+     * 
+     * @param docs the hits
+     * @param begin the position of the first hit to filter
+     * @param end the position after the last hit to filter
+     */
+    private void filter(ScoreDoc[] docs, int begin, int end)
+    {
+        // Collect the documents targeted by the hits, grouped by wiki
+        String[] pageNames = new String[end - begin];
+        Map<String, Set<String>> pagesByWiki = new LinkedHashMap<String, Set<String>>();
+        for (int i = begin; i < end; ++i) {
+            try {
+                Document luceneDoc = doc(docs[i].doc, FILTER_FIELDS);
+
+                String type = luceneDoc.get(IndexFields.DOCUMENT_TYPE);
+                if (LucenePlugin.DOCTYPE_WIKIPAGE.equals(type) || LucenePlugin.DOCTYPE_ATTACHMENT.equals(type)) {
+                    String wiki = luceneDoc.get(IndexFields.DOCUMENT_WIKI);
+                    String pageName =
+                        wiki + ":" + luceneDoc.get(IndexFields.DOCUMENT_SPACE) + "."
+                            + luceneDoc.get(IndexFields.DOCUMENT_NAME);
+                    pageNames[i - begin] = pageName;
+
+                    Set<String> pages = pagesByWiki.get(wiki);
+                    if (pages == null) {
+                        pages = new LinkedHashSet<String>();
+                        pagesByWiki.put(wiki, pages);
                     }
-                } catch (Exception e) {
-                    LOGGER.error("Error getting search result", e);
+                    pages.add(pageName);
                 }
+            } catch (Exception e) {
+                LOGGER.error("Error getting search result", e);
             }
         }
 
-        return this.relevantResults;
+        // Check each document only once
+        Set<String> viewablePages = getViewablePages(pagesByWiki);
+
+        for (int i = begin; i < end; ++i) {
+            if (pageNames[i - begin] != null && viewablePages.contains(pageNames[i - begin])) {
+                this.filteredHits.add(i);
+            }
+        }
+    }
+
+    /**
+     * @param pagesByWiki the documents to check, grouped by wiki
+     * @return the documents which exist and the current user is allowed to view
+     */
+    private Set<String> getViewablePages(Map<String, Set<String>> pagesByWiki)
+    {
+        Set<String> viewablePages = new LinkedHashSet<String>();
+
+        String database = this.context.getDatabase();
+        try {
+            for (Map.Entry<String, Set<String>> entry : pagesByWiki.entrySet()) {
+                this.context.setDatabase(entry.getKey());
+
+                Set<String> existingPages = getExistingPages(entry.getKey(), entry.getValue());
+
+                for (String pageName : existingPages) {
+                    if (this.xwiki.hasAccessLevel("view", this.context.getUser(), pageName)) {
+                        viewablePages.add(pageName);
+                    }
+                }
+            }
+        } finally {
+            this.context.setDatabase(database);
+        }
+
+        return viewablePages;
+    }
+
+    /**
+     * Check with a single query which documents of a wiki still exist, the index can lag behind the deletions.
+     * 
+     * @param wiki the wiki of the documents, the current wiki of the context
+     * @param pageNames the prefixed full names of the documents to check
+     * @return the documents which exist
+     */
+    private Set<String> getExistingPages(String wiki, Set<String> pageNames)
+    {
+        Set<String> existingPages = new LinkedHashSet<String>();
+
+        StringBuilder hql = new StringBuilder("select distinct doc.fullName from XWikiDocument as doc");
+        List<String> parameterValues = new ArrayList<String>(pageNames.size());
+        for (String pageName : pageNames) {
+            hql.append(parameterValues.isEmpty() ? " where doc.fullName in (?" : ", ?");
+            parameterValues.add(pageName.substring(wiki.length() + 1));
+        }
+        hql.append(')');
+
+        try {
+            List<String> fullNames =
+                this.context.getWiki().getStore().search(hql.toString(), 0, 0, parameterValues, this.context);
+            Set<String> existingFullNames = new HashSet<String>(fullNames);
+            for (String pageName : pageNames) {
+                if (existingFullNames.contains(pageName.substring(wiki.length() + 1))) {
+                    existingPages.add(pageName);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error("Error checking the existence of the search results of wiki [{}]", wiki, e);
+        }
+
+        return existingPages;
+    }
+
+    /**
+     * @param index the index of the result among the results the user is allowed to view
+     * @return the result
+     */
+    private synchronized SearchResult getResult(int index)
+    {
+        int position = this.filteredHits.getPosition(index);
+
+        SearchResult result = this.searchResults.get(position);
+        if (result == null) {
+            ScoreDoc scoreDoc = getScoreDocs()[position];
+            try {
+                result = new SearchResult(doc(scoreDoc.doc, null), scoreDoc.score, this.xwiki);
+                this.searchResults.put(position, result);
+            } catch (Exception e) {
+                LOGGER.error("Error getting search result", e);
+            }
+        }
+
+        return result;
+    }
+
+    private List<SearchResult> getResultList(int begin, int end)
+    {
+        List<SearchResult> resultList = new ArrayList<SearchResult>(Math.max(end - begin, 0));
+
+        for (int i = begin; i < end; ++i) {
+            SearchResult result = getResult(i);
+            if (result != null) {
+                resultList.add(result);
+            }
+        }
+
+        return resultList;
+    }
+
+    private List<SearchResult> getRelevantResults()
+    {
+        return getResultList(0, filter(Integer.MAX_VALUE));
     }
 
     /**
@@ -105,7 +375,7 @@ public boolean hasNext(String beginIndex, String items)
         final int itemCount = Integer.parseInt(items);
         final int begin = Integer.parseInt(beginIndex);
 
-        return begin + itemCount - 1 < getRelevantResults().size();
+        return begin + itemCount - 1 < filter(begin + itemCount);
     }
 
     /**
@@ -123,8 +393,9 @@ public boolean hasPrevious(String beginIndex)
     public int getNextIndex(String beginIndex, String items)
     {
         final int itemCount = Integer.parseInt(items);
-        final int resultcount = getRelevantResults().size();
         int retval = Integer.parseInt(beginIndex) + itemCount;
+        // Only the results up to the next index need to be filtered
+        final int resultcount = filter(retval);
 
         return retval > resultcount ? (resultcount - itemCount + 1) : retval;
     }
@@ -146,7 +417,7 @@ public int getPreviousIndex(String beginIndex, String items)
     public int getEndIndex(String beginIndex, String items)
     {
         int retval = Integer.parseInt(beginIndex) + Integer.parseInt(items) - 1;
-        final int resultcount = getRelevantResults().size();
+        final int resultcount = filter(retval);
         if (retval > resultcount) {
             return resultcount;
         }
@@ -176,50 +447,9 @@ public List<SearchResult> getResults(int beginIndex, int items)
     {
         final int listStartIndex = beginIndex - 1;
         final int listEndIndex = listStartIndex + items;
-        int resultcount = 0;
-        List<SearchResult> relResults = this.relevantResults;
-        if (relResults == null) {
-            relResults = new ArrayList<SearchResult>();
-            TopDocs docs = this.results.topDocs();
-            String database = this.context.getDatabase();
-            try {
-                for (int i = 0; i < docs.scoreDocs.length; i++) {
-                    SearchResult result = null;
-                    try {
-                        result = new SearchResult(this.searcher.doc(docs.scoreDocs[i].doc), docs.scoreDocs[i].score,
-                            this.xwiki);
-
-                        this.context.setDatabase(result.getWiki());
-
-                        String pageName = null;
-                        if (result.isWikiContent()) {
-                            pageName = result.getWiki() + ":" + result.getSpace() + "." + result.getName();
-                        }
-                        if (result.isWikiContent() && this.xwiki.exists(pageName)
-                            && this.xwiki.checkAccess(pageName, "view")) {
-                            if (resultcount >= listStartIndex) {
-                                relResults.add(result);
-                            }
-                            resultcount++;
-                            if (resultcount == listEndIndex) {
-                                return relResults;
-                            }
-                        }
-                    } catch (Exception e) {
-                        LOGGER.error("error getting search result", e);
-                    }
-                }
-            } finally {
-                this.context.setDatabase(database);
-            }
-
-            return relResults;
-        } else {
-            resultcount = getRelevantResults().size();
+        final int resultcount = filter(listEndIndex);
 
-            return getRelevantResults()
-                .subList(listStartIndex, listEndIndex < resultcount ? listEndIndex : resultcount);
-        }
+        return getResultList(listStartIndex, listEndIndex < resultcount ? listEndIndex : resultcount);
     }
 
     /**
@@ -235,7 +465,7 @@ public List<SearchResult> getResults()
      */
     public int getHitcount()
     {
-        return getRelevantResults().size();
+        return filter(Integer.MAX_VALUE);
     }
 
     /**
@@ -45,6 +45,11 @@
      */
     private Buffer namesQueue = new UnboundedFifoBuffer();
 
+    /**
+     * Maps names of documents to the date (in milliseconds) when they entered the queue.
+     */
+    private Map<String, Long> queuedDates = new HashMap<String, Long>();
+
     /**
      * Remove an item from the queue and return it. Since this is a FIFO, the element returned will be the oldes one in
      * the queue.
@@ -54,7 +59,10 @@
      */
     public synchronized AbstractIndexData remove() throws BufferUnderflowException
     {
-        return this.documentsByName.remove(this.namesQueue.remove());
+        Object key = this.namesQueue.remove();
+        this.queuedDates.remove(key);
+
+        return this.documentsByName.remove(key);
     }
 
     /**
@@ -73,6 +81,7 @@ public synchronized void add(AbstractIndexData data)
         if (!this.documentsByName.containsKey(key)) {
             // Document with this name not yet in the Queue, so add it
             this.namesQueue.add(key);
+            this.queuedDates.put(key, System.currentTimeMillis());
         }
 
         // In any case put new version of this document in the map, overwriting
@@ -99,4 +108,18 @@ public synchronized int getSize()
     {
         return this.namesQueue.size();
     }
+
+    /**
+     * Returns the time spent in the queue by the oldest element, i.e. how late the indexing currently is.
+     * 
+     * @return the number of milliseconds since the oldest element of the queue has been added, 0 if the queue is empty
+     */
+    public synchronized long getAge()
+    {
+        if (this.namesQueue.isEmpty()) {
+            return 0;
+        }
+
+        return System.currentTimeMillis() - this.queuedDates.get(this.namesQueue.get());
+    }
 }
@@ -0,0 +1,232 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.lucene;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.Searcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.jmock.Mock;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.QueryCursor;
+import org.xwiki.query.internal.ListQueryCursor;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+import com.xpn.xwiki.test.AbstractBridgedXWikiComponentTestCase;
+
+/**
+ * Unit tests for {@link IndexRebuilder}.
+ * 
+ * @version $Id$
+ */
+public class IndexRebuilderTest extends AbstractBridgedXWikiComponentTestCase
+{
+    private final Semaphore rebuildDone = new Semaphore(0);
+
+    private final AtomicInteger indexed = new AtomicInteger();
+
+    private IndexUpdater indexUpdater;
+
+    /**
+     * Rebuilder listing the passed documents and counting the indexed ones instead of indexing them.
+     */
+    private class TestIndexRebuilder extends IndexRebuilder
+    {
+        private final List<Object[]> documents = new ArrayList<Object[]>();
+
+        TestIndexRebuilder(int workers, List<String> names)
+        {
+            super(IndexRebuilderTest.this.indexUpdater, workers, getContext());
+
+            for (String name : names) {
+                this.documents.add(new Object[] {"Space", name, "1.1", ""});
+            }
+        }
+
+        @Override
+        protected void runInternal()
+        {
+            super.runInternal();
+
+            IndexRebuilderTest.this.rebuildDone.release();
+        }
+
+        @Override
+        protected QueryCursor<Object[]> iterateDocuments(String hql, String wikiName, XWikiContext context)
+        {
+            return new ListQueryCursor<Object[]>(this.documents);
+        }
+
+        @Override
+        public boolean isIndexed(DocumentReference documentReference, String version, String language,
+            Searcher searcher)
+        {
+            return documentReference.getName().startsWith("UpToDate");
+        }
+
+        @Override
+        protected int addTranslationOfDocument(DocumentReference documentReference, String language,
+            XWikiContext wikiContext) throws XWikiException
+        {
+            String name = documentReference.getName();
+            if (name.startsWith("Failing")) {
+                throw new XWikiException();
+            } else if (name.startsWith("Fatal")) {
+                // Kills the worker
+                throw new Error(name);
+            } else if (name.startsWith("Slow")) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            IndexRebuilderTest.this.indexed.incrementAndGet();
+
+            return 1;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        Mock mockXWikiStoreInterface = mock(XWikiStoreInterface.class);
+        mockXWikiStoreInterface.stubs().method("cleanUp");
+
+        Mock mockXWiki = mock(XWiki.class);
+        mockXWiki.stubs().method("getStore").will(returnValue(mockXWikiStoreInterface.proxy()));
+
+        getContext().setWiki((XWiki) mockXWiki.proxy());
+        getContext().setDatabase("wiki");
+
+        // An empty index, to check which documents are already indexed
+        Directory directory = new RAMDirectory();
+        new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_34, new StandardAnalyzer(Version.LUCENE_34)))
+            .close();
+        // The rebuild queue holds as many documents as there are workers
+        this.indexUpdater = new IndexUpdater(directory, 100, 1, null, getContext());
+    }
+
+    private IndexRebuildProgress rebuild(IndexRebuilder indexRebuilder, boolean onlyNew) throws Exception
+    {
+        assertEquals(0, indexRebuilder.startIndex(Collections.singletonList("wiki"), "", false, onlyNew,
+            getContext()));
+        assertTrue("The rebuild did not end", this.rebuildDone.tryAcquire(30, TimeUnit.SECONDS));
+
+        return indexRebuilder.getProgress();
+    }
+
+    private List<String> names(String prefix, int count)
+    {
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < count; ++i) {
+            names.add(prefix + i);
+        }
+
+        return names;
+    }
+
+    public void testRebuildWithFailingAndUpToDateDocuments() throws Exception
+    {
+        List<String> names = names("Page", 10);
+        names.addAll(names("Failing", 3));
+        names.addAll(names("UpToDate", 4));
+        Collections.shuffle(names);
+
+        IndexRebuildProgress progress = rebuild(new TestIndexRebuilder(3, names), true);
+
+        assertTrue(progress.isFinished());
+        assertEquals(17, progress.getTotal());
+        assertEquals(10, progress.getIndexed());
+        assertEquals(3, progress.getFailed());
+        assertEquals(4, progress.getSkipped());
+        assertEquals(17, progress.getProcessed());
+        assertEquals(0, progress.getRemainingTime());
+        assertEquals(Collections.singletonMap("wiki", 10L), progress.getIndexedByWiki());
+        assertEquals(Collections.singletonMap("wiki", 3L), progress.getFailedByWiki());
+        assertEquals(10, this.indexed.get());
+    }
+
+    public void testRebuildWithFullQueue() throws Exception
+    {
+        // The listing of the documents has to wait for the slow workers
+        IndexRebuildProgress progress = rebuild(new TestIndexRebuilder(2, names("Slow", 50)), false);
+
+        assertTrue(progress.isFinished());
+        assertEquals(50, progress.getTotal());
+        assertEquals(50, progress.getIndexed());
+        assertEquals(50, this.indexed.get());
+    }
+
+    public void testStopRebuild() throws Exception
+    {
+        IndexRebuilder indexRebuilder = new TestIndexRebuilder(2, names("Slow", 1000));
+        assertEquals(0, indexRebuilder.startIndex(Collections.singletonList("wiki"), "", false, false, getContext()));
+        while (this.indexed.get() == 0) {
+            Thread.sleep(10);
+        }
+
+        indexRebuilder.stop();
+
+        // The rebuild and its workers are done once stopped
+        assertTrue(indexRebuilder.getProgress().isFinished());
+        int indexedWhenStopped = this.indexed.get();
+        assertTrue(indexedWhenStopped < 1000);
+        assertTrue(this.rebuildDone.tryAcquire());
+        Thread.sleep(50);
+        assertEquals(indexedWhenStopped, this.indexed.get());
+
+        // No rebuild can be started anymore
+        assertEquals(LucenePluginApi.REBUILD_NOT_ALLOWED, indexRebuilder.startIndex(null, "", false, false,
+            getContext()));
+    }
+
+    public void testRebuildEndsWhenAllWorkersDie() throws Exception
+    {
+        List<String> names = names("Fatal", 2);
+        names.addAll(names("Page", 20));
+
+        IndexRebuildProgress progress = rebuild(new TestIndexRebuilder(2, names), false);
+
+        // The workers died on the first documents, the others could not be queued
+        assertTrue(progress.isFinished());
+        assertEquals(0, progress.getIndexed());
+        assertTrue(progress.getTotal() < 22);
+
+        // Another rebuild can be started
+        assertEquals(5, rebuild(new TestIndexRebuilder(2, names("Page", 5)), false).getIndexed());
+    }
+}
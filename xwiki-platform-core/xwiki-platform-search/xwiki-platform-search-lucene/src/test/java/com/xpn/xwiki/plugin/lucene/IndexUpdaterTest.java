@@ -21,33 +21,45 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriter.MaxFieldLength;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Searcher;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.Version;
 import org.jmock.Mock;
 import org.jmock.core.Invocation;
 import org.jmock.core.stub.CustomStub;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.QueryCursor;
+import org.xwiki.query.internal.ListQueryCursor;
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.store.XWikiStoreInterface;
 import com.xpn.xwiki.test.AbstractBridgedXWikiComponentTestCase;
+import com.xpn.xwiki.user.api.XWikiRightService;
 
 /**
  * Unit tests for {@link IndexUpdater}.
@@ -84,6 +96,12 @@ protected void runInternal()
 
             IndexUpdaterTest.this.rebuildDone.release();
         }
+
+        @Override
+        protected QueryCursor<Object[]> iterateDocuments(String hql, String wikiName, XWikiContext context)
+        {
+            return new ListQueryCursor<Object[]>(Collections.<Object[]> emptyList());
+        }
     }
 
     private class TestIndexUpdater extends IndexUpdater
@@ -148,12 +166,19 @@ public Object invoke(Invocation invocation) throws Throwable
                 return invocation.parameterValues.get(1);
             }
         });
+        this.mockXWiki.stubs().method("ParamAsLong").with(ANYTHING, ANYTHING).will(
+            new CustomStub("Implements XWiki.ParamAsLong")
+            {
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    return invocation.parameterValues.get(1);
+                }
+            });
         this.mockXWiki.stubs().method("Param").with(eq(LucenePlugin.PROP_INDEX_DIR))
             .will(returnValue(IndexUpdaterTest.INDEXDIR));
         this.mockXWiki.stubs().method("checkAccess").will(returnValue(true));
         this.mockXWiki.stubs().method("isVirtualMode").will(returnValue(false));
         this.mockXWiki.stubs().method("getStore").will(returnValue(this.mockXWikiStoreInterface.proxy()));
-        this.mockXWiki.stubs().method("search").will(returnValue(Collections.EMPTY_LIST));
 
         getContext().setWiki((XWiki) this.mockXWiki.proxy());
         getContext().setDatabase("wiki");
@@ -187,6 +212,11 @@ public void testIndexUpdater() throws Exception
             f.mkdirs();
         }
         directory = FSDirectory.open(f);
+        // The plugin can't create a missing index while the writer blocker holds the index lock
+        if (!IndexReader.indexExists(directory)) {
+            new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_34, new StandardAnalyzer(
+                Version.LUCENE_34))).close();
+        }
 
         int indexingInterval;
         indexingInterval = 100;
@@ -233,6 +263,180 @@ public void testIndexUpdater() throws Exception
         assertEquals(1, results.getTotalHitcount());
     }
 
+    public void testStoppedUpdaterDoesNotReopenWriter() throws Exception
+    {
+        Directory directory = new RAMDirectory();
+        new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_34, new StandardAnalyzer(Version.LUCENE_34)))
+            .close();
+        LucenePlugin plugin = new LucenePlugin("Monkey", "Monkey", getContext());
+        IndexUpdater indexUpdater = new TestIndexUpdater(directory, 100, 1000, plugin, getContext());
+
+        indexUpdater.doExit();
+
+        // Nobody would close the writer, keeping the index locked
+        try {
+            indexUpdater.indexData(new DocumentData(this.loremIpsum, getContext(), false), getContext());
+            fail("The stopped updater opened a writer");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        assertNull(indexUpdater.getWriter());
+        assertFalse(IndexWriter.isLocked(directory));
+    }
+
+    public void testGetRebuildProgressWithoutRebuilder()
+    {
+        // The rebuilder is not set before the plugin is initialized, nor while its cache is flushed
+        LucenePlugin plugin = new LucenePlugin("Monkey", "Monkey", getContext());
+
+        assertNull(plugin.getRebuildProgress());
+    }
+
+    public void testSearchWhileRefreshingSearchers() throws Exception
+    {
+        Mock mockXWikiRightService = mock(XWikiRightService.class);
+        mockXWikiRightService.stubs().method("hasAccessLevel").will(returnValue(true));
+        this.mockXWiki.stubs().method("getRightService").will(returnValue(mockXWikiRightService.proxy()));
+        // All the documents exist
+        this.mockXWikiStoreInterface.stubs().method("search").will(new CustomStub("Implements search")
+        {
+            public Object invoke(Invocation invocation) throws Throwable
+            {
+                return invocation.parameterValues.get(3);
+            }
+        });
+
+        File f = new File(INDEXDIR);
+        if (!f.exists()) {
+            f.mkdirs();
+        }
+        Directory directory = FSDirectory.open(f);
+
+        final LucenePlugin plugin = new LucenePlugin("Monkey", "Monkey", getContext());
+        IndexUpdater indexUpdater = new TestIndexUpdater(directory, 10, 1000, plugin, getContext());
+        plugin.init(indexUpdater, new TestIndexRebuilder(indexUpdater, getContext()), getContext());
+
+        try {
+            indexUpdater.cleanIndex();
+            indexUpdater.queueDocument(this.loremIpsum.clone(), getContext(), false);
+            for (int i = 0; i < 100 && plugin.getSearchResults("Ipsum", (String) null, null, null, getContext())
+                .getTotalHitcount() == 0; ++i) {
+                Thread.sleep(100);
+            }
+            SearchResults firstResults = plugin.getSearchResults("Ipsum", (String) null, null, null, getContext());
+            SearchResults releasedResults =
+                plugin.getSearchResults("Ipsum", (String) null, null, null, getContext());
+
+            // Read the results while the document is indexed again and again, each indexing refreshing the searchers
+            final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+            final CountDownLatch searchesDone = new CountDownLatch(4);
+            for (int i = 0; i < 4; ++i) {
+                final XWikiContext searchContext = getContext().clone();
+                new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        try {
+                            for (int j = 0; j < 50; ++j) {
+                                SearchResults results =
+                                    plugin.getSearchResults("Ipsum", (String) null, null, null, searchContext);
+                                Thread.sleep(10);
+                                List<SearchResult> resultList = results.getResults(1, 10);
+                                assertEquals(1, resultList.size());
+                                assertEquals("Ipsum", resultList.get(0).getName());
+                                results.release();
+                            }
+                        } catch (Throwable e) {
+                            errors.add(e);
+                        } finally {
+                            searchesDone.countDown();
+                        }
+                    }
+                }, "searcher" + i).start();
+            }
+
+            int refreshCount = 0;
+            Searcher[] lastSearchers = null;
+            while (searchesDone.getCount() > 0) {
+                indexUpdater.queueDocument(this.loremIpsum.clone(), getContext(), false);
+                Thread.sleep(20);
+
+                Searcher[] currentSearchers = plugin.acquireSearchers();
+                plugin.releaseSearchers(currentSearchers);
+                if (currentSearchers != lastSearchers) {
+                    lastSearchers = currentSearchers;
+                    ++refreshCount;
+                }
+            }
+
+            assertTrue(refreshCount > 1);
+            assertEquals(Collections.emptyList(), errors);
+
+            // The results keep their index readers open until they are released, whatever the number of refreshes
+            assertEquals(1, firstResults.getResults(1, 10).size());
+            firstResults.release();
+            releasedResults.release();
+            assertEquals(0, releasedResults.getResults(1, 10).size());
+        } finally {
+            // Let the index updater finish indexing before the components are disposed
+            while (indexUpdater.getQueueSize() > 0) {
+                Thread.sleep(10);
+            }
+            // Wait for the index updater thread to release the index lock
+            plugin.flushCache(getContext());
+        }
+    }
+
+    public void testInvalidateFilteredHitsOnRightsUpdate() throws Exception
+    {
+        File f = new File(INDEXDIR);
+        if (!f.exists()) {
+            f.mkdirs();
+        }
+        Directory directory = FSDirectory.open(f);
+
+        LucenePlugin plugin = new LucenePlugin("Monkey", "Monkey", getContext());
+        // Don't index the updated documents during the test, it would refresh the searchers
+        IndexUpdater indexUpdater = new TestIndexUpdater(directory, 60000, 1000, plugin, getContext());
+        plugin.init(indexUpdater, new TestIndexRebuilder(indexUpdater, getContext()), getContext());
+
+        Searcher[] indexes = plugin.acquireSearchers();
+        try {
+            Query query = new TermQuery(new Term(IndexFields.DOCUMENT_ID, "wiki:Lorem.Ipsum.default"));
+            FilteredHits filteredHits = plugin.getFilteredHits(query, null, indexes, getContext());
+            assertSame(filteredHits, plugin.getFilteredHits(query, null, indexes, getContext()));
+
+            // Updating a document holding no rights keeps the filtered hits
+            indexUpdater.onEvent(new DocumentUpdatedEvent(this.loremIpsum.getDocumentReference()),
+                this.loremIpsum.clone(), getContext());
+            assertSame(filteredHits, plugin.getFilteredHits(query, null, indexes, getContext()));
+
+            // Updating rights forgets them
+            XWikiDocument rightsDocument = this.loremIpsum.clone();
+            BaseObject rights = new BaseObject();
+            rights.setXClassReference(new DocumentReference("wiki", "XWiki", "XWikiRights"));
+            rightsDocument.addXObject(rights);
+            indexUpdater.onEvent(new DocumentUpdatedEvent(rightsDocument.getDocumentReference()), rightsDocument,
+                getContext());
+            assertNotSame(filteredHits, plugin.getFilteredHits(query, null, indexes, getContext()));
+
+            // Deleting a group forgets them too
+            filteredHits = plugin.getFilteredHits(query, null, indexes, getContext());
+            XWikiDocument groupDocument = this.loremIpsum.clone();
+            BaseObject member = new BaseObject();
+            member.setXClassReference(new DocumentReference("wiki", "XWiki", "XWikiGroups"));
+            groupDocument.addXObject(member);
+            XWikiDocument deletedDocument = new TestXWikiDocument(groupDocument.getDocumentReference());
+            deletedDocument.setOriginalDocument(groupDocument);
+            indexUpdater.onEvent(new DocumentDeletedEvent(deletedDocument.getDocumentReference()), deletedDocument,
+                getContext());
+            assertNotSame(filteredHits, plugin.getFilteredHits(query, null, indexes, getContext()));
+        } finally {
+            plugin.releaseSearchers(indexes);
+            plugin.flushCache(getContext());
+        }
+    }
+
     public void testLock() throws IOException
     {
         Directory directory;
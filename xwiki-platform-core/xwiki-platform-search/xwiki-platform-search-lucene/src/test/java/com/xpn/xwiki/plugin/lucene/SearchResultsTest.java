@@ -0,0 +1,223 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.lucene;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Searcher;
+import org.apache.lucene.search.TopDocsCollector;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.jmock.Mock;
+import org.jmock.core.Invocation;
+import org.jmock.core.stub.CustomStub;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+import com.xpn.xwiki.test.AbstractBridgedXWikiComponentTestCase;
+import com.xpn.xwiki.user.api.XWikiRightService;
+
+/**
+ * Unit tests for {@link SearchResults}.
+ * 
+ * @version $Id$
+ */
+public class SearchResultsTest extends AbstractBridgedXWikiComponentTestCase
+{
+    /**
+     * The number of indexed documents, more than two blocks of filtered hits.
+     */
+    private static final int HIT_COUNT = 250;
+
+    private Searcher searcher;
+
+    /**
+     * The number of queries made to check the existence of the documents.
+     */
+    private int existenceQueries;
+
+    /**
+     * The documents the view right has been checked for.
+     */
+    private final List<String> checkedPages = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        Directory directory = new RAMDirectory();
+        IndexWriter writer =
+            new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_34, new StandardAnalyzer(
+                Version.LUCENE_34)));
+        for (int i = 0; i < HIT_COUNT; ++i) {
+            Document document = new Document();
+            document.add(new Field(IndexFields.DOCUMENT_TYPE, LucenePlugin.DOCTYPE_WIKIPAGE, Field.Store.YES,
+                Field.Index.NOT_ANALYZED));
+            document.add(new Field(IndexFields.DOCUMENT_WIKI, "xwiki", Field.Store.YES, Field.Index.NOT_ANALYZED));
+            document.add(new Field(IndexFields.DOCUMENT_SPACE, "Space", Field.Store.YES, Field.Index.NOT_ANALYZED));
+            document.add(new Field(IndexFields.DOCUMENT_NAME, "Page" + i, Field.Store.YES, Field.Index.NOT_ANALYZED));
+            writer.addDocument(document);
+        }
+        writer.close();
+        this.searcher = new IndexSearcher(directory, true);
+
+        Mock mockXWikiStoreInterface = mock(XWikiStoreInterface.class);
+        mockXWikiStoreInterface.stubs().method("search").withAnyArguments()
+            .will(new CustomStub("Returns the existing documents")
+            {
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    ++SearchResultsTest.this.existenceQueries;
+                    List<String> fullNames = new ArrayList<String>();
+                    for (Object fullName : (List< ? >) invocation.parameterValues.get(3)) {
+                        if (!isDeleted((String) fullName)) {
+                            fullNames.add((String) fullName);
+                        }
+                    }
+                    return fullNames;
+                }
+            });
+
+        Mock mockXWikiRightService = mock(XWikiRightService.class);
+        mockXWikiRightService.stubs().method("hasAccessLevel").with(eq("view"), eq("XWiki.User"), ANYTHING, ANYTHING)
+            .will(new CustomStub("Checks the view right")
+            {
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    String pageName = (String) invocation.parameterValues.get(2);
+                    SearchResultsTest.this.checkedPages.add(pageName);
+                    return !pageName.endsWith("0") && !pageName.endsWith("5");
+                }
+            });
+
+        Mock mockXWiki = mock(XWiki.class);
+        mockXWiki.stubs().method("getStore").will(returnValue(mockXWikiStoreInterface.proxy()));
+        mockXWiki.stubs().method("getRightService").will(returnValue(mockXWikiRightService.proxy()));
+        mockXWiki.stubs().method("isVirtualMode").will(returnValue(false));
+
+        getContext().setWiki((XWiki) mockXWiki.proxy());
+        getContext().setUser("XWiki.User");
+    }
+
+    /**
+     * @param fullName the full name of an indexed document
+     * @return true if the document has been deleted since it has been indexed
+     */
+    private boolean isDeleted(String fullName)
+    {
+        return fullName.endsWith("9");
+    }
+
+    /**
+     * @param i the number of an indexed document
+     * @return true if the user is allowed to view the document
+     */
+    private boolean isAllowed(int i)
+    {
+        return i % 5 != 0 && i % 10 != 9;
+    }
+
+    private SearchResults search(FilteredHits filteredHits) throws Exception
+    {
+        TopDocsCollector< ? extends ScoreDoc> results = TopScoreDocCollector.create(1000, false);
+        this.searcher.search(new MatchAllDocsQuery(), results);
+
+        return new SearchResults(results, this.searcher, null, null, filteredHits, new com.xpn.xwiki.api.XWiki(
+            getContext().getWiki(), getContext()), getContext());
+    }
+
+    private List<String> getNames(List<SearchResult> results)
+    {
+        List<String> names = new ArrayList<String>();
+        for (SearchResult result : results) {
+            names.add(result.getName());
+        }
+
+        return names;
+    }
+
+    private List<String> getAllowedNames(int begin, int count)
+    {
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < HIT_COUNT && names.size() < begin + count; ++i) {
+            if (isAllowed(i)) {
+                names.add("Page" + i);
+            }
+        }
+
+        return names.subList(Math.min(begin, names.size()), names.size());
+    }
+
+    public void testPaging() throws Exception
+    {
+        SearchResults results = search(new FilteredHits(null));
+
+        assertEquals(getAllowedNames(0, 10), getNames(results.getResults(1, 10)));
+        // Only the first block of hits is filtered to get the first page
+        assertEquals(1, this.existenceQueries);
+        assertTrue(results.hasNext("1", "10"));
+
+        assertEquals(getAllowedNames(70, 10), getNames(results.getResults(71, 10)));
+        assertEquals(2, this.existenceQueries);
+
+        int allowedCount = getAllowedNames(0, HIT_COUNT).size();
+        assertEquals(allowedCount, results.getHitcount());
+        assertEquals(3, this.existenceQueries);
+        assertEquals(HIT_COUNT, results.getTotalHitcount());
+
+        assertEquals(getAllowedNames(allowedCount - 5, 10), getNames(results.getResults(allowedCount - 4,
+            10)));
+        assertFalse(results.hasNext(String.valueOf(allowedCount - 4), "10"));
+
+        // The view right is checked once per document, and not for the deleted documents
+        assertEquals(HIT_COUNT - HIT_COUNT / 10, this.checkedPages.size());
+        for (String pageName : this.checkedPages) {
+            assertFalse(isDeleted(pageName));
+        }
+    }
+
+    public void testPagingWithSharedFilteredHits() throws Exception
+    {
+        FilteredHits filteredHits = new FilteredHits(null);
+
+        assertEquals(getAllowedNames(0, 10), getNames(search(filteredHits).getResults(1, 10)));
+        assertEquals(1, this.existenceQueries);
+
+        // The next page of the same search reuses the hits filtered for the first page
+        SearchResults results = search(filteredHits);
+        assertEquals(getAllowedNames(10, 10), getNames(results.getResults(11, 10)));
+        assertEquals(getAllowedNames(0, 10), getNames(results.getResults(1, 10)));
+        assertEquals(1, this.existenceQueries);
+        assertEquals(100 - 10, this.checkedPages.size());
+    }
+}
@@ -22,9 +22,10 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -52,6 +53,14 @@
 
 /**
  * Default implementation of the security cache.
+ * <p>
+ * Reads are lock-free: an entry is returned only if neither it nor any of its ancestors has been disposed. Since an
+ * entry is marked as disposed before its children are disposed and removed from the underlying cache, readers never
+ * see the descendants of an invalidated entry and never wait for an invalidation to complete. Insertions and removals
+ * are serialized to keep the parent/child relations consistent. The entries removed by the underlying cache itself
+ * (evictions) are only queued by the cache listener, which may be called from a thread of the cache implementation,
+ * and are disposed by the next modification or by the next read finding the write lock free.
+ * </p>
  *
  * @version $Id$
  * @since 4.0M2 
@@ -67,14 +76,11 @@ public class DefaultSecurityCache implements SecurityCache, Initializable
     @Inject
     private Logger logger;
 
-    /** Fair read-write lock used for fair scheduling of cache access. */
-    private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock(true);
+    /** Lock serializing the modifications of the cache, readers never wait for it. */
+    private final Lock writeLock = new ReentrantLock();
 
-    /** Fair read lock. */
-    private final Lock readLock = readWriteLock.readLock();
-
-    /** Fair write lock. */
-    private final Lock writeLock = readWriteLock.writeLock();
+    /** Entries removed from the underlying cache, waiting to be disposed by the next modification of the cache. */
+    private final Queue<SecurityCacheEntry> removedEntries = new ConcurrentLinkedQueue<SecurityCacheEntry>();
 
     /** The keys in the cache are generated from instances of {@link org.xwiki.model.reference.EntityReference}. */
     @Inject
@@ -124,9 +130,9 @@ public void initialize() throws InitializationException
         private SecurityEntry entry;
 
         /**
-         * Parents of this cached entry.
+         * Parents of this cached entry. Volatile since it is read without locking, to check the parents.
          */
-        private Collection<SecurityCacheEntry> parents;
+        private volatile Collection<SecurityCacheEntry> parents;
 
         /**
          * Children of this cached entry.
@@ -134,9 +140,9 @@ public void initialize() throws InitializationException
         private Collection<SecurityCacheEntry> children;
 
         /**
-         * True if this entry has been removed.
+         * True if this entry has been removed. Volatile since it is read without locking.
          */
-        private boolean disposed;
+        private volatile boolean disposed;
 
         /**
          * Create a new cache entry for a security rule, linking it to its parent.
@@ -259,6 +265,35 @@ SecurityEntry getEntry()
             return this.entry;
         }
 
+        /**
+         * @return true if this entry has been removed, and should not be returned anymore.
+         */
+        boolean isDisposed()
+        {
+            return this.disposed;
+        }
+
+        /**
+         * @return true if this entry or one of its ancestors has been removed, in which case this entry should not be
+         *         returned anymore even if its own removal is still in progress.
+         */
+        boolean isObsolete()
+        {
+            // Read the parents before the flag: they are reset only after the flag is set
+            Collection<SecurityCacheEntry> currentParents = this.parents;
+            if (this.disposed) {
+                return true;
+            }
+            if (currentParents != null) {
+                for (SecurityCacheEntry parent : currentParents) {
+                    if (parent.isObsolete()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
         /**
          * @return the serialized key of this entry.
          */
@@ -269,8 +304,9 @@ String getKey()
 
         /**
          * Dispose this entry from the cache, removing all children relation in its parents, and removing
-         * all its children recursively. This method is not thread safe in regards to the cache, proper
-         * locking should be done externally.
+         * all its children recursively. The entry is marked as disposed first, so that concurrent readers
+         * stop using it before its children are removed. This method is not thread safe in regards to the
+         * other modifications of the cache, proper locking should be done externally.
          * @return false if the entry was already disposed, true in all other cases.
          */
         boolean dispose() 
@@ -278,6 +314,7 @@ boolean dispose()
             if (disposed) {
                 return false;
             }
+            disposed = true;
             if (parents != null) {
                 for (SecurityCacheEntry parent : parents) {
                     parent.removeChild(this);
@@ -293,8 +330,6 @@ boolean dispose()
                     }
                 }
             }
-            String key = getKey();
-            disposed = true;
             return true;
         }
 
@@ -375,18 +410,33 @@ private String getEntryKey(SecurityAccessEntry entry)
         return getEntryKey(entry.getUserReference(), entry.getReference());
     }
 
+    /**
+     * @param key the key of the entry requested.
+     * @return the security cache entry stored with this key, null if none is available in the cache or if it or one of
+     *         its ancestors is being removed.
+     */
+    private SecurityCacheEntry getEntry(String key)
+    {
+        // Dispose the evicted entries if no modification is in progress, without ever waiting for the lock
+        if (!removedEntries.isEmpty() && writeLock.tryLock()) {
+            try {
+                disposeRemovedEntries();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        SecurityCacheEntry entry = cache.get(key);
+        return (entry == null || entry.isObsolete()) ? null : entry;
+    }
+
     /**
      * @param reference the reference requested.
      * @return a security cache entry corresponding to given reference, null if none is available in the cache.
      */
     private SecurityCacheEntry getEntry(SecurityReference reference)
     {
-        readLock.lock();
-        try {
-            return cache.get(getEntryKey(reference));
-        } finally {
-            readLock.unlock();
-        }
+        return getEntry(getEntryKey(reference));
     }
 
     /**
@@ -397,12 +447,7 @@ private SecurityCacheEntry getEntry(SecurityReference reference)
      */
     private SecurityCacheEntry getEntry(UserSecurityReference userReference, SecurityReference reference)
     {
-        readLock.lock();
-        try {
-            return cache.get(getEntryKey(userReference, reference));
-        } finally {
-            readLock.unlock();
-        }
+        return getEntry(getEntryKey(userReference, reference));
     }
 
     /**
@@ -413,7 +458,7 @@ private SecurityCacheEntry getEntry(UserSecurityReference userReference, Securit
      */
     private boolean isAlreadyInserted(String key, SecurityEntry entry) throws ConflictingInsertionException
     {
-        SecurityCacheEntry oldEntry = cache.get(key);
+        SecurityCacheEntry oldEntry = getEntry(key);
         if (oldEntry != null) {
             if (!oldEntry.getEntry().equals(entry)) {
                 // Another thread have inserted an entry which is different from this entry!
@@ -441,6 +486,7 @@ public void add(SecurityRuleEntry entry, Collection<GroupSecurityReference> grou
         
         writeLock.lock();
         try {
+            disposeRemovedEntries();
             if (isAlreadyInserted(key, entry)) {
                 return;
             }
@@ -464,6 +510,7 @@ public void add(SecurityAccessEntry entry)
 
         writeLock.lock();
         try {
+            disposeRemovedEntries();
             if (isAlreadyInserted(key, entry)) {
                 return;
             }
@@ -514,6 +561,7 @@ public void remove(UserSecurityReference user, SecurityReference entity)
     {
         writeLock.lock();
         try {
+            disposeRemovedEntries();
             SecurityCacheEntry entry = getEntry(user, entity);
             if (entry != null) {
                 if (logger.isDebugEnabled()) {
@@ -533,6 +581,7 @@ public void remove(SecurityReference entity)
     {
         writeLock.lock();
         try {
+            disposeRemovedEntries();
             SecurityCacheEntry entry = getEntry(entity);
             if (entry != null) {
                 if (logger.isDebugEnabled()) {
@@ -547,6 +596,21 @@ public void remove(SecurityReference entity)
         }
     }
 
+    /**
+     * Dispose the entries removed from the underlying cache since the last modification, so that their children are
+     * removed too. Must be called while holding the write lock.
+     */
+    private void disposeRemovedEntries()
+    {
+        for (SecurityCacheEntry entry = removedEntries.poll(); entry != null; entry = removedEntries.poll()) {
+            if (entry.dispose()) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Evicting entry [{}].", entry.getKey());
+                }
+            }
+        }
+    }
+
     /**
      * Listener for cache events, to properly dispose entries removed.
      */
@@ -561,14 +625,13 @@ public void cacheEntryAdded(
         @Override
         public void cacheEntryRemoved(CacheEntryEvent<SecurityCacheEntry> event)
         {
-            if (event.getEntry().getValue().dispose()) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Evicting entry [{}].", event.getEntry().getKey());
-                }
-            } else {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Removed entry [{}].", event.getEntry().getKey());
-                }
+            // Don't take the write lock here: the listener can be called by the cache implementation while a writer
+            // holding the lock waits for it. Evictions are disposed by the next access to the cache instead.
+            SecurityCacheEntry entry = event.getEntry().getValue();
+            if (entry != null && !entry.isDisposed()) {
+                removedEntries.add(entry);
+            } else if (logger.isDebugEnabled()) {
+                logger.debug("Removed entry [{}].", event.getEntry().getKey());
             }
         }
 
@@ -22,9 +22,13 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.slf4j.Logger;
 import org.jmock.Expectations;
@@ -33,6 +37,7 @@
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheEntry;
 import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.CacheStatistics;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.cache.event.CacheEntryEvent;
 import org.xwiki.cache.event.CacheEntryListener;
@@ -86,6 +91,7 @@ public class DefaultSecurityCacheTest extends AbstractSecurityTestCase
         private Map<String,T> cache = new HashMap<String,T>();
         private CacheEntryListener<T> listener;
         private String lastInsertedKey;
+        private Runnable removalHook;
         
         class TestCacheEntry implements CacheEntry<T>
         {
@@ -154,6 +160,12 @@ public T get(String key)
             return cache.get(key);
         }
 
+        @Override
+        public CacheStatistics getStatistics()
+        {
+            throw new UnsupportedOperationException();
+        }
+
         @Override
         public void remove(String key)
         {
@@ -161,6 +173,9 @@ public void remove(String key)
             if (listener != null) {
                 listener.cacheEntryRemoved(getEvent(key, value));
             }
+            if (removalHook != null) {
+                removalHook.run();
+            }
         }
 
         @Override
@@ -191,6 +206,11 @@ public String getLastInsertedKey()
         {
             return lastInsertedKey;
         }
+
+        public void setRemovalHook(Runnable removalHook)
+        {
+            this.removalHook = removalHook;
+        }
     }
 
     @Override
@@ -828,4 +848,59 @@ public void testRemoveSecurityAccessEntry() throws Exception
             assertThat(securityCache.get(entry.getUserReference(), entry.getReference()), sameInstance(entry));
         }
     }
+
+    @Test
+    public void testReadChildrenWhileInvalidatingParent() throws Exception
+    {
+        // Fill the cache
+        final CacheFiller cacheFiller = new CacheFiller().fill();
+
+        // Each time a child of the invalidated entry is removed from the underlying cache, read all the descendants
+        // of the invalidated entry from another thread, while the invalidation is still in progress
+        final ExecutorService reader = Executors.newSingleThreadExecutor();
+        final List<String> visibleEntries = new ArrayList<String>();
+        final int[] removals = {0};
+        cache.setRemovalHook(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                removals[0]++;
+                try {
+                    visibleEntries.addAll(reader.submit(new Callable<List<String>>()
+                    {
+                        @Override
+                        public List<String> call()
+                        {
+                            List<String> visible = new ArrayList<String>();
+                            for (SecurityRuleEntry entry : cacheFiller.getAllRuleEntries()) {
+                                if (securityCache.get(entry.getReference()) != null) {
+                                    visible.add(entry.getReference().toString());
+                                }
+                            }
+                            for (SecurityAccessEntry entry : cacheFiller.getAllAccessEntries()) {
+                                if (securityCache.get(entry.getUserReference(), entry.getReference()) != null) {
+                                    visible.add(entry.getUserReference() + "@@" + entry.getReference());
+                                }
+                            }
+                            return visible;
+                        }
+                    }).get());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        try {
+            // All the entries descend from the main wiki
+            securityCache.remove(xwikiRef);
+        } finally {
+            cache.setRemovalHook(null);
+            reader.shutdown();
+        }
+
+        assertThat(removals[0] > 1, is(true));
+        assertThat(visibleEntries, equalTo(Collections.<String>emptyList()));
+    }
 }
@@ -63,6 +63,13 @@
  */
 public abstract class AbstractDocumentSkinExtensionPlugin extends AbstractSkinExtensionPlugin implements EventListener
 {
+    /**
+     * The request parameter listing the documents of a bundle.
+     * 
+     * @since 4.0M1
+     */
+    protected static final String BUNDLE_DOCUMENT_PARAMETER = "document";
+
     /**
      * Log helper for logging messages in this class.
      */
@@ -209,6 +216,41 @@ public Set<String> getAlwaysUsedExtensions(XWikiContext context)
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A document extension can be bundled when it is used without parameters and none of its objects is parsed, since
+     * the result of the parsing can depend on the document being the current one. Its version is the version of the
+     * document.
+     * </p>
+     */
+    @Override
+    protected String getBundleVersion(String documentName, XWikiContext context)
+    {
+        if (!getParametersForResource(documentName, context).isEmpty()) {
+            return null;
+        }
+
+        try {
+            XWikiDocument doc = context.getWiki().getDocument(documentName, context);
+            if (doc.isNew()) {
+                return null;
+            }
+            Collection<BaseObject> objects = doc.getObjects(getExtensionClassName());
+            if (objects != null) {
+                for (BaseObject obj : objects) {
+                    if (obj != null && obj.getIntValue("parse") == 1) {
+                        return null;
+                    }
+                }
+            }
+            return doc.getVersion() + '@' + doc.getDate().getTime();
+        } catch (XWikiException e) {
+            LOGGER.warn("Failed to load skin extension [{}], it won't be bundled", documentName, e);
+            return null;
+        }
+    }
+
     @Override
     public boolean hasPageExtensions(XWikiContext context)
     {
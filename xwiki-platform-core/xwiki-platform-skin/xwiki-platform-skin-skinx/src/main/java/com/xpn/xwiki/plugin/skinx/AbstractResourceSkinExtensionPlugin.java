@@ -20,6 +20,7 @@
 package com.xpn.xwiki.plugin.skinx;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import com.xpn.xwiki.XWikiContext;
@@ -100,6 +101,26 @@ public Set<String> getAlwaysUsedExtensions(XWikiContext context)
         return Collections.emptySet();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A resource extension can be bundled when it is used without parameters. Resources only change when the platform
+     * is upgraded, so the platform version is used as the resource version.
+     * </p>
+     */
+    @Override
+    protected String getBundleVersion(String resourceName, XWikiContext context)
+    {
+        return getParametersForResource(resourceName, context).isEmpty() ? context.getWiki().getVersion() : null;
+    }
+
+    @Override
+    protected String getBundleLink(List<String> resourceNames, String hash, XWikiContext context)
+    {
+        return generateLink(getBundleURL(getAction(), "resource", resourceNames, hash, context),
+            resourceNames.get(0), context);
+    }
+
     /**
      * {@inheritDoc}
      * <p>
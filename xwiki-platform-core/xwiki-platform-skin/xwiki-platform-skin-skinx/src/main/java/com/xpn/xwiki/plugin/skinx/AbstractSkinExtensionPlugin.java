@@ -21,17 +21,21 @@
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.api.Api;
 import com.xpn.xwiki.plugin.XWikiDefaultPlugin;
 import com.xpn.xwiki.plugin.XWikiPluginInterface;
@@ -48,6 +52,12 @@
  * type classname is used. For example, JS extensions are inserted in place of
  * <tt>&lt;!-- com.xpn.xwiki.plugin.skinx.JsSkinExtensionPlugin --&gt;</tt>.
  * </p>
+ * <p>
+ * When bundling is enabled ({@code xwiki.plugin.skinx.bundle=1} in {@code xwiki.cfg}), consecutive extensions which
+ * support it are linked through a single bundle URL instead of one URL each. The bundle URL contains a hash of the
+ * versions of the bundled extensions, so it can be cached for a long time and is shared by all the pages using the
+ * same extensions.
+ * </p>
  * 
  * @see SkinExtensionPluginApi
  * @see JsSkinExtensionPlugin
@@ -57,9 +67,26 @@
  */
 public abstract class AbstractSkinExtensionPlugin extends XWikiDefaultPlugin
 {
+    /**
+     * The name of the preference (in the configuration file) specifying if the extensions should be bundled.
+     * 
+     * @since 4.0M1
+     */
+    public static final String BUNDLE_PARAM = "xwiki.plugin.skinx.bundle";
+
+    /**
+     * The request parameter marking a bundle request; its value is the hash of the bundled extensions versions.
+     * 
+     * @since 4.0M1
+     */
+    protected static final String BUNDLE_REQUEST_PARAMETER = "bundle";
+
     /** Log object to log messages in this class. */
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractSkinExtensionPlugin.class);
 
+    /** The separator of the query string parameters, as written in the XHTML result. */
+    private static final String PARAMETER_SEPARATOR = "&amp;";
+
     /** The name of the context key for the list of pulled extensions. */
     protected final String contextKey = this.getClass().getCanonicalName();
 
@@ -226,12 +253,143 @@ public String getImportString(XWikiContext context)
             extensions.add(context.getDoc().getFullName());
         }
 
-        for (String documentName : extensions) {
-            result.append(getLink(documentName, context));
+        if (isBundlingEnabled(context)) {
+            appendBundledLinks(extensions, result, context);
+        } else {
+            for (String documentName : extensions) {
+                result.append(getLink(documentName, context));
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * @param context the current request context
+     * @return true if the extensions supporting it should be bundled
+     * @since 4.0M1
+     */
+    protected boolean isBundlingEnabled(XWikiContext context)
+    {
+        return "1".equals(context.getWiki().Param(BUNDLE_PARAM, "0"));
+    }
+
+    /**
+     * Append the links to the extensions, grouping the consecutive extensions which can be bundled in a single link so
+     * that the order of the extensions is preserved.
+     * 
+     * @param extensions the extensions to link, in order
+     * @param result where to append the links
+     * @param context the current request context
+     */
+    private void appendBundledLinks(Set<String> extensions, StringBuilder result, XWikiContext context)
+    {
+        List<String> bundle = new ArrayList<String>();
+        StringBuilder versions = new StringBuilder();
+
+        for (String extension : extensions) {
+            String version = getBundleVersion(extension, context);
+            if (version != null) {
+                bundle.add(extension);
+                versions.append(extension).append('@').append(version).append('|');
+            } else {
+                appendBundle(bundle, versions, result, context);
+                result.append(getLink(extension, context));
+            }
+        }
+
+        appendBundle(bundle, versions, result, context);
+    }
+
+    /**
+     * Append the link to a bundle of extensions and reset the bundle.
+     * 
+     * @param bundle the extensions of the bundle
+     * @param versions the versions of the bundled extensions
+     * @param result where to append the link
+     * @param context the current request context
+     */
+    private void appendBundle(List<String> bundle, StringBuilder versions, StringBuilder result,
+        XWikiContext context)
+    {
+        if (bundle.size() == 1) {
+            // No need for a bundle
+            result.append(getLink(bundle.get(0), context));
+        } else if (!bundle.isEmpty()) {
+            versions.append(context.getLanguage());
+            result.append(getBundleLink(bundle, DigestUtils.md5Hex(versions.toString()), context));
+        }
+
+        bundle.clear();
+        versions.setLength(0);
+    }
+
+    /**
+     * Indicate if an extension can be bundled with other extensions of the same type and return its version. An
+     * extension can't be bundled by default.
+     * 
+     * @param resource the name of the extension
+     * @param context the current request context
+     * @return a string which changes each time the content of the extension changes, null if the extension can't be
+     *         bundled
+     * @since 4.0M1
+     */
+    protected String getBundleVersion(String resource, XWikiContext context)
+    {
+        return null;
+    }
+
+    /**
+     * Get the link pointing to a bundle of extensions. Only called for extensions for which
+     * {@link #getBundleVersion(String, XWikiContext)} returned a version.
+     * 
+     * @param resources the names of the bundled extensions, in order
+     * @param hash the hash of the versions of the bundled extensions
+     * @param context the current request context
+     * @return a {@code String} representation of the linking element that should be printed in the generated HTML
+     * @since 4.0M1
+     */
+    protected String getBundleLink(List<String> resources, String hash, XWikiContext context)
+    {
+        StringBuilder result = new StringBuilder();
+        for (String resource : resources) {
+            result.append(getLink(resource, context));
         }
         return result.toString();
     }
 
+    /**
+     * Compute the URL of a bundle of extensions. The bundle is served by the given action on the default page of the
+     * wiki, when the current user can view it, so that the same URL is used by all the pages.
+     * 
+     * @param action the action serving the bundle
+     * @param parameterName the name of the request parameter listing the bundled extensions
+     * @param resources the names of the bundled extensions, in order
+     * @param hash the hash of the versions of the bundled extensions
+     * @param context the current request context
+     * @return the URL of the bundle
+     * @since 4.0M1
+     */
+    protected String getBundleURL(String action, String parameterName, List<String> resources, String hash,
+        XWikiContext context)
+    {
+        String page = context.getWiki().getDefaultSpace(context) + "." + context.getWiki().getDefaultPage(context);
+        try {
+            if (!context.getWiki().getRightService().hasAccessLevel("view", context.getUser(), page, context)) {
+                page = context.getDoc().getFullName();
+            }
+        } catch (XWikiException e) {
+            page = context.getDoc().getFullName();
+        }
+
+        StringBuilder query = new StringBuilder(BUNDLE_REQUEST_PARAMETER).append('=').append(hash);
+        query.append(PARAMETER_SEPARATOR).append("language=").append(sanitize(context.getLanguage()));
+        for (String resource : resources) {
+            query.append(PARAMETER_SEPARATOR).append(parameterName).append('=').append(sanitize(resource));
+        }
+
+        return context.getWiki().getURL(page, action, query.toString(), context);
+    }
+
     /**
      * Get the parameters for a pulled resource. Note that a valid map is always returned, even if no parameters were
      * given when the resource was pulled.
@@ -282,7 +440,7 @@ protected String parametersAsQueryString(String resource, XWikiContext context)
             if ("forceSkinAction".equals(parameter.getKey())) {
                 continue;
             }
-            query.append("&amp;");
+            query.append(PARAMETER_SEPARATOR);
             query.append(sanitize(parameter.getKey()));
             query.append("=");
             query.append(sanitize(parameter.getValue().toString()));
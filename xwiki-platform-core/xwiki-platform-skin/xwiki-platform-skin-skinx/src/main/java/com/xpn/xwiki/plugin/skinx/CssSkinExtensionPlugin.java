@@ -19,6 +19,8 @@
  */
 package com.xpn.xwiki.plugin.skinx;
 
+import java.util.List;
+
 import com.xpn.xwiki.XWikiContext;
 
 /**
@@ -75,6 +77,13 @@ public String getLink(String documentName, XWikiContext context)
                 context) + "'/>";
     }
 
+    @Override
+    protected String getBundleLink(List<String> documentNames, String hash, XWikiContext context)
+    {
+        return "<link rel='stylesheet' type='text/css' href='"
+            + getBundleURL(PLUGIN_NAME, BUNDLE_DOCUMENT_PARAMETER, documentNames, hash, context) + "'/>";
+    }
+
     @Override
     protected String getExtensionClassName()
     {
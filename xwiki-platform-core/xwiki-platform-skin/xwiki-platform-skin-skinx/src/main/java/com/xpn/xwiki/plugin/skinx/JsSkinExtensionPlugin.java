@@ -19,6 +19,8 @@
  */
 package com.xpn.xwiki.plugin.skinx;
 
+import java.util.List;
+
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 
@@ -91,6 +93,20 @@ public String getLink(String documentName, XWikiContext context)
         return result.toString();
     }
 
+    @Override
+    protected String getBundleLink(List<String> documentNames, String hash, XWikiContext context)
+    {
+        StringBuilder result = new StringBuilder("<script type='text/javascript' src='");
+        result.append(getBundleURL(PLUGIN_NAME, BUNDLE_DOCUMENT_PARAMETER, documentNames, hash, context));
+        // Bundled extensions have no parameters, use the default defer configuration
+        String defaultDeferString = context.getWiki().Param(DEFER_DEFAULT_PARAM);
+        if (StringUtils.isEmpty(defaultDeferString) || Boolean.valueOf(defaultDeferString)) {
+            result.append("' defer='defer");
+        }
+        result.append("'></script>\n");
+        return result.toString();
+    }
+
     @Override
     protected String getExtensionClassName()
     {
@@ -20,16 +20,25 @@
 package com.xpn.xwiki.web.sx;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.web.Utils;
 import com.xpn.xwiki.web.XWikiAction;
 import com.xpn.xwiki.web.XWikiRequest;
 import com.xpn.xwiki.web.XWikiResponse;
@@ -65,9 +74,46 @@ public abstract class AbstractSxAction extends XWikiAction
     /** If the user passes this parameter in the URL, we will look for the script in the jar files. */
     private static final String JAR_RESOURCE_REQUEST_PARAMETER = "resource";
 
+    /**
+     * If the user passes this parameter in the URL, we will send the extensions listed in the {@code document} or
+     * {@code resource} parameters as a single bundle. The value of the parameter is only used to make the URL change
+     * when the content of the bundle changes.
+     */
+    private static final String BUNDLE_REQUEST_PARAMETER = "bundle";
+
+    /** The parameter listing the documents of a bundle. */
+    private static final String BUNDLE_DOCUMENT_REQUEST_PARAMETER = "document";
+
     /** If the user specifies this url parameter equals false, we will send uncompressed script content. */
     private static final String COMPRESS_SCRIPT_REQUEST_PARAMETER = "minify";
 
+    /** What http header parameter is used to specify the entity tag of the response. */
+    private static final String ETAG_HEADER = "ETag";
+
+    /** What http header parameter is used by the client to specify the entity tags it already has. */
+    private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+    /** What http header parameter is used by the client to specify the encodings it accepts. */
+    private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+
+    /** What http header parameter is used to specify the request headers the response depends on. */
+    private static final String VARY_HEADER = "Vary";
+
+    /** The encoding of pre-gzipped responses. */
+    private static final String GZIP_ENCODING = "gzip";
+
+    /** The default number of extension outputs kept in the cache. */
+    private static final int DEFAULT_CACHE_SIZE = 500;
+
+    /**
+     * The final output of the extensions which can be cached, see {@link SxDocumentSource#getCacheKey()}. Lazily
+     * created.
+     */
+    private Cache<CachedExtension> cache;
+
+    /** Indicate if the cache could not be created, in which case the output is always computed. */
+    private boolean cacheDisabled;
+
     /** @return the logging object of the concrete subclass. */
     protected abstract Logger getLogger();
 
@@ -86,7 +132,31 @@ public void renderExtension(SxSource sxSource, Extension sxType, XWikiContext co
         XWikiRequest request = context.getRequest();
         XWikiResponse response = context.getResponse();
 
-        String extensionContent = sxSource.getContent();
+        CachePolicy cachePolicy = sxSource.getCachePolicy();
+        boolean compress =
+            BooleanUtils.toBoolean(StringUtils.defaultIfEmpty(request.get(COMPRESS_SCRIPT_REQUEST_PARAMETER), "true"));
+
+        String cacheKey = cachePolicy != CachePolicy.FORBID ? getCacheKey(sxSource, sxType, compress) : null;
+        Cache<CachedExtension> extensionCache = cacheKey != null ? getCache(context) : null;
+        CachedExtension extension = extensionCache != null ? extensionCache.get(cacheKey) : null;
+
+        if (extension == null) {
+            String extensionContent = sxSource.getContent();
+            if (compress) {
+                extensionContent = sxType.getCompressor().compress(extensionContent);
+            }
+
+            try {
+                extension = new CachedExtension(extensionContent.getBytes(RESPONSE_CHARACTER_SET));
+            } catch (IOException ex) {
+                getLogger().warn("Failed to encode SX content: [{}]", ex.getMessage());
+                return;
+            }
+
+            if (extensionCache != null) {
+                extensionCache.set(cacheKey, extension);
+            }
+        }
 
         response.setContentType(sxType.getContentType());
 
@@ -94,8 +164,6 @@ public void renderExtension(SxSource sxSource, Extension sxType, XWikiContext co
             response.setDateHeader(LAST_MODIFIED_HEADER, sxSource.getLastModifiedDate());
         }
 
-        CachePolicy cachePolicy = sxSource.getCachePolicy();
-
         if (cachePolicy != CachePolicy.FORBID) {
             response.setHeader(CACHE_CONTROL_HEADER, "public");
         }
@@ -109,26 +177,140 @@ public void renderExtension(SxSource sxSource, Extension sxType, XWikiContext co
             response.setHeader(CACHE_CONTROL_HEADER, "no-cache, no-store, must-revalidate");
         }
 
-        if (BooleanUtils.toBoolean(StringUtils.defaultIfEmpty(
-            request.get(COMPRESS_SCRIPT_REQUEST_PARAMETER), "true"))) {
-            extensionContent = sxType.getCompressor().compress(extensionContent);
+        // The gzipped content is a different representation of the extension, with its own entity tag
+        boolean gzip = false;
+        if (isGzipEnabled(context)) {
+            response.setHeader(VARY_HEADER, ACCEPT_ENCODING_HEADER);
+            String acceptEncoding = request.getHeader(ACCEPT_ENCODING_HEADER);
+            gzip = acceptEncoding != null && acceptEncoding.contains(GZIP_ENCODING);
+        }
+
+        if (cachePolicy != CachePolicy.FORBID) {
+            String etag = gzip ? extension.getGzippedETag() : extension.getETag();
+            response.setHeader(ETAG_HEADER, etag);
+
+            // The client already has this exact representation
+            if (matches(request.getHeader(IF_NONE_MATCH_HEADER), etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
         }
 
         try {
-            response.setContentLength(extensionContent.getBytes(RESPONSE_CHARACTER_SET).length);
-            response.getOutputStream().write(extensionContent.getBytes(RESPONSE_CHARACTER_SET));
+            byte[] content;
+            if (gzip) {
+                content = extension.getGzippedContent();
+                response.setHeader("Content-Encoding", GZIP_ENCODING);
+            } else {
+                content = extension.getContent();
+            }
+            response.setContentLength(content.length);
+            response.getOutputStream().write(content);
         } catch (IOException ex) {
             getLogger().warn("Failed to send SX content: [{}]", ex.getMessage());
         }
 
     }
 
+    /**
+     * @param ifNoneMatch the value of the {@code If-None-Match} header sent by the client, null if there's none
+     * @param etag the entity tag of the representation being served
+     * @return true if the client already has the representation being served
+     */
+    private boolean matches(String ifNoneMatch, String etag)
+    {
+        if (ifNoneMatch != null) {
+            for (String clientETag : StringUtils.split(ifNoneMatch, ',')) {
+                String tag = clientETag.trim();
+                if ("*".equals(tag) || etag.equals(tag) || etag.equals(StringUtils.removeStart(tag, "W/"))) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param sxSource the source of the extension
+     * @param sxType the type of extension
+     * @param compress whether the output is compressed
+     * @return the key under which the output of the extension is cached, null if it can't be cached
+     */
+    private String getCacheKey(SxSource sxSource, Extension sxType, boolean compress)
+    {
+        String sourceKey = getSourceCacheKey(sxSource);
+
+        return sourceKey != null ? sxType.getClassName() + ':' + compress + ':' + sourceKey : null;
+    }
+
+    /**
+     * @param sxSource the source of the extension
+     * @return the key identifying the content of the source, null if the content can't be cached
+     */
+    private String getSourceCacheKey(SxSource sxSource)
+    {
+        if (sxSource instanceof SxDocumentSource) {
+            return ((SxDocumentSource) sxSource).getCacheKey();
+        } else if (sxSource instanceof SxResourceSource) {
+            return "resource:" + ((SxResourceSource) sxSource).getResourceName();
+        } else if (sxSource instanceof SxBundleSource) {
+            StringBuilder key = new StringBuilder("bundle");
+            for (SxSource source : ((SxBundleSource) sxSource).getSources()) {
+                String sourceKey = getSourceCacheKey(source);
+                if (sourceKey == null) {
+                    return null;
+                }
+                key.append('|').append(sourceKey);
+            }
+            return key.toString();
+        }
+
+        return null;
+    }
+
+    /**
+     * @param context the XWiki context
+     * @return the cache of the extension outputs, null if it could not be created
+     */
+    private synchronized Cache<CachedExtension> getCache(XWikiContext context)
+    {
+        if (this.cache == null && !this.cacheDisabled) {
+            CacheConfiguration configuration = new CacheConfiguration();
+            configuration.setConfigurationId("xwiki.plugin.skinx." + getClass().getSimpleName().toLowerCase());
+            LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+            lru.setMaxEntries((int) context.getWiki().ParamAsLong("xwiki.plugin.skinx.cache.size",
+                DEFAULT_CACHE_SIZE));
+            configuration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+
+            try {
+                this.cache = Utils.getComponent(CacheManager.class).createNewLocalCache(configuration);
+            } catch (CacheException e) {
+                getLogger().error("Failed to create the skin extension cache, the output won't be cached", e);
+                this.cacheDisabled = true;
+            }
+        }
+
+        return this.cache;
+    }
+
+    /**
+     * @param context the XWiki context
+     * @return true if the extensions should be sent gzipped to the clients which accept it
+     */
+    private boolean isGzipEnabled(XWikiContext context)
+    {
+        return "1".equals(context.getWiki().Param("xwiki.plugin.skinx.gzip", "0"));
+    }
+
     @Override
     public String render(XWikiContext context) throws XWikiException
     {
         SxSource sxSource;
 
-        if (context.getRequest().getParameter(JAR_RESOURCE_REQUEST_PARAMETER) != null) {
+        if (context.getRequest().getParameter(BUNDLE_REQUEST_PARAMETER) != null) {
+            sxSource = getBundleSource(context);
+        } else if (context.getRequest().getParameter(JAR_RESOURCE_REQUEST_PARAMETER) != null) {
             sxSource = new SxResourceSource(context.getRequest().getParameter(JAR_RESOURCE_REQUEST_PARAMETER));
         } else {
             if (context.getDoc().isNew()) {
@@ -147,6 +329,39 @@ public String render(XWikiContext context) throws XWikiException
         return null;
     }
 
+    /**
+     * Create the source of a bundle of extensions. The documents the current user is not allowed to view are skipped.
+     * 
+     * @param context the XWiki context
+     * @return the source aggregating the requested extensions
+     * @throws XWikiException when failing to load the requested documents
+     */
+    private SxBundleSource getBundleSource(XWikiContext context) throws XWikiException
+    {
+        List<SxSource> sources = new ArrayList<SxSource>();
+
+        String[] documents = context.getRequest().getParameterValues(BUNDLE_DOCUMENT_REQUEST_PARAMETER);
+        if (documents != null) {
+            for (String documentName : documents) {
+                XWikiDocument document = context.getWiki().getDocument(documentName, context);
+                if (!document.isNew()
+                    && context.getWiki().getRightService().hasAccessLevel("view", context.getUser(),
+                        document.getPrefixedFullName(), context)) {
+                    sources.add(new SxDocumentSource(document, context, getExtensionType()));
+                }
+            }
+        }
+
+        String[] resources = context.getRequest().getParameterValues(JAR_RESOURCE_REQUEST_PARAMETER);
+        if (resources != null) {
+            for (String resourceName : resources) {
+                sources.add(new SxResourceSource(resourceName));
+            }
+        }
+
+        return new SxBundleSource(sources);
+    }
+
     /**
      * Get the type of extension, depends on the type of action.
      * 
@@ -0,0 +1,102 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.web.sx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * The final (compressed if requested) output of a skin extension, as sent to the client, along with its entity tag.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+public class CachedExtension
+{
+    /** The content of the extension, encoded in UTF-8. */
+    private final byte[] content;
+
+    /** The strong entity tag of the content. */
+    private final String etag;
+
+    /** The strong entity tag of the gzipped content, which is a different representation of the content. */
+    private final String gzippedETag;
+
+    /** The gzipped content, computed the first time it is requested. */
+    private volatile byte[] gzippedContent;
+
+    /**
+     * @param content the content of the extension, encoded in UTF-8
+     */
+    public CachedExtension(byte[] content)
+    {
+        this.content = content;
+        String digest = DigestUtils.md5Hex(content);
+        this.etag = '"' + digest + '"';
+        this.gzippedETag = '"' + digest + "-gzip\"";
+    }
+
+    /**
+     * @return the content of the extension, encoded in UTF-8
+     */
+    public byte[] getContent()
+    {
+        return this.content;
+    }
+
+    /**
+     * @return the strong entity tag of the content
+     */
+    public String getETag()
+    {
+        return this.etag;
+    }
+
+    /**
+     * @return the strong entity tag of the gzipped content
+     */
+    public String getGzippedETag()
+    {
+        return this.gzippedETag;
+    }
+
+    /**
+     * @return the gzipped content of the extension
+     * @throws IOException when failing to compress the content
+     */
+    public byte[] getGzippedContent() throws IOException
+    {
+        if (this.gzippedContent == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(this.content.length / 2 + 32);
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            try {
+                gzip.write(this.content);
+            } finally {
+                gzip.close();
+            }
+            this.gzippedContent = out.toByteArray();
+        }
+
+        return this.gzippedContent;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.web.sx;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Source aggregating several skin extensions of the same type, so that they are sent to the client in a single
+ * response. The extensions are concatenated in the order they are given.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+public class SxBundleSource implements SxSource
+{
+    /** Logging helper. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SxBundleSource.class);
+
+    /** The sources of the bundled extensions. */
+    private List<SxSource> sources;
+
+    /**
+     * Constructor of this source.
+     * 
+     * @param sources the sources of the bundled extensions, in the order they should be concatenated
+     */
+    public SxBundleSource(List<SxSource> sources)
+    {
+        this.sources = sources;
+    }
+
+    /**
+     * @return the sources of the bundled extensions
+     */
+    public List<SxSource> getSources()
+    {
+        return this.sources;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The bundle uses the most restrictive cache policy of the bundled extensions.
+     * </p>
+     */
+    @Override
+    public CachePolicy getCachePolicy()
+    {
+        CachePolicy finalCache = CachePolicy.LONG;
+        for (SxSource source : this.sources) {
+            CachePolicy cache = source.getCachePolicy();
+            if (cache.compareTo(finalCache) > 0) {
+                finalCache = cache;
+            }
+        }
+        return finalCache;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If one of the bundled extensions is missing, the whole bundle is reported as missing so that the sx action
+     * returns 404 instead of a partial bundle which would be cached by the clients.
+     * </p>
+     */
+    @Override
+    public String getContent()
+    {
+        StringBuilder resultBuilder = new StringBuilder();
+        for (SxSource source : this.sources) {
+            try {
+                // Also add a newline, in case the different extensions don't end with a blank line.
+                resultBuilder.append(source.getContent()).append('\n');
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("Missing skin extension in bundle: [{}]", getSourceName(source));
+                throw e;
+            }
+        }
+        return resultBuilder.toString();
+    }
+
+    @Override
+    public long getLastModifiedDate()
+    {
+        long lastModifiedDate = 0;
+        for (SxSource source : this.sources) {
+            lastModifiedDate = Math.max(lastModifiedDate, source.getLastModifiedDate());
+        }
+        return lastModifiedDate;
+    }
+
+    /**
+     * @param source a bundled extension
+     * @return a name identifying the extension in the logs
+     */
+    private String getSourceName(SxSource source)
+    {
+        return source instanceof SxResourceSource ? ((SxResourceSource) source).getResourceName() : source.toString();
+    }
+}
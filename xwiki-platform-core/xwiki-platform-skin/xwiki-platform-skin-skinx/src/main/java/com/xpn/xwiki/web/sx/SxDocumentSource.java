@@ -71,9 +71,22 @@ public class SxDocumentSource implements SxSource
      * @param extension The Extension type
      */
     public SxDocumentSource(XWikiContext context, Extension extension)
+    {
+        this(context.getDoc(), context, extension);
+    }
+
+    /**
+     * Constructor for an extension source stored in another document than the current one.
+     * 
+     * @param document the document containing the extension
+     * @param context The XWikiContext
+     * @param extension The Extension type
+     * @since 4.0M1
+     */
+    public SxDocumentSource(XWikiDocument document, XWikiContext context, Extension extension)
     {
         this.context = context;
-        this.document = context.getDoc();
+        this.document = document;
         this.extension = extension;
     }
 
@@ -143,6 +156,28 @@ public String getContent()
         return resultBuilder.toString();
     }
 
+    /**
+     * The output of the extension can be cached only when none of the extension objects is parsed, since the result of
+     * the parsing can depend on the current user, request, language, skin, etc. Such output only depends on the
+     * document version, so a new version of the document automatically uses a new cache entry.
+     * 
+     * @return the key under which the output of this extension can be cached, null if it can't be cached
+     * @since 4.0M1
+     */
+    public String getCacheKey()
+    {
+        if (this.document.getObjects(this.extension.getClassName()) != null) {
+            for (BaseObject sxObj : this.document.getObjects(this.extension.getClassName())) {
+                if (sxObj != null && sxObj.getIntValue(PARSE_CONTENT_PROPERTY_NAME) == 1) {
+                    return null;
+                }
+            }
+        }
+
+        return this.document.getPrefixedFullName() + ':' + this.document.getVersion() + ':'
+            + this.document.getDate().getTime();
+    }
+
     @Override
     public long getLastModifiedDate()
     {
@@ -45,6 +45,15 @@ public SxResourceSource(String resourceName)
         this.resourceName = resourceName;
     }
 
+    /**
+     * @return the full path of the resource to use as extension
+     * @since 4.0M1
+     */
+    public String getResourceName()
+    {
+        return this.resourceName;
+    }
+
     @Override
     public CachePolicy getCachePolicy()
     {
@@ -22,7 +22,12 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.collections.ListUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -131,32 +136,107 @@ public int getEventNumber()
     public List<WatchListEvent> getMatchingEvents(List<String> wikis, List<String> spaces, List<String> documents,
         List<String> users, String userName, XWikiContext context)
     {
-        List<WatchListEvent> matchingEvents = new ArrayList<WatchListEvent>();        
-        WatchListPlugin plugin = (WatchListPlugin) context.getWiki().getPlugin(WatchListPlugin.ID, context);
-        List<String> jobDocumentNames = plugin.getStore().getJobDocumentNames();
-        
+        List<WatchListEvent> matchingEvents = new ArrayList<WatchListEvent>();
+        Set<String> jobDocumentNames = getJobDocumentNames(context);
+
         for (WatchListEvent event : events) {
             if (wikis.contains(event.getWiki()) || spaces.contains(event.getPrefixedSpace())
-                || documents.contains(event.getPrefixedFullName()) 
+                || documents.contains(event.getPrefixedFullName())
                 || ListUtils.intersection(users, event.getAuthors()).size() > 0) {
+                // We exclude watchlist jobs from notifications since they are modified each time they are fired,
+                // producing useless noise.
+                if (!jobDocumentNames.contains(event.getFullName())) {
+                    matchingEvents.add(event);
+                }
+            }
+        }
+
+        return filterViewableEvents(matchingEvents, userName, context);
+    }
+
+    /**
+     * Route the events to the subscribers watching them, in a single pass over the events. The returned events are not
+     * filtered according to the subscribers rights, see {@link #filterViewableEvents(List, String, XWikiContext)}.
+     * 
+     * @param index the elements watched by the subscribers
+     * @param context the XWiki context
+     * @return the events matching the elements watched by each subscriber, for the subscribers with at least one
+     *         matching event
+     * @since 4.0M1
+     */
+    public Map<String, List<WatchListEvent>> getMatchingEvents(WatchListSubscriberIndex index, XWikiContext context)
+    {
+        Map<String, List<WatchListEvent>> matchingEvents = new LinkedHashMap<String, List<WatchListEvent>>();
+        Set<String> jobDocumentNames = getJobDocumentNames(context);
+
+        for (WatchListEvent event : events) {
+            // We exclude watchlist jobs from notifications since they are modified each time they are fired,
+            // producing useless noise.
+            if (jobDocumentNames.contains(event.getFullName())) {
+                continue;
+            }
+
+            for (String subscriber : index.getSubscribers(event.getWiki(), event.getPrefixedSpace(),
+                event.getPrefixedFullName(), event.getAuthors())) {
+                List<WatchListEvent> subscriberEvents = matchingEvents.get(subscriber);
+                if (subscriberEvents == null) {
+                    subscriberEvents = new ArrayList<WatchListEvent>();
+                    matchingEvents.put(subscriber, subscriberEvents);
+                }
+                subscriberEvents.add(event);
+            }
+        }
+
+        return matchingEvents;
+    }
+
+    /**
+     * Keep only the events on documents the user is allowed to view. The rights are checked once per document.
+     * 
+     * @param matchingEvents the events to filter
+     * @param userName notification recipient
+     * @param context the XWiki context
+     * @return the events the user is allowed to view, sorted
+     * @since 4.0M1
+     */
+    public List<WatchListEvent> filterViewableEvents(List<WatchListEvent> matchingEvents, String userName,
+        XWikiContext context)
+    {
+        List<WatchListEvent> viewableEvents = new ArrayList<WatchListEvent>(matchingEvents.size());
+        Map<String, Boolean> rights = new HashMap<String, Boolean>();
+
+        for (WatchListEvent event : matchingEvents) {
+            String document = event.getPrefixedFullName();
+            Boolean allowed = rights.get(document);
+            if (allowed == null) {
                 try {
-                    // We exclude watchlist jobs from notifications since they are modified each time they are fired,
-                    // producing useless noise. We also ensure that users have the right to view documents we send
-                    // notifications for.
-                    if (!jobDocumentNames.contains(event.getFullName()) 
-                        && context.getWiki().getRightService().hasAccessLevel("view", userName, 
-                            event.getPrefixedFullName(), context)) {
-                        matchingEvents.add(event);
-                    }
+                    allowed = context.getWiki().getRightService().hasAccessLevel("view", userName, document, context);
                 } catch (XWikiException e) {
                     // We're in a job, we don't throw exceptions
-                    e.printStackTrace();
+                    LOGGER.error("Failed to check view right of user [{}] on document [{}]",
+                        new Object[] {userName, document, e});
+                    allowed = Boolean.FALSE;
                 }
+                rights.put(document, allowed);
+            }
+            if (allowed) {
+                viewableEvents.add(event);
             }
         }
 
-        Collections.sort(matchingEvents);
+        Collections.sort(viewableEvents);
 
-        return matchingEvents;
+        return viewableEvents;
+    }
+
+    /**
+     * @param context the XWiki context
+     * @return the names of the watchlist job documents
+     */
+    private Set<String> getJobDocumentNames(XWikiContext context)
+    {
+        WatchListPlugin plugin = (WatchListPlugin) context.getWiki().getPlugin(WatchListPlugin.ID, context);
+
+        return new HashSet<String>(plugin.getStore().getJobDocumentNames());
     }
 }
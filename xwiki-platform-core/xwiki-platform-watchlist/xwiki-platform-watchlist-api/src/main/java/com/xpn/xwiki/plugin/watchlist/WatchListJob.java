@@ -21,6 +21,7 @@
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.ServletException;
 
@@ -41,7 +42,6 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.plugin.scheduler.AbstractJob;
-import com.xpn.xwiki.plugin.watchlist.WatchListStore.ElementType;
 import com.xpn.xwiki.web.Utils;
 
 /**
@@ -251,18 +251,22 @@ public void executeJob(JobExecutionContext jobContext) throws JobExecutionExcept
                 return;
             }
 
+            // Index the elements watched by the subscribers so that the events are routed in a single pass
+            WatchListSubscriberIndex index = new WatchListSubscriberIndex();
             for (String subscriber : subscribers) {
                 try {
-                    List<String> wikis =
-                        this.plugin.getStore().getWatchedElements(subscriber, ElementType.WIKI, this.context);
-                    List<String> spaces =
-                        this.plugin.getStore().getWatchedElements(subscriber, ElementType.SPACE, this.context);
-                    List<String> documents =
-                        this.plugin.getStore().getWatchedElements(subscriber, ElementType.DOCUMENT, this.context);
-                    List<String> users =
-                        this.plugin.getStore().getWatchedElements(subscriber, ElementType.USER, this.context);
+                    index.addSubscriber(subscriber, this.plugin.getStore().getWatchedElements(subscriber, this.context));
+                } catch (Exception e) {
+                    LOGGER.error("Failed to get the elements watched by user [{}]", subscriber, e);
+                }
+            }
+
+            for (Map.Entry<String, List<WatchListEvent>> entry : eventMatcher.getMatchingEvents(index, this.context)
+                .entrySet()) {
+                String subscriber = entry.getKey();
+                try {
                     List<WatchListEvent> matchingEvents =
-                        eventMatcher.getMatchingEvents(wikis, spaces, documents, users, subscriber, this.context);
+                        eventMatcher.filterViewableEvents(entry.getValue(), subscriber, this.context);
                     String userWiki = StringUtils.substringBefore(subscriber, WatchListStore.WIKI_SPACE_SEP);
 
                     // If events have occurred on at least one element watched by the user, send the email
@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.watchlist;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.xpn.xwiki.plugin.watchlist.WatchListStore.ElementType;
+
+/**
+ * Inverted index of the elements watched by the subscribers of a job: for each watched wiki, space, document and user,
+ * the subscribers watching it. It allows to route each event to its subscribers in a single pass over the events.
+ * 
+ * @version $Id$
+ * @since 4.0M1
+ */
+public class WatchListSubscriberIndex
+{
+    /**
+     * The subscribers watching each element, by element type.
+     */
+    private final Map<ElementType, Map<String, Set<String>>> subscribers =
+        new EnumMap<ElementType, Map<String, Set<String>>>(ElementType.class);
+
+    /**
+     * Default constructor.
+     */
+    public WatchListSubscriberIndex()
+    {
+        for (ElementType type : ElementType.values()) {
+            this.subscribers.put(type, new HashMap<String, Set<String>>());
+        }
+    }
+
+    /**
+     * Index the elements watched by a subscriber.
+     * 
+     * @param subscriber the subscriber
+     * @param watchedElements the elements watched by the subscriber, by element type
+     */
+    public void addSubscriber(String subscriber, Map<ElementType, List<String>> watchedElements)
+    {
+        for (Map.Entry<ElementType, List<String>> entry : watchedElements.entrySet()) {
+            Map<String, Set<String>> subscribersByElement = this.subscribers.get(entry.getKey());
+            for (String element : entry.getValue()) {
+                Set<String> elementSubscribers = subscribersByElement.get(element);
+                if (elementSubscribers == null) {
+                    elementSubscribers = new LinkedHashSet<String>();
+                    subscribersByElement.put(element, elementSubscribers);
+                }
+                elementSubscribers.add(subscriber);
+            }
+        }
+    }
+
+    /**
+     * @param type the type of the element
+     * @param element the watched element
+     * @return the subscribers watching the element
+     */
+    public Set<String> getSubscribers(ElementType type, String element)
+    {
+        Set<String> elementSubscribers = this.subscribers.get(type).get(element);
+
+        return elementSubscribers != null ? elementSubscribers : Collections.<String> emptySet();
+    }
+
+    /**
+     * Get the subscribers interested in a modification.
+     * 
+     * @param wiki the wiki of the modified document
+     * @param prefixedSpace the space of the modified document, prefixed with its wiki
+     * @param prefixedFullName the full name of the modified document, prefixed with its wiki
+     * @param authors the authors of the modification
+     * @return the subscribers watching the wiki, the space, the document or one of the authors
+     */
+    public Set<String> getSubscribers(String wiki, String prefixedSpace, String prefixedFullName,
+        Collection<String> authors)
+    {
+        Set<String> result = new LinkedHashSet<String>();
+
+        result.addAll(getSubscribers(ElementType.WIKI, wiki));
+        result.addAll(getSubscribers(ElementType.SPACE, prefixedSpace));
+        result.addAll(getSubscribers(ElementType.DOCUMENT, prefixedFullName));
+        for (String author : authors) {
+            result.addAll(getSubscribers(ElementType.USER, author));
+        }
+
+        return result;
+    }
+}
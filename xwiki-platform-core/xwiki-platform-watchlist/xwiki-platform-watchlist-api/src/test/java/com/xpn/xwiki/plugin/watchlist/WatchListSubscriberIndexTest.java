@@ -0,0 +1,71 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.watchlist;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xpn.xwiki.plugin.watchlist.WatchListStore.ElementType;
+
+/**
+ * Validate {@link WatchListSubscriberIndex}.
+ * 
+ * @version $Id$
+ */
+public class WatchListSubscriberIndexTest
+{
+    private Map<ElementType, List<String>> watchedElements(List<String> wikis, List<String> spaces,
+        List<String> documents, List<String> users)
+    {
+        Map<ElementType, List<String>> elements = new EnumMap<ElementType, List<String>>(ElementType.class);
+        elements.put(ElementType.WIKI, wikis);
+        elements.put(ElementType.SPACE, spaces);
+        elements.put(ElementType.DOCUMENT, documents);
+        elements.put(ElementType.USER, users);
+        return elements;
+    }
+
+    @Test
+    public void testGetSubscribers()
+    {
+        List<String> none = Collections.emptyList();
+
+        WatchListSubscriberIndex index = new WatchListSubscriberIndex();
+        index.addSubscriber("xwiki:XWiki.Alice",
+            watchedElements(Arrays.asList("wiki"), none, Arrays.asList("xwiki:Main.WebHome"), none));
+        index.addSubscriber("xwiki:XWiki.Bob",
+            watchedElements(none, Arrays.asList("xwiki:Main"), none, Arrays.asList("xwiki:XWiki.Carol")));
+
+        Assert.assertEquals(Arrays.asList("xwiki:XWiki.Alice", "xwiki:XWiki.Bob"), Arrays.asList(index
+            .getSubscribers("xwiki", "xwiki:Main", "xwiki:Main.WebHome", none).toArray()));
+        Assert.assertEquals(Arrays.asList("xwiki:XWiki.Bob"), Arrays.asList(index
+            .getSubscribers("xwiki", "xwiki:Sandbox", "xwiki:Sandbox.WebHome", Arrays.asList("xwiki:XWiki.Carol"))
+            .toArray()));
+        Assert.assertEquals(Arrays.asList("xwiki:XWiki.Alice"), Arrays.asList(index
+            .getSubscribers("wiki", "wiki:Sandbox", "wiki:Sandbox.WebHome", none).toArray()));
+        Assert.assertTrue(index.getSubscribers("other", "other:Main", "other:Main.WebHome", none).isEmpty());
+    }
+}